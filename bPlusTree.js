@@ -1 +1 @@
-let tree1 = {chart:{container: "#bPlusTreeMap",connectors: {type: "bCurve"},levelSeparation: 100, siblingSeparation: 70, }, nodeStructure: {innerHTML: "6 ==> slave <br> ",children: [{ innerHTML: "2 ==> grandpa <br> 4 ==> mother-in-law <br> ",children: [{ innerHTML: "0 ==> mother <br> 1 ==> father <br> ",children: [] },{ innerHTML: "2 ==> grandpa <br> 3 ==> grandma <br> ",children: [] },{ innerHTML: "4 ==> mother-in-law <br> 5 ==> master <br> ",children: [] },] },{ innerHTML: "8 ==> brother <br> 10 ==> wife <br> 12 ==> cousin <br> ",children: [{ innerHTML: "6 ==> slave <br> 7 ==> sister <br> ",children: [] },{ innerHTML: "8 ==> brother <br> 9 ==> son <br> ",children: [] },{ innerHTML: "10 ==> wife <br> 11 ==> husband <br> ",children: [] },{ innerHTML: "12 ==> cousin <br> 13 ==> ant <br> ",children: [] },] },] }};
\ No newline at end of file
+let tree1 = {chart:{container: "#bPlusTreeMap",connectors: {type: "bCurve"},levelSeparation: 100, siblingSeparation: 70, }, nodeStructure: {innerHTML: "6 <br> ",children: [{ innerHTML: "2 <br> 4 <br> ",children: [{ innerHTML: "0 ==> mother <br> 1 ==> father <br> ",children: [] },{ innerHTML: "2 ==> grandpa <br> 3 ==> grandma <br> ",children: [] },{ innerHTML: "4 ==> mother-in-law <br> 5 ==> master <br> ",children: [] },] },{ innerHTML: "8 <br> 10 <br> 12 <br> ",children: [{ innerHTML: "6 ==> slave <br> 7 ==> sister <br> ",children: [] },{ innerHTML: "8 ==> brother <br> 9 ==> son <br> ",children: [] },{ innerHTML: "10 ==> wife <br> 11 ==> husband <br> ",children: [] },{ innerHTML: "12 ==> cousin <br> 13 ==> ant <br> ",children: [] },] },] }};
\ No newline at end of file
@@ -1,17 +1,29 @@
 package TreantGenerator;
 
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.List;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Класс декларирует базовые методы для генерации структурного кода дерева для Treant.js
- * Полученная на выходе строка не нуждается в обработке и сжатии babel
+ * Полученная на выходе строка не нуждается в обработке и сжатии babel.
+ * Код не собирается в памяти, а пишется потоком в буферизированный {@link Writer}
  */
 public abstract class AbstractTreantGenerator {
 
+    /**
+     * Размер буфера записи
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     /**
      * Контейнер для {@code div} блока
      */
@@ -20,10 +32,6 @@ public abstract class AbstractTreantGenerator {
      * Имя переменной, хранящей структуру дерева
      */
     private String treeType;
-    /**
-     * КОД ГЕНЕРИРУЕТСЯ СЮДА!
-     */
-    protected String code;
     /**
      * Тип сочленений узлов
      */
@@ -40,6 +48,10 @@ public abstract class AbstractTreantGenerator {
      * Путь к JS файлу
      */
     private final String FILE_PATH;
+    /**
+     * Сжимать ли файл gzip
+     */
+    private boolean gzip;
 
     public String getContainer() {
         return container;
@@ -49,6 +61,18 @@ public abstract class AbstractTreantGenerator {
         return treeType;
     }
 
+    public boolean isGzip() {
+        return gzip;
+    }
+
+    /**
+     * Включает сжатие выходного файла gzip
+     * @param gzip true/false
+     */
+    public void setGzip(boolean gzip) {
+        this.gzip = gzip;
+    }
+
     public AbstractTreantGenerator(String container, String treeType, String filePath) {
         this.container = container;
         this.treeType = treeType;
@@ -63,68 +87,115 @@ public abstract class AbstractTreantGenerator {
 
     /**
      * Генерация заголовка
+     * @param out поток вывода
      */
-    protected void generateHeader() {
-        code = "let " + treeType + " = {chart:";
-        code += "{";
-        code += "container: \"#" + container + "\",";
-        code += "connectors: {type: \"" + connectorsType + "\"},";
-        code += "levelSeparation: " + levelSeparation.toString() + ", ";
-        code += "siblingSeparation: " + siblingSeparation.toString() + ", ";
-        code += "}, ";
-        code += "nodeStructure: {";
+    protected void generateHeader(Writer out) throws IOException {
+        out.write("let " + treeType + " = {chart:");
+        out.write("{");
+        out.write("container: \"#" + container + "\",");
+        out.write("connectors: {type: \"" + connectorsType + "\"},");
+        out.write("levelSeparation: " + levelSeparation.toString() + ", ");
+        out.write("siblingSeparation: " + siblingSeparation.toString() + ", ");
+        out.write("}, ");
+        out.write("nodeStructure: {");
     }
 
     /**
      * Генерация "подвала"
+     * @param out поток вывода
      */
-    protected void generateFooter() {
-        code += "}};";
+    protected void generateFooter(Writer out) throws IOException {
+        out.write("}};");
     }
 
     /**
      * Метод создает JS файл со структурой, если такого файла нет, или перезаписывает старый файл со структурой
      * @return файл со структурой
      */
-    protected File createJSFile()  {
-
+    protected File createJSFile() {
         File file = new File(FILE_PATH);
 
-        try {
-            if (file.createNewFile()) {
-                FileWriter fileWriter = new FileWriter(FILE_PATH, false);
-                fileWriter.write(code);
-                fileWriter.flush();
-            }
+        try (Writer out = openWriter(new FileOutputStream(file, false))) {
+            generate(out);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new UncheckedIOException("НЕ УДАЛОСЬ ЗАПИСАТЬ ФАЙЛ " + FILE_PATH, e);
         }
 
         return file;
     }
 
     /**
-     * Метод предназначен для переопределения!
-     * В этом методе происходит пошаговая "сборка" кода файла и запись в файл
-     * @return
+     * Оборачивает поток байт в буферизированный {@link Writer} (со сжатием, если оно включено)
+     * @param stream поток байт
+     * @return поток символов
      */
-    public abstract File generate();
+    private Writer openWriter(OutputStream stream) throws IOException {
+        if (gzip) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
 
     /**
-     * Метод предназначен для переопределения!
-     * Метод генерирует всю необходимую информацию для описания узла
-     * @param label строка меток
-     * @return сгенерированая строка
+     * Пошаговая "сборка" кода: заголовок, структура узлов и "подвал" пишутся в поток вывода
+     * @param out поток вывода
+     */
+    public void generate(Writer out) throws IOException {
+        generateHeader(out);
+        generateNodeStructure(out);
+        generateFooter(out);
+    }
+
+    /**
+     * Генерирует код структуры дерева и записывает его в файл
+     * @return файл со структурой
      */
-    protected abstract String generateNodeView(String label);
+    public File generate() {
+        return createJSFile();
+    }
+
+    /**
+     * Записывает строку как содержимое строкового литерала JavaScript (и JSON) в двойных кавычках
+     * @param out поток вывода
+     * @param text строка
+     */
+    public static void writeEscaped(Writer out, String text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\u2028':
+                    out.write("\\u2028");
+                    break;
+                case '\u2029':
+                    out.write("\\u2029");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+    }
 
     /**
      * Метод предназначен для переопределения!
-     * Метод рекурсивно генерирует всю структуру потомков узла + вложенные узлы
-     * @param nodes лист потомков
-     * @return сгенерированная строка
-     * @throws Exception
+     * Метод рекурсивно генерирует описание корня дерева и всех вложенных узлов
+     * @param out поток вывода
      */
-    protected abstract String generateChildrenArray(List<AbstractTreeTreantNode> nodes) throws Exception;
+    protected abstract void generateNodeStructure(Writer out) throws IOException;
 
 }
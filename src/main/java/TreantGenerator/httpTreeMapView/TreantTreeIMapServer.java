@@ -0,0 +1,390 @@
+package TreantGenerator.httpTreeMapView;
+
+import TreantGenerator.AbstractTreantGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import map.IMap;
+import map.TreeNodeView;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Ленивая визуализация дерева типа IMap через локальный HTTP сервер.
+ * Страница сначала получает только верхние уровни дерева, а потомков узла
+ * запрашивает, когда пользователь раскрывает узел. Узлы с большим количеством ключей
+ * показываются сокращенно, а большие массивы потомков группируются по диапазонам ключей,
+ * поэтому даже дерево из миллионов ключей никогда не выгружается целиком.
+ * <p>
+ * Узел адресуется путем из индексов потомков от корня ({@code 0.3.1}), поэтому адреса
+ * действительны, пока дерево не изменяется. Дерево читается из потока HTTP сервера
+ * под монитором объекта {@code lock}: изменяющий дерево код должен синхронизироваться на нем же
+ */
+public class TreantTreeIMapServer {
+
+    /**
+     * Исходное дерево
+     */
+    private final IMap map;
+    /**
+     * Объект синхронизации доступа к дереву
+     */
+    private final Object lock;
+    /**
+     * Каталог с Treant.js (treant-js-master)
+     */
+    private final Path treantDirectory;
+    /**
+     * Количество уровней, отдаваемых при первой загрузке страницы
+     */
+    private int initialLevels = 3;
+    /**
+     * Количество ключей, начиная с которого узел показывается сокращенно
+     */
+    private int maxKeysPerNode = 16;
+    /**
+     * Количество потомков, начиная с которого потомки группируются по диапазонам ключей
+     */
+    private int maxChildrenPerNode = 32;
+    /**
+     * HTTP сервер, {@code null} если сервер не запущен
+     */
+    private HttpServer server;
+
+    public TreantTreeIMapServer(IMap map, Path treantDirectory) {
+        this(map, map, treantDirectory);
+    }
+
+    public TreantTreeIMapServer(IMap map, Object lock, Path treantDirectory) {
+        this.map = map;
+        this.lock = lock;
+        this.treantDirectory = treantDirectory.toAbsolutePath().normalize();
+    }
+
+    public void setInitialLevels(int initialLevels) {
+        this.initialLevels = Math.max(1, initialLevels);
+    }
+
+    public void setMaxKeysPerNode(int maxKeysPerNode) {
+        this.maxKeysPerNode = Math.max(2, maxKeysPerNode);
+    }
+
+    public void setMaxChildrenPerNode(int maxChildrenPerNode) {
+        this.maxChildrenPerNode = Math.max(2, maxChildrenPerNode);
+    }
+
+    /**
+     * Запускает сервер на петлевом интерфейсе
+     * @param port порт, 0 - выбрать свободный
+     * @return адрес сервера
+     */
+    public synchronized InetSocketAddress start(int port) throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("СЕРВЕР УЖЕ ЗАПУЩЕН");
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", this::handlePage);
+        server.createContext("/tree", this::handleTree);
+        server.createContext("/children", this::handleChildren);
+        server.createContext("/treant/", this::handleStatic);
+        server.start();
+        return server.getAddress();
+    }
+
+    /**
+     * Останавливает сервер
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private void handlePage(HttpExchange exchange) throws IOException {
+        if (!"/".equals(exchange.getRequestURI().getPath())) {
+            send(exchange, 404, "text/plain", "not found");
+            return;
+        }
+        send(exchange, 200, "text/html; charset=utf-8", PAGE);
+    }
+
+    /**
+     * Отдает верхние уровни дерева: {@code /tree?levels=N}
+     */
+    private void handleTree(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        int levels = parseInt(query.get("levels"), initialLevels);
+        StringWriter out = new StringWriter();
+        synchronized (lock) {
+            writeNode(out, map.rootView(), "0", Math.max(1, levels));
+        }
+        send(exchange, 200, "application/json; charset=utf-8", out.toString());
+    }
+
+    /**
+     * Отдает потомков узла: {@code /children?path=0.3&from=0&to=32&levels=1}
+     */
+    private void handleChildren(HttpExchange exchange) throws IOException {
+        Map<String, String> query = parseQuery(exchange);
+        StringWriter out = new StringWriter();
+        synchronized (lock) {
+            TreeNodeView<?, ?> node = resolve(query.get("path"));
+            if (node == null) {
+                send(exchange, 404, "text/plain", "node not found");
+                return;
+            }
+            int from = Math.max(0, parseInt(query.get("from"), 0));
+            int to = Math.min(node.childCount(), parseInt(query.get("to"), node.childCount()));
+            int levels = Math.max(1, parseInt(query.get("levels"), 1));
+            writeChildren(out, node, query.get("path"), from, to, levels);
+        }
+        send(exchange, 200, "application/json; charset=utf-8", out.toString());
+    }
+
+    /**
+     * Отдает файлы Treant.js из каталога {@code treantDirectory}
+     */
+    private void handleStatic(HttpExchange exchange) throws IOException {
+        String relative = exchange.getRequestURI().getPath().substring("/treant/".length());
+        Path file = treantDirectory.resolve(relative).normalize();
+        if (!file.startsWith(treantDirectory) || !Files.isRegularFile(file)) {
+            send(exchange, 404, "text/plain", "not found");
+            return;
+        }
+        String type = file.toString().endsWith(".css") ? "text/css" : "application/javascript";
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(200, Files.size(file));
+        try (OutputStream body = exchange.getResponseBody()) {
+            Files.copy(file, body);
+        }
+    }
+
+    /**
+     * Находит узел по пути из индексов потомков
+     * @param path путь вида {@code 0.3.1}, где первый элемент - корень
+     * @return узел или {@code null}, если путь некорректен
+     */
+    private TreeNodeView<?, ?> resolve(String path) {
+        if (path == null) {
+            return null;
+        }
+        String[] parts = path.split("\\.");
+        if (!"0".equals(parts[0])) {
+            return null;
+        }
+        TreeNodeView<?, ?> node = map.rootView();
+        for (int i = 1; i < parts.length; i++) {
+            int index = parseInt(parts[i], -1);
+            if (index < 0 || index >= node.childCount()) {
+                return null;
+            }
+            node = node.child(index);
+        }
+        return node;
+    }
+
+    /**
+     * Записывает описание узла в формате Treant.js и его потомков на заданное количество уровней.
+     * Потомки следующего уровня не выгружаются: узел помечается как {@code lazy}
+     */
+    private void writeNode(Writer out, TreeNodeView<?, ?> node, String path, int levels) throws IOException {
+        out.write("{\"HTMLid\":\"n");
+        out.write(path);
+        out.write("\",\"path\":\"");
+        out.write(path);
+        out.write("\",\"innerHTML\":\"");
+        writeLabel(out, node);
+        out.write('"');
+        if (node.childCount() > 0) {
+            if (levels > 1) {
+                out.write(",\"children\":");
+                writeChildren(out, node, path, 0, node.childCount(), levels - 1);
+            } else {
+                out.write(",\"lazy\":true,\"HTMLclass\":\"lazy\"");
+            }
+        }
+        out.write('}');
+    }
+
+    /**
+     * Записывает массив потомков узла с индексами [from; to).
+     * Если потомков больше {@code maxChildrenPerNode}, вместо них записываются
+     * группы, подписанные диапазоном ключей, которые раскрываются отдельным запросом
+     */
+    private void writeChildren(Writer out, TreeNodeView<?, ?> node, String path,
+                               int from, int to, int levels) throws IOException {
+        out.write('[');
+        int count = to - from;
+        if (count > maxChildrenPerNode) {
+            int groupSize = (count + maxChildrenPerNode - 1) / maxChildrenPerNode;
+            for (int start = from; start < to; start += groupSize) {
+                int end = Math.min(to, start + groupSize);
+                if (start > from) {
+                    out.write(',');
+                }
+                out.write("{\"HTMLid\":\"n" + path + ":" + start + "-" + end + "\",\"path\":\"" + path
+                        + "\",\"from\":" + start + ",\"to\":" + end + ",\"lazy\":true,\"HTMLclass\":\"lazy range\",");
+                out.write("\"innerHTML\":\"[");
+                AbstractTreantGenerator.writeEscaped(out, start > 0 ? String.valueOf(node.key(start - 1)) : "-∞");
+                out.write("; ");
+                AbstractTreantGenerator.writeEscaped(out,
+                        end - 1 < node.keyCount() ? String.valueOf(node.key(end - 1)) : "+∞");
+                out.write(") <br> " + (end - start) + " поддеревьев\"}");
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                if (i > from) {
+                    out.write(',');
+                }
+                writeNode(out, node.child(i), path + "." + i, levels);
+            }
+        }
+        out.write(']');
+    }
+
+    /**
+     * Записывает подпись узла. Если ключей больше {@code maxKeysPerNode},
+     * записываются только диапазон, первые и последние пары ключ-значение
+     */
+    private void writeLabel(Writer out, TreeNodeView<?, ?> node) throws IOException {
+        int keys = node.keyCount();
+        if (keys <= maxKeysPerNode) {
+            for (int i = 0; i < keys; i++) {
+                writeEntry(out, node, i);
+            }
+            return;
+        }
+        out.write("[");
+        AbstractTreantGenerator.writeEscaped(out, String.valueOf(node.key(0)));
+        out.write(" .. ");
+        AbstractTreantGenerator.writeEscaped(out, String.valueOf(node.key(keys - 1)));
+        out.write("] " + keys + " ключей <br> ");
+        int edge = Math.max(1, maxKeysPerNode / 4);
+        for (int i = 0; i < edge; i++) {
+            writeEntry(out, node, i);
+        }
+        out.write("... <br> ");
+        for (int i = keys - edge; i < keys; i++) {
+            writeEntry(out, node, i);
+        }
+    }
+
+    private static void writeEntry(Writer out, TreeNodeView<?, ?> node, int index) throws IOException {
+        AbstractTreantGenerator.writeEscaped(out, String.valueOf(node.key(index)));
+        if (node.hasValues()) {
+            out.write(" ==> ");
+            AbstractTreantGenerator.writeEscaped(out, String.valueOf(node.value(index)));
+        }
+        out.write(" <br> ");
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) throws IOException {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Страница визуализации: загружает верхние уровни, по щелчку на узел с пометкой
+     * {@code lazy} запрашивает его потомков, по повторному щелчку сворачивает узел
+     */
+    private static final String PAGE = "<!DOCTYPE html>\n"
+            + "<html lang=\"en\">\n"
+            + "<head>\n"
+            + "    <meta charset=\"UTF-8\">\n"
+            + "    <title>Visualisation</title>\n"
+            + "    <link rel=\"stylesheet\" href=\"treant/Treant.css\" type=\"text/css\"/>\n"
+            + "    <style>.node { cursor: pointer; border: 1px solid #999; padding: 2px; background: #fff; }"
+            + " .lazy { background: #eef; } .range { font-style: italic; }</style>\n"
+            + "</head>\n"
+            + "<body>\n"
+            + "<div class=\"chart\" id=\"tree\"></div>\n"
+            + "<script src=\"treant/vendor/raphael.js\"></script>\n"
+            + "<script src=\"treant/Treant.js\"></script>\n"
+            + "<script>\n"
+            + "    let root, chart, byId = {};\n"
+            + "    function index(node) {\n"
+            + "        byId[node.HTMLid] = node;\n"
+            + "        (node.children || []).forEach(index);\n"
+            + "    }\n"
+            + "    function render() {\n"
+            + "        if (chart) chart.destroy();\n"
+            + "        byId = {};\n"
+            + "        index(root);\n"
+            + "        chart = new Treant({chart: {container: '#tree', connectors: {type: 'bCurve'},\n"
+            + "            levelSeparation: 60, siblingSeparation: 30}, nodeStructure: root}, function () {\n"
+            + "            Object.keys(byId).forEach(function (id) {\n"
+            + "                let element = document.getElementById(id);\n"
+            + "                if (element) element.onclick = function () { toggle(byId[id]); };\n"
+            + "            });\n"
+            + "        });\n"
+            + "    }\n"
+            + "    function toggle(node) {\n"
+            + "        if (node._hidden) {\n"
+            + "            node.children = node._hidden;\n"
+            + "            delete node._hidden;\n"
+            + "            render();\n"
+            + "        } else if (node.children) {\n"
+            + "            node._hidden = node.children;\n"
+            + "            delete node.children;\n"
+            + "            render();\n"
+            + "        } else if (node.lazy) {\n"
+            + "            let url = 'children?path=' + node.path;\n"
+            + "            if (node.from !== undefined) url += '&from=' + node.from + '&to=' + node.to;\n"
+            + "            fetch(url).then(function (r) { return r.json(); }).then(function (children) {\n"
+            + "                node.children = children;\n"
+            + "                node.lazy = false;\n"
+            + "                node.HTMLclass = (node.HTMLclass || '').replace('lazy', '');\n"
+            + "                render();\n"
+            + "            });\n"
+            + "        }\n"
+            + "    }\n"
+            + "    fetch('tree').then(function (r) { return r.json(); }).then(function (tree) {\n"
+            + "        root = tree;\n"
+            + "        render();\n"
+            + "    });\n"
+            + "</script>\n"
+            + "</body>\n"
+            + "</html>\n";
+}
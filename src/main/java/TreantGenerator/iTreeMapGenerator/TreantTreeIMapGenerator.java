@@ -1,15 +1,17 @@
 package TreantGenerator.iTreeMapGenerator;
 
 import TreantGenerator.AbstractTreantGenerator;
-import TreantGenerator.AbstractTreeTreantNode;
 import map.IMap;
+import map.TreeNodeView;
 
-import java.io.File;
-import java.util.List;
+import java.io.IOException;
+import java.io.Writer;
 
 /**
  * Реализует класс для постройки кода структуры дерева.
- * Предназначен для обрабтки деревьев типа IMap
+ * Предназначен для обрабтки деревьев типа IMap.
+ * Узлы обходятся через {@link TreeNodeView} и сразу пишутся в поток,
+ * поэтому время генерации линейно, а дополнительная память ограничена глубиной дерева
  * @see AbstractTreantGenerator
  */
 public class TreantTreeIMapGenerator extends AbstractTreantGenerator {
@@ -18,10 +20,6 @@ public class TreantTreeIMapGenerator extends AbstractTreantGenerator {
      * Исходное дерево
      */
     IMap map;
-    /**
-     * Сгенерированное структурное дерево
-     */
-    TreeTreantNode head;
 
     public TreantTreeIMapGenerator(IMap map, String container, String treeType, String filePath) {
         super(container, treeType, filePath);
@@ -34,49 +32,53 @@ public class TreantTreeIMapGenerator extends AbstractTreantGenerator {
         this.map = map;
     }
 
-    /**
-     * Процесс конвертации возложен на сами структуры
-     */
-    private void convertIMapToTreantTree() {
-        head = map.toTreantNode();
-    }
-
     @Override
-    protected String generateNodeView(String label) {
-        return "innerHTML: \"" + label + "\",";
+    protected void generateNodeStructure(Writer out) throws IOException {
+        generateNode(out, map.rootView());
     }
 
-    @Override
-    protected String generateChildrenArray(List<AbstractTreeTreantNode> nodes) {
-        {
-            String code;
-
-
-            code = "children: [";
+    /**
+     * Генерирует описание узла и рекурсивно всех его потомков
+     * @param out поток вывода
+     * @param node узел
+     */
+    private void generateNode(Writer out, TreeNodeView<?, ?> node) throws IOException {
+        generateNodeView(out, node);
+        generateChildrenArray(out, node);
+    }
 
-            if (nodes != null) {
-                for (int i = 0; i < nodes.size(); i++) {
-                    code += "{ ";
-                    code += generateNodeView(nodes.get(i).nodeView);
-                    code += generateChildrenArray(nodes.get(i).nodes);
-                    code += "},";
-                }
+    /**
+     * Генерирует всю необходимую информацию для описания узла: пары ключ-значение
+     * (или только ключи, если узел не хранит значений)
+     * @param out поток вывода
+     * @param node узел
+     */
+    protected void generateNodeView(Writer out, TreeNodeView<?, ?> node) throws IOException {
+        out.write("innerHTML: \"");
+        for (int i = 0; i < node.keyCount(); i++) {
+            writeEscaped(out, String.valueOf(node.key(i)));
+            if (node.hasValues()) {
+                out.write(" ==> ");
+                writeEscaped(out, String.valueOf(node.value(i)));
             }
-            code += "] ";
-
-            return code;
+            out.write(" <br> ");
         }
+        out.write("\",");
     }
 
-    @Override
-    public File generate() {
-        convertIMapToTreantTree();
-        generateHeader();
-        code += generateNodeView(head.nodeView);
-        code += generateChildrenArray(head.nodes);
-        generateFooter();
-        return createJSFile();
+    /**
+     * Рекурсивно генерирует массив потомков узла
+     * @param out поток вывода
+     * @param node узел
+     */
+    protected void generateChildrenArray(Writer out, TreeNodeView<?, ?> node) throws IOException {
+        out.write("children: [");
+        for (int i = 0; i < node.childCount(); i++) {
+            out.write("{ ");
+            generateNode(out, node.child(i));
+            out.write("},");
+        }
+        out.write("] ");
     }
 
-
 }
@@ -1,15 +0,0 @@
-package TreantGenerator.iTreeMapGenerator;
-
-import TreantGenerator.AbstractTreeTreantNode;
-
-import java.util.List;
-
-public class TreeTreantNode extends AbstractTreeTreantNode {
-
-    public TreeTreantNode(String nodeView, List<AbstractTreeTreantNode> nodes) {
-        super(nodeView, nodes);
-    }
-
-    public TreeTreantNode() {
-    }
-}
@@ -0,0 +1,249 @@
+package TreantGenerator.traceReplay;
+
+import TreantGenerator.AbstractTreantGenerator;
+import map.trace.StructureEvent;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Превращает трассу структурных событий дерева в пошаговую анимацию для Treant.js.
+ * По событиям восстанавливается наблюдаемая часть структуры (узлы, затронутые событиями,
+ * и известные связи родитель-потомок), и для каждого события генерируется кадр: окрестность
+ * события (родитель, его известные потомки и внуки) с подсвеченными участниками.
+ * <p>
+ * Кроме переменной с конфигурацией дерева генерируются массив кадров {@code <treeType>_frames}
+ * и проигрыватель {@code <treeType>_player}: {@code <treeType>_player.play(1000)} показывает кадры
+ * с заданным интервалом, подпись события выводится в элемент с id {@code <container>-caption}
+ */
+public class TreantTraceReplayGenerator extends AbstractTreantGenerator {
+
+    /**
+     * Узел восстановленной структуры
+     */
+    private static final class ReplayNode {
+        final int id;
+        Object low;
+        Object high;
+        int parent;
+        final List<Integer> children = new ArrayList<>();
+
+        ReplayNode(int id) {
+            this.id = id;
+        }
+    }
+
+    /**
+     * Исходные события
+     */
+    private final List<StructureEvent> events;
+    /**
+     * Максимальное количество кадров (генерируются кадры последних событий)
+     */
+    private int maxFrames = 1000;
+    /**
+     * Восстановленные узлы по идентификатору
+     */
+    private final Map<Integer, ReplayNode> nodes = new HashMap<>();
+    /**
+     * Последний разлом корня: корень и его новый правый сосед, ожидающие нового корня
+     */
+    private int pendingSplitNode;
+    private int pendingSplitSibling;
+
+    public TreantTraceReplayGenerator(List<StructureEvent> events, String container, String treeType, String filePath) {
+        super(container, treeType, filePath);
+        this.events = events;
+    }
+
+    public TreantTraceReplayGenerator(List<StructureEvent> events, String container, String filePath) {
+        super(container, filePath);
+        this.events = events;
+    }
+
+    public void setMaxFrames(int maxFrames) {
+        this.maxFrames = Math.max(1, maxFrames);
+    }
+
+    @Override
+    public void generate(Writer out) throws IOException {
+        super.generate(out);
+        String treeType = getTreeType();
+
+        nodes.clear();
+        pendingSplitNode = 0;
+        pendingSplitSibling = 0;
+        int firstFrame = Math.max(0, events.size() - maxFrames);
+        out.write("\nlet " + treeType + "_frames = [");
+        for (int i = 0; i < events.size(); i++) {
+            StructureEvent event = events.get(i);
+            apply(event);
+            if (i >= firstFrame) {
+                generateFrame(out, event);
+            }
+        }
+        out.write("];\n");
+
+        out.write("let " + treeType + "_player = {frame: 0, chart: null, timer: null, ");
+        out.write("show: function (i) { if (this.chart) this.chart.destroy(); this.frame = i; ");
+        out.write("let f = " + treeType + "_frames[i]; " + treeType + ".nodeStructure = f.nodeStructure; ");
+        out.write("this.chart = new Treant(" + treeType + "); ");
+        out.write("let c = document.getElementById(\"" + getContainer() + "-caption\"); if (c) c.textContent = f.caption; }, ");
+        out.write("play: function (intervalMs) { let self = this; if (self.timer) clearInterval(self.timer); ");
+        out.write("if (" + treeType + "_frames.length === 0) return; self.show(0); ");
+        out.write("self.timer = setInterval(function () { if (self.frame + 1 >= " + treeType + "_frames.length) ");
+        out.write("{ clearInterval(self.timer); return; } self.show(self.frame + 1); }, intervalMs || 1000); }};\n");
+    }
+
+    @Override
+    protected void generateNodeStructure(Writer out) throws IOException {
+        out.write("innerHTML: \"trace: " + events.size() + " events\", children: [] ");
+    }
+
+    /**
+     * Применяет событие к восстановленной структуре
+     * @param event событие
+     */
+    private void apply(StructureEvent event) {
+        ReplayNode node = node(event.getNodeId(), event.getNodeLow(), event.getNodeHigh());
+        ReplayNode sibling = node(event.getSiblingId(), event.getSiblingLow(), event.getSiblingHigh());
+        ReplayNode parent = event.getParentId() == 0 ? null : nodes.computeIfAbsent(event.getParentId(), ReplayNode::new);
+
+        switch (event.getType()) {
+            case SPLIT:
+                if (parent == null) {
+                    pendingSplitNode = node.id;
+                    pendingSplitSibling = sibling.id;
+                } else {
+                    link(parent, node);
+                    unlink(sibling);
+                    parent.children.add(parent.children.indexOf(node.id) + 1, sibling.id);
+                    sibling.parent = parent.id;
+                }
+                break;
+            case MERGE:
+                if (parent != null) {
+                    link(parent, node);
+                }
+                unlink(sibling);
+                for (int child : sibling.children) {
+                    ReplayNode childNode = nodes.get(child);
+                    if (childNode != null) {
+                        node.children.add(child);
+                        childNode.parent = node.id;
+                    }
+                }
+                nodes.remove(sibling.id);
+                break;
+            case BORROW_LEFT:
+            case BORROW_RIGHT:
+                if (parent != null) {
+                    link(parent, node);
+                    if (sibling.parent != parent.id) {
+                        unlink(sibling);
+                        int index = parent.children.indexOf(node.id);
+                        parent.children.add(event.getType() == StructureEvent.Type.BORROW_LEFT ? index : index + 1, sibling.id);
+                        sibling.parent = parent.id;
+                    }
+                }
+                break;
+            case ROOT_CHANGE:
+                if (pendingSplitNode == sibling.id || node.children.contains(sibling.id)) {
+                    link(node, sibling);
+                    if (pendingSplitNode == sibling.id && nodes.containsKey(pendingSplitSibling)) {
+                        link(node, nodes.get(pendingSplitSibling));
+                    }
+                } else {
+                    unlink(node);
+                    nodes.remove(sibling.id);
+                }
+                pendingSplitNode = 0;
+                pendingSplitSibling = 0;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private ReplayNode node(int id, Object low, Object high) {
+        ReplayNode node = nodes.computeIfAbsent(id, ReplayNode::new);
+        node.low = low;
+        node.high = high;
+        return node;
+    }
+
+    /**
+     * Связывает узел с родителем, если связь еще не известна.
+     * Потомок вставляется по порядку первых ключей
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void link(ReplayNode parent, ReplayNode child) {
+        if (child.parent == parent.id && parent.children.contains(child.id)) {
+            return;
+        }
+        unlink(child);
+        int index = parent.children.size();
+        if (child.low instanceof Comparable) {
+            for (int i = 0; i < parent.children.size(); i++) {
+                ReplayNode sibling = nodes.get(parent.children.get(i));
+                Object low = sibling == null ? null : sibling.low;
+                if (low != null && low.getClass() == child.low.getClass()
+                        && ((Comparable) child.low).compareTo(low) < 0) {
+                    index = i;
+                    break;
+                }
+            }
+        }
+        parent.children.add(index, child.id);
+        child.parent = parent.id;
+    }
+
+    private void unlink(ReplayNode child) {
+        ReplayNode parent = nodes.get(child.parent);
+        if (parent != null) {
+            parent.children.remove(Integer.valueOf(child.id));
+        }
+        child.parent = 0;
+    }
+
+    /**
+     * Генерирует кадр: окрестность события с подсвеченными участниками
+     */
+    private void generateFrame(Writer out, StructureEvent event) throws IOException {
+        int frameRoot = event.getParentId() != 0 && nodes.containsKey(event.getParentId())
+                ? event.getParentId()
+                : event.getNodeId();
+        out.write("{caption: \"");
+        writeEscaped(out, event.toString());
+        out.write("\", nodeStructure: {");
+        generateReplayNode(out, nodes.get(frameRoot), event, 2);
+        out.write("}},");
+    }
+
+    private void generateReplayNode(Writer out, ReplayNode node, StructureEvent event, int depth) throws IOException {
+        out.write("innerHTML: \"");
+        writeEscaped(out, Integer.toHexString(node.id) + " <br> [" + node.low + " .. " + node.high + "]");
+        out.write("\",");
+        if (node.id == event.getNodeId()) {
+            out.write("HTMLclass: \"event-node\",");
+        } else if (node.id == event.getSiblingId()) {
+            out.write("HTMLclass: \"event-sibling\",");
+        }
+        out.write("children: [");
+        if (depth > 0) {
+            for (int child : node.children) {
+                ReplayNode childNode = nodes.get(child);
+                if (childNode != null) {
+                    out.write("{ ");
+                    generateReplayNode(out, childNode, event, depth - 1);
+                    out.write("},");
+                }
+            }
+        }
+        out.write("] ");
+    }
+}
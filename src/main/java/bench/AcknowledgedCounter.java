@@ -0,0 +1,67 @@
+package bench;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Счетчик вставленных записей для выбора ключей (как acknowledged counter в YCSB).
+ * Номера вставок раздаются по порядку, но вставки завершаются в произвольном порядке:
+ * запись {@code n} может закончиться раньше, чем более медленный поток вставит {@code n - 1}.
+ * Счетчик выдает длину непрерывного префикса подтвержденных номеров, поэтому операции
+ * чтения и обновления выбирают только записи, которые уже есть в хранилище.
+ * <p>
+ * Подтвержденные номера отмечаются в кольцевом окне; префикс продвигает тот поток,
+ * которому удалось взять блокировку, остальные не ждут
+ */
+final class AcknowledgedCounter {
+
+    /**
+     * Размер окна: наибольший разрыв между префиксом и подтверждаемым номером
+     */
+    private static final int WINDOW = 1 << 16;
+
+    private final AtomicIntegerArray acknowledged = new AtomicIntegerArray(WINDOW);
+    private final ReentrantLock lock = new ReentrantLock();
+    /**
+     * Все номера меньше этого подтверждены
+     */
+    private volatile long limit;
+
+    /**
+     * @param initial количество записей, вставленных до начала нагрузки
+     */
+    AcknowledgedCounter(long initial) {
+        this.limit = initial;
+    }
+
+    /**
+     * Количество записей, все номера которых подтверждены
+     */
+    long get() {
+        return limit;
+    }
+
+    /**
+     * Подтверждает завершение вставки записи
+     * @param recordNumber номер вставленной записи, не меньше текущего префикса
+     */
+    void acknowledge(long recordNumber) {
+        if (recordNumber - limit >= WINDOW) {
+            throw new IllegalStateException("РАЗРЫВ ПОДТВЕРЖДЕННЫХ ВСТАВОК БОЛЬШЕ ОКНА: " + recordNumber + " ПРИ " + limit);
+        }
+        acknowledged.set((int) (recordNumber & (WINDOW - 1)), 1);
+        // поток, отпустивший блокировку, мог не увидеть эту отметку - тогда префикс продвигается здесь
+        while (acknowledged.get((int) (limit & (WINDOW - 1))) == 1 && lock.tryLock()) {
+            try {
+                long next = limit;
+                while (acknowledged.get((int) (next & (WINDOW - 1))) == 1) {
+                    acknowledged.set((int) (next & (WINDOW - 1)), 0);
+                    next++;
+                }
+                limit = next;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
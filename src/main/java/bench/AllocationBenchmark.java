@@ -0,0 +1,202 @@
+package bench;
+
+import map.BPlusTreeMap;
+import map.BTreeMap;
+import map.IMap;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Замер выделения памяти в устоявшемся режиме с пулом узлов и без него.
+ * Дерево заполняется половиной заранее созданных ключей, затем каждая операция
+ * удаляет случайный имеющийся ключ и вставляет случайный отсутствующий - размер дерева
+ * не меняется, а разломы и слияния идут постоянно. Выделенные потоком байты считаются
+ * через {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes}, рядом
+ * выводится количество сборок мусора за время замера.
+ * <p>
+ * Результат - таблица Markdown. Параметры:
+ * {@code --size=100000 --ops=2000000 --degrees=4,16,64 --pool=256 --out=alloc.md}
+ */
+public class AllocationBenchmark {
+
+    private static final int[] DEFAULT_DEGREES = {4, 16, 64, 256};
+
+    /**
+     * Результат замера одной конфигурации
+     */
+    private static final class Measurement {
+        final double bytesPerOperation;
+        final long gcCount;
+        final double nanosPerOperation;
+
+        Measurement(double bytesPerOperation, long gcCount, double nanosPerOperation) {
+            this.bytesPerOperation = bytesPerOperation;
+            this.gcCount = gcCount;
+            this.nanosPerOperation = nanosPerOperation;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int size = 100_000;
+        int operations = 2_000_000;
+        int pool = 256;
+        int[] degrees = DEFAULT_DEGREES;
+        String out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                size = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--ops=")) {
+                operations = Integer.parseInt(arg.substring("--ops=".length()));
+            } else if (arg.startsWith("--pool=")) {
+                pool = Integer.parseInt(arg.substring("--pool=".length()));
+            } else if (arg.startsWith("--degrees=")) {
+                String[] parts = arg.substring("--degrees=".length()).split(",");
+                degrees = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    degrees[i] = Integer.parseInt(parts[i].trim());
+                }
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+        }
+
+        String report = run(size, operations, degrees, pool);
+        System.out.println(report);
+        if (out != null) {
+            Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Выполняет все замеры
+     * @param size размер дерева
+     * @param operations количество операций (удаление + вставка) в замере
+     * @param degrees степени деревьев
+     * @param pool размер пула узлов каждого вида
+     * @return отчет в формате Markdown
+     */
+    public static String run(int size, int operations, int[] degrees, int pool) {
+        com.sun.management.ThreadMXBean threads = threadMXBean();
+        Integer[] keys = new Integer[2 * size];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i;
+        }
+
+        // прогрев: компиляция горячих путей не должна попасть в замер
+        measure(threads, keys, Math.min(size, 10_000), operations / 4, () -> new BPlusTreeMap<>(16), pool);
+        measure(threads, keys, Math.min(size, 10_000), operations / 4, () -> new BTreeMap<>(8), pool);
+
+        StringBuilder table = new StringBuilder();
+        table.append("| Структура | Степень | Без пула, байт/оп | С пулом, байт/оп | GC без пула | GC с пулом | нс/оп без пула | нс/оп с пулом |\n");
+        table.append("| --- | --- | --- | --- | --- | --- | --- | --- |\n");
+        for (int degree : degrees) {
+            row(table, "BPlusTreeMap", degree, threads, keys, size, operations, BPlusTreeMap::new, pool);
+            row(table, "BTreeMap", degree, threads, keys, size, operations, BTreeMap::new, pool);
+        }
+
+        return String.format(Locale.ROOT, "Выделение памяти на операцию (удаление + вставка), %d записей, %d операций, "
+                + "пул %d узлов каждого вида%n%n%s", size, operations, pool, table);
+    }
+
+    private static void row(StringBuilder table, String name, int degree, com.sun.management.ThreadMXBean threads,
+                            Integer[] keys, int size, int operations, IntFunction<IMap> factory, int pool) {
+        Measurement plain = measure(threads, keys, size, operations, () -> factory.apply(degree), 0);
+        Measurement pooled = measure(threads, keys, size, operations, () -> factory.apply(degree), pool);
+        table.append(String.format(Locale.ROOT, "| %s | %d | %.1f | %.1f | %d | %d | %.0f | %.0f |%n",
+                name, degree, plain.bytesPerOperation, pooled.bytesPerOperation,
+                plain.gcCount, pooled.gcCount, plain.nanosPerOperation, pooled.nanosPerOperation));
+    }
+
+    /**
+     * Один замер. Ключи {@code keys[0..2 * size)} делятся на имеющиеся в дереве и отсутствующие,
+     * операция меняет случайную пару местами; сам цикл ничего не выделяет
+     * @param pool размер пула или 0, если пул не включается
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Measurement measure(com.sun.management.ThreadMXBean threads, Integer[] keys, int size,
+                                       int operations, Supplier<IMap> factory, int pool) {
+        IMap map = factory.get();
+        if (pool > 0) {
+            if (map instanceof BPlusTreeMap) {
+                ((BPlusTreeMap) map).enableNodePool(pool);
+            } else {
+                ((BTreeMap) map).enableNodePool(pool);
+            }
+        }
+
+        // present[0..size) - индексы ключей в дереве, present[size..2 * size) - отсутствующих
+        int[] present = new int[2 * size];
+        for (int i = 0; i < present.length; i++) {
+            present[i] = i;
+        }
+        Random random = new Random(42);
+        for (int i = present.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = present[i];
+            present[i] = present[j];
+            present[j] = tmp;
+        }
+        for (int i = 0; i < size; i++) {
+            map.put(keys[present[i]], Boolean.TRUE);
+        }
+        // разгон: пул наполняется, списки узлов достигают рабочей емкости
+        churn(map, keys, present, size, operations / 4, random);
+
+        long threadId = Thread.currentThread().getId();
+        long gcBefore = gcCount();
+        long allocatedBefore = threads.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        churn(map, keys, present, size, operations, random);
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        long gc = gcCount() - gcBefore;
+
+        if (map.size() != size) {
+            throw new IllegalStateException("НЕВЕРНЫЙ РАЗМЕР: " + map.size());
+        }
+        return new Measurement((double) allocated / operations, gc, (double) elapsed / operations);
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static void churn(IMap map, Integer[] keys, int[] present, int size, int operations, Random random) {
+        for (int i = 0; i < operations; i++) {
+            int removed = random.nextInt(size);
+            int added = size + random.nextInt(size);
+            map.remove(keys[present[removed]]);
+            map.put(keys[present[added]], Boolean.TRUE);
+            int tmp = present[removed];
+            present[removed] = present[added];
+            present[added] = tmp;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            throw new UnsupportedOperationException("JVM НЕ ПОДДЕРЖИВАЕТ ПОДСЧЕТ ВЫДЕЛЕННОЙ ПАМЯТИ");
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+}
@@ -0,0 +1,158 @@
+package bench;
+
+import map.BPlusTreeMap;
+import map.FrozenMap;
+import map.IMap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Замер {@link FrozenMap} против исходной {@link BPlusTreeMap}: поиск ({@code get}) случайных
+ * имеющихся ключей, выборка коротких диапазонов и память структуры. Ключи {@link Long} со случайными
+ * промежутками от 1 до 100 вставляются по возрастанию, поэтому листья дерева заполнены почти полностью -
+ * лучший для изменяемого дерева случай.
+ * <p>
+ * Результат - таблица Markdown. Параметры:
+ * {@code --size=10000000 --lookups=2000000 --scan=100 --degrees=64,256 --out=frozen.md}
+ */
+public class FrozenBenchmark {
+
+    private static final int[] DEFAULT_DEGREES = {64, 256};
+
+    /**
+     * Количество замеров каждой структуры
+     */
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int size = 10_000_000;
+        int lookups = 2_000_000;
+        int scan = 100;
+        int[] degrees = DEFAULT_DEGREES;
+        String out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                size = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--lookups=")) {
+                lookups = Integer.parseInt(arg.substring("--lookups=".length()));
+            } else if (arg.startsWith("--scan=")) {
+                scan = Integer.parseInt(arg.substring("--scan=".length()));
+            } else if (arg.startsWith("--degrees=")) {
+                String[] parts = arg.substring("--degrees=".length()).split(",");
+                degrees = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    degrees[i] = Integer.parseInt(parts[i].trim());
+                }
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+        }
+
+        String report = run(size, lookups, scan, degrees);
+        System.out.println(report);
+        if (out != null) {
+            Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Выполняет все замеры
+     * @param size количество ключей
+     * @param lookups количество поисков и выборок в замере
+     * @param scan длина выборки
+     * @param degrees степени дерева
+     * @return отчет в формате Markdown
+     */
+    public static String run(int size, int lookups, int scan, int[] degrees) {
+        Random random = new Random(42);
+        Long[] keys = new Long[size];
+        long key = 0;
+        for (int i = 0; i < size; i++) {
+            key += 1 + random.nextInt(100);
+            keys[i] = key;
+        }
+        Long[] queries = new Long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            queries[i] = keys[random.nextInt(size)];
+        }
+
+        StringBuilder table = new StringBuilder();
+        table.append("| Структура | get, нс | Выборка, нс на пару | Байт на запись |\n");
+        table.append("| --- | --- | --- | --- |\n");
+        for (int degree : degrees) {
+            BPlusTreeMap<Long, Boolean> map = new BPlusTreeMap<>(degree);
+            for (Long k : keys) {
+                map.put(k, Boolean.TRUE);
+            }
+            FrozenMap<Long, Boolean> frozen = map.freeze();
+
+            double[] tree = {Double.MAX_VALUE, Double.MAX_VALUE};
+            double[] packed = {Double.MAX_VALUE, Double.MAX_VALUE};
+            // структуры чередуются, берется лучший из замеров: первый проход также служит прогревом
+            for (int round = 0; round < ROUNDS; round++) {
+                tree[0] = Math.min(tree[0], measureGet(map, queries));
+                packed[0] = Math.min(packed[0], measureGet(frozen, queries));
+                tree[1] = Math.min(tree[1], measureScan(map, queries, scan));
+                packed[1] = Math.min(packed[1], measureScan(frozen, queries, scan));
+            }
+            table.append(String.format(Locale.ROOT, "| BPlusTreeMap (%d) | %.1f | %.2f | %.1f |%n", degree,
+                    tree[0], tree[1], (double) map.stats().getRetainedBytes() / size));
+            table.append(String.format(Locale.ROOT, "| FrozenMap из BPlusTreeMap (%d) | %.1f | %.2f | %.1f |%n", degree,
+                    packed[0], packed[1], (double) frozen.retainedBytes() / size));
+        }
+
+        return String.format(Locale.ROOT, "FrozenMap и BPlusTreeMap: %d ключей Long, %d поисков, "
+                + "выборки по %d пар, объекты ключей и значений в памяти не учитываются%n%n%s", size, lookups, scan, table);
+    }
+
+    /**
+     * @return нс на поиск
+     */
+    @SuppressWarnings("rawtypes")
+    private static double measureGet(IMap map, Long[] queries) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (Long key : queries) {
+            if (map.get(key) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found != queries.length) {
+            throw new IllegalStateException("НАЙДЕНЫ НЕ ВСЕ КЛЮЧИ: " + found + " ИЗ " + queries.length);
+        }
+        return (double) elapsed / queries.length;
+    }
+
+    /**
+     * Выборки по {@code scan} пар от каждого десятого ключа запросов
+     * @return нс на выданную пару
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static double measureScan(IMap map, Long[] queries, int scan) {
+        long entries = 0;
+        long checksum = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < queries.length; i += 10) {
+            Iterator<Map.Entry<Long, Boolean>> iterator = map.entries(queries[i], null);
+            for (int j = 0; j < scan && iterator.hasNext(); j++) {
+                checksum += iterator.next().getKey();
+                entries++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (checksum == 0) {
+            throw new IllegalStateException("ПУСТЫЕ ВЫБОРКИ");
+        }
+        return (double) elapsed / entries;
+    }
+}
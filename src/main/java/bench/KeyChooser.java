@@ -0,0 +1,137 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * Выбирает номер записи для операции среди {@code itemCount} уже вставленных записей.
+ * Экземпляры не потокобезопасны: каждый поток нагрузки создает свой
+ * (см. {@link Distribution#newChooser()})
+ */
+public abstract class KeyChooser {
+
+    /**
+     * Распределение номеров записей
+     */
+    public enum Distribution {
+        /**
+         * Все записи равновероятны
+         */
+        UNIFORM,
+        /**
+         * Распределение Ципфа: небольшое количество "горячих" записей, разбросанных по всему диапазону ключей
+         */
+        ZIPFIAN,
+        /**
+         * Распределение Ципфа по давности: чаще всего запрашиваются последние вставленные записи
+         */
+        LATEST;
+
+        public KeyChooser newChooser() {
+            switch (this) {
+                case UNIFORM:
+                    return new Uniform();
+                case ZIPFIAN:
+                    return new ScrambledZipfian();
+                case LATEST:
+                    return new Latest();
+                default:
+                    throw new IllegalStateException("НЕИЗВЕСТНОЕ РАСПРЕДЕЛЕНИЕ: " + this);
+            }
+        }
+    }
+
+    /**
+     * Выбирает номер записи
+     * @param random генератор случайных чисел потока
+     * @param itemCount количество записей (больше нуля)
+     * @return номер записи в диапазоне [0; itemCount)
+     */
+    public abstract long next(Random random, long itemCount);
+
+    /**
+     * FNV-1a хеш 64-битного числа, используется для перемешивания номеров записей
+     * @param value число
+     * @return неотрицательный хеш
+     */
+    public static long fnvHash(long value) {
+        long hash = 0xCBF29CE484222325L;
+        for (int i = 0; i < 8; i++) {
+            hash ^= value & 0xFF;
+            hash *= 0x100000001B3L;
+            value >>>= 8;
+        }
+        return hash & Long.MAX_VALUE;
+    }
+
+    private static final class Uniform extends KeyChooser {
+        @Override
+        public long next(Random random, long itemCount) {
+            return (random.nextLong() & Long.MAX_VALUE) % itemCount;
+        }
+    }
+
+    /**
+     * Генератор Ципфа по алгоритму Грэя ("Quickly Generating Billion-Record Synthetic Databases"),
+     * как в YCSB. Самая частая запись имеет ранг 0. Дзета-функция досчитывается
+     * инкрементально при росте количества записей
+     */
+    private static class Zipfian extends KeyChooser {
+
+        private static final double THETA = 0.99;
+        private static final double ALPHA = 1.0 / (1.0 - THETA);
+        private static final double ZETA_2 = 1.0 + Math.pow(0.5, THETA);
+
+        private long countForZeta;
+        private double zetaN;
+        private double eta;
+
+        @Override
+        public long next(Random random, long itemCount) {
+            if (itemCount != countForZeta) {
+                updateZeta(itemCount);
+            }
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1.0) {
+                return 0;
+            }
+            if (uz < ZETA_2) {
+                return Math.min(1, itemCount - 1);
+            }
+            long rank = (long) (itemCount * Math.pow(eta * u - eta + 1, ALPHA));
+            return Math.min(rank, itemCount - 1);
+        }
+
+        private void updateZeta(long itemCount) {
+            if (itemCount < countForZeta) {
+                countForZeta = 0;
+                zetaN = 0;
+            }
+            for (long i = countForZeta + 1; i <= itemCount; i++) {
+                zetaN += 1.0 / Math.pow(i, THETA);
+            }
+            countForZeta = itemCount;
+            eta = (1 - Math.pow(2.0 / itemCount, 1 - THETA)) / (1 - ZETA_2 / zetaN);
+        }
+    }
+
+    /**
+     * Ципф, у которого ранги перемешаны хешем: горячие записи не идут подряд
+     */
+    private static final class ScrambledZipfian extends Zipfian {
+        @Override
+        public long next(Random random, long itemCount) {
+            return fnvHash(super.next(random, itemCount)) % itemCount;
+        }
+    }
+
+    /**
+     * Ципф, отсчитанный от последней вставленной записи
+     */
+    private static final class Latest extends Zipfian {
+        @Override
+        public long next(Random random, long itemCount) {
+            return itemCount - 1 - super.next(random, itemCount);
+        }
+    }
+}
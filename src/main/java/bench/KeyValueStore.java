@@ -0,0 +1,156 @@
+package bench;
+
+import map.IMap;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Хранилище, над которым выполняется нагрузка: ключи {@code Long}, значения - массивы байт.
+ * Деревья не потокобезопасны, поэтому обертки из {@link #of(String, IMap)} и
+ * {@link #of(String, NavigableMap)} защищают структуру блокировкой чтения-записи:
+ * чтения и сканирования выполняются параллельно, вставки и обновления - монопольно.
+ * Базовая {@link java.util.TreeMap} оборачивается так же, чтобы сравнение было честным
+ */
+public abstract class KeyValueStore {
+
+    /**
+     * Имя хранилища в результатах
+     */
+    private final String name;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    protected KeyValueStore(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Возвращает значение по ключу
+     * @param key ключ
+     * @return значение или {@code null}
+     */
+    public byte[] read(Long key) {
+        lock.readLock().lock();
+        try {
+            return get(key);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Записывает значение по ключу
+     * @param key ключ
+     * @param value значение
+     */
+    public void write(Long key, byte[] value) {
+        lock.writeLock().lock();
+        try {
+            put(key, value);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Читает и перезаписывает значение по ключу как одну атомарную операцию
+     * @param key ключ
+     * @param value новое значение
+     * @return прочитанное значение или {@code null}
+     */
+    public byte[] readModifyWrite(Long key, byte[] value) {
+        lock.writeLock().lock();
+        try {
+            byte[] oldValue = get(key);
+            put(key, value);
+            return oldValue;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Читает подряд до {@code count} пар, начиная с ключа {@code from}
+     * @param from первый ключ (включительно)
+     * @param count максимальное количество пар
+     * @return количество прочитанных пар
+     */
+    public int scan(Long from, int count) {
+        lock.readLock().lock();
+        try {
+            Iterator<? extends Map.Entry<Long, byte[]>> iterator = entries(from);
+            int read = 0;
+            while (read < count && iterator.hasNext()) {
+                iterator.next();
+                read++;
+            }
+            return read;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    protected abstract byte[] get(Long key);
+
+    protected abstract void put(Long key, byte[] value);
+
+    protected abstract Iterator<? extends Map.Entry<Long, byte[]>> entries(Long from);
+
+    /**
+     * Оборачивает {@link IMap}
+     * @param name имя хранилища
+     * @param map структура
+     * @return хранилище
+     */
+    public static KeyValueStore of(String name, IMap<Long, byte[]> map) {
+        return new KeyValueStore(name) {
+            @Override
+            protected byte[] get(Long key) {
+                return map.get(key);
+            }
+
+            @Override
+            protected void put(Long key, byte[] value) {
+                map.put(key, value);
+            }
+
+            @Override
+            protected Iterator<? extends Map.Entry<Long, byte[]>> entries(Long from) {
+                return map.entries(from, null);
+            }
+        };
+    }
+
+    /**
+     * Оборачивает {@link NavigableMap} (например, {@link java.util.TreeMap} как эталон)
+     * @param name имя хранилища
+     * @param map структура
+     * @return хранилище
+     */
+    public static KeyValueStore of(String name, NavigableMap<Long, byte[]> map) {
+        return new KeyValueStore(name) {
+            @Override
+            protected byte[] get(Long key) {
+                return map.get(key);
+            }
+
+            @Override
+            protected void put(Long key, byte[] value) {
+                map.put(key, value);
+            }
+
+            @Override
+            protected Iterator<? extends Map.Entry<Long, byte[]>> entries(Long from) {
+                return map.tailMap(from, true).entrySet().iterator();
+            }
+        };
+    }
+}
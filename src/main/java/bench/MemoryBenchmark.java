@@ -0,0 +1,369 @@
+package bench;
+
+import map.BPlusTreeMap;
+import map.BTreeMap;
+import map.HybridMap;
+import map.IMap;
+import map.stats.TreeStats;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Замер памяти на одну запись: структура заполняется заранее созданными ключами
+ * (в случайном порядке) и общим значением, после чего измеряется прирост живой кучи
+ * после сборки мусора. Ключи и значение создаются до замера, поэтому в результат
+ * попадает только память самой структуры - то же, что оценивает {@link TreeStats}.
+ * <p>
+ * Результат - таблицы Markdown: байт на запись для деревьев по степеням
+ * (в скобках - оценка {@code stats()}) и для стандартных коллекций, а также байт на карту
+ * для {@code --maps} маленьких карт (от 1 до 15 пар). Последняя таблица - заполнение листьев
+ * после вставки ключей по возрастанию: замер проверяет, что плотное разделение оставляет
+ * все листья, кроме последнего, заполненными до предела.
+ * Параметры: {@code --size=200000 --degrees=2,4,...,512 --maps=100000 --out=memory.md}
+ */
+public class MemoryBenchmark {
+
+    private static final int[] DEFAULT_DEGREES = {2, 4, 8, 16, 32, 64, 128, 256, 512};
+
+    /**
+     * Размеры маленьких карт
+     */
+    private static final int[] SMALL_MAP_SIZES = {1, 4, 8, 15};
+
+    /**
+     * Количество сборок мусора перед чтением занятой памяти
+     */
+    private static final int GC_ROUNDS = 5;
+
+    /**
+     * Типы ключей
+     */
+    private enum KeyType {
+        INTEGER(i -> i),
+        LONG(i -> (long) i),
+        STRING(i -> "user" + i),
+        UUID(i -> new java.util.UUID(KeyChooser.fnvHash(i), i));
+
+        private final IntFunction<Comparable<?>> factory;
+
+        KeyType(IntFunction<Comparable<?>> factory) {
+            this.factory = factory;
+        }
+
+        /**
+         * Создает {@code size} различных ключей в случайном (но воспроизводимом) порядке
+         */
+        List<Comparable<?>> keys(int size) {
+            List<Comparable<?>> keys = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                keys.add(factory.apply(i));
+            }
+            Collections.shuffle(keys, new Random(42));
+            return keys;
+        }
+    }
+
+    /**
+     * Результат замера одной структуры
+     */
+    private static final class Measurement {
+        final double bytesPerEntry;
+        final double estimatedBytesPerEntry;
+
+        Measurement(double bytesPerEntry, double estimatedBytesPerEntry) {
+            this.bytesPerEntry = bytesPerEntry;
+            this.estimatedBytesPerEntry = estimatedBytesPerEntry;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int size = 200_000;
+        int[] degrees = DEFAULT_DEGREES;
+        int maps = 100_000;
+        String out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                size = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--degrees=")) {
+                String[] parts = arg.substring("--degrees=".length()).split(",");
+                degrees = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    degrees[i] = Integer.parseInt(parts[i].trim());
+                }
+            } else if (arg.startsWith("--maps=")) {
+                maps = Integer.parseInt(arg.substring("--maps=".length()));
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+        }
+
+        String report = run(size, degrees) + "\n" + runSmallMaps(maps) + "\n" + runSequentialFill(size, degrees);
+        System.out.println(report);
+        if (out != null) {
+            Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Выполняет все замеры
+     * @param size количество записей
+     * @param degrees степени деревьев (степень передается в конструктор как есть:
+     *                у {@code BTreeMap} это минимальная степень, у {@code BPlusTreeMap} - максимальное число потомков)
+     * @return отчет в формате Markdown
+     */
+    public static String run(int size, int[] degrees) {
+        StringBuilder trees = new StringBuilder();
+        trees.append("| Структура | Ключ |");
+        for (int degree : degrees) {
+            trees.append(' ').append(degree).append(" |");
+        }
+        trees.append('\n').append("| --- | --- |");
+        for (int i = 0; i < degrees.length; i++) {
+            trees.append(" --- |");
+        }
+        trees.append('\n');
+
+        StringBuilder collections = new StringBuilder();
+        collections.append("| Ключ | TreeMap | HashMap | ConcurrentSkipListMap |\n");
+        collections.append("| --- | --- | --- | --- |\n");
+
+        // прогрев: загрузка классов и компиляция вставки не должны попасть в первый замер
+        List<Comparable<?>> warmupKeys = KeyType.INTEGER.keys(Math.min(size, 10_000));
+        measureTree(warmupKeys, () -> new BTreeMap<>(2));
+        measureTree(warmupKeys, () -> new BPlusTreeMap<>(4));
+        measureMap(warmupKeys, TreeMap::new);
+
+        for (KeyType keyType : KeyType.values()) {
+            List<Comparable<?>> keys = keyType.keys(size);
+
+            trees.append("| BTreeMap | ").append(keyType).append(" |");
+            for (int degree : degrees) {
+                trees.append(' ').append(format(measureTree(keys, () -> new BTreeMap<>(degree)))).append(" |");
+            }
+            trees.append('\n');
+
+            trees.append("| BPlusTreeMap | ").append(keyType).append(" |");
+            for (int degree : degrees) {
+                trees.append(' ')
+                        .append(degree > 2 ? format(measureTree(keys, () -> new BPlusTreeMap<>(degree))) : "-")
+                        .append(" |");
+            }
+            trees.append('\n');
+
+            collections.append("| ").append(keyType).append(" | ")
+                    .append(format(measureMap(keys, TreeMap::new))).append(" | ")
+                    .append(format(measureMap(keys, HashMap::new))).append(" | ")
+                    .append(format(measureMap(keys, ConcurrentSkipListMap::new))).append(" |\n");
+        }
+
+        return String.format(Locale.ROOT, "Байт на запись, %d записей, ключи и значения не учитываются, "
+                        + "в скобках - оценка stats()%n%n%s%n%s", size, trees, collections);
+    }
+
+    /**
+     * Замер памяти маленьких карт
+     * @param maps количество карт каждого размера
+     * @return отчет в формате Markdown
+     */
+    public static String runSmallMaps(int maps) {
+        StringBuilder table = new StringBuilder();
+        table.append("| Структура |");
+        for (int entries : SMALL_MAP_SIZES) {
+            table.append(' ').append(entries).append(" |");
+        }
+        table.append('\n').append("| --- |");
+        for (int i = 0; i < SMALL_MAP_SIZES.length; i++) {
+            table.append(" --- |");
+        }
+        table.append('\n');
+
+        List<Comparable<?>> keys = KeyType.INTEGER.keys(SMALL_MAP_SIZES[SMALL_MAP_SIZES.length - 1]);
+        measureSmallMaps(Math.min(maps, 10_000), keys, () -> new HybridMap<>());
+
+        appendSmallMaps(table, "HybridMap", maps, keys, () -> new HybridMap<>());
+        appendSmallMaps(table, "BPlusTreeMap (16)", maps, keys, () -> new BPlusTreeMap<>(16));
+        appendSmallMaps(table, "BTreeMap (2)", maps, keys, () -> new BTreeMap<>(2));
+        appendSmallMaps(table, "TreeMap", maps, keys, () -> new TreeMap<>());
+        appendSmallMaps(table, "HashMap", maps, keys, () -> new HashMap<>());
+
+        return String.format(Locale.ROOT, "Байт на карту, %d карт, ключи и значения не учитываются%n%n%s",
+                maps, table);
+    }
+
+    /**
+     * Заполнение листьев после вставки ключей по возрастанию. При такой вставке разделение плотное:
+     * лист {@code BPlusTreeMap} остается полным, а лист {@code BTreeMap} - без одного ключа
+     * (последний ключ поднимается в родителя). Недозаполнен может быть только крайний правый лист
+     * @param size количество записей
+     * @param degrees степени деревьев
+     * @return отчет в формате Markdown
+     */
+    public static String runSequentialFill(int size, int[] degrees) {
+        StringBuilder table = new StringBuilder();
+        table.append("| Структура |");
+        for (int degree : degrees) {
+            table.append(' ').append(degree).append(" |");
+        }
+        table.append('\n').append("| --- |");
+        for (int i = 0; i < degrees.length; i++) {
+            table.append(" --- |");
+        }
+        table.append('\n');
+
+        table.append("| BTreeMap |");
+        for (int degree : degrees) {
+            BTreeMap<Integer, Boolean> map = new BTreeMap<>(degree);
+            for (int i = 0; i < size; i++) {
+                map.put(i, Boolean.TRUE);
+            }
+            table.append(' ').append(formatFill(map.stats(), 2 * degree - 2)).append(" |");
+        }
+        table.append('\n');
+
+        table.append("| BPlusTreeMap |");
+        for (int degree : degrees) {
+            if (degree <= 2) {
+                table.append(" - |");
+                continue;
+            }
+            BPlusTreeMap<Integer, Boolean> map = new BPlusTreeMap<>(degree);
+            for (int i = 0; i < size; i++) {
+                map.put(i, Boolean.TRUE);
+            }
+            table.append(' ').append(formatFill(map.stats(), degree - 1)).append(" |");
+        }
+        table.append('\n');
+
+        return String.format(Locale.ROOT, "Заполнение листьев после вставки %d ключей по возрастанию%n%n%s",
+                size, table);
+    }
+
+    /**
+     * Заполнение листьев с проверкой: во всех листьях, кроме последнего, не меньше {@code minKeys} ключей
+     */
+    private static String formatFill(TreeStats stats, int minKeys) {
+        for (TreeStats.LevelStats level : stats.getLevels()) {
+            if (level.isLeaf()) {
+                if (level.getUsedSlots() < (level.getNodes() - 1) * minKeys) {
+                    throw new IllegalStateException("ЛИСТЬЯ НЕДОЗАПОЛНЕНЫ ПОСЛЕ ПОСЛЕДОВАТЕЛЬНОЙ ВСТАВКИ: "
+                            + stats.getMapType() + " " + stats.getTreeDegree() + ", " + level.getUsedSlots()
+                            + " КЛЮЧЕЙ В " + level.getNodes() + " ЛИСТЬЯХ");
+                }
+                return String.format(Locale.ROOT, "%.3f", level.getAverageFill());
+            }
+        }
+        throw new IllegalStateException("НЕТ УРОВНЯ ЛИСТЬЕВ");
+    }
+
+    private static void appendSmallMaps(StringBuilder table, String name, int maps, List<Comparable<?>> keys,
+                                        Supplier<Object> factory) {
+        table.append("| ").append(name).append(" |");
+        for (int entries : SMALL_MAP_SIZES) {
+            table.append(String.format(Locale.ROOT, " %.1f |",
+                    measureSmallMaps(maps, keys.subList(0, entries), factory)));
+        }
+        table.append('\n');
+    }
+
+    /**
+     * Создает {@code maps} карт с заданными ключами и измеряет прирост живой кучи
+     * @param factory создает {@link IMap} или {@link Map}
+     * @return байт на карту
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static double measureSmallMaps(int maps, List<Comparable<?>> keys, Supplier<Object> factory) {
+        Object[] holder = new Object[maps];
+        long before = usedHeapAfterGc();
+        for (int i = 0; i < maps; i++) {
+            Object map = factory.get();
+            for (Comparable key : keys) {
+                if (map instanceof IMap) {
+                    ((IMap) map).put(key, Boolean.TRUE);
+                } else {
+                    ((Map) map).put(key, Boolean.TRUE);
+                }
+            }
+            holder[i] = map;
+        }
+        long after = usedHeapAfterGc();
+        double bytes = (double) (after - before) / maps;
+        Arrays.fill(holder, null);
+        return bytes;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Measurement measureTree(List<Comparable<?>> keys, Supplier<IMap> factory) {
+        long before = usedHeapAfterGc();
+        IMap map = factory.get();
+        for (Comparable key : keys) {
+            map.put(key, Boolean.TRUE);
+        }
+        long after = usedHeapAfterGc();
+        TreeStats stats = map instanceof BPlusTreeMap ? ((BPlusTreeMap) map).stats() : ((BTreeMap) map).stats();
+        return new Measurement((double) (after - before) / map.size(), (double) stats.getRetainedBytes() / map.size());
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Measurement measureMap(List<Comparable<?>> keys, Supplier<Map> factory) {
+        long before = usedHeapAfterGc();
+        Map map = factory.get();
+        for (Comparable key : keys) {
+            map.put(key, Boolean.TRUE);
+        }
+        long after = usedHeapAfterGc();
+        return new Measurement((double) (after - before) / map.size(), Double.NaN);
+    }
+
+    /**
+     * Занятая живыми объектами куча сразу после полной сборки мусора.
+     * Берется {@link MemoryPoolMXBean#getCollectionUsage()} пулов кучи, а не текущая занятость:
+     * в последней учитываются объекты, выделенные уже после сборки (в том числе самим JMX).
+     * Полная сборка может оставить часть мусора неуплотненной (MarkSweepDeadRatio) и уплотняет
+     * все только раз в несколько сборок (MarkSweepAlwaysCompactCount = 4), поэтому берется минимум
+     * по {@value #GC_ROUNDS} сборкам подряд
+     * @return байт
+     */
+    private static long usedHeapAfterGc() {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < GC_ROUNDS; i++) {
+            System.gc();
+            long current = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                MemoryUsage usage = pool.getType() == MemoryType.HEAP ? pool.getCollectionUsage() : null;
+                if (usage != null) {
+                    current += usage.getUsed();
+                }
+            }
+            used = Math.min(used, current);
+        }
+        return used;
+    }
+
+    private static String format(Measurement measurement) {
+        if (Double.isNaN(measurement.estimatedBytesPerEntry)) {
+            return String.format(Locale.ROOT, "%.1f", measurement.bytesPerEntry);
+        }
+        return String.format(Locale.ROOT, "%.1f (%.1f)", measurement.bytesPerEntry, measurement.estimatedBytesPerEntry);
+    }
+}
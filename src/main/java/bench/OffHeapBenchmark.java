@@ -0,0 +1,154 @@
+package bench;
+
+import map.BPlusTreeMap;
+import map.IMap;
+import map.offheap.OffHeapValueMap;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замер {@link OffHeapValueMap} против {@link BPlusTreeMap} со значениями {@code byte[]} в куче.
+ * Карта заполняется записями со случайными значениями от {@code --min} до {@code --max} байт, затем
+ * случайные записи перезаписываются новыми значениями случайной длины и читаются. Каждое значение
+ * приходит новым массивом, как после сериализации. Для каждой карты фиксируются время фаз,
+ * количество и суммарное время сборок мусора, занятая куча после полной сборки и память вне кучи.
+ * Уплотнение значений {@link OffHeapValueMap} работает в фоновом потоке.
+ * <p>
+ * Запускать с кучей, вмещающей все значения ({@code -Xmx2g} для параметров по умолчанию).
+ * Результат - таблица Markdown. Параметры:
+ * {@code --records=10000 --updates=100000 --reads=200000 --min=1024 --max=65536 --out=offheap.md}
+ */
+public class OffHeapBenchmark {
+
+    private static final int DEGREE = 64;
+
+    public static void main(String[] args) throws Exception {
+        int records = 10_000;
+        int updates = 100_000;
+        int reads = 200_000;
+        int min = 1024;
+        int max = 65536;
+        String out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--records=")) {
+                records = Integer.parseInt(arg.substring("--records=".length()));
+            } else if (arg.startsWith("--updates=")) {
+                updates = Integer.parseInt(arg.substring("--updates=".length()));
+            } else if (arg.startsWith("--reads=")) {
+                reads = Integer.parseInt(arg.substring("--reads=".length()));
+            } else if (arg.startsWith("--min=")) {
+                min = Integer.parseInt(arg.substring("--min=".length()));
+            } else if (arg.startsWith("--max=")) {
+                max = Integer.parseInt(arg.substring("--max=".length()));
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+        }
+
+        String report = run(records, updates, reads, min, max);
+        System.out.println(report);
+        if (out != null) {
+            Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Выполняет замеры обеих карт
+     * @param records количество записей
+     * @param updates количество перезаписей
+     * @param reads количество чтений
+     * @param min наименьшая длина значения
+     * @param max наибольшая длина значения
+     * @return отчет в формате Markdown
+     */
+    public static String run(int records, int updates, int reads, int min, int max) throws InterruptedException {
+        StringBuilder table = new StringBuilder();
+        table.append("| Карта | Загрузка, мс | Перезапись, мс | get, нс | Сборок GC | Время GC, мс "
+                + "| Куча после GC, МиБ | Вне кучи, МиБ |\n");
+        table.append("| --- | --- | --- | --- | --- | --- | --- | --- |\n");
+
+        BPlusTreeMap<Long, byte[]> heap = new BPlusTreeMap<>(DEGREE);
+        table.append(measure("BPlusTreeMap<Long, byte[]>", heap, records, updates, reads, min, max, null));
+        heap.clear();
+        heap = null;
+
+        OffHeapValueMap<Long> offHeap = new OffHeapValueMap<>(DEGREE);
+        offHeap.startCompactor(10, TimeUnit.MILLISECONDS);
+        table.append(measure("OffHeapValueMap<Long>", offHeap, records, updates, reads, min, max, offHeap));
+        offHeap.stopCompactor();
+
+        return String.format(Locale.ROOT, "Значения в куче и вне кучи: %d записей, значения от %d до %d байт, "
+                + "%d перезаписей, %d чтений, степень %d%n%n%s", records, min, max, updates, reads, DEGREE, table);
+    }
+
+    @SuppressWarnings("rawtypes")
+    private static String measure(String name, IMap map, int records, int updates, int reads, int min, int max,
+                                  OffHeapValueMap<Long> offHeap) {
+        Random random = new Random(42);
+        System.gc();
+        long collections = collections();
+        long gcMillis = gcMillis();
+
+        long start = System.nanoTime();
+        for (long key = 0; key < records; key++) {
+            map.put(key, value(random, min, max));
+        }
+        long loaded = System.nanoTime();
+        for (int i = 0; i < updates; i++) {
+            map.put((long) random.nextInt(records), value(random, min, max));
+        }
+        long updated = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < reads; i++) {
+            Object value = map.get((long) random.nextInt(records));
+            checksum += value instanceof ByteBuffer ? ((ByteBuffer) value).get(0) : ((byte[]) value)[0];
+        }
+        long read = System.nanoTime();
+        if (checksum == Long.MIN_VALUE) {
+            throw new IllegalStateException();
+        }
+
+        collections = collections() - collections;
+        gcMillis = gcMillis() - gcMillis;
+        System.gc();
+        long heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        long offHeapBytes = offHeap == null ? 0 : offHeap.getAllocatedBytes();
+        return String.format(Locale.ROOT, "| %s | %d | %d | %.0f | %d | %d | %.1f | %.1f |%n", name,
+                TimeUnit.NANOSECONDS.toMillis(loaded - start), TimeUnit.NANOSECONDS.toMillis(updated - loaded),
+                (double) (read - updated) / reads, collections, gcMillis,
+                heapBytes / 1048576.0, offHeapBytes / 1048576.0);
+    }
+
+    private static byte[] value(Random random, int min, int max) {
+        byte[] value = new byte[min + random.nextInt(max - min + 1)];
+        value[0] = (byte) random.nextInt();
+        return value;
+    }
+
+    private static long collections() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionCount());
+        }
+        return total;
+    }
+
+    private static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(0, bean.getCollectionTime());
+        }
+        return total;
+    }
+}
@@ -0,0 +1,212 @@
+package bench;
+
+import map.BPlusTreeMap;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Замер поиска в узлах {@link BPlusTreeMap}: бинарный поиск против интерполяционного
+ * ({@link BPlusTreeMap#enableInterpolationSearch()}) для разных распределений ключей {@link Long}.
+ * Дерево заполняется ключами по возрастанию, затем выполняются {@code get} заранее выбранных
+ * случайных имеющихся ключей; сам цикл ничего не выделяет.
+ * <p>
+ * Результат - таблица Markdown, нс на {@code get}. Параметры:
+ * {@code --size=1000000 --lookups=5000000 --degrees=64,256,1024 --out=search.md}
+ */
+public class SearchBenchmark {
+
+    private static final int[] DEFAULT_DEGREES = {64, 256, 1024};
+
+    /**
+     * Количество замеров каждого способа поиска
+     */
+    private static final int ROUNDS = 3;
+
+    /**
+     * Распределения ключей
+     */
+    private enum Distribution {
+        /**
+         * Ключи подряд
+         */
+        SEQUENTIAL,
+        /**
+         * Равномерно случайные ключи
+         */
+        UNIFORM,
+        /**
+         * Случайные промежутки от 1 до 100 между соседними ключами
+         */
+        NEAR_UNIFORM,
+        /**
+         * Экспоненциально растущие промежутки (десятки порядков плотности)
+         */
+        SKEWED;
+
+        /**
+         * Создает {@code size} различных ключей по возрастанию
+         */
+        long[] keys(int size, Random random) {
+            long[] keys = new long[size];
+            switch (this) {
+                case SEQUENTIAL:
+                    for (int i = 0; i < size; i++) {
+                        keys[i] = i;
+                    }
+                    return keys;
+                case UNIFORM:
+                    for (int i = 0; i < size; i++) {
+                        keys[i] = random.nextLong() >>> 20;
+                    }
+                    Arrays.sort(keys);
+                    return distinct(keys);
+                case NEAR_UNIFORM:
+                    for (int i = 1; i < size; i++) {
+                        keys[i] = keys[i - 1] + 1 + random.nextInt(100);
+                    }
+                    return keys;
+                default:
+                    for (int i = 1; i < size; i++) {
+                        keys[i] = keys[i - 1] + 1 + (long) Math.exp(random.nextDouble() * 30);
+                    }
+                    return keys;
+            }
+        }
+
+        private static long[] distinct(long[] sorted) {
+            int count = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[count++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, count);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int size = 1_000_000;
+        int lookups = 5_000_000;
+        int[] degrees = DEFAULT_DEGREES;
+        String out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--size=")) {
+                size = Integer.parseInt(arg.substring("--size=".length()));
+            } else if (arg.startsWith("--lookups=")) {
+                lookups = Integer.parseInt(arg.substring("--lookups=".length()));
+            } else if (arg.startsWith("--degrees=")) {
+                String[] parts = arg.substring("--degrees=".length()).split(",");
+                degrees = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    degrees[i] = Integer.parseInt(parts[i].trim());
+                }
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+        }
+
+        String report = run(size, lookups, degrees);
+        System.out.println(report);
+        if (out != null) {
+            Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Выполняет все замеры
+     * @param size количество ключей
+     * @param lookups количество поисков в замере
+     * @param degrees степени деревьев
+     * @return отчет в формате Markdown
+     */
+    public static String run(int size, int lookups, int[] degrees) {
+        // прогрев: компиляция обоих путей поиска не должна попасть в первый замер
+        Random warmupRandom = new Random(1);
+        Long[] warmupKeys = boxed(Distribution.NEAR_UNIFORM.keys(Math.min(size, 100_000), warmupRandom));
+        Long[] warmupQueries = queries(warmupKeys, lookups / 4, warmupRandom);
+        BPlusTreeMap<Long, Boolean> warmup = load(warmupKeys, 256);
+        measure(warmup, warmupQueries);
+        warmup.enableInterpolationSearch();
+        measure(warmup, warmupQueries);
+
+        StringBuilder table = new StringBuilder();
+        table.append("| Ключи | Степень | Бинарный, нс | Интерполяционный, нс | Ускорение |\n");
+        table.append("| --- | --- | --- | --- | --- |\n");
+        for (Distribution distribution : Distribution.values()) {
+            Random random = new Random(42);
+            Long[] keys = boxed(distribution.keys(size, random));
+            Long[] queries = queries(keys, lookups, random);
+            for (int degree : degrees) {
+                BPlusTreeMap<Long, Boolean> map = load(keys, degree);
+                double binary = Double.MAX_VALUE;
+                double interpolation = Double.MAX_VALUE;
+                // способы чередуются, берется лучший из замеров: порядок не дает преимущества ни одному
+                for (int round = 0; round < ROUNDS; round++) {
+                    map.disableInterpolationSearch();
+                    binary = Math.min(binary, measure(map, queries));
+                    map.enableInterpolationSearch();
+                    interpolation = Math.min(interpolation, measure(map, queries));
+                }
+                table.append(String.format(Locale.ROOT, "| %s | %d | %.1f | %.1f | %.2f |%n",
+                        distribution, degree, binary, interpolation, binary / interpolation));
+            }
+        }
+
+        return String.format(Locale.ROOT, "Поиск (get) в BPlusTreeMap, %d ключей Long, %d поисков%n%n%s",
+                size, lookups, table);
+    }
+
+    private static BPlusTreeMap<Long, Boolean> load(Long[] keys, int degree) {
+        BPlusTreeMap<Long, Boolean> map = new BPlusTreeMap<>(degree);
+        for (Long key : keys) {
+            map.put(key, Boolean.TRUE);
+        }
+        return map;
+    }
+
+    /**
+     * Один замер
+     * @return нс на поиск
+     */
+    private static double measure(BPlusTreeMap<Long, Boolean> map, Long[] queries) {
+        int found = 0;
+        long start = System.nanoTime();
+        for (Long key : queries) {
+            if (map.get(key) != null) {
+                found++;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found != queries.length) {
+            throw new IllegalStateException("НАЙДЕНЫ НЕ ВСЕ КЛЮЧИ: " + found + " ИЗ " + queries.length);
+        }
+        return (double) elapsed / queries.length;
+    }
+
+    private static Long[] boxed(long[] keys) {
+        Long[] boxed = new Long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            boxed[i] = keys[i];
+        }
+        return boxed;
+    }
+
+    /**
+     * Случайные имеющиеся ключи (те же объекты, что в дереве, чтобы замер не выделял память)
+     */
+    private static Long[] queries(Long[] keys, int lookups, Random random) {
+        Long[] queries = new Long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            queries[i] = keys[random.nextInt(keys.length)];
+        }
+        return queries;
+    }
+}
@@ -0,0 +1,271 @@
+package bench;
+
+import map.BPlusTreeMap;
+import map.metrics.LatencyHistogram;
+import server.KeyCodec;
+import server.KvClient;
+import server.KvProtocol;
+import server.KvServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Нагрузочный тест {@link KvServer} через петлевой интерфейс. Сервер и клиенты работают
+ * в одном процессе; каждый клиентский поток держит свое соединение и в цикле отправляет
+ * пачку из {@code depth} запросов одной записью, после чего читает все ответы.
+ * Задержка запроса - время от отправки пачки до прихода ответа на него, поэтому
+ * с ростом глубины конвейера растет и пропускная способность, и задержка.
+ * <p>
+ * Перед замерами выполняется проверка корректности всех операций протокола.
+ * Результат - таблица Markdown. Параметры:
+ * {@code --records=100000 --threads=4 --duration=3 --depths=1,4,16,64,256 --value=64 --read=0.9 --out=server.md}
+ */
+public class ServerLoadTest {
+
+    private static final int[] DEFAULT_DEPTHS = {1, 4, 16, 64, 256};
+
+    /**
+     * Результат замера одной глубины конвейера
+     */
+    private static final class Measurement {
+        final long requests;
+        final long elapsedNanos;
+        final LatencyHistogram latency;
+
+        Measurement(long requests, long elapsedNanos, LatencyHistogram latency) {
+            this.requests = requests;
+            this.elapsedNanos = elapsedNanos;
+            this.latency = latency;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int records = 100_000;
+        int threads = 4;
+        int duration = 3;
+        int valueSize = 64;
+        double readRatio = 0.9;
+        int[] depths = DEFAULT_DEPTHS;
+        String out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--records=")) {
+                records = Integer.parseInt(arg.substring("--records=".length()));
+            } else if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.startsWith("--duration=")) {
+                duration = Integer.parseInt(arg.substring("--duration=".length()));
+            } else if (arg.startsWith("--value=")) {
+                valueSize = Integer.parseInt(arg.substring("--value=".length()));
+            } else if (arg.startsWith("--read=")) {
+                readRatio = Double.parseDouble(arg.substring("--read=".length()));
+            } else if (arg.startsWith("--depths=")) {
+                String[] parts = arg.substring("--depths=".length()).split(",");
+                depths = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    depths[i] = Integer.parseInt(parts[i].trim());
+                }
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+        }
+
+        String report = run(records, threads, duration, depths, valueSize, readRatio);
+        System.out.println(report);
+        if (out != null) {
+            Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Выполняет все замеры
+     * @param records количество записей в дереве
+     * @param threads количество клиентских потоков (соединений)
+     * @param duration длительность замера одной глубины в секундах
+     * @param depths глубины конвейера
+     * @param valueSize размер значения в байтах
+     * @param readRatio доля запросов GET, остальные - PUT
+     * @return отчет в формате Markdown
+     */
+    public static String run(int records, int threads, int duration, int[] depths, int valueSize, double readRatio)
+            throws Exception {
+        BPlusTreeMap<Long, byte[]> map = new BPlusTreeMap<>(64);
+        byte[] value = new byte[valueSize];
+        for (long key = 0; key < records; key++) {
+            map.put(key, value);
+        }
+        KvServer<Long> server = new KvServer<>(map, KeyCodec.LONG);
+        InetSocketAddress address = server.start(0);
+        try {
+            verify(address, records, value);
+
+            // прогрев: компиляция горячих путей сервера и клиента не должна попасть в замер
+            measure(address, records, threads, 1, Math.max(1, depths[depths.length - 1]), value, readRatio);
+
+            StringBuilder table = new StringBuilder();
+            table.append("| Глубина конвейера | Запросов/с | p50, мкс | p99, мкс | max, мкс |\n");
+            table.append("| --- | --- | --- | --- | --- |\n");
+            for (int depth : depths) {
+                Measurement measurement = measure(address, records, threads, duration, depth, value, readRatio);
+                LatencyHistogram latency = measurement.latency;
+                table.append(String.format(Locale.ROOT, "| %d | %.0f | %.1f | %.1f | %.1f |%n", depth,
+                        measurement.requests * 1e9 / measurement.elapsedNanos,
+                        latency.percentile(50) / 1e3, latency.percentile(99) / 1e3, latency.getMax() / 1e3));
+            }
+
+            return String.format(Locale.ROOT, "Сервер ключ-значение на петлевом интерфейсе: %d записей, "
+                            + "%d соединений, значения %d байт, %.0f%% GET, %d с на глубину%n%n%s",
+                    records, threads, valueSize, readRatio * 100, duration, table);
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * Проверяет все операции протокола, в том числе ответы на конвейер
+     */
+    private static void verify(InetSocketAddress address, int records, byte[] value) throws IOException {
+        try (KvClient<Long> client = KvClient.connect(address, KeyCodec.LONG)) {
+            long key = records + 1L;
+            byte[] first = {1, 2, 3};
+            check(client.put(key, first) == null, "PUT НОВОГО КЛЮЧА ВЕРНУЛ ЗНАЧЕНИЕ");
+            check(Arrays.equals(client.get(key), first), "GET ВЕРНУЛ НЕВЕРНОЕ ЗНАЧЕНИЕ");
+            check(Arrays.equals(client.put(key, new byte[0]), first), "PUT НЕ ВЕРНУЛ ПРЕЖНЕЕ ЗНАЧЕНИЕ");
+            check(client.remove(key).length == 0, "REMOVE НЕ ВЕРНУЛ УДАЛЕННОЕ ЗНАЧЕНИЕ");
+            check(client.get(key) == null && client.remove(key) == null, "КЛЮЧ НЕ УДАЛЕН");
+
+            List<Map.Entry<Long, byte[]>> scan = client.scan(10L, 5);
+            check(scan.size() == Math.min(5, Math.max(0, records - 10)), "SCAN ВЕРНУЛ НЕВЕРНОЕ КОЛИЧЕСТВО ПАР");
+            for (int i = 0; i < scan.size(); i++) {
+                check(scan.get(i).getKey() == 10L + i && Arrays.equals(scan.get(i).getValue(), value),
+                        "SCAN ВЕРНУЛ НЕВЕРНУЮ ПАРУ");
+            }
+
+            // три значения по 7 МиБ не помещаются в один кадр: SCAN возвращает часть пар, остальные - следующий запрос
+            byte[] large = new byte[7 << 20];
+            large[large.length - 1] = 7;
+            for (long i = 0; i < 3; i++) {
+                client.put(key + i, large);
+            }
+            List<Map.Entry<Long, byte[]>> head = client.scan(key, 10);
+            check(!head.isEmpty() && head.size() < 3, "SCAN БОЛЬШИХ ЗНАЧЕНИЙ НЕ ОГРАНИЧЕН ДЛИНОЙ КАДРА");
+            List<Map.Entry<Long, byte[]>> tail = client.scan(head.get(head.size() - 1).getKey() + 1, 10);
+            check(head.size() + tail.size() == 3, "SCAN БОЛЬШИХ ЗНАЧЕНИЙ ПОТЕРЯЛ ПАРЫ");
+            for (int i = 0; i < 3; i++) {
+                Map.Entry<Long, byte[]> entry = i < head.size() ? head.get(i) : tail.get(i - head.size());
+                check(entry.getKey() == key + i && Arrays.equals(entry.getValue(), large),
+                        "SCAN ВЕРНУЛ НЕВЕРНУЮ БОЛЬШУЮ ПАРУ");
+            }
+            for (long i = 0; i < 3; i++) {
+                client.remove(key + i);
+            }
+
+            int depth = 1000;
+            List<Integer> ids = new ArrayList<>(depth);
+            for (int i = 0; i < depth; i++) {
+                ids.add(i % 2 == 0 ? client.sendGet((long) i) : client.sendScan((long) i, 2));
+            }
+            client.flush();
+            for (int i = 0; i < depth; i++) {
+                KvClient.Response<Long> response = client.receive();
+                check(response.getId() == ids.get(i), "ОТВЕТЫ ПРИШЛИ НЕ ПО ПОРЯДКУ");
+                if (i % 2 == 0) {
+                    check(response.getStatus() == (i < records ? KvProtocol.OK : KvProtocol.NOT_FOUND),
+                            "НЕВЕРНЫЙ СТАТУС GET В КОНВЕЙЕРЕ");
+                } else {
+                    check(response.getEntries().size() == Math.min(2, Math.max(0, records - i)),
+                            "НЕВЕРНЫЙ ОТВЕТ SCAN В КОНВЕЙЕРЕ");
+                }
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new IllegalStateException(message);
+        }
+    }
+
+    /**
+     * Один замер: все потоки стартуют одновременно и работают {@code duration} секунд
+     */
+    private static Measurement measure(InetSocketAddress address, int records, int threads, int duration, int depth,
+                                       byte[] value, double readRatio) throws Exception {
+        LatencyHistogram latency = new LatencyHistogram();
+        long[] requests = new long[threads];
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        CountDownLatch ready = new CountDownLatch(threads);
+        CountDownLatch go = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        long[] deadline = new long[1];
+        for (int t = 0; t < threads; t++) {
+            int index = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(index);
+                long[] sent = new long[depth];
+                try (KvClient<Long> client = KvClient.connect(address, KeyCodec.LONG)) {
+                    ready.countDown();
+                    go.await();
+                    long count = 0;
+                    while (System.nanoTime() < deadline[0]) {
+                        for (int i = 0; i < depth; i++) {
+                            long key = random.nextInt(records);
+                            if (random.nextDouble() < readRatio) {
+                                client.sendGet(key);
+                            } else {
+                                client.sendPut(key, value);
+                            }
+                        }
+                        long start = System.nanoTime();
+                        client.flush();
+                        for (int i = 0; i < depth; i++) {
+                            KvClient.Response<Long> response = client.receive();
+                            if (response.getStatus() == KvProtocol.ERROR) {
+                                throw new IllegalStateException("ОШИБКА СЕРВЕРА: " + response.getError());
+                            }
+                            sent[i] = System.nanoTime() - start;
+                        }
+                        for (int i = 0; i < depth; i++) {
+                            latency.record(sent[i]);
+                        }
+                        count += depth;
+                    }
+                    requests[index] = count;
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                    ready.countDown();
+                }
+            }, "kv-client-" + t);
+            workers[t].start();
+        }
+        ready.await();
+        long start = System.nanoTime();
+        deadline[0] = start + duration * 1_000_000_000L;
+        go.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        long elapsed = System.nanoTime() - start;
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        long total = 0;
+        for (long count : requests) {
+            total += count;
+        }
+        return new Measurement(total, elapsed, latency);
+    }
+}
@@ -0,0 +1,178 @@
+package bench;
+
+import java.util.Random;
+
+/**
+ * Описание нагрузки в стиле YCSB: доли операций, распределение ключей и параметры данных.
+ * Стандартные смеси A-F доступны через {@link #preset(String)}
+ */
+public final class Workload {
+
+    /**
+     * Тип операции
+     */
+    public enum Operation {
+        READ, UPDATE, INSERT, SCAN, READ_MODIFY_WRITE
+    }
+
+    private final String name;
+    /**
+     * Накопленные доли операций в порядке {@link Operation#values()}
+     */
+    private final double[] cumulative = new double[Operation.values().length];
+    private KeyChooser.Distribution distribution = KeyChooser.Distribution.ZIPFIAN;
+    /**
+     * Количество записей, загружаемых до начала замера
+     */
+    private long recordCount = 100_000;
+    /**
+     * Размер значения в байтах
+     */
+    private int valueLength = 100;
+    /**
+     * Максимальная длина сканирования (длина выбирается равномерно из [1; maxScanLength])
+     */
+    private int maxScanLength = 100;
+    /**
+     * Вставлять ли ключи по возрастанию (иначе номера записей перемешиваются хешем)
+     */
+    private boolean orderedInserts;
+
+    /**
+     * @param name имя нагрузки
+     * @param read доля чтений
+     * @param update доля обновлений
+     * @param insert доля вставок
+     * @param scan доля сканирований
+     * @param readModifyWrite доля операций чтение-изменение-запись
+     */
+    public Workload(String name, double read, double update, double insert, double scan, double readModifyWrite) {
+        double[] proportions = {read, update, insert, scan, readModifyWrite};
+        double total = 0;
+        for (double proportion : proportions) {
+            if (proportion < 0) {
+                throw new IllegalArgumentException("ОТРИЦАТЕЛЬНАЯ ДОЛЯ ОПЕРАЦИЙ: " + proportion);
+            }
+            total += proportion;
+        }
+        if (total <= 0) {
+            throw new IllegalArgumentException("ПУСТАЯ СМЕСЬ ОПЕРАЦИЙ");
+        }
+        double sum = 0;
+        for (int i = 0; i < proportions.length; i++) {
+            sum += proportions[i] / total;
+            cumulative[i] = sum;
+        }
+        this.name = name;
+    }
+
+    /**
+     * Стандартные нагрузки YCSB:
+     * A - 50% чтений, 50% обновлений;
+     * B - 95% чтений, 5% обновлений;
+     * C - только чтения;
+     * D - 95% чтений последних записей, 5% вставок;
+     * E - 95% коротких сканирований, 5% вставок;
+     * F - 50% чтений, 50% чтение-изменение-запись
+     * @param name буква нагрузки
+     * @return нагрузка
+     */
+    public static Workload preset(String name) {
+        switch (name.toUpperCase()) {
+            case "A":
+                return new Workload("A", 0.5, 0.5, 0, 0, 0);
+            case "B":
+                return new Workload("B", 0.95, 0.05, 0, 0, 0);
+            case "C":
+                return new Workload("C", 1, 0, 0, 0, 0);
+            case "D":
+                return new Workload("D", 0.95, 0, 0.05, 0, 0).setDistribution(KeyChooser.Distribution.LATEST);
+            case "E":
+                return new Workload("E", 0, 0, 0.05, 0.95, 0);
+            case "F":
+                return new Workload("F", 0.5, 0, 0, 0, 0.5);
+            default:
+                throw new IllegalArgumentException("НЕИЗВЕСТНАЯ НАГРУЗКА: " + name);
+        }
+    }
+
+    /**
+     * Выбирает следующую операцию согласно долям
+     * @param random генератор случайных чисел потока
+     * @return операция
+     */
+    public Operation nextOperation(Random random) {
+        double u = random.nextDouble();
+        Operation[] operations = Operation.values();
+        for (int i = 0; i < operations.length - 1; i++) {
+            if (u < cumulative[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * Переводит номер записи в ключ
+     * @param recordNumber номер записи
+     * @return ключ
+     */
+    public Long key(long recordNumber) {
+        return orderedInserts ? recordNumber : KeyChooser.fnvHash(recordNumber);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public KeyChooser.Distribution getDistribution() {
+        return distribution;
+    }
+
+    public Workload setDistribution(KeyChooser.Distribution distribution) {
+        this.distribution = distribution;
+        return this;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    public Workload setRecordCount(long recordCount) {
+        if (recordCount <= 0) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНОЕ КОЛИЧЕСТВО ЗАПИСЕЙ: " + recordCount);
+        }
+        this.recordCount = recordCount;
+        return this;
+    }
+
+    public int getValueLength() {
+        return valueLength;
+    }
+
+    public Workload setValueLength(int valueLength) {
+        this.valueLength = valueLength;
+        return this;
+    }
+
+    public int getMaxScanLength() {
+        return maxScanLength;
+    }
+
+    public Workload setMaxScanLength(int maxScanLength) {
+        if (maxScanLength <= 0) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНАЯ ДЛИНА СКАНИРОВАНИЯ: " + maxScanLength);
+        }
+        this.maxScanLength = maxScanLength;
+        return this;
+    }
+
+    public boolean isOrderedInserts() {
+        return orderedInserts;
+    }
+
+    public Workload setOrderedInserts(boolean orderedInserts) {
+        this.orderedInserts = orderedInserts;
+        return this;
+    }
+}
@@ -0,0 +1,210 @@
+package bench;
+
+import map.metrics.LatencyHistogram;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Генератор нагрузки: загружает в хранилище {@link Workload#getRecordCount()} записей,
+ * затем N потоков в течение заданного времени выполняют смесь операций.
+ * Задержка каждой операции записывается в гистограмму потока, после прогона гистограммы объединяются.
+ * Операции, начатые во время прогрева, не учитываются
+ */
+public final class WorkloadDriver {
+
+    private final Workload workload;
+    private final int threads;
+    private final long durationMillis;
+    private final long warmupMillis;
+
+    /**
+     * @param workload нагрузка
+     * @param threads количество потоков
+     * @param durationMillis длительность замера
+     * @param warmupMillis длительность прогрева перед замером
+     */
+    public WorkloadDriver(Workload workload, int threads, long durationMillis, long warmupMillis) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНОЕ КОЛИЧЕСТВО ПОТОКОВ: " + threads);
+        }
+        if (durationMillis <= 0 || warmupMillis < 0) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНАЯ ДЛИТЕЛЬНОСТЬ: " + durationMillis + "/" + warmupMillis);
+        }
+        this.workload = workload;
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+        this.warmupMillis = warmupMillis;
+    }
+
+    /**
+     * Загружает исходные записи в хранилище (однопоточно, вне замера)
+     * @param store хранилище
+     */
+    public void load(KeyValueStore store) {
+        Random random = new Random(42);
+        for (long i = 0; i < workload.getRecordCount(); i++) {
+            store.write(workload.key(i), newValue(random));
+        }
+    }
+
+    /**
+     * Загружает записи и выполняет нагрузку
+     * @param store хранилище
+     * @return результат прогона
+     */
+    public WorkloadResult run(KeyValueStore store) throws InterruptedException {
+        load(store);
+
+        AtomicLong nextInsert = new AtomicLong(workload.getRecordCount());
+        AcknowledgedCounter inserted = new AcknowledgedCounter(workload.getRecordCount());
+        CountDownLatch start = new CountDownLatch(1);
+        long measureStart = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(warmupMillis);
+        long deadline = measureStart + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+        Worker[] workers = new Worker[threads];
+        Thread[] workerThreads = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(store, start, nextInsert, inserted, measureStart, deadline);
+            workerThreads[i] = new Thread(workers[i], store.getName() + "-worker-" + i);
+            workerThreads[i].start();
+        }
+        start.countDown();
+
+        TimeUnit.NANOSECONDS.sleep(Math.max(0, measureStart - System.nanoTime()));
+        long gcCount = gcCount();
+        long gcTime = gcTimeMillis();
+        for (Thread thread : workerThreads) {
+            thread.join();
+        }
+        gcCount = gcCount() - gcCount;
+        gcTime = gcTimeMillis() - gcTime;
+
+        Map<Workload.Operation, LatencyHistogram> latencies = new EnumMap<>(Workload.Operation.class);
+        long notFound = 0;
+        for (Worker worker : workers) {
+            for (Workload.Operation operation : Workload.Operation.values()) {
+                LatencyHistogram histogram = worker.latencies[operation.ordinal()];
+                if (histogram.getCount() > 0) {
+                    latencies.computeIfAbsent(operation, o -> new LatencyHistogram()).add(histogram);
+                }
+            }
+            notFound += worker.notFound;
+        }
+        return new WorkloadResult(store.getName(), workload, threads, durationMillis, latencies, notFound, gcCount, gcTime);
+    }
+
+    private byte[] newValue(Random random) {
+        byte[] value = new byte[workload.getValueLength()];
+        random.nextBytes(value);
+        return value;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMillis() {
+        long time = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, bean.getCollectionTime());
+        }
+        return time;
+    }
+
+    /**
+     * Поток нагрузки. Номер записи для вставки берется из общего счетчика,
+     * записи для остальных операций выбираются среди уже вставленных: в непрерывном префиксе
+     * подтвержденных вставок ({@link AcknowledgedCounter}), а не среди выданных номеров
+     */
+    private final class Worker implements Runnable {
+
+        private final KeyValueStore store;
+        private final CountDownLatch start;
+        private final AtomicLong nextInsert;
+        private final AcknowledgedCounter inserted;
+        private final long measureStart;
+        private final long deadline;
+        private final LatencyHistogram[] latencies = new LatencyHistogram[Workload.Operation.values().length];
+        private final KeyChooser chooser = workload.getDistribution().newChooser();
+        private long notFound;
+
+        Worker(KeyValueStore store, CountDownLatch start, AtomicLong nextInsert, AcknowledgedCounter inserted,
+               long measureStart, long deadline) {
+            this.store = store;
+            this.start = start;
+            this.nextInsert = nextInsert;
+            this.inserted = inserted;
+            this.measureStart = measureStart;
+            this.deadline = deadline;
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                start.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Random random = ThreadLocalRandom.current();
+            long now = System.nanoTime();
+            while (now < deadline) {
+                Workload.Operation operation = workload.nextOperation(random);
+                byte[] value = operation == Workload.Operation.READ || operation == Workload.Operation.SCAN
+                        ? null
+                        : newValue(random);
+                long recordNumber = operation == Workload.Operation.INSERT
+                        ? nextInsert.getAndIncrement()
+                        : chooser.next(random, inserted.get());
+                Long key = workload.key(recordNumber);
+                int scanLength = operation == Workload.Operation.SCAN ? 1 + random.nextInt(workload.getMaxScanLength()) : 0;
+
+                long startTime = System.nanoTime();
+                boolean found = true;
+                switch (operation) {
+                    case READ:
+                        found = store.read(key) != null;
+                        break;
+                    case UPDATE:
+                    case INSERT:
+                        store.write(key, value);
+                        break;
+                    case SCAN:
+                        found = store.scan(key, scanLength) > 0;
+                        break;
+                    case READ_MODIFY_WRITE:
+                        found = store.readModifyWrite(key, value) != null;
+                        break;
+                    default:
+                        break;
+                }
+                now = System.nanoTime();
+
+                if (operation == Workload.Operation.INSERT) {
+                    inserted.acknowledge(recordNumber);
+                }
+                if (startTime >= measureStart) {
+                    latencies[operation.ordinal()].record(now - startTime);
+                    if (!found) {
+                        notFound++;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package bench;
+
+import map.BPlusTreeMap;
+import map.BTreeMap;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Запуск нагрузки из командной строки на {@code BPlusTreeMap}, {@code BTreeMap} и эталонной {@code TreeMap}.
+ * Параметры передаются в виде {@code --имя=значение}:
+ * <pre>
+ * --workload=A          нагрузка YCSB (A-F)
+ * --distribution=...    uniform / zipfian / latest (по умолчанию - как в нагрузке)
+ * --records=100000      количество загружаемых записей
+ * --value=100           размер значения в байтах
+ * --scan=100            максимальная длина сканирования
+ * --ordered=false       вставлять ключи по возрастанию
+ * --threads=1           количество потоков
+ * --duration=10         длительность замера в секундах
+ * --warmup=2            длительность прогрева в секундах
+ * --degree=64           степень B+ дерева (B дерево получает степень degree / 2)
+ * --stores=bplus,b,treemap
+ * --out=results.csv     файл результатов (.csv или .json)
+ * </pre>
+ */
+public class WorkloadMain {
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Map<String, String> options = parseOptions(args);
+
+        Workload workload = Workload.preset(options.getOrDefault("workload", "A"))
+                .setRecordCount(Long.parseLong(options.getOrDefault("records", "100000")))
+                .setValueLength(Integer.parseInt(options.getOrDefault("value", "100")))
+                .setMaxScanLength(Integer.parseInt(options.getOrDefault("scan", "100")))
+                .setOrderedInserts(Boolean.parseBoolean(options.getOrDefault("ordered", "false")));
+        if (options.containsKey("distribution")) {
+            workload.setDistribution(KeyChooser.Distribution.valueOf(options.get("distribution").toUpperCase()));
+        }
+        int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        long duration = Long.parseLong(options.getOrDefault("duration", "10")) * 1000;
+        long warmup = Long.parseLong(options.getOrDefault("warmup", "2")) * 1000;
+        int degree = Integer.parseInt(options.getOrDefault("degree", "64"));
+
+        WorkloadDriver driver = new WorkloadDriver(workload, threads, duration, warmup);
+        List<WorkloadResult> results = new ArrayList<>();
+        for (String storeName : options.getOrDefault("stores", "bplus,b,treemap").split(",")) {
+            KeyValueStore store = createStore(storeName.trim(), degree);
+            System.gc();
+            WorkloadResult result = driver.run(store);
+            System.out.println(result);
+            results.add(result);
+        }
+
+        if (options.containsKey("out")) {
+            Path out = Paths.get(options.get("out"));
+            if (out.toString().endsWith(".json")) {
+                WorkloadResult.writeJson(results, out);
+            } else {
+                WorkloadResult.writeCsv(results, out);
+            }
+        }
+    }
+
+    private static KeyValueStore createStore(String name, int degree) {
+        switch (name) {
+            case "bplus":
+                return KeyValueStore.of("BPlusTreeMap(" + degree + ")", new BPlusTreeMap<>(degree));
+            case "b":
+                int minDegree = Math.max(2, degree / 2);
+                return KeyValueStore.of("BTreeMap(" + minDegree + ")", new BTreeMap<>(minDegree));
+            case "treemap":
+                return KeyValueStore.of("TreeMap", new TreeMap<>());
+            default:
+                throw new IllegalArgumentException("НЕИЗВЕСТНОЕ ХРАНИЛИЩЕ: " + name);
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        return options;
+    }
+}
@@ -0,0 +1,185 @@
+package bench;
+
+import map.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Результат прогона нагрузки на одном хранилище: пропускная способность,
+ * гистограммы задержек по типам операций (в наносекундах) и работа сборщика мусора за время замера
+ */
+public final class WorkloadResult {
+
+    private static final String CSV_HEADER = "store,workload,distribution,threads,records,duration_ms,operation,"
+            + "count,throughput_ops,mean_ns,p50_ns,p99_ns,p999_ns,max_ns,not_found,gc_count,gc_time_ms";
+
+    private final String store;
+    private final Workload workload;
+    private final int threads;
+    private final long durationMillis;
+    private final Map<Workload.Operation, LatencyHistogram> latencies;
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final long notFound;
+    private final long gcCount;
+    private final long gcTimeMillis;
+
+    WorkloadResult(String store, Workload workload, int threads, long durationMillis,
+                   Map<Workload.Operation, LatencyHistogram> latencies, long notFound, long gcCount, long gcTimeMillis) {
+        this.store = store;
+        this.workload = workload;
+        this.threads = threads;
+        this.durationMillis = durationMillis;
+        this.latencies = new EnumMap<>(latencies);
+        this.notFound = notFound;
+        this.gcCount = gcCount;
+        this.gcTimeMillis = gcTimeMillis;
+        for (LatencyHistogram histogram : latencies.values()) {
+            total.add(histogram);
+        }
+    }
+
+    public String getStore() {
+        return store;
+    }
+
+    public Workload getWorkload() {
+        return workload;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * Гистограмма задержек операций заданного типа
+     * @param operation тип операции
+     * @return гистограмма (пустая, если операций не было)
+     */
+    public LatencyHistogram getLatency(Workload.Operation operation) {
+        LatencyHistogram histogram = latencies.get(operation);
+        return histogram == null ? new LatencyHistogram() : histogram;
+    }
+
+    /**
+     * Гистограмма задержек всех операций
+     */
+    public LatencyHistogram getTotalLatency() {
+        return total;
+    }
+
+    public long getOperations() {
+        return total.getCount();
+    }
+
+    /**
+     * Пропускная способность
+     * @return операций в секунду
+     */
+    public double getThroughput() {
+        return throughput(total);
+    }
+
+    /**
+     * Количество чтений, не нашедших ключ (ключи вставок, еще не завершенных другими потоками)
+     */
+    public long getNotFound() {
+        return notFound;
+    }
+
+    public long getGcCount() {
+        return gcCount;
+    }
+
+    public long getGcTimeMillis() {
+        return gcTimeMillis;
+    }
+
+    private double throughput(LatencyHistogram histogram) {
+        return durationMillis == 0 ? 0 : histogram.getCount() * 1000.0 / durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%s [%s, %s, %d потоков]: %.0f оп/с, p50 = %d нс, p99 = %d нс, p99.9 = %d нс, max = %d нс, GC: %d (%d мс)",
+                store, workload.getName(), workload.getDistribution(), threads, getThroughput(),
+                total.percentile(50), total.percentile(99), total.percentile(99.9), total.getMax(), gcCount, gcTimeMillis);
+    }
+
+    /**
+     * Записывает результаты в CSV: по строке на каждый тип операции и итоговую строку ALL
+     * @param results результаты
+     * @param path файл (перезаписывается)
+     */
+    public static void writeCsv(List<WorkloadResult> results, Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write(CSV_HEADER);
+            out.write('\n');
+            for (WorkloadResult result : results) {
+                for (Map.Entry<Workload.Operation, LatencyHistogram> entry : result.latencies.entrySet()) {
+                    result.writeCsvRow(out, entry.getKey().name(), entry.getValue());
+                }
+                result.writeCsvRow(out, "ALL", result.total);
+            }
+        }
+    }
+
+    private void writeCsvRow(Writer out, String operation, LatencyHistogram histogram) throws IOException {
+        out.write(String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%s,%d,%.1f,%.1f,%d,%d,%d,%d,%d,%d,%d%n",
+                store, workload.getName(), workload.getDistribution(), threads, workload.getRecordCount(), durationMillis,
+                operation, histogram.getCount(), throughput(histogram), histogram.getMean(),
+                histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9), histogram.getMax(),
+                notFound, gcCount, gcTimeMillis));
+    }
+
+    /**
+     * Записывает результаты в JSON: массив объектов, по объекту на прогон
+     * @param results результаты
+     * @param path файл (перезаписывается)
+     */
+    public static void writeJson(List<WorkloadResult> results, Path path) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("[\n");
+            for (int i = 0; i < results.size(); i++) {
+                results.get(i).writeJson(out);
+                out.write(i + 1 < results.size() ? ",\n" : "\n");
+            }
+            out.write("]\n");
+        }
+    }
+
+    private void writeJson(Writer out) throws IOException {
+        out.write(String.format(Locale.ROOT, "  {\"store\": %s, \"workload\": %s, \"distribution\": \"%s\", \"threads\": %d, "
+                        + "\"records\": %d, \"durationMs\": %d, \"notFound\": %d, \"gcCount\": %d, \"gcTimeMs\": %d, \"operations\": {",
+                quote(store), quote(workload.getName()), workload.getDistribution(), threads,
+                workload.getRecordCount(), durationMillis, notFound, gcCount, gcTimeMillis));
+        for (Map.Entry<Workload.Operation, LatencyHistogram> entry : latencies.entrySet()) {
+            writeJsonLatency(out, entry.getKey().name(), entry.getValue());
+            out.write(", ");
+        }
+        writeJsonLatency(out, "ALL", total);
+        out.write("}}");
+    }
+
+    private void writeJsonLatency(Writer out, String operation, LatencyHistogram histogram) throws IOException {
+        out.write(String.format(Locale.ROOT, "\"%s\": {\"count\": %d, \"throughput\": %.1f, \"meanNs\": %.1f, "
+                        + "\"p50Ns\": %d, \"p99Ns\": %d, \"p999Ns\": %d, \"maxNs\": %d}",
+                operation, histogram.getCount(), throughput(histogram), histogram.getMean(),
+                histogram.percentile(50), histogram.percentile(99), histogram.percentile(99.9), histogram.getMax()));
+    }
+
+    private static String quote(String text) {
+        return "\"" + text.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
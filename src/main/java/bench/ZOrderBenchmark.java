@@ -0,0 +1,199 @@
+package bench;
+
+import map.BPlusTreeMap;
+import map.spatial.ZOrderIndex;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Замер запросов по прямоугольнику к {@link ZOrderIndex} против полного перебора точек
+ * и индекса по одной координате. Точки равномерно распределены в кубе со стороной {@code 2^20}
+ * (два измерения) или {@code 2^16} (три измерения, например {@code (x, y, время)}); прямоугольники
+ * запросов - кубы в случайном месте, в которые попадает заданная доля точек.
+ * <ul>
+ *     <li>перебор - проверка всех точек, координаты которых лежат в массивах</li>
+ *     <li>индекс по x - {@link BPlusTreeMap} с ключом {@code x * n + номер точки}: выборка
+ *     диапазона по первой координате, остальные проверяются по массивам</li>
+ *     <li>Z-порядок - {@link ZOrderIndex} без деления запроса (только перескоки BIGMIN)
+ *     и с делением на {@value #SPLIT_RANGES} отрезков</li>
+ * </ul>
+ * Результат - таблица Markdown. Параметры:
+ * {@code --points=1000000 --queries=200 --dims=2,3 --selectivity=0.0001,0.001,0.01 --out=zorder.md}
+ */
+public class ZOrderBenchmark {
+
+    private static final int DEGREE = 64;
+
+    /**
+     * Количество отрезков, на которые делится запрос во втором замере Z-порядка
+     */
+    private static final int SPLIT_RANGES = 16;
+
+    /**
+     * Количество замеров каждого способа
+     */
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        int points = 1_000_000;
+        int queries = 200;
+        int[] dims = {2, 3};
+        double[] selectivities = {0.0001, 0.001, 0.01};
+        String out = null;
+        for (String arg : args) {
+            if (arg.startsWith("--points=")) {
+                points = Integer.parseInt(arg.substring("--points=".length()));
+            } else if (arg.startsWith("--queries=")) {
+                queries = Integer.parseInt(arg.substring("--queries=".length()));
+            } else if (arg.startsWith("--dims=")) {
+                String[] parts = arg.substring("--dims=".length()).split(",");
+                dims = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    dims[i] = Integer.parseInt(parts[i].trim());
+                }
+            } else if (arg.startsWith("--selectivity=")) {
+                String[] parts = arg.substring("--selectivity=".length()).split(",");
+                selectivities = new double[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    selectivities[i] = Double.parseDouble(parts[i].trim());
+                }
+            } else if (arg.startsWith("--out=")) {
+                out = arg.substring("--out=".length());
+            } else {
+                throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПАРАМЕТР: " + arg);
+            }
+        }
+
+        String report = run(points, queries, dims, selectivities);
+        System.out.println(report);
+        if (out != null) {
+            Files.write(Paths.get(out), report.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Выполняет все замеры
+     * @param points количество точек
+     * @param queries количество запросов на каждую долю
+     * @param dims количества измерений
+     * @param selectivities доли точек, попадающих в прямоугольник запроса
+     * @return отчет в формате Markdown
+     */
+    public static String run(int points, int queries, int[] dims, double[] selectivities) {
+        StringBuilder table = new StringBuilder();
+        table.append("| Измерений | Доля точек | Точек в ответе | Перебор, мкс | Индекс по x, мкс "
+                + "| Z-порядок, 1 отрезок, мкс | Z-порядок, " + SPLIT_RANGES + " отрезков, мкс |\n");
+        table.append("| --- | --- | --- | --- | --- | --- | --- |\n");
+        for (int d : dims) {
+            int side = d == 2 ? 1 << 20 : 1 << 16;
+            Random random = new Random(42);
+            int[][] coordinates = new int[d][points];
+            ZOrderIndex<Integer> index = new ZOrderIndex<>(d, DEGREE);
+            BPlusTreeMap<Long, Integer> byX = new BPlusTreeMap<>(DEGREE);
+            int[] point = new int[d];
+            for (int i = 0; i < points; i++) {
+                // индекс хранит одно значение на точку, поэтому совпавшие точки выбираются заново
+                do {
+                    for (int k = 0; k < d; k++) {
+                        point[k] = random.nextInt(side);
+                        coordinates[k][i] = point[k];
+                    }
+                } while (index.get(point) != null);
+                index.put(point, i);
+                byX.put((long) point[0] * points + i, i);
+            }
+
+            for (double selectivity : selectivities) {
+                int extent = Math.max(1, (int) (side * Math.pow(selectivity, 1.0 / d)));
+                int[][] lows = new int[queries][d];
+                int[][] highs = new int[queries][d];
+                for (int q = 0; q < queries; q++) {
+                    for (int k = 0; k < d; k++) {
+                        lows[q][k] = random.nextInt(side - extent + 1);
+                        highs[q][k] = lows[q][k] + extent - 1;
+                    }
+                }
+
+                double[] best = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+                long expected = -1;
+                // способы чередуются, берется лучший из замеров: первый проход также служит прогревом
+                for (int round = 0; round < ROUNDS; round++) {
+                    long[] found = new long[4];
+                    long start = System.nanoTime();
+                    for (int q = 0; q < queries; q++) {
+                        found[0] += scan(coordinates, lows[q], highs[q]);
+                    }
+                    long scanned = System.nanoTime();
+                    for (int q = 0; q < queries; q++) {
+                        found[1] += filterByX(byX, coordinates, points, lows[q], highs[q]);
+                    }
+                    long filtered = System.nanoTime();
+                    index.setMaxRanges(1);
+                    for (int q = 0; q < queries; q++) {
+                        found[2] += index.count(lows[q], highs[q]);
+                    }
+                    long jumped = System.nanoTime();
+                    index.setMaxRanges(SPLIT_RANGES);
+                    for (int q = 0; q < queries; q++) {
+                        found[3] += index.count(lows[q], highs[q]);
+                    }
+                    long split = System.nanoTime();
+                    for (long count : found) {
+                        if (count != found[0]) {
+                            throw new IllegalStateException("РЕЗУЛЬТАТЫ РАСХОДЯТСЯ: " + Arrays.toString(found));
+                        }
+                    }
+                    expected = found[0];
+                    best[0] = Math.min(best[0], (scanned - start) / 1e3 / queries);
+                    best[1] = Math.min(best[1], (filtered - scanned) / 1e3 / queries);
+                    best[2] = Math.min(best[2], (jumped - filtered) / 1e3 / queries);
+                    best[3] = Math.min(best[3], (split - jumped) / 1e3 / queries);
+                }
+                table.append(String.format(Locale.ROOT, "| %d | %s | %.1f | %.1f | %.1f | %.1f | %.1f |%n", d,
+                        selectivity, (double) expected / queries, best[0], best[1], best[2], best[3]));
+            }
+        }
+        return String.format(Locale.ROOT, "Запросы по прямоугольнику: %d точек, равномерное распределение, "
+                + "%d запросов, степень деревьев %d%n%n%s", points, queries, DEGREE, table);
+    }
+
+    private static int scan(int[][] coordinates, int[] low, int[] high) {
+        int count = 0;
+        int points = coordinates[0].length;
+        for (int i = 0; i < points; i++) {
+            if (inBox(coordinates, i, low, high, 0)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int filterByX(BPlusTreeMap<Long, Integer> byX, int[][] coordinates, int points, int[] low, int[] high) {
+        int count = 0;
+        Iterator<Map.Entry<Long, Integer>> iterator = byX.entries((long) low[0] * points, (long) (high[0] + 1) * points);
+        while (iterator.hasNext()) {
+            if (inBox(coordinates, iterator.next().getValue(), low, high, 1)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean inBox(int[][] coordinates, int i, int[] low, int[] high, int from) {
+        for (int k = from; k < low.length; k++) {
+            int value = coordinates[k][i];
+            if (value < low[k] || value > high[k]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -1,6 +1,10 @@
 package map;
 
-import TreantGenerator.iTreeMapGenerator.TreeTreantNode;
+import map.metrics.TreeMetrics;
+import map.stats.HeapLayout;
+import map.stats.TreeStats;
+import map.trace.StructureEvent;
+import map.trace.StructureTrace;
 
 import java.util.*;
 
@@ -30,13 +34,51 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
     /**
      * Корень дерева
      */
-    private Node root;
+    private Node<K, V> root;
 
     /**
      * Количество элементов
      */
     private int size;
 
+    /**
+     * Крайний правый лист (содержит наибольшие ключи).
+     * Поддерживается при разломах и слияниях листов
+     */
+    private LeafNode<K, V> lastLeaf;
+
+    /**
+     * Счетчик структурных изменений (разломов, слияний, заимствований, смены корня).
+     * По нему курсоры определяют, что запомненный путь от корня устарел
+     */
+    private int modCount;
+
+    /**
+     * Метрики дерева, {@code null} если сбор метрик выключен
+     */
+    private TreeMetrics metrics;
+
+    /**
+     * Трасса структурных событий, {@code null} если трассировка выключена
+     */
+    private StructureTrace trace;
+
+    /**
+     * Пулы освободившихся листов и внутренних узлов, {@code null} если пул выключен
+     */
+    private NodePool<LeafNode<K, V>> leafPool;
+    private NodePool<InternalNode<K, V>> internalPool;
+
+    /**
+     * Последний выданный номер узла (см. {@link Node#id})
+     */
+    private int lastNodeId;
+
+    /**
+     * Интерполяционный поиск в узлах вместо бинарного
+     */
+    private boolean interpolationSearch;
+
     /**
      * Конструктор по умолчанию
      */
@@ -53,18 +95,26 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
             throw new IllegalArgumentException("НЕКОРРЕКТНАЯ СТЕПЕНЬ ДЕРЕВА: " + treeDegree);
         }
         this.treeDegree = treeDegree;
-        root = new LeafNode();
+        root = newLeaf();
+        lastLeaf = (LeafNode<K, V>) root;
     }
 
     /**
      * Абстрактный класс {@code Node}
      * декларирующий поведение для всех узлов структуры
      * дерева вида B+ tree.
-     * Также объявляет общий для узлов элемент - массив ключей
+     * Также объявляет общий для узлов элемент - массив ключей.
+     * Узлы не ссылаются на дерево: дерево, в котором выполняется операция, передается
+     * параметром, поэтому поддеревья можно переносить между картами ({@link #splitAt}, {@link #join})
      */
-    private abstract class Node {
+    private abstract static class Node<K extends Comparable<? super K>, V> {
         List<K> keys;
-        List<Node> children;
+        List<Node<K, V>> children;
+        /**
+         * Номер узла в трассе структурных событий: выдается деревом при создании узла
+         * и заново при взятии из пула, поэтому переиспользованный узел не сливается в трассе с прежним
+         */
+        int id;
         /**
          * Возвращает количетсво ключей
          */
@@ -72,25 +122,36 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
             return keys.size();
         }
 
+        /**
+         * Поиск ключа в массиве ключей узла
+         * @param key ключ
+         * @return индекс ключа или {@code -(точка вставки) - 1}
+         */
+        int search(BPlusTreeMap<K, V> tree, K key) {
+            return tree.interpolationSearch ? InterpolationSearch.search(keys, key) : Collections.binarySearch(keys, key);
+        }
+
         /**
          * Производит получение значения узла по ключу
          * @param key ключ
          * @return значение
          */
-        abstract V getValue(K key);
+        abstract V getValue(BPlusTreeMap<K, V> tree, K key);
 
         /**
          * Производит удаление значения из узла по заданному ключу
          * @param key ключ
+         * @return удаленное значение или {@code null}, если ключ не найден
          */
-        abstract void removeValue(K key);
+        abstract V removeValue(BPlusTreeMap<K, V> tree, K key);
 
         /**
          * Помещает пару ключ-значение в узел
          * @param key ключ
          * @param value значение
+         * @return предыдущее значение или {@code null}, если ключа не было
          */
-        abstract void putValue(K key, V value);
+        abstract V putValue(BPlusTreeMap<K, V> tree, K key, V value);
 
         /**
          * Возвращает первый ключ в узле
@@ -99,34 +160,59 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
         abstract K getFirstLeafKey();
 
         /**
-         * Слияние текущего узла с узлом на входе
+         * Слияние текущего узла с правым соседом
+         * @param separator ключ-разделитель соседей в родительском узле
          * @param node узел
          */
-        abstract void merge(Node node);
+        abstract void merge(BPlusTreeMap<K, V> tree, K separator, Node<K, V> node);
+
+        /**
+         * Перенос крайнего правого элемента левого соседа в начало текущего узла
+         * @param separator ключ-разделитель соседей в родительском узле
+         * @param left левый сосед
+         * @return новый ключ-разделитель
+         */
+        abstract K borrowFromLeft(K separator, Node<K, V> left);
+
+        /**
+         * Перенос крайнего левого элемента правого соседа в конец текущего узла
+         * @param separator ключ-разделитель соседей в родительском узле
+         * @param right правый сосед
+         * @return новый ключ-разделитель
+         */
+        abstract K borrowFromRight(K separator, Node<K, V> right);
 
         /**
          * Разлом узла
+         * @param packed плотный разлом: в текущем узле остается максимум элементов,
+         *               в новый правый узел переносятся только последние
          * @return образованный узел
          */
-        abstract Node split();
+        abstract Node<K, V> split(BPlusTreeMap<K, V> tree, boolean packed);
 
         /**
          * Сообщает о переполнении массива ключей (
          * @return true/false
          */
-        abstract boolean isOverflow();
+        abstract boolean isOverflow(BPlusTreeMap<K, V> tree);
 
         /**
          * Проверяет на половинную заполненность массива
          * @return true/false
          */
-        abstract boolean isUnderflow();
+        abstract boolean isUnderflow(BPlusTreeMap<K, V> tree);
+
+        /**
+         * Проверяет, может ли узел отдать элемент соседу, не став недозаполненным
+         * @return true/false
+         */
+        abstract boolean canLend(BPlusTreeMap<K, V> tree);
     }
 
     /**
      *  Внутренний узел, занимающийся хранением и обработкой массива с потомками
      */
-    private class InternalNode extends Node {
+    private static class InternalNode<K extends Comparable<? super K>, V> extends Node<K, V> {
 
 
 
@@ -136,46 +222,34 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
         }
 
         @Override
-        V getValue(K key) {
-            return getChild(key).getValue(key);
+        V getValue(BPlusTreeMap<K, V> tree, K key) {
+            return getChild(tree, key).getValue(tree, key);
         }
 
         @Override
-        void removeValue(K key) {
-            Node child = getChild(key);
-            child.removeValue(key);
-            if (child.isUnderflow()) {
-                Node childLeftSibling = getChildLeftSibling(key);
-                Node childRightSibling = getChildRightSibling(key);
-                Node left = childLeftSibling != null ? childLeftSibling : child;
-                Node right = childLeftSibling != null ? child : childRightSibling;
-                left.merge(right);
-                removeChild(right.getFirstLeafKey());
-                if (left.isOverflow()) {
-                    Node sibling = left.split();
-                    putChild(sibling.getFirstLeafKey(), sibling);
-                }
-                if (root.keyQuantity() == 0)
-                    root = left;
+        V removeValue(BPlusTreeMap<K, V> tree, K key) {
+            int childIndex = getChildIndex(tree, key);
+            Node<K, V> child = children.get(childIndex);
+            V value = child.removeValue(tree, key);
+            if (child.isUnderflow(tree)) {
+                rebalanceChild(tree, childIndex);
             }
+            return value;
         }
 
         @Override
-        void putValue(K key, V value) {
-            Node child = getChild(key);
-            child.putValue(key, value);
-            if (child.isOverflow()) {
-                Node sibling = child.split();
+        V putValue(BPlusTreeMap<K, V> tree, K key, V value) {
+            Node<K, V> child = getChild(tree, key);
+            V oldValue = child.putValue(tree, key, value);
+            if (child.isOverflow(tree)) {
+                Node<K, V> sibling = child.split(tree, tree.isAppend(key));
                 putChild(sibling.getFirstLeafKey(), sibling);
+                tree.onSplit(this, child, sibling);
             }
-            if (root.isOverflow()) {
-                Node sibling = split();
-                InternalNode newRoot = new InternalNode();
-                newRoot.keys.add(sibling.getFirstLeafKey());
-                newRoot.children.add(this);
-                newRoot.children.add(sibling);
-                root = newRoot;
+            if (tree.root.isOverflow(tree)) {
+                tree.splitRoot(key);
             }
+            return oldValue;
         }
 
         @Override
@@ -184,58 +258,76 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
         }
 
         @Override
-        void merge(Node sibling) {
-            InternalNode node = (InternalNode) sibling;
-            keys.add(node.getFirstLeafKey());
-            keys.addAll(node.keys);
-            children.addAll(node.children);
+        void merge(BPlusTreeMap<K, V> tree, K separator, Node<K, V> sibling) {
+            InternalNode<K, V> node = (InternalNode<K, V>) sibling;
+            keys.add(separator);
+            copy(node.keys, 0, node.keys.size(), keys);
+            copy(node.children, 0, node.children.size(), children);
+        }
+
+        @Override
+        K borrowFromLeft(K separator, Node<K, V> left) {
+            int last = left.keyQuantity() - 1;
+            keys.add(0, separator);
+            children.add(0, left.children.remove(last + 1));
+            return left.keys.remove(last);
         }
 
         @Override
-        Node split() {
-            int from = keyQuantity() / 2 + 1;
+        K borrowFromRight(K separator, Node<K, V> right) {
+            keys.add(separator);
+            children.add(right.children.remove(0));
+            return right.keys.remove(0);
+        }
+
+        @Override
+        Node<K, V> split(BPlusTreeMap<K, V> tree, boolean packed) {
             int to = keyQuantity();
-            InternalNode sibling = new InternalNode();
-            sibling.keys.addAll(keys.subList(from, to));
-            sibling.children.addAll(children.subList(from, to + 1));
+            // при плотном разломе новому узлу достаются два последних потомка:
+            // у каждого узла должен оставаться сосед для заимствования и слияния
+            int from = packed ? to - 1 : to / 2 + 1;
+            InternalNode<K, V> sibling = tree.newInternal();
+            copy(keys, from, to, sibling.keys);
+            copy(children, from, to + 1, sibling.children);
 
-            keys.subList(from - 1, to).clear();
-            children.subList(from, to + 1).clear();
+            truncate(keys, from - 1);
+            truncate(children, from);
 
             return sibling;
         }
 
         @Override
-        boolean isOverflow() {
-            return children.size() > treeDegree;
+        boolean isOverflow(BPlusTreeMap<K, V> tree) {
+            return children.size() > tree.treeDegree;
+        }
+
+        @Override
+        boolean isUnderflow(BPlusTreeMap<K, V> tree) {
+            return children.size() < (tree.treeDegree + 1) / 2;
         }
 
         @Override
-        boolean isUnderflow() {
-            return children.size() < (treeDegree + 1) / 2;
+        boolean canLend(BPlusTreeMap<K, V> tree) {
+            return children.size() > (tree.treeDegree + 1) / 2;
         }
 
         /**
-         * Находит потомка узла по ключу
+         * Находит индекс потомка, в поддереве которого должен находиться ключ
          * @param key ключ
-         * @return искомый {@code Node} потомок
+         * @return индекс потомка
          */
-        Node getChild(K key) {
-            int index = Collections.binarySearch(keys, key);
-            int childIndex = index >= 0 ? index + 1 : -index - 1;
-            return children.get(childIndex);
+        int getChildIndex(BPlusTreeMap<K, V> tree, K key) {
+            int index = search(tree, key);
+            return index >= 0 ? index + 1 : -index - 1;
         }
 
         /**
-         * Производит удаление потомка узла по ключу
+         * Находит потомка узла по ключу
          * @param key ключ
+         * @return искомый {@code Node} потомок
          */
-        void removeChild(K key) {
-            int index = Collections.binarySearch(keys, key);
-            if (index >= 0) {
-                keys.remove(index);
-                children.remove(index + 1);
-            }
+        Node<K, V> getChild(BPlusTreeMap<K, V> tree, K key) {
+            return children.get(getChildIndex(tree, key));
         }
 
         /**
@@ -243,7 +335,7 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
          * @param key ключ
          * @param child значение
          */
-        void putChild(K key, Node child) {
+        void putChild(K key, Node<K, V> child) {
             int index = Collections.binarySearch(keys, key);
             int childIndex = index >= 0 ? index + 1 : -index - 1;
             if (index >= 0) {
@@ -255,85 +347,93 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
         }
 
         /**
-         * Возвращает левый соседский узел
-         * @param key ключ
-         * @return
-         *      искомый узел, если н существует, или {@code null}
-         *      если не существует
-         */
-        Node getChildLeftSibling(K key) {
-            int index = Collections.binarySearch(keys, key);
-            int childIndex = index >= 0 ? index + 1 : -index - 1;
-            if (childIndex > 0)
-                return children.get(childIndex - 1);
-
-            return null;
-        }
-
-        /**
-         * Возвращает правый соседский узел
-         * @param key ключ
-         * @return
-         *      искомый узел, если н существует, или {@code null}
-         *      если не существует
+         * Восстанавливает заполненность недозаполненного потомка:
+         * сначала пытается занять элемент у соседа, иначе сливает потомка с соседом.
+         * Соседи определяются по индексу, а не по ключу, так как ключи-разделители
+         * после удалений могут не совпадать с первыми ключами поддеревьев
+         * @param tree дерево, в котором выполняется операция
+         * @param childIndex индекс недозаполненного потомка
          */
-        Node getChildRightSibling(K key) {
-            int index = Collections.binarySearch(keys, key);
-            int childIndex = index >= 0 ? index + 1 : -index - 1;
-            if (childIndex < keyQuantity())
-                return children.get(childIndex + 1);
+        void rebalanceChild(BPlusTreeMap<K, V> tree, int childIndex) {
+            Node<K, V> child = children.get(childIndex);
+            Node<K, V> left = childIndex > 0 ? children.get(childIndex - 1) : null;
+            Node<K, V> right = childIndex < keyQuantity() ? children.get(childIndex + 1) : null;
 
-            return null;
+            if (left != null && left.canLend(tree)) {
+                keys.set(childIndex - 1, child.borrowFromLeft(keys.get(childIndex - 1), left));
+                tree.onBorrow(StructureEvent.Type.BORROW_LEFT, this, child, left);
+            } else if (right != null && right.canLend(tree)) {
+                keys.set(childIndex, child.borrowFromRight(keys.get(childIndex), right));
+                tree.onBorrow(StructureEvent.Type.BORROW_RIGHT, this, child, right);
+            } else if (left != null) {
+                left.merge(tree, keys.remove(childIndex - 1), child);
+                children.remove(childIndex);
+                tree.onMerge(this, left, child);
+                tree.recycle(child);
+            } else if (right != null) {
+                child.merge(tree, keys.remove(childIndex), right);
+                children.remove(childIndex + 1);
+                tree.onMerge(this, child, right);
+                tree.recycle(right);
+            }
         }
     }
 
     /**
      * Узел дерева, занимающийся хранением и обработкой массива значений
      */
-    private class LeafNode extends Node {
+    private static class LeafNode<K extends Comparable<? super K>, V> extends Node<K, V> {
 
         List<V> values;
-        LeafNode next;
+        LeafNode<K, V> next;
 
         LeafNode() {
             keys = new ArrayList<>();
             values = new ArrayList<>();
         }
 
+        /**
+         * Поиск ключа в листе. Сжатые ключи ищутся без распаковки
+         * @param key ключ
+         * @return индекс ключа или {@code -(точка вставки) - 1}
+         */
+        int indexOf(BPlusTreeMap<K, V> tree, K key) {
+            return keys instanceof CompactKeys ? ((CompactKeys<K>) keys).search(key) : search(tree, key);
+        }
+
         @Override
-        V getValue(K key) {
-            int index = Collections.binarySearch(keys, key);
+        V getValue(BPlusTreeMap<K, V> tree, K key) {
+            int index = indexOf(tree, key);
             return index >= 0 ? values.get(index) : null;
         }
 
         @Override
-        void removeValue(K key) {
-            int index = Collections.binarySearch(keys, key);
+        V removeValue(BPlusTreeMap<K, V> tree, K key) {
+            int index = indexOf(tree, key);
             if (index >= 0) {
                 keys.remove(index);
-                values.remove(index);
-                size--;
+                tree.size--;
+                return values.remove(index);
             }
+            return null;
         }
 
         @Override
-        void putValue(K key, V value) {
-            int index = Collections.binarySearch(keys, key);
+        V putValue(BPlusTreeMap<K, V> tree, K key, V value) {
+            int index = indexOf(tree, key);
             int valueIndex = index >= 0 ? index : -index - 1;
+            V oldValue = null;
             if (index >= 0) {
-                values.set(valueIndex, value);
+                oldValue = values.set(valueIndex, value);
             } else {
                 keys.add(valueIndex, key);
                 values.add(valueIndex, value);
+                tree.size++;
             }
-            if (root.isOverflow()) {
-                Node sibling = split();
-                InternalNode newRoot = new InternalNode();
-                newRoot.keys.add(sibling.getFirstLeafKey());
-                newRoot.children.add(this);
-                newRoot.children.add(sibling);
-                root = newRoot;
+            if (tree.root.isOverflow(tree)) {
+                tree.splitRoot(key);
             }
+            return oldValue;
         }
 
         @Override
@@ -342,37 +442,145 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
         }
 
         @Override
-        void merge(Node sibling) {
-            LeafNode node = (LeafNode) sibling;
-            keys.addAll(node.keys);
-            values.addAll(node.values);
+        void merge(BPlusTreeMap<K, V> tree, K separator, Node<K, V> sibling) {
+            LeafNode<K, V> node = (LeafNode<K, V>) sibling;
+            copy(node.keys, 0, node.keys.size(), keys);
+            copy(node.values, 0, node.values.size(), values);
             next = node.next;
+            if (tree.lastLeaf == node) {
+                tree.lastLeaf = this;
+            }
+        }
+
+        @Override
+        K borrowFromLeft(K separator, Node<K, V> sibling) {
+            LeafNode<K, V> left = (LeafNode<K, V>) sibling;
+            int last = left.keyQuantity() - 1;
+            keys.add(0, left.keys.remove(last));
+            values.add(0, left.values.remove(last));
+            return keys.get(0);
+        }
+
+        @Override
+        K borrowFromRight(K separator, Node<K, V> sibling) {
+            LeafNode<K, V> right = (LeafNode<K, V>) sibling;
+            keys.add(right.keys.remove(0));
+            values.add(right.values.remove(0));
+            return right.keys.get(0);
         }
 
         @Override
-        Node split() {
-            LeafNode node = new LeafNode();
-            int from = (keyQuantity() + 1) / 2;
+        Node<K, V> split(BPlusTreeMap<K, V> tree, boolean packed) {
+            LeafNode<K, V> node = tree.newLeaf();
             int to = keyQuantity();
-            node.keys.addAll(keys.subList(from, to));
-            node.values.addAll(values.subList(from, to));
+            int from = packed ? to - 1 : (to + 1) / 2;
+            copy(keys, from, to, node.keys);
+            copy(values, from, to, node.values);
 
-            keys.subList(from, to).clear();
-            values.subList(from, to).clear();
+            truncate(keys, from);
+            truncate(values, from);
 
             node.next = next;
             next = node;
+            if (tree.lastLeaf == this) {
+                tree.lastLeaf = node;
+            }
             return node;
         }
 
         @Override
-        boolean isOverflow() {
-            return values.size() > treeDegree - 1;
+        boolean isOverflow(BPlusTreeMap<K, V> tree) {
+            return values.size() > tree.treeDegree - 1;
+        }
+
+        @Override
+        boolean isUnderflow(BPlusTreeMap<K, V> tree) {
+            return values.size() < tree.treeDegree / 2;
         }
 
         @Override
-        boolean isUnderflow() {
-            return values.size() < treeDegree / 2;
+        boolean canLend(BPlusTreeMap<K, V> tree) {
+            return values.size() > tree.treeDegree / 2;
+        }
+    }
+
+    /**
+     * Копирует элементы [from; to) в конец другого списка.
+     * В отличие от {@code addAll(subList(...))} не создает промежуточных массивов и представлений
+     * @param source исходный список
+     * @param from начало диапазона (включительно)
+     * @param to конец диапазона (не включительно)
+     * @param target список, в конец которого добавляются элементы
+     */
+    private static <T> void copy(List<T> source, int from, int to, List<T> target) {
+        for (int i = from; i < to; i++) {
+            target.add(source.get(i));
+        }
+    }
+
+    /**
+     * Обрезает список до заданной длины, удаляя элементы с конца
+     * @param list список
+     * @param size новая длина
+     */
+    private static <T> void truncate(List<T> list, int size) {
+        for (int i = list.size() - 1; i >= size; i--) {
+            list.remove(i);
+        }
+    }
+
+    /**
+     * Создает лист или берет свободный из пула
+     */
+    private LeafNode<K, V> newLeaf() {
+        LeafNode<K, V> node = leafPool == null ? null : leafPool.poll();
+        if (node == null) {
+            node = new LeafNode<>();
+        }
+        node.id = nextNodeId();
+        return node;
+    }
+
+    /**
+     * Создает внутренний узел или берет свободный из пула
+     */
+    private InternalNode<K, V> newInternal() {
+        InternalNode<K, V> node = internalPool == null ? null : internalPool.poll();
+        if (node == null) {
+            node = new InternalNode<>();
+        }
+        node.id = nextNodeId();
+        return node;
+    }
+
+    /**
+     * Выдает номер нового узла; 0 означает отсутствие узла и пропускается при переполнении
+     */
+    private int nextNodeId() {
+        if (++lastNodeId == 0) {
+            ++lastNodeId;
+        }
+        return lastNodeId;
+    }
+
+    /**
+     * Очищает узел, исключенный из дерева, и возвращает его в пул, если пул включен.
+     * Списки узла сохраняют свою емкость, поэтому при переиспользовании не растут заново
+     * @param node узел
+     */
+    private void recycle(Node<K, V> node) {
+        if (node instanceof LeafNode) {
+            if (leafPool != null) {
+                LeafNode<K, V> leaf = (LeafNode<K, V>) node;
+                leaf.keys.clear();
+                leaf.values.clear();
+                leaf.next = null;
+                leafPool.offer(leaf);
+            }
+        } else if (internalPool != null) {
+            node.keys.clear();
+            node.children.clear();
+            internalPool.offer((InternalNode<K, V>) node);
         }
     }
 
@@ -382,18 +590,80 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
      * @return найденное значение
      */
     public V get(Comparable key) {
-        return root.getValue((K)key);
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return root.getValue(this, (K) key);
+        }
+        long startTime = m.startTimer();
+        V value = root.getValue(this, (K) key);
+        m.recordGet(value != null, startTime);
+        return value;
     }
 
     /**
      * Помещает в {@code Map} пару ключ-значение
      * @param key ключ
      * @param value значение
+     * @return предыдущее значение или {@code null}, если ключа не было
      */
     public V put(Comparable key, Object value) {
-        root.putValue((K)key, (V)value);
-        size++;
-        return (V) value;
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return putValue((K) key, (V) value);
+        }
+        long startTime = m.startTimer();
+        V oldValue = putValue((K) key, (V) value);
+        m.recordPut(startTime);
+        return oldValue;
+    }
+
+    /**
+     * Помещает пару в дерево. Ключ больше всех имеющихся (монотонная вставка по времени
+     * или порядковому номеру) дописывается прямо в крайний правый лист без спуска от корня,
+     * если в листе есть место
+     * @param key ключ
+     * @param value значение
+     * @return предыдущее значение или {@code null}, если ключа не было
+     */
+    private V putValue(K key, V value) {
+        LeafNode<K, V> last = lastLeaf;
+        int count = last.keyQuantity();
+        if (count > 0 && count < treeDegree - 1 && key.compareTo(last.keys.get(count - 1)) > 0) {
+            last.keys.add(key);
+            last.values.add(value);
+            size++;
+            return null;
+        }
+        return root.putValue(this, key, value);
+    }
+
+    /**
+     * Разламывает переполненный корень и увеличивает высоту дерева
+     * @param key вставленный ключ
+     */
+    private void splitRoot(K key) {
+        Node<K, V> oldRoot = root;
+        Node<K, V> sibling = oldRoot.split(this, isAppend(key));
+        InternalNode<K, V> newRoot = newInternal();
+        newRoot.keys.add(sibling.getFirstLeafKey());
+        newRoot.children.add(oldRoot);
+        newRoot.children.add(sibling);
+        root = newRoot;
+        onSplit(null, oldRoot, sibling);
+        onRootChange(newRoot, oldRoot);
+    }
+
+    /**
+     * Проверяет, что вставленный ключ - наибольший в дереве, т.е. вставка идет по крайнему правому пути.
+     * В этом случае узлы пути разламываются плотно: при монотонной вставке левая часть
+     * больше не получит ключей, и разлом пополам оставил бы ее наполовину пустой навсегда.
+     * Крайний правый узел при этом может быть заполнен меньше минимума, пока в него дописываются ключи
+     * @param key вставленный ключ
+     * @return true/false
+     */
+    private boolean isAppend(K key) {
+        List<K> keys = lastLeaf.keys;
+        return key.compareTo(keys.get(keys.size() - 1)) == 0;
     }
 
     /**
@@ -401,16 +671,639 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
      * @param key ключ
      */
     public V remove(Comparable key) {
-        V val = get((key));
-        root.removeValue((K)key);
-        return val;
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return removeValue((K) key);
+        }
+        long startTime = m.startTimer();
+        V value = removeValue((K) key);
+        m.recordRemove(startTime);
+        return value;
+    }
+
+    /**
+     * Удаляет ключ и понижает высоту дерева, если у корня остался единственный потомок
+     * @param key ключ
+     * @return удаленное значение
+     */
+    private V removeValue(K key) {
+        V value = root.removeValue(this, key);
+        if (root.children != null && root.keyQuantity() == 0) {
+            Node<K, V> oldRoot = root;
+            root = root.children.get(0);
+            onRootChange(root, oldRoot);
+            recycle(oldRoot);
+        }
+        return value;
+    }
+
+    /**
+     * Сжимает ключи листов, целиком лежащих в диапазоне [from; to). Ключи {@link Integer} и {@link Long}
+     * хранятся как наименьший ключ листа и упакованные по битам смещения от него, поиск в листе
+     * идет по упакованным данным. Для плотных ключей (идентификаторы, моменты времени) это в разы
+     * меньше ссылок и объектов-оберток. Лист распаковывается при первой записи в него,
+     * поэтому сжимать имеет смысл холодную часть, например записи старше заданного момента:
+     * {@code map.compressKeys(null, now - TimeUnit.HOURS.toMillis(1))}.
+     * Байты ключей {@link map.key.ByteKey} листа укладываются подряд в один массив со смещениями,
+     * и поиск сравнивает байты прямо в нем. Листы с ключами других типов пропускаются
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return количество сжатых листов
+     */
+    public int compressKeys(Comparable from, Comparable to) {
+        Node<K, V> node = root;
+        while (node.children != null) {
+            node = from == null ? node.children.get(0) : ((InternalNode<K, V>) node).getChild(this, (K) from);
+        }
+        int compressed = 0;
+        for (LeafNode<K, V> leaf = (LeafNode<K, V>) node; leaf != null; leaf = leaf.next) {
+            int count = leaf.keyQuantity();
+            if (count == 0) {
+                continue;
+            }
+            if (to != null && leaf.keys.get(count - 1).compareTo((K) to) >= 0) {
+                break;
+            }
+            if (from != null && leaf.keys.get(0).compareTo((K) from) < 0
+                    || leaf.keys instanceof CompactKeys && ((CompactKeys<K>) leaf.keys).isPacked()) {
+                continue;
+            }
+            CompactKeys<K> packed = CompactKeys.pack(leaf.keys);
+            if (packed != null) {
+                leaf.keys = packed;
+                compressed++;
+            }
+        }
+        return compressed;
+    }
+
+    /**
+     * Поддерево и его высота (лист имеет высоту 1)
+     */
+    private static final class Subtree<K extends Comparable<? super K>, V> {
+        final Node<K, V> node;
+        final int height;
+
+        Subtree(Node<K, V> node, int height) {
+            this.node = node;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Замораживает карту: строит неизменяемую {@link FrozenMap} с теми же парами, где ключи лежат
+     * в сплошных массивах, а потомки узлов поиска вычисляются по индексу. Для карт, которые
+     * строятся один раз и дальше только читаются. Сама карта не изменяется; если она больше
+     * не нужна, ее можно отдать сборщику мусора
+     * @return неизменяемая карта
+     */
+    public FrozenMap<K, V> freeze() {
+        return FrozenMap.copyOf(this);
+    }
+
+    /**
+     * Отделяет от карты все пары с ключами меньше {@code key} и возвращает их новой картой той же степени.
+     * Поддеревья целиком переносятся в новую карту: дерево делится по пути от корня к ключу,
+     * и части каждого уровня соединяются {@link #join}-ом, поэтому структура перестраивается
+     * за O(log n). Размеры частей считаются обходом листов меньшей из них, т.е. за
+     * O(min(k, n - k) / степень). Пул узлов, метрики и трасса остаются у текущей карты,
+     * способ поиска в узлах наследуется
+     * @param key граница: пары с ключами меньше нее переносятся, не меньше - остаются
+     * @return новая карта с парами, ключи которых меньше {@code key}
+     */
+    public BPlusTreeMap<K, V> splitAt(Comparable key) {
+        BPlusTreeMap<K, V> lower = new BPlusTreeMap<>(treeDegree);
+        lower.interpolationSearch = interpolationSearch;
+        // перенесенные узлы сохраняют номера, новые узлы нижней карты нумеруются после них
+        lower.lastNodeId = lastNodeId;
+        if (size == 0) {
+            return lower;
+        }
+        int total = size;
+        Subtree<K, V>[] parts = split(new Subtree<>(root, height()), (K) key, lower);
+        lower.install(parts[0]);
+        install(parts[1]);
+
+        // листы обеих частей идут по ссылкам, обходятся одновременно до конца меньшей части
+        LeafNode<K, V> left = lower.firstLeaf();
+        LeafNode<K, V> right = firstLeaf();
+        int leftCount = 0;
+        int rightCount = 0;
+        while (left != null && right != null) {
+            leftCount += left.keyQuantity();
+            rightCount += right.keyQuantity();
+            left = left.next;
+            right = right.next;
+        }
+        lower.size = left == null ? leftCount : total - rightCount;
+        size = total - lower.size;
+        modCount++;
+        return lower;
+    }
+
+    /**
+     * Присоединяет к карте все пары другой карты, после чего другая карта пуста.
+     * Диапазоны ключей карт не должны пересекаться: другая карта может лежать как правее,
+     * так и левее текущей. Меньшее по высоте дерево подвешивается к краю большего
+     * на своей высоте, исправляется только граничный путь, поэтому слияние занимает O(log n)
+     * @param other карта той же степени
+     */
+    public void join(BPlusTreeMap<K, V> other) {
+        if (other == this) {
+            throw new IllegalArgumentException("КАРТА НЕ МОЖЕТ БЫТЬ ПРИСОЕДИНЕНА К СЕБЕ");
+        }
+        if (other.treeDegree != treeDegree) {
+            throw new IllegalArgumentException("РАЗНЫЕ СТЕПЕНИ ДЕРЕВЬЕВ: " + treeDegree + " И " + other.treeDegree);
+        }
+        if (other.size == 0) {
+            return;
+        }
+        BPlusTreeMap<K, V> left = this;
+        BPlusTreeMap<K, V> right = other;
+        if (size > 0 && lastKey(lastLeaf).compareTo(other.firstLeaf().keys.get(0)) >= 0) {
+            left = other;
+            right = this;
+            if (lastKey(other.lastLeaf).compareTo(firstLeaf().keys.get(0)) >= 0) {
+                throw new IllegalArgumentException("ДИАПАЗОНЫ КЛЮЧЕЙ ПЕРЕСЕКАЮТСЯ");
+            }
+        }
+        int total = size + other.size;
+        lastNodeId = Math.max(lastNodeId, other.lastNodeId);
+        if (left.size == 0) {
+            root = right.root;
+        } else {
+            LeafNode<K, V> first = right.firstLeaf();
+            left.lastLeaf.next = first;
+            lastLeaf = right.lastLeaf;
+            root = join(new Subtree<>(left.root, left.height()), first.keys.get(0),
+                    new Subtree<>(right.root, right.height()), this).node;
+        }
+        install(new Subtree<>(root, height()));
+        size = total;
+        modCount++;
+        other.clear();
+    }
+
+    /**
+     * Удаляет все пары с ключами из диапазона [from; to). Дерево делится по обеим границам,
+     * и крайние части снова соединяются: поддеревья внутри диапазона отбрасываются целиком,
+     * перестраиваются только два граничных пути. Количество удаленных пар находится одновременным
+     * обходом листов вырезанной и оставшейся частей до конца меньшей из них, поэтому удаление
+     * занимает O(log n + min(m, n - m) / степень) для m удаленных пар
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return количество удаленных пар
+     */
+    @Override
+    public int removeRange(Comparable from, Comparable to) {
+        if (size == 0 || from != null && to != null && from.compareTo(to) >= 0) {
+            return 0;
+        }
+        Subtree<K, V> left = null;
+        Subtree<K, V> range = new Subtree<>(root, height());
+        Subtree<K, V> right = null;
+        if (from != null) {
+            Subtree<K, V>[] parts = split(range, (K) from, this);
+            left = parts[0];
+            range = parts[1];
+        }
+        if (to != null && range != null) {
+            Subtree<K, V>[] parts = split(range, (K) to, this);
+            range = parts[0];
+            right = parts[1];
+        }
+
+        // при делении по границе листа ссылки между частями не обрываются, поэтому
+        // оставшиеся части связываются заново, а обход вырезанной части ограничивается ее последним листом
+        LeafNode<K, V> rightFirst = right == null ? null : leftmostLeaf(right.node);
+        if (left != null) {
+            rightmostLeaf(left.node).next = rightFirst;
+        }
+        int removed = 0;
+        if (range != null) {
+            LeafNode<K, V> removedLeaf = leftmostLeaf(range.node);
+            LeafNode<K, V> removedLast = rightmostLeaf(range.node);
+            LeafNode<K, V> keptLeaf = left != null ? leftmostLeaf(left.node) : rightFirst;
+            int keptCount = 0;
+            while (removedLeaf != null && keptLeaf != null) {
+                removed += removedLeaf.keyQuantity();
+                keptCount += keptLeaf.keyQuantity();
+                removedLeaf = removedLeaf == removedLast ? null : removedLeaf.next;
+                keptLeaf = keptLeaf.next;
+            }
+            if (removedLeaf != null) {
+                removed = size - keptCount;
+            }
+        }
+
+        install(left == null ? right : right == null ? left : join(left, rightFirst.keys.get(0), right, this));
+        size -= removed;
+        modCount++;
+        return removed;
+    }
+
+    /**
+     * Начинает уплотнение дерева по частям ({@link Compaction#step}). Листья перестраиваются
+     * с заполненностью {@code targetFill} от емкости, внутренние узлы получают ту же долю
+     * потомков. Каждый шаг вырезает диапазон дерева {@link #split}-ом, строит из его пар
+     * новое поддерево снизу вверх и соединяет его с соседними частями {@link #join}-ом,
+     * поэтому шаг занимает O(размер шага + log n). Освободившиеся узлы возвращаются в пул,
+     * если он включен
+     * @param targetFill доля заполнения узлов, от 0.5 до 1
+     * @return уплотнение, не выполнившее ни одного шага
+     */
+    public Compaction startCompaction(double targetFill) {
+        return new TreeCompaction(targetFill);
+    }
+
+    /**
+     * Уплотняет все дерево ({@link #startCompaction})
+     * @param targetFill доля заполнения узлов, от 0.5 до 1
+     * @return отчет об уплотнении
+     */
+    public Compaction compact(double targetFill) {
+        return startCompaction(targetFill).run();
+    }
+
+    /**
+     * Уплотнение B+ дерева. Между шагами хранится только ключ, с которого начнется
+     * следующий шаг, поэтому изменения карты между шагами ему не мешают
+     */
+    private final class TreeCompaction extends Compaction {
+
+        /**
+         * Первый ключ еще не перестроенной части, {@code null} - начало дерева
+         */
+        private K boundary;
+
+        TreeCompaction(double targetFill) {
+            super(targetFill, height(), stats().getRetainedBytes());
+        }
+
+        @Override
+        boolean compactChunk(int maxEntries) {
+            if (size == 0) {
+                return false;
+            }
+            K to = keyAfter(boundary, maxEntries);
+            Subtree<K, V> left = null;
+            Subtree<K, V> chunk = new Subtree<>(root, height());
+            Subtree<K, V> right = null;
+            if (boundary != null) {
+                Subtree<K, V>[] parts = split(chunk, boundary, BPlusTreeMap.this);
+                left = parts[0];
+                chunk = parts[1];
+            }
+            if (to != null && chunk != null) {
+                Subtree<K, V>[] parts = split(chunk, to, BPlusTreeMap.this);
+                chunk = parts[0];
+                right = parts[1];
+            }
+            if (chunk != null) {
+                List<K> keys = new ArrayList<>();
+                List<V> values = new ArrayList<>();
+                drain(chunk.node, keys, values);
+                countEntries(keys.size());
+                chunk = build(keys, values, getTargetFill());
+            }
+
+            // при делении по границе листа ссылки между частями не обрываются, поэтому
+            // цепочка листов собирается заново
+            LeafNode<K, V> rightFirst = right == null ? null : leftmostLeaf(right.node);
+            LeafNode<K, V> next = rightFirst;
+            if (chunk != null) {
+                rightmostLeaf(chunk.node).next = rightFirst;
+                next = leftmostLeaf(chunk.node);
+            }
+            if (left != null) {
+                rightmostLeaf(left.node).next = next;
+            }
+            Subtree<K, V> joined = chunk == null ? left : join(left, next.keys.get(0), chunk, BPlusTreeMap.this);
+            joined = right == null ? joined : join(joined, rightFirst.keys.get(0), right, BPlusTreeMap.this);
+            install(joined);
+            modCount++;
+            boundary = to;
+            return to != null;
+        }
+
+        /**
+         * Ключ, отстоящий на {@code count} позиций от первого ключа не меньше {@code from}
+         * @return ключ или {@code null}, если дерево кончилось раньше
+         */
+        private K keyAfter(K from, int count) {
+            Node<K, V> node = root;
+            while (node.children != null) {
+                node = from == null ? node.children.get(0) : ((InternalNode<K, V>) node).getChild(BPlusTreeMap.this, from);
+            }
+            LeafNode<K, V> leaf = (LeafNode<K, V>) node;
+            int index = 0;
+            if (from != null) {
+                index = leaf.indexOf(BPlusTreeMap.this, from);
+                index = index >= 0 ? index : -index - 1;
+            }
+            index += count;
+            while (leaf != null && index >= leaf.keyQuantity()) {
+                index -= leaf.keyQuantity();
+                leaf = leaf.next;
+            }
+            return leaf == null ? null : leaf.keys.get(index);
+        }
+
+        @Override
+        int currentHeight() {
+            return height();
+        }
+
+        @Override
+        long currentBytes() {
+            return stats().getRetainedBytes();
+        }
+    }
+
+    /**
+     * Переносит пары поддерева в списки по возрастанию ключей и освобождает его узлы
+     */
+    private void drain(Node<K, V> node, List<K> keys, List<V> values) {
+        if (node.children == null) {
+            keys.addAll(node.keys);
+            values.addAll(((LeafNode<K, V>) node).values);
+        } else {
+            for (Node<K, V> child : node.children) {
+                drain(child, keys, values);
+            }
+        }
+        recycle(node);
+    }
+
+    /**
+     * Строит поддерево из отсортированных пар снизу вверх. Листья получают долю {@code fill}
+     * от емкости, внутренние узлы - ту же долю потомков; остаток делится между узлами уровня
+     * поровну, чтобы последний узел не оказался почти пустым. Листья связаны между собой,
+     * ссылка из последнего не задана
+     * @param keys ключи по возрастанию, не пустой список
+     * @param values значения
+     * @param fill доля заполнения
+     * @return поддерево
+     */
+    private Subtree<K, V> build(List<K> keys, List<V> values, double fill) {
+        int count = keys.size();
+        int perLeaf = Math.max(1, Math.min(treeDegree - 1, (int) Math.round(fill * (treeDegree - 1))));
+        int leafCount = (count + perLeaf - 1) / perLeaf;
+        List<Node<K, V>> level = new ArrayList<>(leafCount);
+        LeafNode<K, V> previous = null;
+        int position = 0;
+        for (int i = 0; i < leafCount; i++) {
+            int end = position + count / leafCount + (i < count % leafCount ? 1 : 0);
+            LeafNode<K, V> leaf = newLeaf();
+            copy(keys, position, end, leaf.keys);
+            copy(values, position, end, leaf.values);
+            if (previous != null) {
+                previous.next = leaf;
+            }
+            previous = leaf;
+            level.add(leaf);
+            position = end;
+        }
+
+        int perNode = Math.max(2, Math.min(treeDegree, (int) Math.round(fill * treeDegree)));
+        int height = 1;
+        while (level.size() > 1) {
+            int children = level.size();
+            int nodes = (children + perNode - 1) / perNode;
+            if (children < 2 * nodes) {
+                nodes = children / 2;
+            }
+            List<Node<K, V>> parents = new ArrayList<>(nodes);
+            position = 0;
+            for (int i = 0; i < nodes; i++) {
+                int end = position + children / nodes + (i < children % nodes ? 1 : 0);
+                InternalNode<K, V> parent = newInternal();
+                for (int j = position; j < end; j++) {
+                    Node<K, V> child = level.get(j);
+                    if (j > position) {
+                        parent.keys.add(child.getFirstLeafKey());
+                    }
+                    parent.children.add(child);
+                }
+                parents.add(parent);
+                position = end;
+            }
+            level = parents;
+            height++;
+        }
+        return new Subtree<>(level.get(0), height);
+    }
+
+    private static <K extends Comparable<? super K>, V> LeafNode<K, V> leftmostLeaf(Node<K, V> node) {
+        while (node.children != null) {
+            node = node.children.get(0);
+        }
+        return (LeafNode<K, V>) node;
+    }
+
+    private static <K extends Comparable<? super K>, V> LeafNode<K, V> rightmostLeaf(Node<K, V> node) {
+        while (node.children != null) {
+            node = node.children.get(node.children.size() - 1);
+        }
+        return (LeafNode<K, V>) node;
+    }
+
+    /**
+     * Делит поддерево по ключу. Части уровня, лежащие левее пути к ключу, соединяются
+     * с левой частью потомка на пути, правее - с правой
+     * @param subtree поддерево
+     * @param key граница
+     * @param lower дерево, которому достанется левая часть
+     * @return части с ключами меньше {@code key} и не меньше {@code key}, пустая часть - {@code null}
+     */
+    private Subtree<K, V>[] split(Subtree<K, V> subtree, K key, BPlusTreeMap<K, V> lower) {
+        Subtree<K, V>[] parts = new Subtree[2];
+        if (subtree.node.children == null) {
+            LeafNode<K, V> leaf = (LeafNode<K, V>) subtree.node;
+            int count = leaf.keyQuantity();
+            int index = leaf.indexOf(this, key);
+            index = index >= 0 ? index : -index - 1;
+            if (index == count) {
+                parts[0] = subtree;
+            } else if (index == 0) {
+                parts[1] = subtree;
+            } else {
+                LeafNode<K, V> right = newLeaf();
+                copy(leaf.keys, index, count, right.keys);
+                copy(leaf.values, index, count, right.values);
+                truncate(leaf.keys, index);
+                truncate(leaf.values, index);
+                right.next = leaf.next;
+                leaf.next = null;
+                parts[0] = subtree;
+                parts[1] = new Subtree<>(right, 1);
+            }
+            return parts;
+        }
+
+        InternalNode<K, V> node = (InternalNode<K, V>) subtree.node;
+        int childIndex = node.getChildIndex(this, key);
+        int childCount = node.children.size();
+        Subtree<K, V>[] childParts = split(new Subtree<>(node.children.get(childIndex), subtree.height - 1), key, lower);
+        Subtree<K, V> left = slice(node, 0, childIndex, subtree.height, lower);
+        Subtree<K, V> right = slice(node, childIndex + 1, childCount, subtree.height, this);
+        parts[0] = childIndex > 0 ? join(left, node.keys.get(childIndex - 1), childParts[0], lower) : childParts[0];
+        parts[1] = childIndex < childCount - 1 ? join(childParts[1], node.keys.get(childIndex), right, this) : childParts[1];
+        recycle(node);
+        return parts;
+    }
+
+    /**
+     * Поддерево из потомков [from; to) внутреннего узла и ключей между ними
+     * @param tree дерево, которому принадлежит результат
+     * @return поддерево, единственный потомок или {@code null}, если потомков нет
+     */
+    private static <K extends Comparable<? super K>, V> Subtree<K, V> slice(InternalNode<K, V> node, int from, int to,
+                                                                           int height, BPlusTreeMap<K, V> tree) {
+        if (to - from < 2) {
+            return to == from ? null : new Subtree<>(node.children.get(from), height - 1);
+        }
+        InternalNode<K, V> target = tree.newInternal();
+        copy(node.keys, from, to - 1, target.keys);
+        copy(node.children, from, to, target.children);
+        return new Subtree<>(target, height);
+    }
+
+    /**
+     * Соединяет два дерева, все ключи первого из которых меньше ключей второго.
+     * Корни деревьев могут быть заполнены меньше минимума, остальные узлы - нет
+     * @param left левое дерево или {@code null}
+     * @param separator ключ-разделитель: больше ключей левого дерева и не больше ключей правого
+     * @param right правое дерево или {@code null}
+     * @param tree дерево, которому принадлежит результат
+     * @return соединенное дерево
+     */
+    private static <K extends Comparable<? super K>, V> Subtree<K, V> join(Subtree<K, V> left, K separator,
+                                                                          Subtree<K, V> right, BPlusTreeMap<K, V> tree) {
+        if (left == null || right == null) {
+            return left == null ? right : left;
+        }
+        if (left.height == right.height) {
+            Node<K, V> x = left.node;
+            Node<K, V> y = right.node;
+            int capacity = x.children == null ? tree.treeDegree - 1 : tree.treeDegree;
+            int combined = x.children == null ? x.keyQuantity() + y.keyQuantity() : x.children.size() + y.children.size();
+            if (combined <= capacity) {
+                x.merge(tree, separator, y);
+                tree.onMerge(null, x, y);
+                tree.recycle(y);
+                return left;
+            }
+            InternalNode<K, V> parent = tree.newInternal();
+            parent.keys.add(separator);
+            parent.children.add(x);
+            parent.children.add(y);
+            fill(tree, parent, 0);
+            fill(tree, parent, 1);
+            return new Subtree<>(parent, left.height + 1);
+        }
+
+        // спуск по краю более высокого дерева до узла, потомки которого на высоте низкого дерева
+        boolean attachRight = left.height > right.height;
+        Subtree<K, V> taller = attachRight ? left : right;
+        Subtree<K, V> shorter = attachRight ? right : left;
+        Deque<InternalNode<K, V>> path = new ArrayDeque<>();
+        InternalNode<K, V> node = (InternalNode<K, V>) taller.node;
+        for (int height = taller.height; height > shorter.height + 1; height--) {
+            path.push(node);
+            node = (InternalNode<K, V>) node.children.get(attachRight ? node.children.size() - 1 : 0);
+        }
+        if (attachRight) {
+            node.keys.add(separator);
+            node.children.add(shorter.node);
+            fill(tree, node, node.children.size() - 1);
+        } else {
+            node.keys.add(0, separator);
+            node.children.add(0, shorter.node);
+            fill(tree, node, 0);
+        }
+
+        // переполнение поднимается по краю, как при вставке
+        Node<K, V> current = node;
+        while (current.isOverflow(tree)) {
+            Node<K, V> sibling = current.split(tree, false);
+            K key = sibling.getFirstLeafKey();
+            if (path.isEmpty()) {
+                InternalNode<K, V> newRoot = tree.newInternal();
+                newRoot.keys.add(key);
+                newRoot.children.add(current);
+                newRoot.children.add(sibling);
+                tree.onSplit(null, current, sibling);
+                return new Subtree<>(newRoot, taller.height + 1);
+            }
+            InternalNode<K, V> parent = path.pop();
+            if (attachRight) {
+                parent.keys.add(key);
+                parent.children.add(sibling);
+            } else {
+                parent.keys.add(0, key);
+                parent.children.add(1, sibling);
+            }
+            tree.onSplit(parent, current, sibling);
+            current = parent;
+        }
+        return taller;
+    }
+
+    /**
+     * Доводит заполненность потомка до минимума заимствованиями у соседа или слиянием с ним
+     * @param tree дерево, в котором выполняется операция
+     * @param parent родитель
+     * @param childIndex индекс потомка
+     */
+    private static <K extends Comparable<? super K>, V> void fill(BPlusTreeMap<K, V> tree, InternalNode<K, V> parent,
+                                                                 int childIndex) {
+        Node<K, V> child = parent.children.get(childIndex);
+        while (parent.children.size() > 1 && childIndex < parent.children.size()
+                && parent.children.get(childIndex) == child && child.isUnderflow(tree)) {
+            parent.rebalanceChild(tree, childIndex);
+        }
+    }
+
+    /**
+     * Делает поддерево корнем дерева: снимает корни с единственным потомком,
+     * находит крайний правый лист и обрывает ссылку из него
+     * @param subtree поддерево или {@code null} для пустого дерева
+     */
+    private void install(Subtree<K, V> subtree) {
+        Node<K, V> node = subtree == null ? newLeaf() : subtree.node;
+        while (node.children != null && node.children.size() == 1) {
+            Node<K, V> child = node.children.get(0);
+            recycle(node);
+            node = child;
+        }
+        root = node;
+        while (node.children != null) {
+            node = node.children.get(node.children.size() - 1);
+        }
+        lastLeaf = (LeafNode<K, V>) node;
+        lastLeaf.next = null;
+    }
+
+    /**
+     * Возвращает крайний левый лист
+     */
+    private LeafNode<K, V> firstLeaf() {
+        Node<K, V> node = root;
+        while (node.children != null) {
+            node = node.children.get(0);
+        }
+        return (LeafNode<K, V>) node;
     }
 
     /**
      * Производит удаление структуры
      */
     public void clear() {
-        root = null;
+        root = newLeaf();
+        lastLeaf = (LeafNode<K, V>) root;
+        size = 0;
+        modCount++;
     }
 
     /**
@@ -429,35 +1322,527 @@ public class BPlusTreeMap<K extends Comparable<? super K>, V> implements IMap {
         return size == 0;
     }
 
+    /**
+     * Возвращает итератор по парам ключ-значение с ключами из диапазона [from; to).
+     * Спуск к первому листу выполняется один раз, дальше итератор идет по ссылкам между листьями
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return итератор пар в порядке возрастания ключей
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> entries(Comparable from, Comparable to) {
+        Node<K, V> node = root;
+        while (node.children != null) {
+            node = from == null ? node.children.get(0) : ((InternalNode<K, V>) node).getChild(this, (K) from);
+        }
+        int index = 0;
+        if (from != null) {
+            index = ((LeafNode<K, V>) node).indexOf(this, (K) from);
+            index = index >= 0 ? index : -index - 1;
+        }
+        return new RangeIterator((LeafNode<K, V>) node, index, (K) to);
+    }
+
+    /**
+     * Итератор по диапазону ключей, идущий по ссылкам между листьями
+     */
+    private final class RangeIterator implements Iterator<Map.Entry<K, V>> {
+
+        private LeafNode<K, V> leaf;
+        private int index;
+        private final K to;
+
+        RangeIterator(LeafNode<K, V> leaf, int index, K to) {
+            this.leaf = leaf;
+            this.index = index;
+            this.to = to;
+            skipExhaustedLeaves();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && (to == null || leaf.keys.get(index).compareTo(to) < 0);
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(leaf.keys.get(index), leaf.values.get(index));
+            index++;
+            skipExhaustedLeaves();
+            return entry;
+        }
+
+        private void skipExhaustedLeaves() {
+            while (leaf != null && index >= leaf.keyQuantity()) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+    }
+
+    /**
+     * Создает курсор для почти последовательного доступа
+     * @return курсор
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Курсор ("палец") для почти последовательного доступа. Запоминает путь от корня
+     * до последнего листа вместе с границами ключей каждого узла пути. Если очередной ключ
+     * попадает в границы запомненного листа, операция выполняется прямо в нем; иначе курсор
+     * поднимается до ближайшего узла пути, в границы которого ключ попадает (для соседнего листа -
+     * обычно до родителя), и спускается оттуда. При последовательном доступе подъем в среднем
+     * занимает O(1) уровней, поэтому операция стоит амортизированно O(1) вместо O(log n).
+     * <p>
+     * Путь сбрасывается при любом структурном изменении дерева. {@code put}, который переполнил бы
+     * лист, и {@code remove}, который сделал бы его недозаполненным, выполняются обычным спуском от корня.
+     * Курсор не потокобезопасен и, как и само дерево, не должен использоваться параллельно с изменениями
+     */
+    public final class Cursor {
+
+        /**
+         * Узлы пути: {@code nodes[0]} - корень, {@code nodes[depth]} - лист
+         */
+        private Node[] nodes = new Node[0];
+        /**
+         * Нижние границы ключей узлов пути (включительно), {@code null} - без границы
+         */
+        private K[] lows;
+        /**
+         * Верхние границы ключей узлов пути (не включительно), {@code null} - без границы
+         */
+        private K[] highs;
+        /**
+         * Уровень листа или -1, если путь не запомнен
+         */
+        private int depth = -1;
+        /**
+         * Значение {@code modCount}, при котором запомнен путь
+         */
+        private int expectedModCount;
+
+        private Cursor() {
+        }
+
+        /**
+         * Возвращает значение по ключу
+         * @param key ключ
+         * @return значение или {@code null}
+         */
+        public V get(K key) {
+            TreeMetrics m = metrics;
+            if (m == null) {
+                return seek(key).getValue(BPlusTreeMap.this, key);
+            }
+            long startTime = m.startTimer();
+            V value = seek(key).getValue(BPlusTreeMap.this, key);
+            m.recordGet(value != null, startTime);
+            return value;
+        }
+
+        /**
+         * Помещает пару ключ-значение
+         * @param key ключ
+         * @param value значение
+         * @return предыдущее значение или {@code null}
+         */
+        public V put(K key, V value) {
+            LeafNode<K, V> leaf = seek(key);
+            if (leaf.keyQuantity() >= treeDegree - 1 && leaf.getValue(BPlusTreeMap.this, key) == null) {
+                return BPlusTreeMap.this.put(key, value);
+            }
+            TreeMetrics m = metrics;
+            if (m == null) {
+                return leaf.putValue(BPlusTreeMap.this, key, value);
+            }
+            long startTime = m.startTimer();
+            V oldValue = leaf.putValue(BPlusTreeMap.this, key, value);
+            m.recordPut(startTime);
+            return oldValue;
+        }
 
-    private TreeTreantNode _toTreantTree(Node pointer) {
-        TreeTreantNode node = new TreeTreantNode();
+        /**
+         * Удаляет пару ключ-значение
+         * @param key ключ
+         * @return удаленное значение или {@code null}
+         */
+        public V remove(K key) {
+            LeafNode<K, V> leaf = seek(key);
+            if (leaf != root && !leaf.canLend(BPlusTreeMap.this)) {
+                return BPlusTreeMap.this.remove(key);
+            }
+            TreeMetrics m = metrics;
+            if (m == null) {
+                return leaf.removeValue(BPlusTreeMap.this, key);
+            }
+            long startTime = m.startTimer();
+            V value = leaf.removeValue(BPlusTreeMap.this, key);
+            m.recordRemove(startTime);
+            return value;
+        }
 
-        if (pointer.keys != null && pointer != null) {
-            node.nodeView = keysToString(pointer.keys);
+        /**
+         * Возвращает пару с наименьшим ключом не меньше заданного. Лист ищется от запомненного
+         * пути, а если в нем таких ключей нет, поиск продолжается по ссылкам между листьями,
+         * поэтому серия возрастающих запросов с пропусками (например, обход с перескоками
+         * по Z-порядку) проходит дерево вдоль цепочки листьев, не спускаясь каждый раз от корня
+         * @param key ключ
+         * @return пара или {@code null}, если таких ключей нет
+         */
+        public Map.Entry<K, V> ceilingEntry(K key) {
+            LeafNode<K, V> leaf = seek(key);
+            int index = leaf.indexOf(BPlusTreeMap.this, key);
+            index = index >= 0 ? index : -index - 1;
+            while (leaf != null && index >= leaf.keyQuantity()) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            return leaf == null ? null : new AbstractMap.SimpleImmutableEntry<>(leaf.keys.get(index), leaf.values.get(index));
         }
 
-        if (pointer != null && pointer.children != null) {
-            for (int i = 0; i < pointer.children.size(); i++) {
-                if (pointer.children.get(i) != null) {
-                    node.nodes.add(_toTreantTree(pointer.children.get(i)));
+        /**
+         * Находит лист, в котором должен находиться ключ
+         * @param key ключ
+         * @return лист
+         */
+        private LeafNode<K, V> seek(K key) {
+            int level;
+            if (depth < 0 || expectedModCount != modCount) {
+                level = 0;
+                reset();
+            } else {
+                level = depth;
+                while (level > 0 && !inBounds(level, key)) {
+                    level--;
                 }
             }
+            Node<K, V> node = nodes[level];
+            while (node.children != null) {
+                InternalNode<K, V> internal = (InternalNode<K, V>) node;
+                int childIndex = internal.getChildIndex(BPlusTreeMap.this, key);
+                node = internal.children.get(childIndex);
+                level++;
+                nodes[level] = node;
+                lows[level] = childIndex > 0 ? internal.keys.get(childIndex - 1) : lows[level - 1];
+                highs[level] = childIndex < internal.keyQuantity() ? internal.keys.get(childIndex) : highs[level - 1];
+            }
+            depth = level;
+            return (LeafNode<K, V>) node;
         }
-        if (pointer == null) return null;
-        return node;
+
+        private boolean inBounds(int level, K key) {
+            return (lows[level] == null || key.compareTo(lows[level]) >= 0)
+                    && (highs[level] == null || key.compareTo(highs[level]) < 0);
+        }
+
+        /**
+         * Сбрасывает путь до корня (массивы пути пересоздаются при изменении высоты)
+         */
+        private void reset() {
+            int height = height();
+            if (nodes.length != height) {
+                nodes = new Node[height];
+                lows = (K[]) new Comparable[height];
+                highs = (K[]) new Comparable[height];
+            }
+            nodes[0] = root;
+            lows[0] = null;
+            highs[0] = null;
+            expectedModCount = modCount;
+        }
+    }
+
+    /**
+     * Возвращает высоту дерева (дерево из одного листа имеет высоту 1)
+     * @return высота
+     */
+    public int height() {
+        int height = 1;
+        for (Node<K, V> node = root; node.children != null; node = node.children.get(0)) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Включает сбор метрик и публикует их через JMX
+     * @param name имя экземпляра дерева в JMX
+     * @return метрики дерева
+     */
+    public TreeMetrics enableMetrics(String name) {
+        return enableMetrics(name, TreeMetrics.DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Включает сбор метрик и публикует их через JMX
+     * @param name имя экземпляра дерева в JMX
+     * @param sampleRate частота выборки задержек (степень двойки)
+     * @return метрики дерева
+     */
+    public TreeMetrics enableMetrics(String name, int sampleRate) {
+        disableMetrics();
+        TreeMetrics treeMetrics = new TreeMetrics("BPlusTreeMap", name, sampleRate, this::size, this::height);
+        treeMetrics.register();
+        metrics = treeMetrics;
+        return treeMetrics;
+    }
+
+    /**
+     * Выключает сбор метрик и снимает их с регистрации в JMX
+     */
+    public void disableMetrics() {
+        if (metrics != null) {
+            metrics.unregister();
+            metrics = null;
+        }
+    }
+
+    /**
+     * Возвращает метрики дерева
+     * @return метрики или {@code null}, если сбор метрик выключен
+     */
+    public TreeMetrics getMetrics() {
+        return metrics;
     }
 
-    public TreeTreantNode toTreantNode() {
-        return _toTreantTree(root);
+    /**
+     * Включает запись структурных событий в кольцевой буфер
+     * @param capacity емкость буфера (степень двойки)
+     * @return трасса событий
+     */
+    public StructureTrace enableTrace(int capacity) {
+        StructureTrace structureTrace = new StructureTrace(capacity);
+        trace = structureTrace;
+        return structureTrace;
+    }
+
+    /**
+     * Выключает запись структурных событий
+     */
+    public void disableTrace() {
+        trace = null;
+    }
+
+    /**
+     * Возвращает трассу структурных событий
+     * @return трасса или {@code null}, если трассировка выключена
+     */
+    public StructureTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Включает пул узлов: узлы, освободившиеся при слияниях, переиспользуются при разломах,
+     * поэтому при устоявшейся нагрузке со вставками и удалениями узлы и их списки не выделяются.
+     * Итераторы, полученные до изменения дерева, с включенным пулом могут увидеть чужие данные
+     * @param capacity максимальное количество свободных узлов каждого вида
+     */
+    public void enableNodePool(int capacity) {
+        leafPool = new NodePool<>(capacity);
+        internalPool = new NodePool<>(capacity);
+    }
+
+    /**
+     * Выключает пул узлов, свободные узлы отдаются сборщику мусора
+     */
+    public void disableNodePool() {
+        leafPool = null;
+        internalPool = null;
+    }
+
+    /**
+     * Количество свободных узлов в пуле
+     * @return число узлов или 0, если пул выключен
+     */
+    public int pooledNodes() {
+        return leafPool == null ? 0 : leafPool.size() + internalPool.size();
+    }
+
+    /**
+     * Включает интерполяционный поиск в узлах для ключей {@link Integer} и {@link Long}:
+     * позиция ключа предсказывается по наименьшему и наибольшему ключам узла, после чего
+     * ключ ищется в окрестности предсказания ({@link InterpolationSearch}). Для равномерно
+     * распределенных ключей и больших степеней это 2-3 обращения к массиву ключей вместо
+     * log2(степень); при неравномерном распределении поиск переходит на бинарный.
+     * Для ключей других типов и узлов меньше чем из 16 ключей поиск остается бинарным
+     */
+    public void enableInterpolationSearch() {
+        interpolationSearch = true;
+    }
+
+    /**
+     * Возвращает бинарный поиск в узлах
+     */
+    public void disableInterpolationSearch() {
+        interpolationSearch = false;
     }
 
-    private String keysToString(List<K> keys) {
-        String s = new String();
-        for (int i = 0; i < keys.size(); i++) {
-            if (keys.get(i) == null) continue;
-            s += keys.get(i).toString() + " ==> " + get(keys.get(i)) + " <br> ";
+    /**
+     * Фиксирует разлом узла
+     * @param parent родитель узла или {@code null}, если разломан корень
+     * @param node разломанный узел
+     * @param sibling новый правый узел
+     */
+    private void onSplit(Node<K, V> parent, Node<K, V> node, Node<K, V> sibling) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordSplit();
         }
-        return s;
+        if (trace != null) {
+            traceEvent(StructureEvent.Type.SPLIT, parent, node, sibling);
+        }
+    }
+
+    /**
+     * Фиксирует слияние двух узлов
+     * @param parent родитель узлов
+     * @param node оставшийся левый узел
+     * @param sibling поглощенный правый узел
+     */
+    private void onMerge(Node<K, V> parent, Node<K, V> node, Node<K, V> sibling) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordMerge();
+        }
+        if (trace != null) {
+            traceEvent(StructureEvent.Type.MERGE, parent, node, sibling);
+        }
+    }
+
+    /**
+     * Фиксирует перенос элемента от соседа
+     * @param type направление заимствования
+     * @param parent родитель узлов
+     * @param node получатель
+     * @param sibling сосед
+     */
+    private void onBorrow(StructureEvent.Type type, Node<K, V> parent, Node<K, V> node, Node<K, V> sibling) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordBorrow();
+        }
+        if (trace != null) {
+            traceEvent(type, parent, node, sibling);
+        }
+    }
+
+    /**
+     * Фиксирует смену корня (рост или уменьшение высоты дерева)
+     * @param newRoot новый корень
+     * @param oldRoot старый корень
+     */
+    private void onRootChange(Node<K, V> newRoot, Node<K, V> oldRoot) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordRootHeightChange();
+        }
+        if (trace != null) {
+            traceEvent(StructureEvent.Type.ROOT_CHANGE, null, newRoot, oldRoot);
+        }
+    }
+
+    private void traceEvent(StructureEvent.Type type, Node<K, V> parent, Node<K, V> node, Node<K, V> sibling) {
+        trace.record(type, parent == null ? 0 : parent.id,
+                node.id, firstKey(node), lastKey(node),
+                sibling.id, firstKey(sibling), lastKey(sibling));
+    }
+
+    private K firstKey(Node<K, V> node) {
+        return node.keys.isEmpty() ? null : node.keys.get(0);
+    }
+
+    private K lastKey(Node<K, V> node) {
+        return node.keys.isEmpty() ? null : node.keys.get(node.keys.size() - 1);
+    }
+
+    /**
+     * Собирает структурную статистику дерева за один обход в глубину.
+     * Обход не сравнивает ключи и не создает объектов на каждый узел,
+     * поэтому его время пропорционально количеству узлов, а не записей
+     * @return статистика дерева
+     */
+    public TreeStats stats() {
+        TreeStats.Collector collector = new TreeStats.Collector("BPlusTreeMap", treeDegree, size);
+        collectStats(root, 0, collector);
+        return collector.build();
+    }
+
+    /**
+     * Учитывает узел и его поддерево в статистике.
+     * Емкость списков оценивается по максимальному заполнению узла перед разломом
+     * @param node узел
+     * @param level глубина узла
+     * @param collector накопитель статистики
+     */
+    private void collectStats(Node<K, V> node, int level, TreeStats.Collector collector) {
+        long listBytes = HeapLayout.arrayListObjectBytes();
+        if (node.children == null) {
+            long arrayBytes = listBytes + HeapLayout.referenceArrayBytes(HeapLayout.arrayListCapacity(treeDegree));
+            collector.node(level, true, node.keyQuantity(), treeDegree - 1);
+            collector.nodeObjectBytes(HeapLayout.objectBytes(5, 0));
+            collector.keyArrayBytes(node.keys instanceof CompactKeys ? ((CompactKeys<K>) node.keys).retainedBytes() : arrayBytes);
+            collector.valueArrayBytes(arrayBytes);
+            return;
+        }
+        collector.node(level, false, node.children.size(), treeDegree);
+        collector.nodeObjectBytes(HeapLayout.objectBytes(3, 0));
+        collector.keyArrayBytes(listBytes + HeapLayout.referenceArrayBytes(HeapLayout.arrayListCapacity(treeDegree)));
+        collector.childArrayBytes(listBytes + HeapLayout.referenceArrayBytes(HeapLayout.arrayListCapacity(treeDegree + 1)));
+        for (Node<K, V> child : node.children) {
+            collectStats(child, level + 1, collector);
+        }
+    }
+
+
+    /**
+     * Представление узла B+ дерева только для чтения
+     */
+    private final class NodeView implements TreeNodeView<K, V> {
+
+        private final Node<K, V> node;
+
+        NodeView(Node<K, V> node) {
+            this.node = node;
+        }
+
+        @Override
+        public int keyCount() {
+            return node.keyQuantity();
+        }
+
+        @Override
+        public K key(int index) {
+            return node.keys.get(index);
+        }
+
+        @Override
+        public boolean hasValues() {
+            return node.children == null;
+        }
+
+        @Override
+        public V value(int index) {
+            return hasValues() ? ((LeafNode<K, V>) node).values.get(index) : null;
+        }
+
+        @Override
+        public int childCount() {
+            return node.children == null ? 0 : node.children.size();
+        }
+
+        @Override
+        public TreeNodeView<K, V> child(int index) {
+            return new NodeView(node.children.get(index));
+        }
+    }
+
+    @Override
+    public TreeNodeView<K, V> rootView() {
+        return new NodeView(root);
     }
-}
\ No newline at end of file
+}
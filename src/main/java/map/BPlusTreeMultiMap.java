@@ -0,0 +1,776 @@
+package map;
+
+import java.util.*;
+
+/**
+ * Мультикарта на основе B+ дерева: один ключ может встречаться много раз, каждая пара
+ * хранится в листе отдельно (без списка значений на ключ). Пары с одинаковым ключом
+ * лежат подряд в порядке добавления и могут занимать несколько соседних листов,
+ * обход таких серий идет по ссылкам между листами.
+ * <p>
+ * Инвариант внутренних узлов ослаблен по сравнению с {@link BPlusTreeMap}:
+ * ключи левого поддерева не больше разделителя, ключи правого - не меньше.
+ * Поэтому поиск спускается по нижней границе (к самому левому поддереву, где может начинаться серия),
+ * а вставка - по верхней (в конец серии).
+ * <p>
+ * Методы {@link IMap} работают в семантике мультикарты: {@code put} добавляет пару,
+ * {@code get} возвращает первое значение ключа, {@code remove} удаляет первую пару с ключом
+ *
+ * @param <K> Тип ключа
+ * @param <V> Тип значения
+ */
+public class BPlusTreeMultiMap<K extends Comparable<? super K>, V> implements IMap {
+
+    /**
+     * Степень дерева по умолчанию
+     */
+    private static final int DEFAULT_TREE_DEGREE = 4;
+
+    /**
+     * Признак того, что удаляемая пара не найдена
+     */
+    private static final Object ABSENT = new Object();
+
+    /**
+     * Степень дерева
+     */
+    private final int treeDegree;
+
+    /**
+     * Корень дерева
+     */
+    private Node root;
+
+    /**
+     * Количество пар
+     */
+    private int size;
+
+    public BPlusTreeMultiMap() {
+        this(DEFAULT_TREE_DEGREE);
+    }
+
+    /**
+     * Конструктор с параметром
+     * @param treeDegree степень дерева
+     */
+    public BPlusTreeMultiMap(int treeDegree) {
+        if (treeDegree <= 2) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНАЯ СТЕПЕНЬ ДЕРЕВА: " + treeDegree);
+        }
+        this.treeDegree = treeDegree;
+        root = new LeafNode();
+    }
+
+    /**
+     * Индекс первого элемента, не меньшего ключа
+     */
+    private static <K extends Comparable<? super K>> int lowerBound(List<K> keys, K key) {
+        int low = 0;
+        int high = keys.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys.get(middle).compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Индекс первого элемента, большего ключа
+     */
+    private static <K extends Comparable<? super K>> int upperBound(List<K> keys, K key) {
+        int low = 0;
+        int high = keys.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys.get(middle).compareTo(key) <= 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Общий для узлов мультикарты класс
+     */
+    private abstract class Node {
+        List<K> keys;
+        List<Node> children;
+
+        int keyQuantity() {
+            return keys.size();
+        }
+
+        /**
+         * Добавляет пару в конец серии ключа
+         * @param key ключ
+         * @param value значение
+         */
+        abstract void putValue(K key, V value);
+
+        /**
+         * Удаляет одну пару с ключом
+         * @param key ключ
+         * @param value значение
+         * @param anyValue удалить первую пару с ключом независимо от значения
+         * @return удаленное значение или {@link #ABSENT}
+         */
+        abstract Object removeValue(K key, Object value, boolean anyValue);
+
+        abstract K getFirstLeafKey();
+
+        abstract void merge(K separator, Node node);
+
+        abstract K borrowFromLeft(K separator, Node left);
+
+        abstract K borrowFromRight(K separator, Node right);
+
+        abstract Node split();
+
+        abstract boolean isOverflow();
+
+        abstract boolean isUnderflow();
+
+        abstract boolean canLend();
+    }
+
+    /**
+     * Внутренний узел
+     */
+    private class InternalNode extends Node {
+
+        InternalNode() {
+            keys = new ArrayList<>();
+            children = new ArrayList<>();
+        }
+
+        @Override
+        void putValue(K key, V value) {
+            int childIndex = upperBound(keys, key);
+            Node child = children.get(childIndex);
+            child.putValue(key, value);
+            if (child.isOverflow()) {
+                Node sibling = child.split();
+                keys.add(childIndex, sibling.getFirstLeafKey());
+                children.add(childIndex + 1, sibling);
+            }
+        }
+
+        /**
+         * Серия ключа может начинаться в любом из потомков с индексами
+         * от нижней до верхней границы, они перебираются по порядку
+         */
+        @Override
+        Object removeValue(K key, Object value, boolean anyValue) {
+            int last = upperBound(keys, key);
+            for (int childIndex = lowerBound(keys, key); childIndex <= last; childIndex++) {
+                Node child = children.get(childIndex);
+                Object removed = child.removeValue(key, value, anyValue);
+                if (removed != ABSENT) {
+                    if (child.isUnderflow()) {
+                        rebalanceChild(childIndex);
+                    }
+                    return removed;
+                }
+            }
+            return ABSENT;
+        }
+
+        @Override
+        K getFirstLeafKey() {
+            return children.get(0).getFirstLeafKey();
+        }
+
+        @Override
+        void merge(K separator, Node sibling) {
+            keys.add(separator);
+            keys.addAll(sibling.keys);
+            children.addAll(sibling.children);
+        }
+
+        @Override
+        K borrowFromLeft(K separator, Node left) {
+            int last = left.keyQuantity() - 1;
+            keys.add(0, separator);
+            children.add(0, left.children.remove(last + 1));
+            return left.keys.remove(last);
+        }
+
+        @Override
+        K borrowFromRight(K separator, Node right) {
+            keys.add(separator);
+            children.add(right.children.remove(0));
+            return right.keys.remove(0);
+        }
+
+        @Override
+        Node split() {
+            int from = keyQuantity() / 2 + 1;
+            int to = keyQuantity();
+            InternalNode sibling = new InternalNode();
+            sibling.keys.addAll(keys.subList(from, to));
+            sibling.children.addAll(children.subList(from, to + 1));
+
+            keys.subList(from - 1, to).clear();
+            children.subList(from, to + 1).clear();
+
+            return sibling;
+        }
+
+        @Override
+        boolean isOverflow() {
+            return children.size() > treeDegree;
+        }
+
+        @Override
+        boolean isUnderflow() {
+            return children.size() < (treeDegree + 1) / 2;
+        }
+
+        @Override
+        boolean canLend() {
+            return children.size() > (treeDegree + 1) / 2;
+        }
+
+        /**
+         * Восстанавливает заполненность недозаполненного потомка (как в {@link BPlusTreeMap})
+         * @param childIndex индекс недозаполненного потомка
+         */
+        void rebalanceChild(int childIndex) {
+            Node child = children.get(childIndex);
+            Node left = childIndex > 0 ? children.get(childIndex - 1) : null;
+            Node right = childIndex < keyQuantity() ? children.get(childIndex + 1) : null;
+
+            if (left != null && left.canLend()) {
+                keys.set(childIndex - 1, child.borrowFromLeft(keys.get(childIndex - 1), left));
+            } else if (right != null && right.canLend()) {
+                keys.set(childIndex, child.borrowFromRight(keys.get(childIndex), right));
+            } else if (left != null) {
+                left.merge(keys.remove(childIndex - 1), child);
+                children.remove(childIndex);
+            } else if (right != null) {
+                child.merge(keys.remove(childIndex), right);
+                children.remove(childIndex + 1);
+            }
+        }
+    }
+
+    /**
+     * Лист: пары хранятся в порядке ключей, одинаковые ключи - в порядке добавления
+     */
+    private class LeafNode extends Node {
+
+        List<V> values;
+        LeafNode next;
+
+        LeafNode() {
+            keys = new ArrayList<>();
+            values = new ArrayList<>();
+        }
+
+        @Override
+        void putValue(K key, V value) {
+            int index = upperBound(keys, key);
+            keys.add(index, key);
+            values.add(index, value);
+            size++;
+        }
+
+        @Override
+        Object removeValue(K key, Object value, boolean anyValue) {
+            for (int i = lowerBound(keys, key); i < keys.size() && keys.get(i).compareTo(key) == 0; i++) {
+                if (anyValue || Objects.equals(values.get(i), value)) {
+                    keys.remove(i);
+                    size--;
+                    return values.remove(i);
+                }
+            }
+            return ABSENT;
+        }
+
+        @Override
+        K getFirstLeafKey() {
+            return keys.get(0);
+        }
+
+        @Override
+        void merge(K separator, Node sibling) {
+            LeafNode node = (LeafNode) sibling;
+            keys.addAll(node.keys);
+            values.addAll(node.values);
+            next = node.next;
+        }
+
+        @Override
+        K borrowFromLeft(K separator, Node sibling) {
+            LeafNode left = (LeafNode) sibling;
+            int last = left.keyQuantity() - 1;
+            keys.add(0, left.keys.remove(last));
+            values.add(0, left.values.remove(last));
+            return keys.get(0);
+        }
+
+        @Override
+        K borrowFromRight(K separator, Node sibling) {
+            LeafNode right = (LeafNode) sibling;
+            keys.add(right.keys.remove(0));
+            values.add(right.values.remove(0));
+            return right.keys.get(0);
+        }
+
+        /**
+         * Разлом листа. Если середина попадает внутрь серии одинаковых ключей,
+         * точка разлома сдвигается к ближайшей границе серии, пока обе половины
+         * остаются заполненными не меньше минимума. Если серия длиннее листа,
+         * она разрезается: разделителем становится ее ключ, а остаток серии
+         * находится поиском по нижней границе и обходом по ссылкам между листами
+         * @return новый правый лист
+         */
+        @Override
+        Node split() {
+            int to = keyQuantity();
+            int from = splitPoint(to);
+            LeafNode node = new LeafNode();
+            node.keys.addAll(keys.subList(from, to));
+            node.values.addAll(values.subList(from, to));
+
+            keys.subList(from, to).clear();
+            values.subList(from, to).clear();
+
+            node.next = next;
+            next = node;
+            return node;
+        }
+
+        private int splitPoint(int count) {
+            int middle = (count + 1) / 2;
+            int minimum = treeDegree / 2;
+            for (int offset = 0; offset < count; offset++) {
+                int right = middle + offset;
+                int left = middle - offset;
+                boolean rightFits = right <= count - minimum && right >= minimum;
+                boolean leftFits = left >= Math.max(minimum, 1) && left <= count - minimum;
+                if (!rightFits && !leftFits) {
+                    break;
+                }
+                if (rightFits && isRunBoundary(right)) {
+                    return right;
+                }
+                if (leftFits && isRunBoundary(left)) {
+                    return left;
+                }
+            }
+            return middle;
+        }
+
+        private boolean isRunBoundary(int index) {
+            return keys.get(index - 1).compareTo(keys.get(index)) != 0;
+        }
+
+        @Override
+        boolean isOverflow() {
+            return values.size() > treeDegree - 1;
+        }
+
+        @Override
+        boolean isUnderflow() {
+            return values.size() < treeDegree / 2;
+        }
+
+        @Override
+        boolean canLend() {
+            return values.size() > treeDegree / 2;
+        }
+    }
+
+    /**
+     * Находит лист, в котором может начинаться серия ключа
+     * @param key ключ ({@code null} - самый левый лист)
+     * @return лист
+     */
+    private LeafNode findFirstLeaf(K key) {
+        Node node = root;
+        while (node.children != null) {
+            node = node.children.get(key == null ? 0 : lowerBound(node.keys, key));
+        }
+        return (LeafNode) node;
+    }
+
+    /**
+     * Добавляет пару; существующие пары с тем же ключом сохраняются
+     * @param key ключ
+     * @param value значение
+     */
+    public void putMulti(K key, V value) {
+        root.putValue(key, value);
+        if (root.isOverflow()) {
+            Node sibling = root.split();
+            InternalNode newRoot = new InternalNode();
+            newRoot.keys.add(sibling.getFirstLeafKey());
+            newRoot.children.add(root);
+            newRoot.children.add(sibling);
+            root = newRoot;
+        }
+    }
+
+    /**
+     * Возвращает ленивый итератор по всем значениям ключа в порядке добавления.
+     * Структура не должна изменяться, пока итератор используется
+     * @param key ключ
+     * @return итератор значений
+     */
+    public Iterator<V> getAll(K key) {
+        Iterator<Map.Entry<K, V>> entries = new RangeIterator(findFirstLeaf(key), key, key, true);
+        return new Iterator<V>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public V next() {
+                return entries.next().getValue();
+            }
+        };
+    }
+
+    /**
+     * Удаляет одну пару ключ-значение (первую по порядку добавления)
+     * @param key ключ
+     * @param value значение
+     * @return {@code true}, если пара была найдена
+     */
+    public boolean removeOne(K key, V value) {
+        return removeValue(key, value, false) != ABSENT;
+    }
+
+    /**
+     * Удаляет все пары с ключом. Серия ключа вырезается тем же способом, что и диапазон
+     * в {@link #removeRange}, - отрезком [key; key] включительно: внутренние листья серии отрезаются
+     * целиком, и заполненность восстанавливается на путях к началу и концу серии,
+     * поэтому время - O(log n + количество листьев серии)
+     * @param key ключ
+     * @return количество удаленных пар
+     */
+    public int removeAll(K key) {
+        int removed = cut(root, key, key, true);
+        if (removed > 0) {
+            size -= removed;
+            repairPath(key, false);
+            repairPath(key, true);
+        }
+        return removed;
+    }
+
+    /**
+     * Удаляет пару и понижает высоту дерева, если у корня остался единственный потомок
+     */
+    private Object removeValue(K key, Object value, boolean anyValue) {
+        Object removed = root.removeValue(key, value, anyValue);
+        if (root.children != null && root.keyQuantity() == 0) {
+            root = root.children.get(0);
+        }
+        return removed;
+    }
+
+    /**
+     * Возвращает первое по порядку добавления значение ключа
+     * @param key ключ
+     * @return значение или {@code null}
+     */
+    @Override
+    public V get(Comparable key) {
+        Iterator<V> values = getAll((K) key);
+        return values.hasNext() ? values.next() : null;
+    }
+
+    /**
+     * Добавляет пару (см. {@link #putMulti})
+     * @return всегда {@code null}: существующие значения не заменяются
+     */
+    @Override
+    public V put(Comparable key, Object value) {
+        putMulti((K) key, (V) value);
+        return null;
+    }
+
+    /**
+     * Удаляет первую по порядку добавления пару с ключом
+     * @param key ключ
+     * @return удаленное значение или {@code null}
+     */
+    @Override
+    public V remove(Comparable key) {
+        Object removed = removeValue((K) key, null, true);
+        return removed == ABSENT ? null : (V) removed;
+    }
+
+    @Override
+    public void clear() {
+        root = new LeafNode();
+        size = 0;
+    }
+
+    /**
+     * Удаляет все пары с ключами из диапазона [from; to). Поддеревья, целиком лежащие внутри
+     * диапазона, отрезаются от родителей без удаления пар по одной (обходятся только их листья,
+     * чтобы вычесть количество пар), обрезаются лишь узлы на путях к двум границам диапазона,
+     * и заполненность восстанавливается одним проходом по каждому из этих путей
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return количество удаленных пар
+     */
+    @Override
+    public int removeRange(Comparable from, Comparable to) {
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return 0;
+        }
+        if (from == null && to == null) {
+            int removed = size;
+            clear();
+            return removed;
+        }
+        int removed = cut(root, (K) from, (K) to, false);
+        size -= removed;
+        if (from != null) {
+            repairPath((K) from, false);
+        }
+        if (to != null) {
+            repairPath((K) to, false);
+        }
+        return removed;
+    }
+
+    /**
+     * Вырезает пары диапазона из поддерева, не восстанавливая заполненность узлов.
+     * Потомки между граничными отрезаются целиком, граничные обрезаются рекурсивно,
+     * и ссылка из последнего оставшегося листа слева переводится через вырезанные листья
+     * @param from нижняя граница или {@code null}, если левая граница лежит левее поддерева
+     * @param to верхняя граница или {@code null}, если правая граница лежит правее поддерева
+     * @param toInclusive вырезать и пары с ключом {@code to}
+     * @return количество вырезанных пар
+     */
+    private int cut(Node node, K from, K to, boolean toInclusive) {
+        if (node.children == null) {
+            LeafNode leaf = (LeafNode) node;
+            int low = from == null ? 0 : lowerBound(leaf.keys, from);
+            int high = to == null ? leaf.keyQuantity() : bound(leaf.keys, to, toInclusive);
+            leaf.keys.subList(low, high).clear();
+            leaf.values.subList(low, high).clear();
+            return high - low;
+        }
+
+        // граничные потомки: first - с парами меньше from, last - с парами правее to
+        int count = node.children.size();
+        int first = from == null ? -1 : lowerBound(node.keys, from);
+        int last = to == null ? count : bound(node.keys, to, toInclusive);
+        if (first == last) {
+            return cut(node.children.get(first), from, to, toInclusive);
+        }
+        LeafNode after = last < count
+                ? findLeaf(node.children.get(last), true)
+                : findLeaf(node.children.get(count - 1), false).next;
+        int removed = 0;
+        if (last - first > 1) {
+            for (LeafNode leaf = findLeaf(node.children.get(first + 1), true); leaf != after; leaf = leaf.next) {
+                removed += leaf.keyQuantity();
+            }
+            int keyFrom = Math.max(first, 0);
+            node.keys.subList(keyFrom, keyFrom + last - first - 1).clear();
+            node.children.subList(first + 1, last).clear();
+        }
+        if (last < count) {
+            // левые листья правого граничного потомка тоже могут быть вырезаны
+            removed += cut(node.children.get(first + 1), null, to, toInclusive);
+            after = findLeaf(node.children.get(first + 1), true);
+        }
+        if (first >= 0) {
+            removed += cut(node.children.get(first), from, null, false);
+            findLeaf(node.children.get(first), false).next = after;
+        }
+        return removed;
+    }
+
+    /**
+     * Восстанавливает заполненность узлов на пути к ключу после {@link #cut}. Потомок на пути
+     * дополняется до минимума перед спуском в него, чтобы у его потомка были соседи,
+     * и еще раз после, если слияния ниже опустошили его
+     * @param key граница вырезанного диапазона
+     * @param upper путь по верхней границе ключа - к концу вырезанной серии {@code key} включительно
+     */
+    private void repairPath(K key, boolean upper) {
+        collapseRoot();
+        repair(root, key, upper);
+        collapseRoot();
+    }
+
+    private void repair(Node node, K key, boolean upper) {
+        if (node.children == null) {
+            return;
+        }
+        InternalNode parent = (InternalNode) node;
+        fill(parent, bound(parent.keys, key, upper));
+        repair(parent.children.get(bound(parent.keys, key, upper)), key, upper);
+        fill(parent, bound(parent.keys, key, upper));
+    }
+
+    /**
+     * Верхняя или нижняя граница ключа
+     */
+    private static <K extends Comparable<? super K>> int bound(List<K> keys, K key, boolean upper) {
+        return upper ? upperBound(keys, key) : lowerBound(keys, key);
+    }
+
+    /**
+     * Заимствует у соседей или сливает с ними недозаполненного потомка, пока он недозаполнен
+     * и не поглощен левым соседом
+     */
+    private void fill(InternalNode parent, int childIndex) {
+        Node child = parent.children.get(childIndex);
+        while (parent.children.size() > 1 && childIndex < parent.children.size()
+                && parent.children.get(childIndex) == child && child.isUnderflow()) {
+            parent.rebalanceChild(childIndex);
+        }
+    }
+
+    /**
+     * Снимает корни с единственным потомком
+     */
+    private void collapseRoot() {
+        while (root.children != null && root.children.size() == 1) {
+            root = root.children.get(0);
+        }
+    }
+
+    /**
+     * Крайний лист поддерева
+     * @param leftmost крайний левый или крайний правый
+     */
+    private LeafNode findLeaf(Node node, boolean leftmost) {
+        while (node.children != null) {
+            node = node.children.get(leftmost ? 0 : node.children.size() - 1);
+        }
+        return (LeafNode) node;
+    }
+
+    /**
+     * Возвращает количество пар (а не различных ключей)
+     * @return число пар ключ-значение
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> entries(Comparable from, Comparable to) {
+        return new RangeIterator(findFirstLeaf((K) from), (K) from, (K) to, false);
+    }
+
+    /**
+     * Итератор по диапазону ключей, идущий по ссылкам между листами
+     */
+    private final class RangeIterator implements Iterator<Map.Entry<K, V>> {
+
+        private LeafNode leaf;
+        private int index;
+        private final K to;
+        private final boolean toInclusive;
+
+        RangeIterator(LeafNode leaf, K from, K to, boolean toInclusive) {
+            this.leaf = leaf;
+            this.index = from == null ? 0 : lowerBound(leaf.keys, from);
+            this.to = to;
+            this.toInclusive = toInclusive;
+            skipExhaustedLeaves();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (leaf == null) {
+                return false;
+            }
+            if (to == null) {
+                return true;
+            }
+            int compare = leaf.keys.get(index).compareTo(to);
+            return compare < 0 || toInclusive && compare == 0;
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(leaf.keys.get(index), leaf.values.get(index));
+            index++;
+            skipExhaustedLeaves();
+            return entry;
+        }
+
+        private void skipExhaustedLeaves() {
+            while (leaf != null && index >= leaf.keyQuantity()) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+    }
+
+    /**
+     * Представление узла только для чтения
+     */
+    private final class NodeView implements TreeNodeView<K, V> {
+
+        private final Node node;
+
+        NodeView(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public int keyCount() {
+            return node.keyQuantity();
+        }
+
+        @Override
+        public K key(int index) {
+            return node.keys.get(index);
+        }
+
+        @Override
+        public boolean hasValues() {
+            return node.children == null;
+        }
+
+        @Override
+        public V value(int index) {
+            return hasValues() ? ((LeafNode) node).values.get(index) : null;
+        }
+
+        @Override
+        public int childCount() {
+            return node.children == null ? 0 : node.children.size();
+        }
+
+        @Override
+        public TreeNodeView<K, V> child(int index) {
+            return new NodeView(node.children.get(index));
+        }
+    }
+
+    @Override
+    public TreeNodeView<K, V> rootView() {
+        return new NodeView(root);
+    }
+}
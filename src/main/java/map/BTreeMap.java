@@ -1,6 +1,10 @@
 package map;
 
-import TreantGenerator.iTreeMapGenerator.TreeTreantNode;
+import map.metrics.TreeMetrics;
+import map.stats.HeapLayout;
+import map.stats.TreeStats;
+import map.trace.StructureEvent;
+import map.trace.StructureTrace;
 
 import java.util.*;
 import java.util.HashMap;
@@ -35,31 +39,76 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
     /**
      * Карта для организации хранения пар ключ-значение
      */
-    private final Map<K, V> map = new HashMap<>();
+    private Map<K, V> map = new HashMap<>();
 
     private Node<K> root;
 
+    /**
+     * Счетчик структурных изменений (разломов, слияний, заимствований, смены корня)
+     */
+    private int modCount;
+
+    /**
+     * Крайний правый лист (содержит наибольшие ключи) и значение {@code modCount}, при котором он найден
+     */
+    private Node<K> lastLeaf;
+    private int lastLeafModCount = -1;
+
+    /**
+     * Метрики дерева, {@code null} если сбор метрик выключен
+     */
+    private TreeMetrics metrics;
+
+    /**
+     * Трасса структурных событий, {@code null} если трассировка выключена
+     */
+    private StructureTrace trace;
+
+    /**
+     * Пулы освободившихся листов и внутренних узлов, {@code null} если пул выключен
+     */
+    private NodePool<Node> leafPool;
+    private NodePool<Node> internalPool;
+
+    /**
+     * Последний выданный номер узла (см. {@link Node#id})
+     */
+    private int lastNodeId;
+
     /**
      * Класс, описывающий структуру узла дерева и реализующий функционал для работы с ним
      * @param <K> ключ
      */
-    private class Node<K extends Comparable<? super K>> {
+    private static final class Node<K extends Comparable<? super K>> {
 
         /**
          * Кол-во пар "ключ-значение" в узле дерева
          */
         int size;
 
+        /**
+         * Номер узла в трассе структурных событий: выдается деревом при создании узла
+         * и заново при взятии из пула, поэтому переиспользованный узел не сливается в трассе с прежним
+         */
+        int id;
+
         /**
          * Массив ключей
          */
-        K[] keys = (K[]) new Comparable[2 * treeDegree - 1];
+        final K[] keys;
 
         /**
          * Массив указателей на дочерние узлы
          */
         Node<K>[] children;
 
+        /**
+         * @param treeDegree степень дерева: узел вмещает до {@code 2 * treeDegree - 1} ключей
+         */
+        Node(int treeDegree) {
+            keys = (K[]) new Comparable[2 * treeDegree - 1];
+        }
+
         /**
          * Класс, переводящий узел в разряд внутренних (создает массив потомков)
          */
@@ -75,71 +124,77 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
             return children == null;
         }
 
-        /**
-         * Разделение узла
-         * @param i
-         */
-        private void split(int i) {
-            Node<K> z = new Node<>();
-            Node<K> y = children[i];
-
-            if (!y.isLeaf()) {
-                z.makeInternal();
+        private void removeFromLeaf(int removedKeyIndex) {
+            for (int i = removedKeyIndex + 1; i < size; ++i) {
+                keys[i - 1] = keys[i];
             }
 
-            z.size = treeDegree - 1;
-
-            for (int j = 0; j < treeDegree - 1; ++j) {
-                z.keys[j] = y.keys[j + treeDegree];
-                y.keys[j + treeDegree] = null;
-            }
+            keys[--size] = null;
+        }
 
-            if (!y.isLeaf()) {
-                for (int j = 0; j < treeDegree; ++j) {
-                    z.children[j] = y.children[j + treeDegree];
-                    y.children[j + treeDegree] = null;
+        private <K extends Comparable<? super K>> int findKeyIndex(K key) {
+            for (int i = 0; i != size; ++i) {
+                if (keys[i].equals(key)) {
+                    return i;
                 }
             }
 
-            int oldSizeOfY = y.size;
-            y.size = treeDegree - 1;
-            K pushUpKey = y.keys[treeDegree - 1];
+            return -1;
+        }
+    }
 
-            for (int j = y.size; j < oldSizeOfY; ++j) {
-                y.keys[j] = null;
-            }
+    /**
+     * Разделение заполненного потомка узла
+     * @param x узел
+     * @param i индекс заполненного потомка
+     * @param packed плотное разделение при вставке ключа больше всех ключей потомка: новый ключ
+     *               всегда уходит вправо, поэтому лист оставляет себе 2t - 2 ключа и поднимает
+     *               последний, а новый правый лист пуст до вставки этого ключа. Внутренний узел
+     *               оставляет 2t - 3 ключа: правому нужен хотя бы один ключ, так как ключ снизу
+     *               придет в него, только если разделится и его потомок
+     */
+    private void split(Node<K> x, int i, boolean packed) {
+        Node<K> y = x.children[i];
+        Node<K> z = newNode(!y.isLeaf());
 
-            for (int j = size; j >= i; --j) {
-                children[j + 1] = children[j];
-            }
+        // индекс ключа, поднимаемого в текущий узел
+        int middle = !packed ? treeDegree - 1 : y.isLeaf() ? 2 * treeDegree - 2 : 2 * treeDegree - 3;
+        z.size = 2 * treeDegree - 2 - middle;
 
-            children[i + 1] = z;
+        for (int j = 0; j < z.size; ++j) {
+            z.keys[j] = y.keys[j + middle + 1];
+            y.keys[j + middle + 1] = null;
+        }
 
-            for (int j = size - 1; j >= i; --j) {
-                keys[j + 1] = keys[j];
+        if (!y.isLeaf()) {
+            for (int j = 0; j <= z.size; ++j) {
+                z.children[j] = y.children[j + middle + 1];
+                y.children[j + middle + 1] = null;
             }
-
-            keys[i] = pushUpKey;
-            size++;
         }
 
-        private void removeFromLeaf(int removedKeyIndex) {
-            for (int i = removedKeyIndex + 1; i < size; ++i) {
-                keys[i - 1] = keys[i];
-            }
+        int oldSizeOfY = y.size;
+        y.size = middle;
+        K pushUpKey = y.keys[middle];
 
-            keys[--size] = null;
+        for (int j = y.size; j < oldSizeOfY; ++j) {
+            y.keys[j] = null;
         }
 
-        private <K extends Comparable<? super K>> int findKeyIndex(K key) {
-            for (int i = 0; i != size; ++i) {
-                if (keys[i].equals(key)) {
-                    return i;
-                }
-            }
+        for (int j = x.size; j >= i; --j) {
+            x.children[j + 1] = x.children[j];
+        }
 
-            return -1;
+        x.children[i + 1] = z;
+
+        for (int j = x.size - 1; j >= i; --j) {
+            x.keys[j + 1] = x.keys[j];
         }
+
+        x.keys[i] = pushUpKey;
+        x.size++;
+
+        onSplit(x, y, z);
     }
 
     /**
@@ -147,7 +202,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
      */
     public BTreeMap() {
         treeDegree = DEFAULT_TREE_DEGREE;
-        root = new Node<>();
+        root = newNode(false);
     }
 
     /**
@@ -156,7 +211,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
      */
     public BTreeMap(int treeDegree) {
         this.treeDegree = treeDegree;
-        root = new Node<>();
+        root = newNode(false);
     }
 
     /**
@@ -164,22 +219,50 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
      * @param key ключ
      */
     private void bTreeInsertKey(K key) {
+        Node<K> last = lastLeaf();
+        if (last.size > 0 && last.size < 2 * treeDegree - 1 && key.compareTo(last.keys[last.size - 1]) > 0) {
+            last.keys[last.size++] = key;
+            return;
+        }
+
         Node<K> r = root;
 
         if (r.size == 2 * treeDegree - 1) {
-            Node<K> node = new Node<>();
+            Node<K> node = newNode(true);
             root = node;
-            node.makeInternal();
             node.children[0] = r;
-            node.split(0);
-            bTreeInsertNonFull(node, key);
+            split(node, 0, key.compareTo(r.keys[r.size - 1]) > 0);
+            onRootChange(node, r);
+            bTreeInsertNonFull(node, key, true);
         } else {
-            bTreeInsertNonFull(r, key);
+            bTreeInsertNonFull(r, key, true);
         }
     }
 
+    /**
+     * Возвращает крайний правый лист. Ключ больше всех имеющихся (монотонная вставка
+     * по времени или порядковому номеру) дописывается прямо в него без спуска от корня.
+     * Лист ищется заново только после структурных изменений дерева
+     * @return крайний правый лист
+     */
+    private Node<K> lastLeaf() {
+        if (lastLeafModCount != modCount) {
+            lastLeaf = getMaximumNode(root);
+            lastLeafModCount = modCount;
+        }
+        return lastLeaf;
+    }
 
-    private void bTreeInsertNonFull(Node<K> x, K k) {
+    /**
+     * Вставка ключа в незаполненный узел с упреждающим разделением заполненных потомков.
+     * Если ключ больше всех ключей на пути (вставка идет по крайнему правому пути),
+     * потомки разделяются плотно: при монотонной вставке левая часть больше не получит ключей,
+     * и разделение пополам оставило бы ее наполовину пустой навсегда
+     * @param x узел
+     * @param k ключ
+     * @param rightmost узел лежит на крайнем правом пути дерева
+     */
+    private void bTreeInsertNonFull(Node<K> x, K k, boolean rightmost) {
         int i = x.size - 1;
 
         if (x.isLeaf()) {
@@ -196,16 +279,17 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
             }
 
             i++;
+            Node<K> child = x.children[i];
 
-            if (x.children[i].size == 2 * treeDegree - 1) {
-                x.split(i);
+            if (child.size == 2 * treeDegree - 1) {
+                split(x, i, rightmost && i == x.size && k.compareTo(child.keys[child.size - 1]) > 0);
 
                 if (k.compareTo(x.keys[i]) > 0) {
                     i++;
                 }
             }
 
-            bTreeInsertNonFull(x.children[i], k);
+            bTreeInsertNonFull(x.children[i], k, rightmost && i == x.size);
         }
     }
 
@@ -234,7 +318,14 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
      */
     @Override
     public V get(Comparable key) {
-        return map.get(key);
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return map.get(key);
+        }
+        long startTime = m.startTimer();
+        V value = map.get(key);
+        m.recordGet(value != null, startTime);
+        return value;
     }
 
     /**
@@ -245,13 +336,23 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
      */
     @Override
     public V put(Comparable key, Object value) {
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return putValue((K) key, (V) value);
+        }
+        long startTime = m.startTimer();
+        V oldValue = putValue((K) key, (V) value);
+        m.recordPut(startTime);
+        return oldValue;
+    }
 
+    private V putValue(K key, V value) {
         if (map.containsKey(key)) {
-            return map.put((K)key, (V)value);
+            return map.put(key, value);
         }
 
-        bTreeInsertKey((K)key);
-        map.put((K)key, (V)value);
+        bTreeInsertKey(key);
+        map.put(key, value);
         return null;
     }
 
@@ -262,17 +363,963 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
      */
     @Override
     public V remove(Comparable key) {
-        if (map.containsKey( key)) {
-            bTreeDeleteKey(root, (K) key);
+        TreeMetrics m = metrics;
+        if (m == null) {
+            return removeValue((K) key);
+        }
+        long startTime = m.startTimer();
+        V value = removeValue((K) key);
+        m.recordRemove(startTime);
+        return value;
+    }
+
+    private V removeValue(K key) {
+        if (map.containsKey(key)) {
+            bTreeDeleteKey(root, key);
             return map.remove(key);
         }
 
         return null;
     }
 
+    /**
+     * Поддерево и его высота (лист имеет высоту 1)
+     */
+    private static final class Subtree<K extends Comparable<? super K>> {
+        final Node<K> node;
+        final int height;
+
+        Subtree(Node<K> node, int height) {
+            this.node = node;
+            this.height = height;
+        }
+    }
+
+    /**
+     * Отделяет от карты все пары с ключами меньше {@code key} и возвращает их новой картой той же степени.
+     * Дерево делится по пути от корня к ключу: поддеревья, лежащие в стороне от пути, переносятся
+     * целиком, а части каждого уровня соединяются по ключу родителя, поэтому структура
+     * перестраивается за O(log n). Значения хранятся во вспомогательной хеш-таблице, и переносятся
+     * только значения меньшей части: ее ключи находятся одновременным обходом обеих частей,
+     * поэтому полное время - O(log n + min(k, n - k)). Пул узлов, метрики и трасса остаются у текущей карты
+     * @param key граница: пары с ключами меньше нее переносятся, не меньше - остаются
+     * @return новая карта с парами, ключи которых меньше {@code key}
+     */
+    public BTreeMap<K, V> splitAt(Comparable key) {
+        BTreeMap<K, V> lower = splitTree((K) key);
+        Iterator<Map.Entry<K, V>> left = lower.entries(null, null);
+        Iterator<Map.Entry<K, V>> right = entries(null, null);
+        while (left.hasNext() && right.hasNext()) {
+            left.next();
+            right.next();
+        }
+        if (!left.hasNext()) {
+            moveValues(lower.root, map, lower.map);
+        } else {
+            Map<K, V> values = map;
+            map = new HashMap<>();
+            moveValues(root, values, map);
+            lower.map = values;
+        }
+        return lower;
+    }
+
+    /**
+     * Присоединяет к карте все пары другой карты, после чего другая карта пуста.
+     * Диапазоны ключей карт не должны пересекаться: другая карта может лежать как правее,
+     * так и левее текущей. Наименьший ключ правого дерева становится разделителем,
+     * меньшее по высоте дерево подвешивается к краю большего на своей высоте, и исправляется
+     * только граничный путь. Значения меньшей карты переносятся в хеш-таблицу большей,
+     * поэтому слияние занимает O(log n + min(k, n - k))
+     * @param other карта той же степени
+     */
+    public void join(BTreeMap<K, V> other) {
+        if (other == this) {
+            throw new IllegalArgumentException("КАРТА НЕ МОЖЕТ БЫТЬ ПРИСОЕДИНЕНА К СЕБЕ");
+        }
+        if (other.treeDegree != treeDegree) {
+            throw new IllegalArgumentException("РАЗНЫЕ СТЕПЕНИ ДЕРЕВЬЕВ: " + treeDegree + " И " + other.treeDegree);
+        }
+        if (other.map.isEmpty()) {
+            return;
+        }
+        BTreeMap<K, V> left = this;
+        BTreeMap<K, V> right = other;
+        if (!map.isEmpty() && maximumKey().compareTo(other.minimumKey()) >= 0) {
+            left = other;
+            right = this;
+            if (other.maximumKey().compareTo(minimumKey()) >= 0) {
+                throw new IllegalArgumentException("ДИАПАЗОНЫ КЛЮЧЕЙ ПЕРЕСЕКАЮТСЯ");
+            }
+        }
+        joinTree(left, right);
+        Map<K, V> values = map.size() >= other.map.size() ? map : other.map;
+        values.putAll(values == map ? other.map : map);
+        map = values;
+
+        other.map = new HashMap<>();
+        other.root = other.newNode(false);
+        other.modCount++;
+    }
+
+    /**
+     * Удаляет все пары с ключами из диапазона [from; to). Дерево делится по обеим границам,
+     * и крайние части снова соединяются: поддеревья внутри диапазона отбрасываются целиком,
+     * исправляются только два граничных пути, поэтому структура перестраивается за O(log n).
+     * Количество удаленных пар находится одновременным обходом вырезанной и оставшейся частей
+     * до конца меньшей из них, как в {@link #splitAt}. Из хеш-таблицы значений удаляются удаленные ключи
+     * или, если их больше, чем оставшихся, оставшиеся переносятся в новую таблицу:
+     * полное время - O(log n + min(m, n - m)) для m удаленных пар
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return количество удаленных пар
+     */
+    @Override
+    public int removeRange(Comparable from, Comparable to) {
+        if (map.isEmpty() || from != null && to != null && from.compareTo(to) >= 0) {
+            return 0;
+        }
+        BTreeMap<K, V> lower = from == null ? null : splitTree((K) from);
+        BTreeMap<K, V> range;
+        if (to == null) {
+            range = new BTreeMap<>(treeDegree);
+            range.install(new Subtree<>(root, height()));
+            install(null);
+        } else {
+            range = splitTree((K) to);
+        }
+        if (lower != null) {
+            joinTree(lower, this);
+        }
+
+        Iterator<Map.Entry<K, V>> removedKeys = range.entries(null, null);
+        Iterator<Map.Entry<K, V>> keptKeys = entries(null, null);
+        int common = 0;
+        while (removedKeys.hasNext() && keptKeys.hasNext()) {
+            removedKeys.next();
+            keptKeys.next();
+            common++;
+        }
+        if (!removedKeys.hasNext()) {
+            moveValues(range.root, map, null);
+            return common;
+        }
+        int removed = map.size() - common;
+        Map<K, V> values = map;
+        map = new HashMap<>();
+        moveValues(root, values, map);
+        return removed;
+    }
+
+    /**
+     * Начинает уплотнение дерева по частям ({@link Compaction#step}). Узлы перестраиваются
+     * с заполненностью {@code targetFill} от емкости {@code 2t - 1} ключей. Каждый шаг вырезает
+     * диапазон дерева {@link #split}-ом, строит из его ключей новое поддерево снизу вверх
+     * и соединяет его с соседними частями {@link #join}-ом, поэтому шаг занимает
+     * O(размер шага + log n). Значения остаются в хеш-таблице и не переносятся.
+     * Освободившиеся узлы возвращаются в пул, если он включен
+     * @param targetFill доля заполнения узлов, от 0.5 до 1
+     * @return уплотнение, не выполнившее ни одного шага
+     */
+    public Compaction startCompaction(double targetFill) {
+        return new TreeCompaction(targetFill);
+    }
+
+    /**
+     * Уплотняет все дерево ({@link #startCompaction})
+     * @param targetFill доля заполнения узлов, от 0.5 до 1
+     * @return отчет об уплотнении
+     */
+    public Compaction compact(double targetFill) {
+        return startCompaction(targetFill).run();
+    }
+
+    /**
+     * Уплотнение B-дерева. Между шагами хранится только ключ, с которого начнется
+     * следующий шаг, поэтому изменения карты между шагами ему не мешают
+     */
+    private final class TreeCompaction extends Compaction {
+
+        /**
+         * Первый ключ еще не перестроенной части, {@code null} - начало дерева
+         */
+        private K boundary;
+
+        TreeCompaction(double targetFill) {
+            super(targetFill, height(), stats().getRetainedBytes());
+        }
+
+        @Override
+        boolean compactChunk(int maxEntries) {
+            if (root.size == 0) {
+                return false;
+            }
+            K to = keyAfter(boundary, maxEntries);
+            Subtree<K> left = null;
+            Subtree<K> chunk = new Subtree<>(root, height());
+            Subtree<K> right = null;
+            if (boundary != null) {
+                Subtree<K>[] parts = split(chunk, boundary, BTreeMap.this);
+                left = parts[0];
+                chunk = parts[1];
+            }
+            if (to != null && chunk != null) {
+                Subtree<K>[] parts = split(chunk, to, BTreeMap.this);
+                chunk = parts[0];
+                right = parts[1];
+            }
+            if (chunk == null) {
+                install(left);
+                boundary = to;
+                return false;
+            }
+
+            // крайние ключи диапазона становятся разделителями при соединении с соседними частями
+            List<K> keys = new ArrayList<>();
+            drain(chunk.node, keys);
+            countEntries(keys.size());
+            int from = left == null ? 0 : 1;
+            int end = right == null ? keys.size() : keys.size() - 1;
+            Subtree<K> joined = end > from ? build(keys, from, end, getTargetFill()) : null;
+            if (left != null && right != null && keys.size() == 1) {
+                joined = join(left, keys.get(0), right);
+            } else {
+                if (left != null) {
+                    joined = join(left, keys.get(0), joined);
+                }
+                if (right != null) {
+                    joined = join(joined, keys.get(keys.size() - 1), right);
+                }
+            }
+            install(joined);
+            boundary = to;
+            return to != null;
+        }
+
+        /**
+         * Ключ, отстоящий на {@code count} позиций от первого ключа не меньше {@code from}
+         * @return ключ или {@code null}, если дерево кончилось раньше
+         */
+        private K keyAfter(K from, int count) {
+            Iterator<Map.Entry<K, V>> iterator = entries(from, null);
+            for (int i = 0; i < count && iterator.hasNext(); i++) {
+                iterator.next();
+            }
+            return iterator.hasNext() ? iterator.next().getKey() : null;
+        }
+
+        @Override
+        int currentHeight() {
+            return height();
+        }
+
+        @Override
+        long currentBytes() {
+            return stats().getRetainedBytes();
+        }
+    }
+
+    /**
+     * Переносит ключи поддерева в список по возрастанию и освобождает его узлы
+     */
+    private void drain(Node<K> node, List<K> keys) {
+        for (int i = 0; i < node.size; i++) {
+            if (!node.isLeaf()) {
+                drain(node.children[i], keys);
+            }
+            keys.add(node.keys[i]);
+        }
+        if (!node.isLeaf()) {
+            drain(node.children[node.size], keys);
+        }
+        recycle(node);
+    }
+
+    /**
+     * Строит поддерево из отсортированных ключей [from; to) снизу вверх. Узлы получают долю
+     * {@code fill} от емкости, между соседними узлами уровня на уровень выше поднимается
+     * один ключ; остаток делится между узлами уровня поровну, чтобы последний узел
+     * не оказался почти пустым
+     * @param keys ключи по возрастанию
+     * @param from начало диапазона
+     * @param to конец диапазона, больше {@code from}
+     * @param fill доля заполнения
+     * @return поддерево
+     */
+    private Subtree<K> build(List<K> keys, int from, int to, double fill) {
+        int capacity = 2 * treeDegree - 1;
+        int perNode = Math.max(1, Math.min(capacity, (int) Math.round(fill * capacity)));
+
+        // каждый лист, кроме последнего, забирает свои ключи и разделитель после себя
+        int count = to - from;
+        int leafCount = (count + perNode + 1) / (perNode + 1);
+        if (count + 1 < 2 * leafCount) {
+            leafCount = (count + 1) / 2;
+        }
+        int total = count - (leafCount - 1);
+        List<Node<K>> level = new ArrayList<>(leafCount);
+        List<K> separators = new ArrayList<>(leafCount - 1);
+        int position = from;
+        for (int i = 0; i < leafCount; i++) {
+            Node<K> leaf = newNode(false);
+            leaf.size = total / leafCount + (i < total % leafCount ? 1 : 0);
+            for (int j = 0; j < leaf.size; j++) {
+                leaf.keys[j] = keys.get(position++);
+            }
+            level.add(leaf);
+            if (i < leafCount - 1) {
+                separators.add(keys.get(position++));
+            }
+        }
+
+        int height = 1;
+        while (level.size() > 1) {
+            int children = level.size();
+            int nodes = (children + perNode) / (perNode + 1);
+            if (children < 2 * nodes) {
+                nodes = children / 2;
+            }
+            List<Node<K>> parents = new ArrayList<>(nodes);
+            List<K> upper = new ArrayList<>(nodes - 1);
+            position = 0;
+            for (int i = 0; i < nodes; i++) {
+                int end = position + children / nodes + (i < children % nodes ? 1 : 0);
+                Node<K> parent = newNode(true);
+                parent.size = end - position - 1;
+                for (int j = position; j < end; j++) {
+                    parent.children[j - position] = level.get(j);
+                    if (j < end - 1) {
+                        parent.keys[j - position] = separators.get(j);
+                    }
+                }
+                parents.add(parent);
+                if (i < nodes - 1) {
+                    upper.add(separators.get(end - 1));
+                }
+                position = end;
+            }
+            level = parents;
+            separators = upper;
+            height++;
+        }
+        return new Subtree<>(level.get(0), height);
+    }
+
+    /**
+     * Делит структуру дерева по ключу, не трогая значения
+     * @param key граница
+     * @return новое дерево с ключами меньше {@code key} и пустой хеш-таблицей
+     */
+    private BTreeMap<K, V> splitTree(K key) {
+        BTreeMap<K, V> lower = new BTreeMap<>(treeDegree);
+        // перенесенные узлы сохраняют номера, новые узлы нижней карты нумеруются после них
+        lower.lastNodeId = lastNodeId;
+        if (root.size > 0) {
+            Subtree<K>[] parts = split(new Subtree<>(root, height()), key, lower);
+            lower.install(parts[0]);
+            install(parts[1]);
+        }
+        return lower;
+    }
+
+    /**
+     * Делает корнем соединение структур двух деревьев, не трогая значения.
+     * Наименьший ключ правого дерева становится разделителем
+     * @param left дерево с меньшими ключами
+     * @param right дерево с большими ключами
+     */
+    private void joinTree(BTreeMap<K, V> left, BTreeMap<K, V> right) {
+        lastNodeId = Math.max(left.lastNodeId, right.lastNodeId);
+        if (left.root.size == 0 || right.root.size == 0) {
+            root = left.root.size == 0 ? right.root : left.root;
+        } else {
+            K separator = right.minimumKey();
+            right.bTreeDeleteKey(right.root, separator);
+            Subtree<K> rightTree = right.root.size == 0 ? null : new Subtree<>(right.root, right.height());
+            root = join(new Subtree<>(left.root, left.height()), separator, rightTree).node;
+        }
+        modCount++;
+    }
+
+    /**
+     * Делит поддерево по ключу. Части уровня, лежащие левее пути к ключу, соединяются
+     * с левой частью потомка на пути, правее - с правой. Если ключ найден во внутреннем узле,
+     * спуск заканчивается на нем: ключ становится наименьшим в правой части
+     * @param subtree поддерево
+     * @param key граница
+     * @param lower дерево, которому достанется левая часть
+     * @return части с ключами меньше {@code key} и не меньше {@code key}, пустая часть - {@code null}
+     */
+    private Subtree<K>[] split(Subtree<K> subtree, K key, BTreeMap<K, V> lower) {
+        Subtree<K>[] parts = new Subtree[2];
+        Node<K> node = subtree.node;
+        int index = Arrays.binarySearch(node.keys, 0, node.size, key);
+        boolean found = index >= 0;
+        index = found ? index : -index - 1;
+        if (node.isLeaf()) {
+            if (index == node.size) {
+                parts[0] = subtree;
+            } else if (index == 0) {
+                parts[1] = subtree;
+            } else {
+                Node<K> right = newNode(false);
+                right.size = node.size - index;
+                System.arraycopy(node.keys, index, right.keys, 0, right.size);
+                Arrays.fill(node.keys, index, node.size, null);
+                node.size = index;
+                parts[0] = subtree;
+                parts[1] = new Subtree<>(right, 1);
+            }
+            return parts;
+        }
+
+        if (found) {
+            parts[0] = lower.slice(node, 0, index + 1, subtree.height);
+            parts[1] = join(null, node.keys[index], slice(node, index + 1, node.size + 1, subtree.height));
+        } else {
+            Subtree<K>[] childParts = split(new Subtree<>(node.children[index], subtree.height - 1), key, lower);
+            Subtree<K> left = lower.slice(node, 0, index, subtree.height);
+            Subtree<K> right = slice(node, index + 1, node.size + 1, subtree.height);
+            parts[0] = index > 0 ? lower.join(left, node.keys[index - 1], childParts[0]) : childParts[0];
+            parts[1] = index < node.size ? join(childParts[1], node.keys[index], right) : childParts[1];
+        }
+        recycle(node);
+        return parts;
+    }
+
+    /**
+     * Поддерево из потомков [from; to) внутреннего узла и ключей между ними
+     * @return поддерево, единственный потомок или {@code null}, если потомков нет
+     */
+    private Subtree<K> slice(Node<K> node, int from, int to, int height) {
+        if (to - from < 2) {
+            return to == from ? null : new Subtree<>(node.children[from], height - 1);
+        }
+        Node<K> target = newNode(true);
+        target.size = to - from - 1;
+        System.arraycopy(node.keys, from, target.keys, 0, target.size);
+        System.arraycopy(node.children, from, target.children, 0, target.size + 1);
+        return new Subtree<>(target, height);
+    }
+
+    /**
+     * Соединяет два дерева и ключ между ними. Корни деревьев могут быть заполнены меньше минимума
+     * @param left левое дерево или {@code null}
+     * @param separator ключ: больше ключей левого дерева и меньше ключей правого
+     * @param right правое дерево или {@code null}
+     * @return соединенное дерево
+     */
+    private Subtree<K> join(Subtree<K> left, K separator, Subtree<K> right) {
+        if (left == null && right == null) {
+            Node<K> leaf = newNode(false);
+            leaf.keys[leaf.size++] = separator;
+            return new Subtree<>(leaf, 1);
+        }
+        if (left == null || right == null) {
+            return attach(left == null ? right : left, separator, null, 0, left != null);
+        }
+        if (left.height == right.height) {
+            Node<K> x = left.node;
+            Node<K> y = right.node;
+            if (x.size + 1 + y.size <= 2 * treeDegree - 1) {
+                x.keys[x.size] = separator;
+                System.arraycopy(y.keys, 0, x.keys, x.size + 1, y.size);
+                if (!x.isLeaf()) {
+                    System.arraycopy(y.children, 0, x.children, x.size + 1, y.size + 1);
+                }
+                x.size += y.size + 1;
+                onMerge(null, x, y);
+                recycle(y);
+                return left;
+            }
+            Node<K> parent = newNode(true);
+            parent.keys[0] = separator;
+            parent.children[0] = x;
+            parent.children[1] = y;
+            parent.size = 1;
+            fill(parent, 0);
+            fill(parent, 1);
+            return new Subtree<>(parent, left.height + 1);
+        }
+        return left.height > right.height
+                ? attach(left, separator, right.node, right.height, true)
+                : attach(right, separator, left.node, left.height, false);
+    }
+
+    /**
+     * Добавляет ключ и поддерево меньшей высоты к краю дерева. Заполненные узлы на пути
+     * разделяются при спуске, как при вставке, поэтому узел, получающий ключ, не переполняется
+     * @param tree дерево
+     * @param key добавляемый ключ
+     * @param child добавляемое поддерево или {@code null} - добавить только ключ в крайний лист
+     * @param childHeight высота поддерева (0, если его нет)
+     * @param atRight добавить к правому краю (ключ больше всех ключей дерева) или к левому
+     * @return дерево с добавленными ключом и поддеревом
+     */
+    private Subtree<K> attach(Subtree<K> tree, K key, Node<K> child, int childHeight, boolean atRight) {
+        if (tree.node.size == 2 * treeDegree - 1) {
+            Node<K> newRoot = newNode(true);
+            newRoot.children[0] = tree.node;
+            split(newRoot, 0, false);
+            tree = new Subtree<>(newRoot, tree.height + 1);
+        }
+        Node<K> node = tree.node;
+        for (int height = tree.height; height > childHeight + 1; height--) {
+            int index = atRight ? node.size : 0;
+            if (node.children[index].size == 2 * treeDegree - 1) {
+                split(node, index, false);
+                index = atRight ? node.size : 0;
+            }
+            node = node.children[index];
+        }
+        if (atRight) {
+            node.keys[node.size] = key;
+            if (child != null) {
+                node.children[node.size + 1] = child;
+            }
+            node.size++;
+        } else {
+            System.arraycopy(node.keys, 0, node.keys, 1, node.size);
+            node.keys[0] = key;
+            if (child != null) {
+                System.arraycopy(node.children, 0, node.children, 1, node.size + 1);
+                node.children[0] = child;
+            }
+            node.size++;
+        }
+        if (child != null) {
+            fill(node, atRight ? node.size : 0);
+        }
+        return tree;
+    }
+
+    /**
+     * Доводит заполненность потомка до минимума переносом ключей от соседа через родителя
+     * или слиянием с соседом
+     * @param parent родитель
+     * @param childIndex индекс потомка
+     */
+    private void fill(Node<K> parent, int childIndex) {
+        Node<K> child = parent.children[childIndex];
+        while (child.size < treeDegree - 1) {
+            if (childIndex > 0 && parent.children[childIndex - 1].size > treeDegree - 1) {
+                rotate(parent, childIndex - 1, true);
+                onBorrow(StructureEvent.Type.BORROW_LEFT, parent, child, parent.children[childIndex - 1]);
+            } else if (childIndex < parent.size && parent.children[childIndex + 1].size > treeDegree - 1) {
+                rotate(parent, childIndex, false);
+                onBorrow(StructureEvent.Type.BORROW_RIGHT, parent, child, parent.children[childIndex + 1]);
+            } else {
+                if (childIndex > 0) {
+                    mergeChildren(parent, childIndex - 1);
+                } else if (childIndex < parent.size) {
+                    mergeChildren(parent, childIndex);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Переносит один ключ между соседними потомками через ключ родителя между ними
+     * @param parent родитель
+     * @param index индекс ключа родителя между потомками {@code index} и {@code index + 1}
+     * @param toRight перенести последний ключ левого потомка в правый или первый ключ правого в левый
+     */
+    private void rotate(Node<K> parent, int index, boolean toRight) {
+        Node<K> left = parent.children[index];
+        Node<K> right = parent.children[index + 1];
+        if (toRight) {
+            System.arraycopy(right.keys, 0, right.keys, 1, right.size);
+            right.keys[0] = parent.keys[index];
+            parent.keys[index] = left.keys[left.size - 1];
+            left.keys[left.size - 1] = null;
+            if (!right.isLeaf()) {
+                System.arraycopy(right.children, 0, right.children, 1, right.size + 1);
+                right.children[0] = left.children[left.size];
+                left.children[left.size] = null;
+            }
+            left.size--;
+            right.size++;
+        } else {
+            left.keys[left.size] = parent.keys[index];
+            parent.keys[index] = right.keys[0];
+            System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+            right.keys[right.size - 1] = null;
+            if (!left.isLeaf()) {
+                left.children[left.size + 1] = right.children[0];
+                System.arraycopy(right.children, 1, right.children, 0, right.size);
+                right.children[right.size] = null;
+            }
+            left.size++;
+            right.size--;
+        }
+    }
+
+    /**
+     * Сливает потомков {@code index} и {@code index + 1} вместе с ключом родителя между ними
+     * @param parent родитель
+     * @param index индекс ключа родителя
+     */
+    private void mergeChildren(Node<K> parent, int index) {
+        Node<K> left = parent.children[index];
+        Node<K> right = parent.children[index + 1];
+        left.keys[left.size] = parent.keys[index];
+        System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+        if (!left.isLeaf()) {
+            System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+        }
+        left.size += right.size + 1;
+
+        System.arraycopy(parent.keys, index + 1, parent.keys, index, parent.size - index - 1);
+        System.arraycopy(parent.children, index + 2, parent.children, index + 1, parent.size - index - 1);
+        parent.keys[parent.size - 1] = null;
+        parent.children[parent.size] = null;
+        parent.size--;
+        onMerge(parent, left, right);
+        recycle(right);
+    }
+
+    /**
+     * Делает поддерево корнем дерева
+     * @param subtree поддерево или {@code null} для пустого дерева
+     */
+    private void install(Subtree<K> subtree) {
+        root = subtree == null ? newNode(false) : subtree.node;
+        modCount++;
+    }
+
+    private K minimumKey() {
+        return getMinimumNode(root).keys[0];
+    }
+
+    private K maximumKey() {
+        Node<K> node = getMaximumNode(root);
+        return node.keys[node.size - 1];
+    }
+
+    /**
+     * Переносит значения всех ключей поддерева из одной хеш-таблицы в другую
+     * @param to хеш-таблица назначения, {@code null} - только удалить значения
+     */
+    private void moveValues(Node<K> node, Map<K, V> from, Map<K, V> to) {
+        for (int i = 0; i < node.size; i++) {
+            V value = from.remove(node.keys[i]);
+            if (to != null) {
+                to.put(node.keys[i], value);
+            }
+        }
+        if (!node.isLeaf()) {
+            for (int i = 0; i <= node.size; i++) {
+                moveValues(node.children[i], from, to);
+            }
+        }
+    }
+
     @Override
     public void clear() {
-        root = null;
+        map.clear();
+        root = newNode(false);
+        modCount++;
+    }
+
+    /**
+     * Возвращает итератор по парам ключ-значение с ключами из диапазона [from; to).
+     * Обход симметричный, путь от корня хранится в стеке, поэтому дополнительная память
+     * пропорциональна высоте дерева
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return итератор пар в порядке возрастания ключей
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> entries(Comparable from, Comparable to) {
+        return new RangeIterator((K) from, (K) to);
+    }
+
+    /**
+     * Итератор по диапазону ключей. Для каждого узла на пути хранится индекс
+     * следующего ключа, который нужно выдать после обхода левого от него поддерева
+     */
+    private final class RangeIterator implements Iterator<Map.Entry<K, V>> {
+
+        private final Node<K>[] nodes = new Node[height()];
+        private final int[] indexes = new int[nodes.length];
+        private int depth = -1;
+        private final K to;
+
+        RangeIterator(K from, K to) {
+            this.to = to;
+            Node<K> node = root;
+            while (node != null) {
+                int index = from == null ? -1 : Arrays.binarySearch(node.keys, 0, node.size, from);
+                push(node, index >= 0 ? index : -index - 1);
+                node = index >= 0 || node.isLeaf() ? null : node.children[-index - 1];
+            }
+            skipExhaustedNodes();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return depth >= 0 && (to == null || nodes[depth].keys[indexes[depth]].compareTo(to) < 0);
+        }
+
+        @Override
+        public Map.Entry<K, V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Node<K> node = nodes[depth];
+            K key = node.keys[indexes[depth]++];
+            if (!node.isLeaf()) {
+                for (Node<K> child = node.children[indexes[depth]]; child != null;
+                     child = child.isLeaf() ? null : child.children[0]) {
+                    push(child, 0);
+                }
+            }
+            skipExhaustedNodes();
+            return new AbstractMap.SimpleImmutableEntry<>(key, map.get(key));
+        }
+
+        private void push(Node<K> node, int index) {
+            nodes[++depth] = node;
+            indexes[depth] = index;
+        }
+
+        private void skipExhaustedNodes() {
+            while (depth >= 0 && indexes[depth] >= nodes[depth].size) {
+                nodes[depth--] = null;
+            }
+        }
+    }
+
+    /**
+     * Возвращает высоту дерева (дерево из одного листа имеет высоту 1)
+     * @return высота
+     */
+    public int height() {
+        int height = 1;
+        for (Node<K> node = root; !node.isLeaf(); node = node.children[0]) {
+            height++;
+        }
+        return height;
+    }
+
+    /**
+     * Включает сбор метрик и публикует их через JMX
+     * @param name имя экземпляра дерева в JMX
+     * @return метрики дерева
+     */
+    public TreeMetrics enableMetrics(String name) {
+        return enableMetrics(name, TreeMetrics.DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Включает сбор метрик и публикует их через JMX
+     * @param name имя экземпляра дерева в JMX
+     * @param sampleRate частота выборки задержек (степень двойки)
+     * @return метрики дерева
+     */
+    public TreeMetrics enableMetrics(String name, int sampleRate) {
+        disableMetrics();
+        TreeMetrics treeMetrics = new TreeMetrics("BTreeMap", name, sampleRate, this::size, this::height);
+        treeMetrics.register();
+        metrics = treeMetrics;
+        return treeMetrics;
+    }
+
+    /**
+     * Выключает сбор метрик и снимает их с регистрации в JMX
+     */
+    public void disableMetrics() {
+        if (metrics != null) {
+            metrics.unregister();
+            metrics = null;
+        }
+    }
+
+    /**
+     * Возвращает метрики дерева
+     * @return метрики или {@code null}, если сбор метрик выключен
+     */
+    public TreeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Включает запись структурных событий в кольцевой буфер
+     * @param capacity емкость буфера (степень двойки)
+     * @return трасса событий
+     */
+    public StructureTrace enableTrace(int capacity) {
+        StructureTrace structureTrace = new StructureTrace(capacity);
+        trace = structureTrace;
+        return structureTrace;
+    }
+
+    /**
+     * Выключает запись структурных событий
+     */
+    public void disableTrace() {
+        trace = null;
+    }
+
+    /**
+     * Возвращает трассу структурных событий
+     * @return трасса или {@code null}, если трассировка выключена
+     */
+    public StructureTrace getTrace() {
+        return trace;
+    }
+
+    /**
+     * Включает пул узлов: узлы, освободившиеся при слияниях, переиспользуются при разломах,
+     * поэтому при устоявшейся нагрузке со вставками и удалениями узлы и их массивы не выделяются
+     * (записи хеш-таблицы значений по-прежнему создаются на каждую вставку нового ключа).
+     * Итераторы, полученные до изменения дерева, с включенным пулом могут увидеть чужие данные
+     * @param capacity максимальное количество свободных узлов каждого вида
+     */
+    public void enableNodePool(int capacity) {
+        leafPool = new NodePool<>(capacity);
+        internalPool = new NodePool<>(capacity);
+    }
+
+    /**
+     * Выключает пул узлов, свободные узлы отдаются сборщику мусора
+     */
+    public void disableNodePool() {
+        leafPool = null;
+        internalPool = null;
+    }
+
+    /**
+     * Количество свободных узлов в пуле
+     * @return число узлов или 0, если пул выключен
+     */
+    public int pooledNodes() {
+        return leafPool == null ? 0 : leafPool.size() + internalPool.size();
+    }
+
+    /**
+     * Фиксирует разлом узла
+     * @param parent родитель узла
+     * @param node разломанный узел
+     * @param sibling новый правый узел
+     */
+    private void onSplit(Node<?> parent, Node<?> node, Node<?> sibling) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordSplit();
+        }
+        if (trace != null) {
+            traceEvent(StructureEvent.Type.SPLIT, parent, node, sibling);
+        }
+    }
+
+    /**
+     * Фиксирует слияние двух узлов при удалении
+     * @param parent родитель узлов
+     * @param node оставшийся левый узел
+     * @param sibling поглощенный правый узел
+     */
+    private void onMerge(Node<?> parent, Node<?> node, Node<?> sibling) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordMerge();
+        }
+        if (trace != null) {
+            traceEvent(StructureEvent.Type.MERGE, parent, node, sibling);
+        }
+    }
+
+    /**
+     * Фиксирует перенос ключа от соседнего узла при удалении
+     * @param type направление заимствования
+     * @param parent родитель узлов
+     * @param node получатель
+     * @param sibling сосед
+     */
+    private void onBorrow(StructureEvent.Type type, Node<?> parent, Node<?> node, Node<?> sibling) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordBorrow();
+        }
+        if (trace != null) {
+            traceEvent(type, parent, node, sibling);
+        }
+    }
+
+    /**
+     * Фиксирует смену корня (рост или уменьшение высоты дерева)
+     * @param newRoot новый корень
+     * @param oldRoot старый корень
+     */
+    private void onRootChange(Node<?> newRoot, Node<?> oldRoot) {
+        modCount++;
+        if (metrics != null) {
+            metrics.recordRootHeightChange();
+        }
+        if (trace != null) {
+            traceEvent(StructureEvent.Type.ROOT_CHANGE, null, newRoot, oldRoot);
+        }
+    }
+
+    private void traceEvent(StructureEvent.Type type, Node<?> parent, Node<?> node, Node<?> sibling) {
+        trace.record(type, parent == null ? 0 : parent.id,
+                node.id, firstKey(node), lastKey(node),
+                sibling.id, firstKey(sibling), lastKey(sibling));
+    }
+
+    private Object firstKey(Node<?> node) {
+        return node.size == 0 ? null : node.keys[0];
+    }
+
+    private Object lastKey(Node<?> node) {
+        return node.size == 0 ? null : node.keys[node.size - 1];
+    }
+
+    /**
+     * Создает узел или берет свободный из пула
+     * @param internal внутренний узел (с массивом потомков) или лист
+     * @return пустой узел
+     */
+    private <T extends Comparable<? super T>> Node<T> newNode(boolean internal) {
+        NodePool<Node> pool = internal ? internalPool : leafPool;
+        Node<T> node = pool == null ? null : pool.poll();
+        if (node == null) {
+            node = new Node<>(treeDegree);
+            if (internal) {
+                node.makeInternal();
+            }
+        }
+        node.id = nextNodeId();
+        return node;
+    }
+
+    /**
+     * Выдает номер нового узла; 0 означает отсутствие узла и пропускается при переполнении
+     */
+    private int nextNodeId() {
+        if (++lastNodeId == 0) {
+            ++lastNodeId;
+        }
+        return lastNodeId;
+    }
+
+    /**
+     * Очищает узел, исключенный из дерева, и возвращает его в пул, если пул включен.
+     * Массивы ключей и потомков переиспользуются вместе с узлом
+     * @param node узел
+     */
+    private void recycle(Node<?> node) {
+        NodePool<Node> pool = node.isLeaf() ? leafPool : internalPool;
+        if (pool == null) {
+            return;
+        }
+        Arrays.fill(node.keys, 0, node.size, null);
+        if (!node.isLeaf()) {
+            Arrays.fill(node.children, 0, node.size + 1, null);
+        }
+        node.size = 0;
+        pool.offer(node);
     }
 
     private  <K extends Comparable<? super K>> Node<K> getMinimumNode(Node<K> x) {
@@ -332,7 +1379,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                 }
             }
 
-            leftChildren.size = 2 * treeDegree - 1;
+            leftChildren.size += rightChildren.size + 1;
 
             if (!leftChildren.isLeaf()) {
                 leftChildren.children[leftChildren.size] = rightChildren.children[rightChildren.size];
@@ -345,10 +1392,14 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
 
             node.children[node.size] = null;
             node.keys[--node.size] = null;
+            onMerge(node, leftChildren, rightChildren);
+            recycle(rightChildren);
             bTreeDeleteKey(leftChildren, key);
 
             if (node.size == 0) {
                 root = leftChildren;
+                onRootChange(leftChildren, node);
+                recycle(node);
             }
         } else {
             int childIndex = -1;
@@ -366,7 +1417,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
 
             Node<K> targetChild = node.children[childIndex];
 
-            if (targetChild.size == treeDegree - 1) {
+            if (targetChild.size <= treeDegree - 1) {
                 if (childIndex > 0
                         && node.children[childIndex - 1].size >= treeDegree) {
                     if (targetChild.isLeaf()) {
@@ -412,6 +1463,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                         leftSibling.children[leftSibling.size] = null;
                         leftSibling.keys[--leftSibling.size] = null;
                     }
+                    onBorrow(StructureEvent.Type.BORROW_LEFT, node, targetChild, node.children[childIndex - 1]);
                 } else if (childIndex < node.size
                         && node.children[childIndex + 1].size >= treeDegree) {
                     if (targetChild.isLeaf()) {
@@ -455,6 +1507,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                         targetChild.children[++targetChild.size] =
                                 firstRightSiblingChild;
                     }
+                    onBorrow(StructureEvent.Type.BORROW_RIGHT, node, targetChild, node.children[childIndex + 1]);
                 } else if (childIndex > 0) {
                     Node<K> leftSibling  = node.children[childIndex - 1];
                     if (targetChild.isLeaf()) {
@@ -466,7 +1519,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                             leftSibling.keys[j] = targetChild.keys[i];
                         }
 
-                        leftSibling.size = 2 * treeDegree - 1;
+                        leftSibling.size += targetChild.size + 1;
 
                         for (int i = childIndex; i < node.size; ++i) {
                             node.keys[i - 1] = node.keys[i];
@@ -476,9 +1529,13 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                         node.keys[node.size - 1] = null;
                         node.children[node.size] = null;
                         node.size--;
+                        onMerge(node, leftSibling, targetChild);
+                        recycle(targetChild);
 
                         if (node.size == 0) {
                             root = leftSibling;
+                            onRootChange(leftSibling, node);
+                            recycle(node);
                         }
 
                         targetChild = leftSibling;
@@ -493,7 +1550,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                                     targetChild.children[i];
                         }
 
-                        leftSibling.size = 2 * treeDegree - 1;
+                        leftSibling.size += targetChild.size + 1;
                         leftSibling.children[leftSibling.size] =
                                 targetChild.children[targetChild.size];
 
@@ -504,9 +1561,13 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
 
                         node.keys[node.size - 1] = null;
                         node.children[node.size--] = null;
+                        onMerge(node, leftSibling, targetChild);
+                        recycle(targetChild);
 
                         if (node.size == 0) {
                             root = leftSibling;
+                            onRootChange(leftSibling, node);
+                            recycle(node);
                         }
 
                         targetChild = leftSibling;
@@ -524,7 +1585,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                             targetChild.keys[j] = rightSibling.keys[i];
                         }
 
-                        targetChild.size = 2 * treeDegree - 1;
+                        targetChild.size += rightSibling.size + 1;
 
                         for (int i = childIndex + 1; i < node.size; ++i) {
                             node.keys[i - 1] = node.keys[i];
@@ -533,9 +1594,13 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
 
                         node.children[node.size] = null;
                         node.keys[--node.size] = null;
+                        onMerge(node, targetChild, rightSibling);
+                        recycle(rightSibling);
 
                         if (node.size == 0) {
                             root = targetChild;
+                            onRootChange(targetChild, node);
+                            recycle(node);
                         }
                     } else {
                         K keyToPushDown = node.keys[childIndex];
@@ -548,7 +1613,7 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                             targetChild.children[j] = rightSibling.children[i];
                         }
 
-                        targetChild.size = 2 * treeDegree - 1;
+                        targetChild.size += rightSibling.size + 1;
                         targetChild.children[targetChild.size] =
                                 rightSibling.children[rightSibling.size];
 
@@ -560,9 +1625,13 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
                         node.children[node.size - 1] = node.children[node.size];
                         node.children[node.size] = null;
                         node.keys[--node.size] = null;
+                        onMerge(node, targetChild, rightSibling);
+                        recycle(rightSibling);
 
                         if (node.size == 0) {
                             root = targetChild;
+                            onRootChange(targetChild, node);
+                            recycle(node);
                         }
                     }
                 }
@@ -572,35 +1641,83 @@ public final class BTreeMap<K extends Comparable<? super K>, V> implements IMap
         }
     }
 
-    private TreeTreantNode _toTreantTree(Node<K> pointer) {
-        TreeTreantNode node = new TreeTreantNode();
-
-        if (pointer.keys != null && pointer != null) {
-            node.nodeView = keysToString(pointer.keys);
-        }
+    /**
+     * Собирает структурную статистику дерева за один обход в глубину.
+     * Обход не сравнивает ключи и не создает объектов на каждый узел,
+     * поэтому его время пропорционально количеству узлов, а не записей
+     * @return статистика дерева
+     */
+    public TreeStats stats() {
+        TreeStats.Collector collector = new TreeStats.Collector("BTreeMap", treeDegree, map.size());
+        collectStats(root, 0, collector);
+        collector.sideMapBytes(HeapLayout.hashMapBytes(map.size()));
+        return collector.build();
+    }
 
-        if (pointer.children != null && pointer != null) {
-            for (int i = 0; i < pointer.children.length; i++) {
-                if (pointer.children[i] != null) {
-                    node.nodes.add(_toTreantTree(pointer.children[i]));
-                }
+    /**
+     * Учитывает узел и его поддерево в статистике
+     * @param node узел
+     * @param level глубина узла
+     * @param collector накопитель статистики
+     */
+    private void collectStats(Node<K> node, int level, TreeStats.Collector collector) {
+        collector.node(level, node.isLeaf(), node.size, node.keys.length);
+        collector.nodeObjectBytes(HeapLayout.objectBytes(3, 4));
+        collector.keyArrayBytes(HeapLayout.referenceArrayBytes(node.keys.length));
+        if (!node.isLeaf()) {
+            collector.childArrayBytes(HeapLayout.referenceArrayBytes(node.children.length));
+            for (int i = 0; i <= node.size; i++) {
+                collectStats(node.children[i], level + 1, collector);
             }
         }
-        if (pointer == null) return null;
-        return node;
     }
 
-    public TreeTreantNode toTreantNode() {
-        return _toTreantTree(root);
-    }
+    /**
+     * Представление узла B дерева только для чтения.
+     * Значения берутся из карты пар ключ-значение
+     */
+    private final class NodeView implements TreeNodeView<K, V> {
+
+        private final Node<K> node;
+
+        NodeView(Node<K> node) {
+            this.node = node;
+        }
+
+        @Override
+        public int keyCount() {
+            return node.size;
+        }
+
+        @Override
+        public K key(int index) {
+            return node.keys[index];
+        }
+
+        @Override
+        public boolean hasValues() {
+            return true;
+        }
+
+        @Override
+        public V value(int index) {
+            return map.get(node.keys[index]);
+        }
+
+        @Override
+        public int childCount() {
+            return node.isLeaf() ? 0 : node.size + 1;
+        }
 
-    private String keysToString(K[] keys) {
-        String s = new String();
-        for (int i = 0; i < keys.length; i++) {
-            if (keys[i] == null) continue;
-            s += keys[i].toString() + " ==> " + get(keys[i]) + " <br> ";
+        @Override
+        public TreeNodeView<K, V> child(int index) {
+            return new NodeView(node.children[index]);
         }
-        return s;
+    }
+
+    @Override
+    public TreeNodeView<K, V> rootView() {
+        return new NodeView(root);
     }
 
 }
@@ -0,0 +1,156 @@
+package map;
+
+import map.stats.HeapLayout;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Сжатый список отсортированных ключей листа. Ключи хранятся в компактном представлении
+ * подкласса, читаются по индексу без распаковки всего листа, а бинарный поиск
+ * ({@link #search(Object)}) идет прямо по сжатым данным.
+ * <p>
+ * Список остается изменяемым: первая же модификация распаковывает ключи в обычный
+ * {@link ArrayList}, и дальше список работает через него, пока лист не будет сжат снова
+ *
+ * @param <K> Тип ключа
+ */
+abstract class CompactKeys<K> extends AbstractList<K> implements RandomAccess {
+
+    /**
+     * Распакованные ключи, {@code null} пока список сжат
+     */
+    private List<K> expanded;
+
+    /**
+     * Сжимает отсортированный список ключей подходящим представлением
+     * @param keys ключи по возрастанию
+     * @return сжатый список или {@code null}, если для ключей нет сжатого представления
+     * @see PackedKeys
+     * @see PackedByteKeys
+     */
+    static <K> CompactKeys<K> pack(List<K> keys) {
+        CompactKeys<K> packed = PackedKeys.pack(keys);
+        return packed != null ? packed : PackedByteKeys.pack(keys);
+    }
+
+    /**
+     * Проверяет, что ключи находятся в сжатом виде
+     */
+    boolean isPacked() {
+        return expanded == null;
+    }
+
+    /**
+     * Бинарный поиск ключа с результатом в формате {@link Collections#binarySearch(List, Object)}
+     * @param key ключ
+     * @return индекс ключа или {@code -(точка вставки) - 1}
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    int search(K key) {
+        if (expanded != null) {
+            return Collections.binarySearch((List) expanded, key);
+        }
+        return searchPacked(key);
+    }
+
+    /**
+     * Оценка занимаемой памяти (без объектов-ключей распакованного списка)
+     * @return байт
+     */
+    long retainedBytes() {
+        if (expanded != null) {
+            return objectBytes() + HeapLayout.arrayListObjectBytes()
+                    + HeapLayout.referenceArrayBytes(HeapLayout.arrayListCapacity(expanded.size()));
+        }
+        return objectBytes() + packedBytes();
+    }
+
+    /**
+     * Количество сжатых ключей
+     */
+    abstract int packedSize();
+
+    /**
+     * Сжатый ключ с заданным индексом
+     */
+    abstract K packedKey(int index);
+
+    /**
+     * Бинарный поиск по сжатым данным
+     */
+    abstract int searchPacked(K key);
+
+    /**
+     * Размер самого объекта списка
+     */
+    abstract long objectBytes();
+
+    /**
+     * Размер массивов сжатых данных
+     */
+    abstract long packedBytes();
+
+    /**
+     * Освобождает сжатые данные после распаковки
+     */
+    abstract void releasePacked();
+
+    @Override
+    public K get(int index) {
+        if (expanded != null) {
+            return expanded.get(index);
+        }
+        if (index < 0 || index >= packedSize()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + packedSize());
+        }
+        return packedKey(index);
+    }
+
+    @Override
+    public int size() {
+        return expanded != null ? expanded.size() : packedSize();
+    }
+
+    @Override
+    public K set(int index, K element) {
+        return expand().set(index, element);
+    }
+
+    @Override
+    public void add(int index, K element) {
+        expand().add(index, element);
+    }
+
+    @Override
+    public K remove(int index) {
+        return expand().remove(index);
+    }
+
+    @Override
+    public void clear() {
+        releasePacked();
+        expanded = new ArrayList<>();
+    }
+
+    /**
+     * Распаковывает ключи перед изменением
+     * @return распакованный список
+     */
+    private List<K> expand() {
+        if (expanded == null) {
+            int count = packedSize();
+            List<K> keys = new ArrayList<>(Math.max(count + 1, 10));
+            for (int i = 0; i < count; i++) {
+                keys.add(packedKey(i));
+            }
+            expanded = keys;
+            releasePacked();
+        }
+        modCount++;
+        return expanded;
+    }
+}
@@ -0,0 +1,146 @@
+package map;
+
+/**
+ * Уплотнение дерева до заданной заполненности узлов, выполняемое по частям.
+ * Каждый шаг перестраивает очередной диапазон из не более чем заданного количества пар:
+ * диапазон вырезается из дерева, его пары раскладываются по плотно заполненным узлам,
+ * и новое поддерево соединяется с соседними частями. Между шагами карта полностью
+ * согласована, и ее можно читать и изменять - уплотнение продолжается с ключа,
+ * на котором остановился предыдущий шаг.
+ * <p>
+ * Создается методами {@code startCompaction} деревьев. После последнего шага
+ * доступен отчет: высота до и после уплотнения и освобожденная память
+ * (по оценке {@link map.stats.TreeStats#getRetainedBytes()})
+ */
+public abstract class Compaction {
+
+    /**
+     * Количество пар, перестраиваемых за шаг в {@link #run()}
+     */
+    public static final int DEFAULT_CHUNK = 4096;
+
+    private final double targetFill;
+    private final int heightBefore;
+    private final long bytesBefore;
+    private int heightAfter;
+    private long bytesAfter;
+    private long entries;
+    private int steps;
+    private boolean finished;
+
+    Compaction(double targetFill, int heightBefore, long bytesBefore) {
+        if (!(targetFill >= 0.5 && targetFill <= 1)) {
+            throw new IllegalArgumentException("ЗАПОЛНЕННОСТЬ ДОЛЖНА БЫТЬ В ДИАПАЗОНЕ [0.5; 1]: " + targetFill);
+        }
+        this.targetFill = targetFill;
+        this.heightBefore = heightBefore;
+        this.bytesBefore = bytesBefore;
+    }
+
+    /**
+     * Перестраивает очередной диапазон
+     * @param maxEntries наибольшее количество пар в диапазоне
+     * @return {@code true}, если уплотнение еще не закончено
+     */
+    public final boolean step(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ РАЗМЕР ШАГА: " + maxEntries);
+        }
+        if (finished) {
+            return false;
+        }
+        steps++;
+        if (!compactChunk(maxEntries)) {
+            finished = true;
+            heightAfter = currentHeight();
+            bytesAfter = currentBytes();
+        }
+        return !finished;
+    }
+
+    /**
+     * Выполняет все оставшиеся шаги по {@value #DEFAULT_CHUNK} пар
+     * @return этот же объект как отчет
+     */
+    public final Compaction run() {
+        while (step(DEFAULT_CHUNK)) {
+            // шаги выполняются до конца
+        }
+        return this;
+    }
+
+    /**
+     * Перестраивает диапазон из не более чем {@code maxEntries} пар, начиная с сохраненной границы
+     * @return {@code true}, если за диапазоном остались пары
+     */
+    abstract boolean compactChunk(int maxEntries);
+
+    abstract int currentHeight();
+
+    abstract long currentBytes();
+
+    /**
+     * Учитывает перестроенные пары
+     */
+    void countEntries(int count) {
+        entries += count;
+    }
+
+    public double getTargetFill() {
+        return targetFill;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Количество выполненных шагов
+     */
+    public int getSteps() {
+        return steps;
+    }
+
+    /**
+     * Количество перестроенных пар
+     */
+    public long getEntries() {
+        return entries;
+    }
+
+    public int getHeightBefore() {
+        return heightBefore;
+    }
+
+    /**
+     * Высота после уплотнения, до его окончания - {@code -1}
+     */
+    public int getHeightAfter() {
+        return finished ? heightAfter : -1;
+    }
+
+    public long getBytesBefore() {
+        return bytesBefore;
+    }
+
+    /**
+     * Оценка памяти после уплотнения, до его окончания - {@code -1}
+     */
+    public long getBytesAfter() {
+        return finished ? bytesAfter : -1;
+    }
+
+    /**
+     * Освобожденная память, до окончания уплотнения - {@code 0}
+     */
+    public long getReclaimedBytes() {
+        return finished ? bytesBefore - bytesAfter : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "Compaction{fill=" + targetFill + ", steps=" + steps + ", entries=" + entries
+                + ", height=" + heightBefore + "->" + getHeightAfter()
+                + ", reclaimed=" + getReclaimedBytes() + "}";
+    }
+}
@@ -0,0 +1,419 @@
+package map;
+
+import map.stats.HeapLayout;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Неизменяемая карта для данных, которые строятся один раз и потом только читаются
+ * ({@link BPlusTreeMap#freeze()}). Пары лежат в двух отсортированных массивах, а поиск
+ * идет по неявному B+ дереву (CSS-tree) над ними: ключи-разделители всех уровней записаны
+ * подряд в одном массиве, уровень за уровнем от корня, узел уровня - {@value #BLOCK}
+ * соседних разделителей, а потомок вычисляется по номеру узла ({@code узел * (BLOCK + 1) + j})
+ * вместо перехода по ссылке. Листья - блоки по {@value #BLOCK} ключей самого отсортированного
+ * массива, поэтому найденный индекс сразу является позицией пары, а выборка диапазона -
+ * проход по массиву.
+ * <p>
+ * Ключи {@link Integer} и {@link Long} хранятся как {@code long[]}: узел поиска занимает две
+ * строки кэша, сравнение не разыменовывает объекты ключей. Объекты ключей в этом случае
+ * не хранятся и создаются при выдаче пар. Для остальных ключей разделители - ссылки на ключи.
+ * <p>
+ * Методы изменения бросают {@link UnsupportedOperationException}
+ *
+ * @param <K> Тип ключа
+ * @param <V> Тип значения
+ */
+public final class FrozenMap<K extends Comparable<? super K>, V> implements IMap {
+
+    /**
+     * Количество ключей в узле поиска и в листе
+     */
+    static final int BLOCK = 16;
+
+    /**
+     * Количество пар
+     */
+    private final int size;
+    /**
+     * Ключи {@link Integer}, {@link Long} или {@code null}, если ключи хранятся объектами
+     */
+    private final Class<?> numericType;
+    /**
+     * Ключи по возрастанию для числовых ключей, иначе {@code null}
+     */
+    private final long[] longKeys;
+    /**
+     * Ключи по возрастанию для остальных ключей, иначе {@code null}
+     */
+    private final Object[] keys;
+    /**
+     * Значения с индексами ключей
+     */
+    private final Object[] values;
+    /**
+     * Разделители узлов поиска (числовые ключи), уровни от корня
+     */
+    private final long[] longIndex;
+    /**
+     * Разделители узлов поиска (остальные ключи), уровни от корня
+     */
+    private final Object[] index;
+    /**
+     * Начало каждого уровня в массиве разделителей
+     */
+    private final int[] levelOffsets;
+    /**
+     * Количество узлов каждого уровня, последний элемент - количество листьев
+     */
+    private final int[] levelNodes;
+
+    private FrozenMap(Object[] keys, Object[] values, int size) {
+        this.size = size;
+        this.values = values;
+        this.numericType = numericType(keys, size);
+
+        int leaves = (size + BLOCK - 1) / BLOCK;
+        int levels = 0;
+        for (int nodes = leaves; nodes > 1; nodes = (nodes + BLOCK) / (BLOCK + 1)) {
+            levels++;
+        }
+        levelNodes = new int[levels + 1];
+        levelOffsets = new int[levels];
+        levelNodes[levels] = leaves;
+        for (int level = levels - 1; level >= 0; level--) {
+            levelNodes[level] = (levelNodes[level + 1] + BLOCK) / (BLOCK + 1);
+        }
+        int total = 0;
+        for (int level = 0; level < levels; level++) {
+            levelOffsets[level] = total;
+            total += levelNodes[level] * BLOCK;
+        }
+
+        if (numericType != null) {
+            longKeys = new long[size];
+            for (int i = 0; i < size; i++) {
+                longKeys[i] = ((Number) keys[i]).longValue();
+            }
+            this.keys = null;
+            longIndex = new long[total];
+            index = null;
+        } else {
+            longKeys = null;
+            this.keys = keys;
+            longIndex = null;
+            index = new Object[total];
+        }
+
+        // разделитель j узла - наибольший ключ поддерева j-го потомка; у отсутствующих потомков
+        // - наибольший ключ карты, поэтому поиск не уходит правее последнего потомка
+        long span = BLOCK;
+        for (int level = levels - 1; level >= 0; level--) {
+            for (int node = 0; node < levelNodes[level]; node++) {
+                for (int j = 0; j < BLOCK; j++) {
+                    long child = (long) node * (BLOCK + 1) + j;
+                    int last = (int) Math.min(size, (child + 1) * span) - 1;
+                    int slot = levelOffsets[level] + node * BLOCK + j;
+                    if (numericType != null) {
+                        longIndex[slot] = longKeys[last];
+                    } else {
+                        index[slot] = keys[last];
+                    }
+                }
+            }
+            span *= BLOCK + 1;
+        }
+    }
+
+    /**
+     * Замораживает пары карты
+     * @param map исходная карта, не изменяется
+     * @return неизменяемая карта с теми же парами
+     */
+    public static <K extends Comparable<? super K>, V> FrozenMap<K, V> copyOf(IMap map) {
+        int size = map.size();
+        Object[] keys = new Object[size];
+        Object[] values = new Object[size];
+        Iterator<Map.Entry<K, V>> iterator = map.entries(null, null);
+        for (int i = 0; i < size; i++) {
+            Map.Entry<K, V> entry = iterator.next();
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+        }
+        return new FrozenMap<>(keys, values, size);
+    }
+
+    private static Class<?> numericType(Object[] keys, int size) {
+        if (size == 0) {
+            return null;
+        }
+        Class<?> type = keys[0].getClass();
+        if (type != Integer.class && type != Long.class) {
+            return null;
+        }
+        for (int i = 1; i < size; i++) {
+            if (keys[i].getClass() != type) {
+                return null;
+            }
+        }
+        return type;
+    }
+
+    @Override
+    public V get(Comparable key) {
+        int position = search(key);
+        return position >= 0 ? (V) values[position] : null;
+    }
+
+    /**
+     * Поиск ключа
+     * @param key ключ
+     * @return индекс ключа или {@code -(точка вставки) - 1}
+     */
+    private int search(Comparable key) {
+        if (size == 0) {
+            return -1;
+        }
+        if (numericType != null) {
+            if (key.getClass() != numericType) {
+                throw new ClassCastException(key.getClass().getName() + " cannot be cast to " + numericType.getName());
+            }
+            return searchLong(((Number) key).longValue());
+        }
+        K target = (K) key;
+        if (target.compareTo((K) keys[size - 1]) > 0) {
+            return -(size + 1);
+        }
+        int node = 0;
+        for (int level = 0; level < levelOffsets.length; level++) {
+            int base = levelOffsets[level] + node * BLOCK;
+            int low = 0;
+            int high = BLOCK - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (((K) index[base + middle]).compareTo(target) < 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            node = node * (BLOCK + 1) + low;
+        }
+        int low = node * BLOCK;
+        int high = Math.min(size, low + BLOCK) - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = ((K) keys[middle]).compareTo(target);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Поиск числового ключа: в узлах считаются разделители меньше ключа (без ветвлений по результату
+     * сравнения), в листе - линейный проход
+     */
+    private int searchLong(long target) {
+        if (target > longKeys[size - 1]) {
+            return -(size + 1);
+        }
+        int node = 0;
+        for (int level = 0; level < levelOffsets.length; level++) {
+            int base = levelOffsets[level] + node * BLOCK;
+            int less = 0;
+            for (int j = 0; j < BLOCK; j++) {
+                less += longIndex[base + j] < target ? 1 : 0;
+            }
+            node = node * (BLOCK + 1) + less;
+        }
+        int position = node * BLOCK;
+        int end = Math.min(size, position + BLOCK);
+        while (position < end && longKeys[position] < target) {
+            position++;
+        }
+        return position < end && longKeys[position] == target ? position : -(position + 1);
+    }
+
+    /**
+     * Индекс первого ключа не меньше заданного
+     * @param key граница, {@code null} - наименьший ключ
+     */
+    private int lowerBound(Comparable key) {
+        if (key == null) {
+            return 0;
+        }
+        int position = search(key);
+        return position >= 0 ? position : -position - 1;
+    }
+
+    private K keyAt(int position) {
+        if (numericType == null) {
+            return (K) keys[position];
+        }
+        if (numericType == Integer.class) {
+            return (K) Integer.valueOf((int) longKeys[position]);
+        }
+        return (K) Long.valueOf(longKeys[position]);
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> entries(Comparable from, Comparable to) {
+        int start = lowerBound(from);
+        int end = to == null ? size : Math.max(start, lowerBound(to));
+        return new Iterator<Map.Entry<K, V>>() {
+            private int position = start;
+
+            @Override
+            public boolean hasNext() {
+                return position < end;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (position >= end) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>(keyAt(position), (V) values[position]);
+                position++;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Высота неявного дерева (лист имеет высоту 1)
+     * @return количество уровней
+     */
+    public int height() {
+        return levelNodes.length;
+    }
+
+    /**
+     * Оценка занимаемой памяти без объектов ключей и значений
+     * @return байт
+     */
+    public long retainedBytes() {
+        long bytes = HeapLayout.objectBytes(8, 4)
+                + HeapLayout.referenceArrayBytes(values.length)
+                + HeapLayout.primitiveArrayBytes(levelOffsets.length, 4)
+                + HeapLayout.primitiveArrayBytes(levelNodes.length, 4);
+        if (numericType != null) {
+            return bytes + HeapLayout.primitiveArrayBytes(longKeys.length, 8)
+                    + HeapLayout.primitiveArrayBytes(longIndex.length, 8);
+        }
+        return bytes + HeapLayout.referenceArrayBytes(keys.length)
+                + HeapLayout.referenceArrayBytes(index.length);
+    }
+
+    @Override
+    public V put(Comparable key, Object value) {
+        throw frozen();
+    }
+
+    @Override
+    public V remove(Comparable key) {
+        throw frozen();
+    }
+
+    @Override
+    public int removeRange(Comparable from, Comparable to) {
+        throw frozen();
+    }
+
+    @Override
+    public void clear() {
+        throw frozen();
+    }
+
+    private static UnsupportedOperationException frozen() {
+        return new UnsupportedOperationException("КАРТА ЗАМОРОЖЕНА");
+    }
+
+    /**
+     * Представление неявного дерева: узлы поиска показывают разделители реально существующих
+     * потомков, листья - свои пары
+     */
+    @Override
+    public TreeNodeView<K, V> rootView() {
+        return new NodeView(0, 0);
+    }
+
+    /**
+     * Узел неявного дерева: уровень и номер узла на уровне
+     */
+    private final class NodeView implements TreeNodeView<K, V> {
+
+        private final int level;
+        private final int node;
+
+        NodeView(int level, int node) {
+            this.level = level;
+            this.node = node;
+        }
+
+        private boolean isLeaf() {
+            return level == levelOffsets.length;
+        }
+
+        @Override
+        public int keyCount() {
+            if (isLeaf()) {
+                return Math.min(size, node * BLOCK + BLOCK) - node * BLOCK;
+            }
+            return childCount() - 1;
+        }
+
+        @Override
+        public K key(int index) {
+            if (isLeaf()) {
+                return keyAt(node * BLOCK + index);
+            }
+            int slot = levelOffsets[level] + node * BLOCK + index;
+            if (numericType == null) {
+                return (K) FrozenMap.this.index[slot];
+            }
+            return numericType == Integer.class ? (K) Integer.valueOf((int) longIndex[slot]) : (K) Long.valueOf(longIndex[slot]);
+        }
+
+        @Override
+        public boolean hasValues() {
+            return isLeaf();
+        }
+
+        @Override
+        public V value(int index) {
+            return isLeaf() ? (V) values[node * BLOCK + index] : null;
+        }
+
+        @Override
+        public int childCount() {
+            if (isLeaf()) {
+                return 0;
+            }
+            return Math.min(BLOCK + 1, levelNodes[level + 1] - node * (BLOCK + 1));
+        }
+
+        @Override
+        public TreeNodeView<K, V> child(int index) {
+            return new NodeView(level + 1, node * (BLOCK + 1) + index);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package map;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Карта для множества маленьких карт (например, по одной на пользователя). Пока пар не больше
+ * порога, они хранятся в одном массиве, отсортированном по ключам (ключ и значение - соседние
+ * элементы), поиск - бинарный: на карту приходятся объект и массив вместо дерева с узлами и списками.
+ * При превышении порога пары переносятся в {@link BPlusTreeMap}, а когда дерево уменьшается
+ * до половины порога - обратно в массив (разрыв между порогами исключает переходы туда и обратно
+ * на каждой вставке и удалении)
+ *
+ * @param <K> Тип ключа
+ * @param <V> Тип значения
+ */
+public class HybridMap<K extends Comparable<? super K>, V> implements IMap {
+
+    /**
+     * Порог по умолчанию
+     */
+    private static final int DEFAULT_THRESHOLD = 16;
+    /**
+     * Степень дерева по умолчанию
+     */
+    private static final int DEFAULT_TREE_DEGREE = 64;
+    /**
+     * Пустой массив неиспользуемой карты
+     */
+    private static final Object[] EMPTY = new Object[0];
+
+    /**
+     * Наибольшее количество пар в массиве
+     */
+    private final int threshold;
+    /**
+     * Степень дерева после переноса
+     */
+    private final int treeDegree;
+
+    /**
+     * Пары по возрастанию ключей: ключ i-й пары - элемент {@code 2i}, значение - {@code 2i + 1};
+     * {@code null} после переноса в дерево
+     */
+    private Object[] slots = EMPTY;
+    /**
+     * Количество пар в массиве
+     */
+    private int size;
+    /**
+     * Дерево, {@code null} пока пары в массиве
+     */
+    private BPlusTreeMap<K, V> tree;
+
+    /**
+     * Конструктор по умолчанию
+     */
+    public HybridMap() {
+        this(DEFAULT_THRESHOLD, DEFAULT_TREE_DEGREE);
+    }
+
+    /**
+     * Конструктор с параметрами
+     * @param threshold наибольшее количество пар, хранимых в массиве
+     * @param treeDegree степень дерева, в которое переносятся пары
+     */
+    public HybridMap(int threshold, int treeDegree) {
+        if (threshold < 1) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ ПОРОГ: " + threshold);
+        }
+        if (treeDegree <= 2) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНАЯ СТЕПЕНЬ ДЕРЕВА: " + treeDegree);
+        }
+        this.threshold = threshold;
+        this.treeDegree = treeDegree;
+    }
+
+    /**
+     * Проверяет, перенесены ли пары в дерево
+     * @return {@code true/false}
+     */
+    public boolean isPromoted() {
+        return tree != null;
+    }
+
+    @Override
+    public V get(Comparable key) {
+        if (tree != null) {
+            return tree.get(key);
+        }
+        int index = indexOf(key);
+        return index >= 0 ? (V) slots[2 * index + 1] : null;
+    }
+
+    @Override
+    public V put(Comparable key, Object value) {
+        if (tree != null) {
+            return tree.put(key, value);
+        }
+        int index = indexOf(key);
+        if (index >= 0) {
+            V previous = (V) slots[2 * index + 1];
+            slots[2 * index + 1] = value;
+            return previous;
+        }
+        if (size == threshold) {
+            promote();
+            return tree.put(key, value);
+        }
+        index = -index - 1;
+        if (2 * size == slots.length) {
+            int capacity = Math.min(threshold, Math.max(2, size + (size >> 1)));
+            slots = Arrays.copyOf(slots, 2 * capacity);
+        }
+        System.arraycopy(slots, 2 * index, slots, 2 * index + 2, 2 * (size - index));
+        slots[2 * index] = key;
+        slots[2 * index + 1] = value;
+        size++;
+        return null;
+    }
+
+    @Override
+    public V remove(Comparable key) {
+        if (tree != null) {
+            V value = tree.remove(key);
+            demoteIfSmall();
+            return value;
+        }
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        V value = (V) slots[2 * index + 1];
+        removeSlots(index, index + 1);
+        return value;
+    }
+
+    @Override
+    public int removeRange(Comparable from, Comparable to) {
+        if (tree != null) {
+            int removed = tree.removeRange(from, to);
+            demoteIfSmall();
+            return removed;
+        }
+        int start = lowerBound(from);
+        int end = to == null ? size : lowerBound(to);
+        if (end <= start) {
+            return 0;
+        }
+        removeSlots(start, end);
+        return end - start;
+    }
+
+    @Override
+    public int size() {
+        return tree != null ? tree.size() : size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        tree = null;
+        slots = EMPTY;
+        size = 0;
+    }
+
+    @Override
+    public Iterator<Map.Entry<K, V>> entries(Comparable from, Comparable to) {
+        if (tree != null) {
+            return tree.entries(from, to);
+        }
+        int start = lowerBound(from);
+        int end = to == null ? size : Math.max(start, lowerBound(to));
+        Object[] slots = this.slots;
+        return new Iterator<Map.Entry<K, V>>() {
+            private int index = start;
+
+            @Override
+            public boolean hasNext() {
+                return index < end;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (index >= end) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<>((K) slots[2 * index],
+                        (V) slots[2 * index + 1]);
+                index++;
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Представление дерева или, пока пары в массиве, единственного листа с ними
+     */
+    @Override
+    public TreeNodeView<K, V> rootView() {
+        if (tree != null) {
+            return tree.rootView();
+        }
+        return new TreeNodeView<K, V>() {
+            @Override
+            public int keyCount() {
+                return size;
+            }
+
+            @Override
+            public K key(int index) {
+                return (K) slots[2 * index];
+            }
+
+            @Override
+            public boolean hasValues() {
+                return true;
+            }
+
+            @Override
+            public V value(int index) {
+                return (V) slots[2 * index + 1];
+            }
+
+            @Override
+            public int childCount() {
+                return 0;
+            }
+
+            @Override
+            public TreeNodeView<K, V> child(int index) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: 0");
+            }
+        };
+    }
+
+    /**
+     * Бинарный поиск ключа в массиве
+     * @return индекс ключа или {@code -(точка вставки) - 1}
+     */
+    private int indexOf(Comparable key) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = ((K) slots[2 * middle]).compareTo((K) key);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Индекс первого ключа не меньше заданного
+     * @param key граница, {@code null} - наименьший ключ
+     */
+    private int lowerBound(Comparable key) {
+        if (key == null) {
+            return 0;
+        }
+        int index = indexOf(key);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * Удаляет пары с индексами [from; to) из массива
+     */
+    private void removeSlots(int from, int to) {
+        System.arraycopy(slots, 2 * to, slots, 2 * from, 2 * (size - to));
+        int newSize = size - (to - from);
+        Arrays.fill(slots, 2 * newSize, 2 * size, null);
+        size = newSize;
+        if (size == 0) {
+            slots = EMPTY;
+        }
+    }
+
+    /**
+     * Переносит пары из массива в дерево. Ключи вставляются по возрастанию, поэтому
+     * каждая вставка идет в крайний правый лист без спуска от корня
+     */
+    private void promote() {
+        BPlusTreeMap<K, V> promoted = new BPlusTreeMap<>(treeDegree);
+        for (int i = 0; i < size; i++) {
+            promoted.put((K) slots[2 * i], slots[2 * i + 1]);
+        }
+        tree = promoted;
+        slots = null;
+        size = 0;
+    }
+
+    /**
+     * Возвращает пары из дерева в массив, если их осталось не больше половины порога
+     */
+    private void demoteIfSmall() {
+        int count = tree.size();
+        if (count > threshold / 2) {
+            return;
+        }
+        Object[] demoted = count == 0 ? EMPTY : new Object[2 * count];
+        Iterator<Map.Entry<K, V>> iterator = tree.entries(null, null);
+        for (int i = 0; i < count; i++) {
+            Map.Entry<K, V> entry = iterator.next();
+            demoted[2 * i] = entry.getKey();
+            demoted[2 * i + 1] = entry.getValue();
+        }
+        slots = demoted;
+        size = count;
+        tree = null;
+    }
+}
@@ -1,6 +1,7 @@
 package map;
 
-import TreantGenerator.iTreeMapGenerator.TreeTreantNode;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  *
@@ -51,8 +52,26 @@ public interface IMap<K extends Comparable<? super K>, V> {
     void clear();
 
     /**
-     * Translate structure tree in Treant Tree for Treant Generator
-     * @return Treant Tree
+     * Deletes all key-value pairs whose keys lie in range [from; to)
+     * @param from lower bound (inclusive), {@code null} - from the smallest key
+     * @param to upper bound (exclusive), {@code null} - up to the largest key
+     * @return {@code int} amount of deleted pairs
      */
-    TreeTreantNode toTreantNode();
+    int removeRange(K from, K to);
+
+    /**
+     * Returns an iterator over key-value pairs whose keys lie in range [from; to) in ascending key order.
+     * The structure must not be modified while the iterator is in use
+     * @param from lower bound (inclusive), {@code null} - from the smallest key
+     * @param to upper bound (exclusive), {@code null} - up to the largest key
+     * @return {@code Iterator} of key-value pairs
+     */
+    Iterator<Map.Entry<K, V>> entries(K from, K to);
+
+    /**
+     * Returns a read-only view of the root node for walking the tree structure
+     * (used by the Treant Generator)
+     * @return root node view
+     */
+    TreeNodeView<K, V> rootView();
 }
@@ -0,0 +1,110 @@
+package map;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Интерполяционный поиск в отсортированном списке ключей {@link Integer} или {@link Long}.
+ * Моделью служат крайние ключи списка: позиция ключа предсказывается линейной интерполяцией
+ * между ними, и модель не нужно поддерживать при изменениях узла. От предсказанной позиции
+ * поиск идет экспоненциально расширяющимися шагами в сторону ключа, пока не окажется между
+ * двумя проверенными ключами, и заканчивается бинарным поиском между ними.
+ * <p>
+ * Для равномерных ключей ошибка предсказания - единицы позиций, и поиск укладывается
+ * в несколько соседних обращений к массиву. Если за {@value #MAX_GALLOP_STEPS} шагов ключ
+ * не окружен (распределение неравномерное), оставшийся отрезок ищется бинарным поиском,
+ * поэтому худший случай лишь на несколько сравнений дороже бинарного поиска
+ */
+final class InterpolationSearch {
+
+    /**
+     * Списки короче ищутся бинарным поиском: предсказание не окупается
+     */
+    private static final int MIN_KEYS = 16;
+    /**
+     * Наибольшее количество шагов расширения до перехода на бинарный поиск
+     */
+    private static final int MAX_GALLOP_STEPS = 4;
+
+    private InterpolationSearch() {
+    }
+
+    /**
+     * Поиск ключа с результатом в формате {@link Collections#binarySearch(List, Object)}
+     * @param keys ключи по возрастанию
+     * @param key ключ
+     * @return индекс ключа или {@code -(точка вставки) - 1}
+     */
+    static <K extends Comparable<? super K>> int search(List<K> keys, K key) {
+        int count = keys.size();
+        Class<?> type = key.getClass();
+        if (count < MIN_KEYS || type != Integer.class && type != Long.class) {
+            return Collections.binarySearch(keys, key);
+        }
+        long target = ((Number) key).longValue();
+        long first = ((Number) keys.get(0)).longValue();
+        if (target <= first) {
+            return target == first ? 0 : -1;
+        }
+        long last = ((Number) keys.get(count - 1)).longValue();
+        if (target >= last) {
+            return target == last ? count - 1 : -(count + 1);
+        }
+
+        // ключ строго между крайними: предсказанная позиция в [0; count - 1)
+        int predicted = (int) (((double) target - first) / ((double) last - first) * (count - 1));
+        long value = ((Number) keys.get(predicted)).longValue();
+        if (value == target) {
+            return predicted;
+        }
+        int low;
+        int high;
+        if (value < target) {
+            // искомый ключ правее: keys[low - 1] < target, keys[count - 1] > target
+            low = predicted + 1;
+            high = count - 2;
+            int step = 1;
+            for (int i = 0; i < MAX_GALLOP_STEPS && low <= high; i++, step <<= 1) {
+                int probe = Math.min(predicted + step, high);
+                value = ((Number) keys.get(probe)).longValue();
+                if (value == target) {
+                    return probe;
+                }
+                if (value > target) {
+                    high = probe - 1;
+                    break;
+                }
+                low = probe + 1;
+            }
+        } else {
+            // искомый ключ левее: keys[0] < target, keys[high + 1] > target
+            low = 1;
+            high = predicted - 1;
+            int step = 1;
+            for (int i = 0; i < MAX_GALLOP_STEPS && low <= high; i++, step <<= 1) {
+                int probe = Math.max(predicted - step, low);
+                value = ((Number) keys.get(probe)).longValue();
+                if (value == target) {
+                    return probe;
+                }
+                if (value < target) {
+                    low = probe + 1;
+                    break;
+                }
+                high = probe - 1;
+            }
+        }
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            value = ((Number) keys.get(middle)).longValue();
+            if (value < target) {
+                low = middle + 1;
+            } else if (value > target) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+}
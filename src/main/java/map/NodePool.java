@@ -0,0 +1,68 @@
+package map;
+
+/**
+ * Ограниченный пул освободившихся узлов дерева.
+ * Узлы, поглощенные при слияниях и при уменьшении высоты, очищаются и кладутся в пул,
+ * а разломы и рост дерева берут узлы из пула вместо выделения новых узлов с их массивами.
+ * При нагрузке со вставками и удалениями в равной пропорции слияния и разломы
+ * уравновешивают друг друга, и узлы перестают выделяться вовсе.
+ * Если пул заполнен, лишние узлы отдаются сборщику мусора
+ *
+ * @param <N> Тип узла
+ */
+final class NodePool<N> {
+
+    /**
+     * Стек свободных узлов
+     */
+    private final Object[] nodes;
+
+    /**
+     * Количество свободных узлов
+     */
+    private int size;
+
+    /**
+     * @param capacity максимальное количество свободных узлов
+     */
+    NodePool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ РАЗМЕР ПУЛА: " + capacity);
+        }
+        this.nodes = new Object[capacity];
+    }
+
+    /**
+     * Забирает свободный узел
+     * @return очищенный узел или {@code null}, если пул пуст
+     */
+    @SuppressWarnings("unchecked")
+    N poll() {
+        if (size == 0) {
+            return null;
+        }
+        N node = (N) nodes[--size];
+        nodes[size] = null;
+        return node;
+    }
+
+    /**
+     * Возвращает очищенный узел в пул
+     * @param node узел
+     * @return {@code false}, если пул заполнен и узел не принят
+     */
+    boolean offer(N node) {
+        if (size == nodes.length) {
+            return false;
+        }
+        nodes[size++] = node;
+        return true;
+    }
+
+    /**
+     * Количество свободных узлов в пуле
+     */
+    int size() {
+        return size;
+    }
+}
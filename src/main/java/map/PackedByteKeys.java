@@ -0,0 +1,109 @@
+package map;
+
+import map.key.ByteKey;
+import map.stats.HeapLayout;
+
+import java.util.List;
+
+/**
+ * Сжатый список отсортированных ключей {@link ByteKey} листа. Байты всех ключей лежат подряд
+ * в одном массиве, границы ключей - в массиве смещений: вместо объекта-ключа и отдельного
+ * массива на каждый ключ лист хранит два массива. Бинарный поиск сравнивает искомый ключ
+ * прямо с участками общего массива, не создавая объектов
+ *
+ * @param <K> Тип ключа
+ */
+final class PackedByteKeys<K> extends CompactKeys<K> {
+
+    /**
+     * Количество упакованных ключей
+     */
+    private final int count;
+    /**
+     * Байты ключей подряд, {@code null} после распаковки
+     */
+    private byte[] data;
+    /**
+     * Начала ключей в {@link #data}, последний элемент - длина данных; {@code null} после распаковки
+     */
+    private int[] offsets;
+
+    private PackedByteKeys(int count, byte[] data, int[] offsets) {
+        this.count = count;
+        this.data = data;
+        this.offsets = offsets;
+    }
+
+    /**
+     * Сжимает отсортированный список ключей
+     * @param keys ключи по возрастанию
+     * @return сжатый список или {@code null}, если не все ключи {@link ByteKey}
+     */
+    static <K> PackedByteKeys<K> pack(List<K> keys) {
+        int count = keys.size();
+        if (count == 0) {
+            return null;
+        }
+        int length = 0;
+        for (K key : keys) {
+            if (!(key instanceof ByteKey)) {
+                return null;
+            }
+            length += ((ByteKey) key).length();
+        }
+        byte[] data = new byte[length];
+        int[] offsets = new int[count + 1];
+        for (int i = 0; i < count; i++) {
+            ByteKey key = (ByteKey) keys.get(i);
+            key.copyTo(data, offsets[i]);
+            offsets[i + 1] = offsets[i] + key.length();
+        }
+        return new PackedByteKeys<>(count, data, offsets);
+    }
+
+    @Override
+    int searchPacked(K key) {
+        ByteKey target = (ByteKey) key;
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = target.compareTo(data, offsets[middle], offsets[middle + 1]);
+            if (compare > 0) {
+                low = middle + 1;
+            } else if (compare < 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    int packedSize() {
+        return count;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    K packedKey(int index) {
+        return (K) ByteKey.copyOf(data, offsets[index], offsets[index + 1]);
+    }
+
+    @Override
+    long objectBytes() {
+        return HeapLayout.objectBytes(3, 4 + 4);
+    }
+
+    @Override
+    long packedBytes() {
+        return HeapLayout.primitiveArrayBytes(data.length, 1) + HeapLayout.primitiveArrayBytes(offsets.length, 4);
+    }
+
+    @Override
+    void releasePacked() {
+        data = null;
+        offsets = null;
+    }
+}
@@ -0,0 +1,156 @@
+package map;
+
+import map.stats.HeapLayout;
+
+import java.util.List;
+
+/**
+ * Сжатый список отсортированных целочисленных ключей листа ({@link Integer} или {@link Long}).
+ * Ключи хранятся как базовый (наименьший) ключ и смещения от него, упакованные
+ * по {@code bits} бит (frame-of-reference): для плотных ключей (идентификаторы, моменты времени)
+ * смещение занимает единицы бит вместо ссылки и объекта-обертки на каждый ключ.
+ * Смещения читаются по индексу без распаковки всего листа, поэтому бинарный поиск
+ * идет прямо по упакованным данным
+ *
+ * @param <K> Тип ключа
+ */
+final class PackedKeys<K> extends CompactKeys<K> {
+
+    /**
+     * Ключи типа {@link Integer}, иначе {@link Long}
+     */
+    private final boolean integer;
+    /**
+     * Наименьший ключ
+     */
+    private final long base;
+    /**
+     * Ширина смещения в битах
+     */
+    private final int bits;
+    /**
+     * Количество упакованных ключей
+     */
+    private final int count;
+    /**
+     * Упакованные смещения, {@code null} после распаковки
+     */
+    private long[] words;
+
+    private PackedKeys(boolean integer, long base, int bits, int count, long[] words) {
+        this.integer = integer;
+        this.base = base;
+        this.bits = bits;
+        this.count = count;
+        this.words = words;
+    }
+
+    /**
+     * Сжимает отсортированный список ключей
+     * @param keys ключи по возрастанию
+     * @return сжатый список или {@code null}, если ключи не {@link Integer} / {@link Long} одного типа
+     */
+    static <K> PackedKeys<K> pack(List<K> keys) {
+        int count = keys.size();
+        if (count == 0) {
+            return null;
+        }
+        Class<?> type = keys.get(0).getClass();
+        if (type != Integer.class && type != Long.class) {
+            return null;
+        }
+        for (int i = 1; i < count; i++) {
+            if (keys.get(i).getClass() != type) {
+                return null;
+            }
+        }
+        long base = ((Number) keys.get(0)).longValue();
+        long spread = ((Number) keys.get(count - 1)).longValue() - base;
+        int bits = 64 - Long.numberOfLeadingZeros(spread);
+        long[] words = new long[(int) (((long) count * bits + 63) >>> 6)];
+        for (int i = 0; i < count && bits > 0; i++) {
+            long offset = ((Number) keys.get(i)).longValue() - base;
+            long bitIndex = (long) i * bits;
+            int word = (int) (bitIndex >>> 6);
+            int shift = (int) (bitIndex & 63);
+            words[word] |= offset << shift;
+            if (shift + bits > 64) {
+                words[word + 1] |= offset >>> (64 - shift);
+            }
+        }
+        return new PackedKeys<>(type == Integer.class, base, bits, count, words);
+    }
+
+    @Override
+    int searchPacked(K key) {
+        long value = ((Number) key).longValue();
+        if (value < base) {
+            return -1;
+        }
+        long offset = value - base;
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int compare = Long.compareUnsigned(offset(middle), offset);
+            if (compare < 0) {
+                low = middle + 1;
+            } else if (compare > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -(low + 1);
+    }
+
+    @Override
+    int packedSize() {
+        return count;
+    }
+
+    @Override
+    K packedKey(int index) {
+        return box(base + offset(index));
+    }
+
+    @Override
+    long objectBytes() {
+        return HeapLayout.objectBytes(2, 1 + 8 + 4 + 4);
+    }
+
+    @Override
+    long packedBytes() {
+        return HeapLayout.primitiveArrayBytes(words.length, 8);
+    }
+
+    @Override
+    void releasePacked() {
+        words = null;
+    }
+
+    /**
+     * Смещение ключа с заданным индексом
+     */
+    private long offset(int index) {
+        if (bits == 0) {
+            return 0;
+        }
+        long bitIndex = (long) index * bits;
+        int word = (int) (bitIndex >>> 6);
+        int shift = (int) (bitIndex & 63);
+        long value = words[word] >>> shift;
+        if (shift + bits > 64) {
+            value |= words[word + 1] << (64 - shift);
+        }
+        return bits == 64 ? value : value & ((1L << bits) - 1);
+    }
+
+    @SuppressWarnings("unchecked")
+    private K box(long value) {
+        if (integer) {
+            return (K) Integer.valueOf((int) value);
+        }
+        return (K) Long.valueOf(value);
+    }
+}
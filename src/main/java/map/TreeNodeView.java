@@ -0,0 +1,51 @@
+package map;
+
+/**
+ * Представление узла дерева только для чтения.
+ * Позволяет обходить структуру дерева (например, для визуализации),
+ * не копируя ее и не обращаясь к внутренним классам узлов.
+ * Представление действительно, пока дерево не изменяется
+ * @param <K> тип ключа
+ * @param <V> тип значения
+ */
+public interface TreeNodeView<K, V> {
+
+    /**
+     * Количество ключей в узле
+     * @return количество ключей
+     */
+    int keyCount();
+
+    /**
+     * Ключ узла по индексу
+     * @param index индекс в диапазоне [0; keyCount())
+     * @return ключ
+     */
+    K key(int index);
+
+    /**
+     * Проверяет, хранит ли узел значения (в B+ дереве значения хранят только листья)
+     * @return true/false
+     */
+    boolean hasValues();
+
+    /**
+     * Значение, соответствующее ключу узла по индексу
+     * @param index индекс в диапазоне [0; keyCount())
+     * @return значение или {@code null}, если узел не хранит значений
+     */
+    V value(int index);
+
+    /**
+     * Количество потомков узла
+     * @return количество потомков, 0 для листа
+     */
+    int childCount();
+
+    /**
+     * Потомок узла по индексу
+     * @param index индекс в диапазоне [0; childCount())
+     * @return представление потомка
+     */
+    TreeNodeView<K, V> child(int index);
+}
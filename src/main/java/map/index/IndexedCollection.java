@@ -0,0 +1,375 @@
+package map.index;
+
+import map.BPlusTreeMap;
+
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Коллекция записей с первичным ключом и произвольным количеством вторичных индексов.
+ * Записи хранятся в {@link BPlusTreeMap} по первичному ключу, каждый вторичный индекс -
+ * {@link BPlusTreeMap} с составным ключом (ключ индекса, первичный ключ). Элементы индекса
+ * уникальны, поэтому добавление и удаление элемента - один спуск за O(log n) даже для ключа
+ * индекса, который есть у многих записей (например, статус), а записи с ключом индекса
+ * находятся обходом отрезка составных ключей от (ключ, -∞) до (ключ, +∞).
+ * Ключи индексов вычисляются функциями-экстракторами; запись с {@code null} ключом в индекс не попадает.
+ * <p>
+ * {@code put} и {@code remove} обновляют первичную карту и все индексы как одно целое:
+ * новые ключи вычисляются до первого изменения, поэтому исключение в экстракторе
+ * оставляет коллекцию нетронутой. Ключи индексов запоминаются вместе с записью, и старые элементы
+ * индексов удаляются по ним, а не по повторному вызову экстракторов: запись, измененная на месте
+ * и снова переданная в {@code put} тем же объектом, переносится в индексах правильно. До такого
+ * {@code put} индексы отражают ключи записи на момент прошлого {@code put}.
+ * Как и сами деревья, коллекция не потокобезопасна
+ *
+ * @param <PK> Тип первичного ключа
+ * @param <R> Тип записи
+ */
+public class IndexedCollection<PK extends Comparable<? super PK>, R> {
+
+    /**
+     * Вторичный индекс
+     * @param <SK> Тип ключа индекса
+     */
+    public final class Index<SK extends Comparable<? super SK>> {
+
+        private final String name;
+        private final Function<? super R, ? extends SK> extractor;
+        /**
+         * Номер ключа индекса в ключах, запомненных вместе с записью
+         */
+        private final int slot;
+        /**
+         * Первичные ключи по составным ключам
+         */
+        private final BPlusTreeMap<IndexKey<SK, PK>, PK> entries;
+
+        private Index(String name, Function<? super R, ? extends SK> extractor, int slot) {
+            this.name = name;
+            this.extractor = extractor;
+            this.slot = slot;
+            this.entries = new BPlusTreeMap<>(treeDegree);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Записи с ключом индекса из диапазона [from; to) в порядке ключа индекса
+         * (записи с одинаковым ключом - в порядке первичного ключа).
+         * Итератор ленивый: первичные записи читаются по мере обхода
+         * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+         * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+         * @return итератор записей
+         */
+        public Iterator<R> range(SK from, SK to) {
+            return records(entries.entries(from == null ? null : IndexKey.<SK, PK>before(from),
+                    to == null ? null : IndexKey.<SK, PK>before(to)));
+        }
+
+        /**
+         * Записи с заданным ключом индекса в порядке первичного ключа
+         * @param key ключ индекса
+         * @return итератор записей
+         */
+        public Iterator<R> get(SK key) {
+            return records(entries.entries(IndexKey.<SK, PK>before(key), IndexKey.<SK, PK>after(key)));
+        }
+
+        /**
+         * Количество записей в индексе
+         */
+        public int size() {
+            return entries.size();
+        }
+
+        private SK keyOf(R record) {
+            return record == null ? null : extractor.apply(record);
+        }
+
+        private void add(SK key, PK primaryKey) {
+            if (key != null) {
+                entries.put(new IndexKey<>(key, primaryKey), primaryKey);
+            }
+        }
+
+        private void remove(SK key, PK primaryKey) {
+            if (key != null) {
+                entries.remove(new IndexKey<>(key, primaryKey));
+            }
+        }
+
+        /**
+         * Переносит запись в индексе со старого ключа на новый
+         * @param oldKey ключ, запомненный для старой версии записи, или {@code null}
+         * @param newKey ключ новой версии записи или {@code null}
+         */
+        private void update(Object oldKey, Object newKey, PK primaryKey) {
+            if (Objects.equals(oldKey, newKey)) {
+                return;
+            }
+            remove((SK) oldKey, primaryKey);
+            add((SK) newKey, primaryKey);
+        }
+    }
+
+    /**
+     * Составной ключ индекса: ключ индекса, затем первичный ключ. Границы отрезка ключа индекса
+     * не имеют первичного ключа и лежат левее или правее всех элементов с этим ключом индекса
+     */
+    private static final class IndexKey<SK extends Comparable<? super SK>, PK extends Comparable<? super PK>>
+            implements Comparable<IndexKey<SK, PK>> {
+
+        final SK indexKey;
+        final PK primaryKey;
+        /**
+         * -1 - левее всех первичных ключей, 1 - правее, 0 - элемент индекса
+         */
+        final int bound;
+
+        IndexKey(SK indexKey, PK primaryKey) {
+            this(indexKey, primaryKey, 0);
+        }
+
+        private IndexKey(SK indexKey, PK primaryKey, int bound) {
+            this.indexKey = indexKey;
+            this.primaryKey = primaryKey;
+            this.bound = bound;
+        }
+
+        static <SK extends Comparable<? super SK>, PK extends Comparable<? super PK>> IndexKey<SK, PK> before(SK indexKey) {
+            return new IndexKey<>(indexKey, null, -1);
+        }
+
+        static <SK extends Comparable<? super SK>, PK extends Comparable<? super PK>> IndexKey<SK, PK> after(SK indexKey) {
+            return new IndexKey<>(indexKey, null, 1);
+        }
+
+        @Override
+        public int compareTo(IndexKey<SK, PK> other) {
+            int result = indexKey.compareTo(other.indexKey);
+            if (result != 0) {
+                return result;
+            }
+            if (bound != 0 || other.bound != 0) {
+                return Integer.compare(bound, other.bound);
+            }
+            return primaryKey.compareTo(other.primaryKey);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof IndexKey && compareTo((IndexKey<SK, PK>) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * indexKey.hashCode() + (bound != 0 ? bound : primaryKey.hashCode());
+        }
+    }
+
+    /**
+     * Запись и ее ключи в индексах на момент {@code put}
+     */
+    private static final class Stored<R> {
+        final R record;
+        /**
+         * Ключи по номерам индексов ({@link Index#slot})
+         */
+        Object[] indexKeys;
+
+        Stored(R record, Object[] indexKeys) {
+            this.record = record;
+            this.indexKeys = indexKeys;
+        }
+    }
+
+    /**
+     * Степень деревьев коллекции
+     */
+    private final int treeDegree;
+    /**
+     * Функция получения первичного ключа записи
+     */
+    private final Function<? super R, ? extends PK> primaryKey;
+    /**
+     * Записи по первичному ключу
+     */
+    private final BPlusTreeMap<PK, Stored<R>> primary;
+    /**
+     * Вторичные индексы по именам (в порядке добавления)
+     */
+    private final Map<String, Index<?>> indexes = new LinkedHashMap<>();
+    /**
+     * Номер ключа следующего индекса; номера удаленных индексов не переиспользуются
+     */
+    private int nextSlot;
+
+    /**
+     * @param primaryKey функция получения первичного ключа записи
+     * @param treeDegree степень деревьев первичной карты и индексов
+     */
+    public IndexedCollection(Function<? super R, ? extends PK> primaryKey, int treeDegree) {
+        this.primaryKey = primaryKey;
+        this.treeDegree = treeDegree;
+        this.primary = new BPlusTreeMap<>(treeDegree);
+    }
+
+    /**
+     * Добавляет вторичный индекс и заполняет его уже существующими записями
+     * @param name имя индекса
+     * @param extractor функция получения ключа индекса из записи
+     * @param <SK> Тип ключа индекса
+     * @return индекс
+     */
+    public <SK extends Comparable<? super SK>> Index<SK> addIndex(String name, Function<? super R, ? extends SK> extractor) {
+        if (indexes.containsKey(name)) {
+            throw new IllegalArgumentException("ИНДЕКС УЖЕ СУЩЕСТВУЕТ: " + name);
+        }
+        Index<SK> index = new Index<>(name, extractor, nextSlot);
+        for (Iterator<Map.Entry<PK, Stored<R>>> iterator = primary.entries(null, null); iterator.hasNext(); ) {
+            Map.Entry<PK, Stored<R>> entry = iterator.next();
+            Stored<R> stored = entry.getValue();
+            SK key = index.keyOf(stored.record);
+            stored.indexKeys = Arrays.copyOf(stored.indexKeys, index.slot + 1);
+            stored.indexKeys[index.slot] = key;
+            index.add(key, entry.getKey());
+        }
+        nextSlot++;
+        indexes.put(name, index);
+        return index;
+    }
+
+    /**
+     * Возвращает индекс по имени
+     * @param name имя индекса
+     * @return индекс или {@code null}
+     */
+    public Index<?> getIndex(String name) {
+        return indexes.get(name);
+    }
+
+    /**
+     * Удаляет вторичный индекс
+     * @param name имя индекса
+     * @return {@code true}, если индекс существовал
+     */
+    public boolean dropIndex(String name) {
+        return indexes.remove(name) != null;
+    }
+
+    /**
+     * Добавляет или заменяет запись с тем же первичным ключом
+     * @param record запись
+     * @return предыдущая версия записи или {@code null}
+     */
+    public R put(R record) {
+        PK key = primaryKey.apply(record);
+        if (key == null) {
+            throw new IllegalArgumentException("ПУСТОЙ ПЕРВИЧНЫЙ КЛЮЧ");
+        }
+        Object[] newKeys = indexKeys(record);
+
+        Stored<R> old = primary.put(key, new Stored<>(record, newKeys));
+        for (Index<?> index : indexes.values()) {
+            index.update(old == null ? null : old.indexKeys[index.slot], newKeys[index.slot], key);
+        }
+        return old == null ? null : old.record;
+    }
+
+    /**
+     * Удаляет запись по первичному ключу вместе с ее элементами индексов
+     * @param key первичный ключ
+     * @return удаленная запись или {@code null}
+     */
+    public R remove(PK key) {
+        Stored<R> old = primary.remove(key);
+        if (old == null) {
+            return null;
+        }
+        for (Index<?> index : indexes.values()) {
+            index.update(old.indexKeys[index.slot], null, key);
+        }
+        return old.record;
+    }
+
+    /**
+     * Возвращает запись по первичному ключу
+     * @param key первичный ключ
+     * @return запись или {@code null}
+     */
+    public R get(PK key) {
+        Stored<R> stored = primary.get(key);
+        return stored == null ? null : stored.record;
+    }
+
+    /**
+     * Записи с первичным ключом из диапазона [from; to)
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return итератор записей
+     */
+    public Iterator<R> range(PK from, PK to) {
+        Iterator<Map.Entry<PK, Stored<R>>> entries = primary.entries(from, to);
+        return new Iterator<R>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public R next() {
+                return entries.next().getValue().record;
+            }
+        };
+    }
+
+    public int size() {
+        return primary.size();
+    }
+
+    public boolean isEmpty() {
+        return primary.isEmpty();
+    }
+
+    /**
+     * Удаляет все записи, индексы остаются (пустыми)
+     */
+    public void clear() {
+        primary.clear();
+        for (Index<?> index : indexes.values()) {
+            index.entries.clear();
+        }
+    }
+
+    /**
+     * Вычисляет ключи записи во всех индексах
+     * @param record запись
+     * @return ключи по номерам индексов
+     */
+    private Object[] indexKeys(R record) {
+        Object[] keys = new Object[nextSlot];
+        for (Index<?> index : indexes.values()) {
+            keys[index.slot] = index.keyOf(record);
+        }
+        return keys;
+    }
+
+    /**
+     * Превращает итератор пар (составной ключ, первичный ключ) в итератор записей
+     */
+    private <SK> Iterator<R> records(Iterator<Map.Entry<SK, PK>> entries) {
+        return new Iterator<R>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
+
+            @Override
+            public R next() {
+                return get(entries.next().getValue());
+            }
+        };
+    }
+}
@@ -0,0 +1,401 @@
+package map.key;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Ключ в виде последовательности байт, упорядоченной беззнаково-лексикографически
+ * (как {@code memcmp}). Составные ключи собираются {@link Builder}: каждая компонента
+ * кодируется так, что порядок байт совпадает с естественным порядком значений, поэтому
+ * сравнение ключей не разбирает компоненты и не вызывает {@code compareTo} оберток.
+ * <ul>
+ *     <li>{@code int}, {@code long} - big-endian с инвертированным знаковым битом</li>
+ *     <li>{@code double} - биты IEEE 754: у отрицательных инвертируются все, у остальных - знаковый
+ *     ({@code -0.0 < 0.0}, все {@code NaN} приводятся к одному и больше бесконечности)</li>
+ *     <li>строки и массивы байт - байты (строки в UTF-8), где {@code 0x00} заменен на {@code 0x00 0xFF},
+ *     и терминатор {@code 0x00 0x01}: более короткая строка меньше своего продолжения, а следующие
+ *     компоненты не влияют на сравнение строк</li>
+ * </ul>
+ * Порядок строк - порядок кодовых точек Unicode; он отличается от {@link String#compareTo(String)}
+ * только для символов вне BMP (суррогатных пар).
+ * <p>
+ * Ключи с общим префиксом компонент лежат в дереве подряд, поэтому выборка по префиксу -
+ * обычный диапазон {@code [prefix, prefix.prefixEnd())}.
+ * Объект неизменяем, если не изменять массив, переданный в {@link #wrap(byte[])}
+ */
+public final class ByteKey implements Comparable<ByteKey> {
+
+    /**
+     * Пустой ключ, меньше всех остальных
+     */
+    public static final ByteKey EMPTY = new ByteKey(new byte[0]);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Байты ключа
+     */
+    private final byte[] bytes;
+    /**
+     * Кэш хэш-кода, 0 - не вычислен
+     */
+    private int hash;
+
+    private ByteKey(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Ключ поверх массива без копирования
+     * @param bytes байты ключа
+     * @return ключ
+     */
+    public static ByteKey wrap(byte[] bytes) {
+        if (bytes == null) {
+            throw new NullPointerException("МАССИВ КЛЮЧА НЕ ЗАДАН");
+        }
+        return new ByteKey(bytes);
+    }
+
+    /**
+     * Ключ с копией части массива
+     * @param bytes массив
+     * @param from начало (включительно)
+     * @param to конец (не включительно)
+     * @return ключ
+     */
+    public static ByteKey copyOf(byte[] bytes, int from, int to) {
+        return new ByteKey(Arrays.copyOfRange(bytes, from, to));
+    }
+
+    public static ByteKey of(int value) {
+        return builder(4).putInt(value).build();
+    }
+
+    public static ByteKey of(long value) {
+        return builder(8).putLong(value).build();
+    }
+
+    public static ByteKey of(String value) {
+        return builder(value.length() + 2).putString(value).build();
+    }
+
+    /**
+     * Построитель составного ключа
+     */
+    public static Builder builder() {
+        return new Builder(16);
+    }
+
+    /**
+     * Построитель составного ключа
+     * @param capacity ожидаемая длина ключа в байтах
+     */
+    public static Builder builder(int capacity) {
+        return new Builder(capacity);
+    }
+
+    /**
+     * Чтение компонент ключа в порядке их записи
+     */
+    public Reader reader() {
+        return new Reader(bytes);
+    }
+
+    /**
+     * Длина ключа в байтах
+     */
+    public int length() {
+        return bytes.length;
+    }
+
+    public byte byteAt(int index) {
+        return bytes[index];
+    }
+
+    /**
+     * Копия байт ключа
+     */
+    public byte[] toByteArray() {
+        return bytes.clone();
+    }
+
+    /**
+     * Копирует байты ключа в массив
+     * @param target массив
+     * @param offset позиция в массиве
+     */
+    public void copyTo(byte[] target, int offset) {
+        System.arraycopy(bytes, 0, target, offset, bytes.length);
+    }
+
+    /**
+     * Проверяет, что ключ начинается с заданного
+     */
+    public boolean startsWith(ByteKey prefix) {
+        if (prefix.bytes.length > bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.bytes.length; i++) {
+            if (bytes[i] != prefix.bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Наименьший ключ, больший всех ключей, начинающихся с этого: последний байт, отличный
+     * от {@code 0xFF}, увеличивается на единицу, а байты за ним отбрасываются
+     * @return верхняя граница (не включительно) выборки по префиксу или {@code null},
+     * если такой границы нет (ключ пуст или состоит из {@code 0xFF})
+     */
+    public ByteKey prefixEnd() {
+        int last = bytes.length - 1;
+        while (last >= 0 && bytes[last] == (byte) 0xFF) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        byte[] end = Arrays.copyOf(bytes, last + 1);
+        end[last]++;
+        return new ByteKey(end);
+    }
+
+    @Override
+    public int compareTo(ByteKey other) {
+        return compare(bytes, 0, bytes.length, other.bytes, 0, other.bytes.length);
+    }
+
+    /**
+     * Сравнивает ключ с частью массива
+     * @param data массив
+     * @param from начало (включительно)
+     * @param to конец (не включительно)
+     * @return результат в формате {@link Comparable#compareTo(Object)}
+     */
+    public int compareTo(byte[] data, int from, int to) {
+        return compare(bytes, 0, bytes.length, data, from, to);
+    }
+
+    /**
+     * Беззнаковое лексикографическое сравнение частей массивов
+     * @return результат в формате {@link Comparable#compareTo(Object)}
+     */
+    public static int compare(byte[] a, int aFrom, int aTo, byte[] b, int bFrom, int bTo) {
+        int aLength = aTo - aFrom;
+        int bLength = bTo - bFrom;
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int x = a[aFrom + i] & 0xFF;
+            int y = b[bFrom + i] & 0xFF;
+            if (x != y) {
+                return x - y;
+            }
+        }
+        return aLength - bLength;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        return o instanceof ByteKey && Arrays.equals(bytes, ((ByteKey) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = hash;
+        if (h == 0) {
+            h = Arrays.hashCode(bytes);
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >>> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Построитель составного ключа: компоненты дописываются в порядке значимости
+     */
+    public static final class Builder {
+
+        private byte[] buffer;
+        private int size;
+
+        private Builder(int capacity) {
+            buffer = new byte[Math.max(capacity, 1)];
+        }
+
+        public Builder putInt(int value) {
+            ensure(4);
+            writeInt(value ^ Integer.MIN_VALUE);
+            return this;
+        }
+
+        public Builder putLong(long value) {
+            ensure(8);
+            writeLong(value ^ Long.MIN_VALUE);
+            return this;
+        }
+
+        public Builder putDouble(double value) {
+            long bits = Double.doubleToLongBits(value);
+            ensure(8);
+            writeLong(bits ^ ((bits >> 63) | Long.MIN_VALUE));
+            return this;
+        }
+
+        public Builder putBoolean(boolean value) {
+            ensure(1);
+            buffer[size++] = (byte) (value ? 1 : 0);
+            return this;
+        }
+
+        public Builder putString(String value) {
+            return putBytes(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Дописывает массив байт как строку: с экранированием нулей и терминатором
+         */
+        public Builder putBytes(byte[] value) {
+            ensure(value.length + 2);
+            for (byte b : value) {
+                if (b == 0) {
+                    ensure(2);
+                    buffer[size++] = 0;
+                    buffer[size++] = (byte) 0xFF;
+                } else {
+                    buffer[size++] = b;
+                }
+            }
+            ensure(2);
+            buffer[size++] = 0;
+            buffer[size++] = 1;
+            return this;
+        }
+
+        /**
+         * Дописывает байты другого ключа без кодирования (ключ становится префиксом)
+         */
+        public Builder putKey(ByteKey key) {
+            ensure(key.bytes.length);
+            key.copyTo(buffer, size);
+            size += key.bytes.length;
+            return this;
+        }
+
+        public ByteKey build() {
+            return new ByteKey(Arrays.copyOf(buffer, size));
+        }
+
+        private void writeInt(int value) {
+            buffer[size++] = (byte) (value >>> 24);
+            buffer[size++] = (byte) (value >>> 16);
+            buffer[size++] = (byte) (value >>> 8);
+            buffer[size++] = (byte) value;
+        }
+
+        private void writeLong(long value) {
+            writeInt((int) (value >>> 32));
+            writeInt((int) value);
+        }
+
+        private void ensure(int bytes) {
+            if (buffer.length - size < bytes) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + bytes));
+            }
+        }
+    }
+
+    /**
+     * Чтение компонент ключа; компоненты читаются теми же типами и в том же порядке,
+     * в каком записывались {@link Builder}
+     */
+    public static final class Reader {
+
+        private final byte[] bytes;
+        private int position;
+
+        private Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        public boolean hasRemaining() {
+            return position < bytes.length;
+        }
+
+        public int getInt() {
+            return readInt() ^ Integer.MIN_VALUE;
+        }
+
+        public long getLong() {
+            return readLong() ^ Long.MIN_VALUE;
+        }
+
+        public double getDouble() {
+            long bits = readLong();
+            return Double.longBitsToDouble(bits ^ ((~bits >> 63) | Long.MIN_VALUE));
+        }
+
+        public boolean getBoolean() {
+            require(1);
+            return bytes[position++] != 0;
+        }
+
+        public String getString() {
+            return new String(getBytes(), StandardCharsets.UTF_8);
+        }
+
+        public byte[] getBytes() {
+            byte[] value = new byte[bytes.length - position];
+            int length = 0;
+            while (true) {
+                require(2);
+                byte b = bytes[position++];
+                if (b != 0) {
+                    value[length++] = b;
+                    continue;
+                }
+                byte escape = bytes[position++];
+                if (escape == 1) {
+                    return Arrays.copyOf(value, length);
+                }
+                if (escape != (byte) 0xFF) {
+                    throw new IllegalStateException("НЕКОРРЕКТНОЕ ЭКРАНИРОВАНИЕ В КЛЮЧЕ: " + position);
+                }
+                value[length++] = 0;
+            }
+        }
+
+        private int readInt() {
+            require(4);
+            int value = (bytes[position] & 0xFF) << 24 | (bytes[position + 1] & 0xFF) << 16
+                    | (bytes[position + 2] & 0xFF) << 8 | bytes[position + 3] & 0xFF;
+            position += 4;
+            return value;
+        }
+
+        private long readLong() {
+            long high = readInt() & 0xFFFFFFFFL;
+            return high << 32 | readInt() & 0xFFFFFFFFL;
+        }
+
+        private void require(int bytes) {
+            if (this.bytes.length - position < bytes) {
+                throw new IllegalStateException("КЛЮЧ ЗАКОНЧИЛСЯ: " + this.bytes.length);
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package map.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Гистограмма задержек в стиле HDR Histogram: логарифмическая шкала,
+ * внутри каждой степени двойки - {@value #SUB_BUCKET_COUNT} линейных корзин,
+ * т.е. относительная погрешность не превышает ~3%.
+ * Запись потокобезопасна и не блокирует пишущие потоки.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Количество бит точности внутри степени двойки
+     */
+    private static final int SUB_BUCKET_BITS = 5;
+    /**
+     * Количество линейных корзин внутри степени двойки
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    /**
+     * Общее количество корзин (покрывает весь диапазон {@code long})
+     */
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    /**
+     * Счетчики по корзинам
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    /**
+     * Общее количество записанных значений
+     */
+    private final AtomicLong totalCount = new AtomicLong();
+    /**
+     * Сумма записанных значений
+     */
+    private final AtomicLong totalSum = new AtomicLong();
+    /**
+     * Максимальное записанное значение
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Записывает значение (отрицательные значения считаются нулем)
+     * @param value значение, обычно в наносекундах
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        totalCount.incrementAndGet();
+        totalSum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Добавляет в гистограмму все значения другой гистограммы
+     * @param other гистограмма
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        totalCount.addAndGet(other.totalCount.get());
+        totalSum.addAndGet(other.totalSum.get());
+        long otherMax = other.max.get();
+        long currentMax;
+        while (otherMax > (currentMax = max.get())) {
+            if (max.compareAndSet(currentMax, otherMax)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Возвращает значение, ниже или равно которому лежит заданная доля записей
+     * @param percentile процентиль в диапазоне [0; 100]
+     * @return верхняя граница корзины, в которую попал процентиль, или 0, если записей нет
+     */
+    public long percentile(double percentile) {
+        long count = totalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile / 100.0 * count);
+        if (rank < 1) {
+            rank = 1;
+        }
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Среднее значение
+     * @return среднее или 0, если записей нет
+     */
+    public double getMean() {
+        long count = totalCount.get();
+        return count == 0 ? 0 : (double) totalSum.get() / count;
+    }
+
+    /**
+     * Обнуляет гистограмму
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts.set(i, 0);
+        }
+        totalCount.set(0);
+        totalSum.set(0);
+        max.set(0);
+    }
+
+    private static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+        return (shift + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        long upperBound = ((subBucket + 1) << shift) - 1;
+        return upperBound < 0 ? Long.MAX_VALUE : upperBound;
+    }
+}
@@ -0,0 +1,310 @@
+package map.metrics;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Счетчики операций и структурных изменений одного экземпляра дерева.
+ * Счетчики построены на {@link LongAdder}, поэтому не создают конкуренции между потоками.
+ * Задержки измеряются выборочно: время замеряется только у каждой N-й (в среднем) операции.
+ * Методы {@code record*} вызываются самими деревьями и не предназначены для пользовательского кода
+ */
+public final class TreeMetrics implements TreeMetricsMBean {
+
+    /**
+     * Частота выборки задержек по умолчанию: одна операция из 64
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 64;
+
+    /**
+     * Значение таймера для операции, не попавшей в выборку
+     */
+    private static final long NOT_SAMPLED = Long.MIN_VALUE;
+
+    private final LongAdder gets = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder puts = new LongAdder();
+    private final LongAdder removes = new LongAdder();
+    private final LongAdder splits = new LongAdder();
+    private final LongAdder merges = new LongAdder();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder rootHeightChanges = new LongAdder();
+
+    private final LatencyHistogram getLatency = new LatencyHistogram();
+    private final LatencyHistogram putLatency = new LatencyHistogram();
+    private final LatencyHistogram removeLatency = new LatencyHistogram();
+
+    /**
+     * Маска выборки (частота выборки - степень двойки)
+     */
+    private final int sampleMask;
+    /**
+     * Источник текущего размера дерева
+     */
+    private final IntSupplier size;
+    /**
+     * Источник текущей высоты дерева
+     */
+    private final IntSupplier height;
+    /**
+     * Имя, под которым метрики зарегистрированы в JMX
+     */
+    private final ObjectName objectName;
+
+    /**
+     * Конструктор метрик
+     * @param mapType тип дерева (используется в имени JMX объекта)
+     * @param name имя экземпляра (используется в имени JMX объекта)
+     * @param sampleRate частота выборки задержек, степень двойки
+     * @param size источник текущего размера
+     * @param height источник текущей высоты
+     */
+    public TreeMetrics(String mapType, String name, int sampleRate, IntSupplier size, IntSupplier height) {
+        if (sampleRate <= 0 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("ЧАСТОТА ВЫБОРКИ ДОЛЖНА БЫТЬ СТЕПЕНЬЮ ДВОЙКИ: " + sampleRate);
+        }
+        this.sampleMask = sampleRate - 1;
+        this.size = size;
+        this.height = height;
+        try {
+            this.objectName = new ObjectName("map:type=" + mapType + ",name=" + ObjectName.quote(name));
+        } catch (JMException e) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНОЕ ИМЯ МЕТРИК: " + name, e);
+        }
+    }
+
+    /**
+     * Регистрирует метрики в платформенном MBean сервере
+     */
+    public void register() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (JMException e) {
+            throw new IllegalStateException("НЕ УДАЛОСЬ ЗАРЕГИСТРИРОВАТЬ МЕТРИКИ " + objectName, e);
+        }
+    }
+
+    /**
+     * Снимает метрики с регистрации в платформенном MBean сервере
+     */
+    public void unregister() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("НЕ УДАЛОСЬ СНЯТЬ С РЕГИСТРАЦИИ МЕТРИКИ " + objectName, e);
+        }
+    }
+
+    public ObjectName getObjectName() {
+        return objectName;
+    }
+
+    /**
+     * Начинает замер задержки, если операция попала в выборку
+     * @return отметка времени для {@code record*} методов
+     */
+    public long startTimer() {
+        if ((ThreadLocalRandom.current().nextInt() & sampleMask) != 0) {
+            return NOT_SAMPLED;
+        }
+        return System.nanoTime();
+    }
+
+    public void recordGet(boolean hit, long startTime) {
+        gets.increment();
+        if (hit) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        stopTimer(getLatency, startTime);
+    }
+
+    public void recordPut(long startTime) {
+        puts.increment();
+        stopTimer(putLatency, startTime);
+    }
+
+    public void recordRemove(long startTime) {
+        removes.increment();
+        stopTimer(removeLatency, startTime);
+    }
+
+    public void recordSplit() {
+        splits.increment();
+    }
+
+    public void recordMerge() {
+        merges.increment();
+    }
+
+    public void recordBorrow() {
+        borrows.increment();
+    }
+
+    public void recordRootHeightChange() {
+        rootHeightChanges.increment();
+    }
+
+    private static void stopTimer(LatencyHistogram histogram, long startTime) {
+        if (startTime != NOT_SAMPLED) {
+            histogram.record(System.nanoTime() - startTime);
+        }
+    }
+
+    public LatencyHistogram getGetLatency() {
+        return getLatency;
+    }
+
+    public LatencyHistogram getPutLatency() {
+        return putLatency;
+    }
+
+    public LatencyHistogram getRemoveLatency() {
+        return removeLatency;
+    }
+
+    @Override
+    public long getGets() {
+        return gets.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public long getPuts() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getRemoves() {
+        return removes.sum();
+    }
+
+    @Override
+    public long getSplits() {
+        return splits.sum();
+    }
+
+    @Override
+    public long getMerges() {
+        return merges.sum();
+    }
+
+    @Override
+    public long getBorrows() {
+        return borrows.sum();
+    }
+
+    @Override
+    public long getRootHeightChanges() {
+        return rootHeightChanges.sum();
+    }
+
+    @Override
+    public int getSize() {
+        return size.getAsInt();
+    }
+
+    @Override
+    public int getHeight() {
+        return height.getAsInt();
+    }
+
+    @Override
+    public long getGetLatencyP50() {
+        return getLatency.percentile(50);
+    }
+
+    @Override
+    public long getGetLatencyP99() {
+        return getLatency.percentile(99);
+    }
+
+    @Override
+    public long getGetLatencyP999() {
+        return getLatency.percentile(99.9);
+    }
+
+    @Override
+    public long getGetLatencyMax() {
+        return getLatency.getMax();
+    }
+
+    @Override
+    public long getPutLatencyP50() {
+        return putLatency.percentile(50);
+    }
+
+    @Override
+    public long getPutLatencyP99() {
+        return putLatency.percentile(99);
+    }
+
+    @Override
+    public long getPutLatencyP999() {
+        return putLatency.percentile(99.9);
+    }
+
+    @Override
+    public long getPutLatencyMax() {
+        return putLatency.getMax();
+    }
+
+    @Override
+    public long getRemoveLatencyP50() {
+        return removeLatency.percentile(50);
+    }
+
+    @Override
+    public long getRemoveLatencyP99() {
+        return removeLatency.percentile(99);
+    }
+
+    @Override
+    public long getRemoveLatencyP999() {
+        return removeLatency.percentile(99.9);
+    }
+
+    @Override
+    public long getRemoveLatencyMax() {
+        return removeLatency.getMax();
+    }
+
+    @Override
+    public void reset() {
+        gets.reset();
+        hits.reset();
+        misses.reset();
+        puts.reset();
+        removes.reset();
+        splits.reset();
+        merges.reset();
+        borrows.reset();
+        rootHeightChanges.reset();
+        getLatency.reset();
+        putLatency.reset();
+        removeLatency.reset();
+    }
+}
@@ -0,0 +1,59 @@
+package map.metrics;
+
+/**
+ * JMX интерфейс метрик дерева.
+ * Время задержек указывается в наносекундах и строится по выборке операций
+ */
+public interface TreeMetricsMBean {
+
+    long getGets();
+
+    long getHits();
+
+    long getMisses();
+
+    long getPuts();
+
+    long getRemoves();
+
+    long getSplits();
+
+    long getMerges();
+
+    long getBorrows();
+
+    long getRootHeightChanges();
+
+    int getSize();
+
+    int getHeight();
+
+    long getGetLatencyP50();
+
+    long getGetLatencyP99();
+
+    long getGetLatencyP999();
+
+    long getGetLatencyMax();
+
+    long getPutLatencyP50();
+
+    long getPutLatencyP99();
+
+    long getPutLatencyP999();
+
+    long getPutLatencyMax();
+
+    long getRemoveLatencyP50();
+
+    long getRemoveLatencyP99();
+
+    long getRemoveLatencyP999();
+
+    long getRemoveLatencyMax();
+
+    /**
+     * Обнуляет все счетчики и гистограммы
+     */
+    void reset();
+}
@@ -0,0 +1,381 @@
+package map.offheap;
+
+import map.BPlusTreeMap;
+import map.IMap;
+import map.TreeNodeView;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Карта с раздельным хранением значений для больших значений (сериализованных объектов
+ * в килобайты): ключи лежат в {@link BPlusTreeMap}, значения - в {@link ValueArena} вне кучи,
+ * а листья дерева хранят только дескрипторы записей. Сборщику мусора не нужно обходить
+ * и копировать сами значения.
+ * <p>
+ * Значения принимаются как {@link ByteBuffer} (байты от позиции до предела) или {@code byte[]}
+ * и копируются в хранилище; {@code get} возвращает срез хранилища только для чтения без копирования.
+ * Срез остается корректным и после перезаписи или удаления значения.
+ * <p>
+ * Перезаписанные и удаленные значения освобождают место в сегментах хранилища. Разреженные
+ * сегменты уплотняются по частям ({@link #compactValues(int)}) - вручную или фоновым потоком
+ * ({@link #startCompactor}): живые записи сегментов переносятся в конец хранилища, и опустевшие
+ * сегменты отпускаются. Все методы синхронизированы на карте, поэтому фоновое уплотнение
+ * можно запускать одновременно с работой с картой
+ *
+ * @param <K> Тип ключа
+ */
+public class OffHeapValueMap<K extends Comparable<? super K>> implements IMap {
+
+    /**
+     * Доля живых байт, ниже которой сегмент уплотняется
+     */
+    public static final double DEFAULT_MAX_LIVE_RATIO = 0.5;
+
+    /**
+     * Количество записей, проверяемых за один шаг фонового уплотнения
+     */
+    private static final int COMPACTOR_STEP = 1024;
+
+    /**
+     * Дескрипторы значений по ключам
+     */
+    private final BPlusTreeMap<K, Long> handles;
+    private final ValueArena arena;
+    private double maxLiveRatio = DEFAULT_MAX_LIVE_RATIO;
+
+    /**
+     * Идет проход уплотнения: разреженные сегменты отмечены
+     */
+    private boolean compacting;
+    /**
+     * Ключ, с которого продолжится уплотнение, {@code null} - начало карты
+     */
+    private K compactFrom;
+    private long relocatedBytes;
+
+    private Thread compactor;
+    private volatile boolean running;
+
+    public OffHeapValueMap(int treeDegree) {
+        this(treeDegree, ValueArena.DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param treeDegree степень дерева ключей
+     * @param segmentSize размер сегмента хранилища значений в байтах
+     */
+    public OffHeapValueMap(int treeDegree, int segmentSize) {
+        this.handles = new BPlusTreeMap<>(treeDegree);
+        this.arena = new ValueArena(segmentSize);
+    }
+
+    /**
+     * Помещает копию значения
+     * @param key ключ
+     * @param value {@link ByteBuffer} (байты от позиции до предела, позиция не меняется) или {@code byte[]}
+     * @return прежнее значение или {@code null}
+     */
+    @Override
+    public synchronized ByteBuffer put(Comparable key, Object value) {
+        long handle = arena.append(toBuffer(value));
+        Long old = handles.put(key, handle);
+        return old == null ? null : releaseAndRead(old);
+    }
+
+    private static ByteBuffer toBuffer(Object value) {
+        if (value instanceof ByteBuffer) {
+            return (ByteBuffer) value;
+        }
+        if (value instanceof byte[]) {
+            return ByteBuffer.wrap((byte[]) value);
+        }
+        throw new IllegalArgumentException("ЗНАЧЕНИЕ ДОЛЖНО БЫТЬ ByteBuffer ИЛИ byte[]: "
+                + (value == null ? null : value.getClass().getName()));
+    }
+
+    /**
+     * Освобождает запись и возвращает ее значение: срез остается корректным,
+     * так как освобожденные записи не перезаписываются
+     */
+    private ByteBuffer releaseAndRead(long handle) {
+        ByteBuffer value = arena.read(handle);
+        arena.release(handle);
+        return value;
+    }
+
+    /**
+     * Возвращает значение без копирования
+     * @param key ключ
+     * @return срез только для чтения или {@code null}
+     */
+    @Override
+    public synchronized ByteBuffer get(Comparable key) {
+        Long handle = handles.get(key);
+        return handle == null ? null : arena.read(handle);
+    }
+
+    @Override
+    public synchronized ByteBuffer remove(Comparable key) {
+        Long handle = handles.remove(key);
+        return handle == null ? null : releaseAndRead(handle);
+    }
+
+    /**
+     * Удаляет записи диапазона [from; to): записи хранилища освобождаются по одной,
+     * а ключи удаляются из дерева целыми поддеревьями ({@link BPlusTreeMap#removeRange})
+     * @return количество удаленных записей
+     */
+    @Override
+    public synchronized int removeRange(Comparable from, Comparable to) {
+        Iterator<Map.Entry<K, Long>> iterator = handles.entries(from, to);
+        while (iterator.hasNext()) {
+            arena.release(iterator.next().getValue());
+        }
+        return handles.removeRange(from, to);
+    }
+
+    @Override
+    public synchronized void clear() {
+        handles.clear();
+        arena.clear();
+        compacting = false;
+        compactFrom = null;
+    }
+
+    @Override
+    public synchronized int size() {
+        return handles.size();
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        return handles.isEmpty();
+    }
+
+    /**
+     * Итератор по парам диапазона [from; to). Каждый шаг итератора выполняется под блокировкой
+     * карты; уплотнение значений не меняет структуру дерева и итератору не мешает
+     */
+    @Override
+    public synchronized Iterator<Map.Entry<K, ByteBuffer>> entries(Comparable from, Comparable to) {
+        Iterator<Map.Entry<K, Long>> iterator = handles.entries(from, to);
+        return new Iterator<Map.Entry<K, ByteBuffer>>() {
+            @Override
+            public boolean hasNext() {
+                synchronized (OffHeapValueMap.this) {
+                    return iterator.hasNext();
+                }
+            }
+
+            @Override
+            public Map.Entry<K, ByteBuffer> next() {
+                synchronized (OffHeapValueMap.this) {
+                    if (!iterator.hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    Map.Entry<K, Long> entry = iterator.next();
+                    return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), arena.read(entry.getValue()));
+                }
+            }
+        };
+    }
+
+    /**
+     * Выполняет шаг уплотнения хранилища значений. Если уплотнение не идет, отмечаются сегменты,
+     * в которых живых байт меньше заданной доли ({@link #setMaxLiveRatio}); затем записи карты
+     * проверяются по возрастанию ключей, и записи отмеченных сегментов переносятся в конец хранилища.
+     * Сегмент отпускается, как только из него перенесена последняя живая запись
+     * @param maxEntries наибольшее количество записей, проверяемых за шаг
+     * @return {@code true}, если уплотнение еще не закончено
+     */
+    public synchronized boolean compactValues(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ РАЗМЕР ШАГА: " + maxEntries);
+        }
+        if (!compacting) {
+            if (arena.markSparse(maxLiveRatio) == 0) {
+                return false;
+            }
+            compacting = true;
+            compactFrom = null;
+        }
+        List<K> keys = new ArrayList<>();
+        List<Long> moved = new ArrayList<>();
+        Iterator<Map.Entry<K, Long>> iterator = handles.entries(compactFrom, null);
+        int checked = 0;
+        while (checked < maxEntries && iterator.hasNext()) {
+            Map.Entry<K, Long> entry = iterator.next();
+            if (arena.isSparse(entry.getValue())) {
+                keys.add(entry.getKey());
+                moved.add(entry.getValue());
+            }
+            checked++;
+        }
+        compactFrom = iterator.hasNext() ? iterator.next().getKey() : null;
+        // дескрипторы меняются после обхода: замена значения не меняет структуру дерева
+        for (int i = 0; i < keys.size(); i++) {
+            relocatedBytes += arena.length(moved.get(i));
+            handles.put(keys.get(i), arena.relocate(moved.get(i)));
+        }
+        if (compactFrom == null) {
+            compacting = false;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Уплотняет хранилище значений целиком
+     * @return количество освобожденных байт хранилища
+     */
+    public synchronized long compactValues() {
+        long before = arena.getAllocatedBytes();
+        while (compactValues(Integer.MAX_VALUE)) {
+            // до конца карты
+        }
+        return before - arena.getAllocatedBytes();
+    }
+
+    /**
+     * Запускает фоновое уплотнение: поток выполняет шаги {@link #compactValues(int)}, пока
+     * есть разреженные сегменты, и проверяет их заново через заданный интервал
+     * @param period интервал между проверками
+     * @param unit единица измерения интервала
+     */
+    public synchronized void startCompactor(long period, TimeUnit unit) {
+        if (compactor != null) {
+            throw new IllegalStateException("УПЛОТНЕНИЕ УЖЕ ЗАПУЩЕНО");
+        }
+        long millis = Math.max(1, unit.toMillis(period));
+        running = true;
+        compactor = new Thread(() -> {
+            try {
+                while (running) {
+                    if (!compactValues(COMPACTOR_STEP)) {
+                        Thread.sleep(millis);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "offheap-compactor");
+        compactor.setDaemon(true);
+        compactor.start();
+    }
+
+    /**
+     * Останавливает фоновое уплотнение и дожидается завершения потока
+     */
+    public void stopCompactor() throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = compactor;
+            compactor = null;
+        }
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        thread.interrupt();
+        thread.join();
+    }
+
+    /**
+     * @param maxLiveRatio доля живых байт, ниже которой сегмент уплотняется, от 0 до 1
+     */
+    public synchronized void setMaxLiveRatio(double maxLiveRatio) {
+        if (!(maxLiveRatio >= 0 && maxLiveRatio <= 1)) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНАЯ ДОЛЯ ЖИВЫХ БАЙТ: " + maxLiveRatio);
+        }
+        this.maxLiveRatio = maxLiveRatio;
+    }
+
+    /**
+     * Байты живых значений в хранилище вместе с заголовками записей
+     */
+    public synchronized long getLiveBytes() {
+        return arena.getLiveBytes();
+    }
+
+    /**
+     * Емкость сегментов хранилища (память вне кучи)
+     */
+    public synchronized long getAllocatedBytes() {
+        return arena.getAllocatedBytes();
+    }
+
+    public synchronized int getSegmentCount() {
+        return arena.getSegmentCount();
+    }
+
+    /**
+     * Байты значений, перенесенных уплотнением
+     */
+    public synchronized long getRelocatedBytes() {
+        return relocatedBytes;
+    }
+
+    /**
+     * Представление дерева ключей: значения читаются из хранилища. Представление живое:
+     * обходить его, пока карту изменяют другие потоки, можно только под блокировкой карты
+     * (так делает {@code TreantTreeIMapServer} по умолчанию). Чтение значения само берет
+     * блокировку, поэтому уплотнение не может перенести или освободить его во время чтения
+     */
+    @Override
+    public synchronized TreeNodeView<K, ByteBuffer> rootView() {
+        return new NodeView(handles.rootView());
+    }
+
+    /**
+     * Представление узла дерева ключей, раскрывающее значения записей
+     */
+    private final class NodeView implements TreeNodeView<K, ByteBuffer> {
+
+        private final TreeNodeView<K, Long> node;
+
+        NodeView(TreeNodeView<K, Long> node) {
+            this.node = node;
+        }
+
+        @Override
+        public int keyCount() {
+            return node.keyCount();
+        }
+
+        @Override
+        public K key(int index) {
+            return node.key(index);
+        }
+
+        @Override
+        public boolean hasValues() {
+            return node.hasValues();
+        }
+
+        @Override
+        public ByteBuffer value(int index) {
+            // дескриптор читается под той же блокировкой, что и значение: уплотнение меняет дескрипторы
+            synchronized (OffHeapValueMap.this) {
+                Long handle = node.value(index);
+                return handle == null ? null : arena.read(handle);
+            }
+        }
+
+        @Override
+        public int childCount() {
+            return node.childCount();
+        }
+
+        @Override
+        public TreeNodeView<K, ByteBuffer> child(int index) {
+            return new NodeView(node.child(index));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package map.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Хранилище значений вне кучи: значения дописываются в сегменты - прямые {@link ByteBuffer}
+ * фиксированного размера, а наружу выдается дескриптор {@code long} (номер сегмента в старших
+ * 32 битах, смещение записи - в младших). Запись - длина значения ({@code int}) и его байты.
+ * Сборщик мусора видит только объекты сегментов, а не каждое значение.
+ * <p>
+ * Записи не перезаписываются и не переиспользуются: освобожденная запись лишь уменьшает
+ * счетчик живых байт своего сегмента. Сегмент, в котором не осталось живых записей,
+ * отпускается (его память вернется вместе с объектом буфера), а живые записи разреженных
+ * сегментов переносятся владельцем хранилища ({@link #relocate}). Поэтому срез, выданный
+ * {@link #read}, остается корректным и после освобождения или переноса записи.
+ * Значения длиннее сегмента получают отдельный сегмент своего размера.
+ * <p>
+ * Хранилище не потокобезопасно
+ */
+public final class ValueArena {
+
+    /**
+     * Размер сегмента по умолчанию, 4 МиБ
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 22;
+
+    /**
+     * Размер заголовка записи (длина значения)
+     */
+    private static final int HEADER = 4;
+
+    /**
+     * Сегмент, количество живых байт в нем (вместе с заголовками) и отметка разреженности
+     */
+    private static final class Segment {
+        final ByteBuffer buffer;
+        long liveBytes;
+        boolean sparse;
+
+        Segment(int capacity) {
+            buffer = ByteBuffer.allocateDirect(capacity);
+        }
+    }
+
+    private final int segmentSize;
+    /**
+     * Сегменты по номерам, отпущенный сегмент - {@code null}
+     */
+    private final List<Segment> segments = new ArrayList<>();
+    /**
+     * Номера отпущенных сегментов для повторного использования
+     */
+    private final Deque<Integer> freeIds = new ArrayDeque<>();
+    /**
+     * Сегмент, в который дописываются значения, или {@code null}
+     */
+    private Segment active;
+    private int activeId = -1;
+    private long liveBytes;
+    private long allocatedBytes;
+
+    public ValueArena() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize размер сегмента в байтах
+     */
+    public ValueArena(int segmentSize) {
+        if (segmentSize <= HEADER) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНЫЙ РАЗМЕР СЕГМЕНТА: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Дописывает значение
+     * @param value байты от позиции до предела буфера; позиция буфера не меняется
+     * @return дескриптор записи
+     */
+    public long append(ByteBuffer value) {
+        int length = value.remaining();
+        long need = (long) HEADER + length;
+        if (need > segmentSize) {
+            if (need > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("СЛИШКОМ БОЛЬШОЕ ЗНАЧЕНИЕ: " + length);
+            }
+            // отдельный сегмент ровно под значение, дописывать в него больше нечего
+            return write(allocate((int) need), value);
+        }
+        if (active == null || active.buffer.remaining() < need) {
+            Segment previous = active;
+            int previousId = activeId;
+            activeId = allocate(segmentSize);
+            active = segments.get(activeId);
+            if (previous != null && previous.liveBytes == 0) {
+                free(previousId);
+            }
+        }
+        return write(activeId, value);
+    }
+
+    private long write(int id, ByteBuffer value) {
+        Segment segment = segments.get(id);
+        int offset = segment.buffer.position();
+        segment.buffer.putInt(value.remaining());
+        segment.buffer.put(value.duplicate());
+        long recordBytes = segment.buffer.position() - offset;
+        segment.liveBytes += recordBytes;
+        liveBytes += recordBytes;
+        return (long) id << 32 | offset;
+    }
+
+    private int allocate(int capacity) {
+        Segment segment = new Segment(capacity);
+        allocatedBytes += capacity;
+        if (freeIds.isEmpty()) {
+            segments.add(segment);
+            return segments.size() - 1;
+        }
+        int id = freeIds.poll();
+        segments.set(id, segment);
+        return id;
+    }
+
+    /**
+     * Значение записи без копирования
+     * @param handle дескриптор живой записи
+     * @return срез сегмента только для чтения: позиция 0, предел - длина значения
+     */
+    public ByteBuffer read(long handle) {
+        ByteBuffer buffer = segment(handle).buffer;
+        int offset = offset(handle);
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + HEADER + buffer.getInt(offset));
+        view.position(offset + HEADER);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Длина значения записи
+     * @param handle дескриптор живой записи
+     * @return длина в байтах
+     */
+    public int length(long handle) {
+        return segment(handle).buffer.getInt(offset(handle));
+    }
+
+    /**
+     * Освобождает запись. Сегмент без живых записей отпускается, если в него больше не дописывают
+     * @param handle дескриптор живой записи
+     */
+    public void release(long handle) {
+        int id = segmentId(handle);
+        Segment segment = segment(handle);
+        long recordBytes = HEADER + (long) segment.buffer.getInt(offset(handle));
+        segment.liveBytes -= recordBytes;
+        liveBytes -= recordBytes;
+        if (segment.liveBytes == 0 && segment != active) {
+            free(id);
+        }
+    }
+
+    private void free(int id) {
+        allocatedBytes -= segments.get(id).buffer.capacity();
+        segments.set(id, null);
+        freeIds.push(id);
+    }
+
+    /**
+     * Переносит запись в конец хранилища и освобождает старую
+     * @param handle дескриптор живой записи
+     * @return новый дескриптор
+     */
+    public long relocate(long handle) {
+        long moved = append(read(handle));
+        release(handle);
+        return moved;
+    }
+
+    /**
+     * Отмечает сегменты, в которых живые байты занимают меньше заданной доли емкости, и снимает
+     * отметку с остальных. Сегмент, в который сейчас дописываются значения, не отмечается, а новые
+     * сегменты создаются неотмеченными, поэтому отметки не переходят к сегменту с тем же номером
+     * @param maxLiveRatio доля живых байт, ниже которой сегмент считается разреженным
+     * @return количество отмеченных сегментов
+     */
+    public int markSparse(double maxLiveRatio) {
+        int marked = 0;
+        for (Segment segment : segments) {
+            if (segment != null) {
+                segment.sparse = segment != active && segment.liveBytes < maxLiveRatio * segment.buffer.capacity();
+                marked += segment.sparse ? 1 : 0;
+            }
+        }
+        return marked;
+    }
+
+    /**
+     * Проверяет, лежит ли запись в отмеченном сегменте ({@link #markSparse})
+     * @param handle дескриптор живой записи
+     */
+    public boolean isSparse(long handle) {
+        return segment(handle).sparse;
+    }
+
+    private static int segmentId(long handle) {
+        return (int) (handle >>> 32);
+    }
+
+    private static int offset(long handle) {
+        return (int) handle;
+    }
+
+    private Segment segment(long handle) {
+        int id = segmentId(handle);
+        Segment segment = id < segments.size() ? segments.get(id) : null;
+        if (segment == null) {
+            throw new IllegalStateException("СЕГМЕНТ ОСВОБОЖДЕН: " + id);
+        }
+        return segment;
+    }
+
+    /**
+     * Отпускает все сегменты
+     */
+    public void clear() {
+        segments.clear();
+        freeIds.clear();
+        active = null;
+        activeId = -1;
+        liveBytes = 0;
+        allocatedBytes = 0;
+    }
+
+    /**
+     * Байты живых записей вместе с заголовками
+     */
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Емкость всех неотпущенных сегментов
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * Количество неотпущенных сегментов
+     */
+    public int getSegmentCount() {
+        return segments.size() - freeIds.size();
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+}
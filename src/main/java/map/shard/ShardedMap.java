@@ -0,0 +1,712 @@
+package map.shard;
+
+import map.BPlusTreeMap;
+import map.IMap;
+import map.TreeNodeView;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Потокобезопасная карта, разбивающая пространство ключей на диапазоны (шарды).
+ * Каждый шард - независимое {@link BPlusTreeMap} со своей блокировкой чтения-записи,
+ * поэтому потоки, работающие с разными диапазонами, не мешают друг другу, а общего корня нет.
+ * <p>
+ * Разбиение хранится в неизменяемом массиве границ, который заменяется целиком при каждом
+ * изменении состава шардов; операция находит шард бинарным поиском по границам без блокировок
+ * и захватывает только его блокировку. Шард, выведенный из разбиения, помечается списанным
+ * под своей блокировкой записи, и операция, успевшая его выбрать, повторяет поиск по новому разбиению.
+ * <p>
+ * Границы подстраиваются под данные: начальные можно вычислить по выборке ключей
+ * ({@link #ShardedMap(int, int, Collection)}), а {@link #rebalance()} (например, по расписанию
+ * из служебного потока) делит горячие шарды и объединяет холодные соседние, пока остальные шарды
+ * продолжают работать. Каждая операция с небольшой вероятностью запоминает свой ключ в выборке шарда,
+ * и точка деления горячего шарда - медиана этой выборки, т.е. шард делится пополам по нагрузке,
+ * а не по количеству ключей.
+ * <p>
+ * {@link #entries(Comparable, Comparable)} сшивает шарды по порядку и читает их пачками
+ * по {@value #SCAN_BATCH} пар, отпуская блокировку между пачками: итератор слабо согласован и
+ * не мешает записи. {@link #forEachParallel(Comparable, Comparable, BiConsumer)} обходит шарды параллельно
+ *
+ * @param <K> Тип ключа
+ * @param <V> Тип значения
+ */
+public class ShardedMap<K extends Comparable<? super K>, V> implements IMap {
+
+    /**
+     * Количество пар, читаемых итератором под одной блокировкой шарда
+     */
+    private static final int SCAN_BATCH = 256;
+    /**
+     * Размер выборки ключей шарда
+     */
+    private static final int SAMPLE_SIZE = 64;
+    /**
+     * Вероятность попадания ключа операции в выборку - 1 / SAMPLE_RATE
+     */
+    private static final int SAMPLE_RATE = 64;
+    /**
+     * Во сколько раз нагрузка шарда должна превышать среднюю, чтобы он считался горячим
+     */
+    private static final double HOT_FACTOR = 2.0;
+
+    /**
+     * Шард: дерево диапазона [lower; upper) и его блокировка. Границы шарда не меняются;
+     * при перестройке разбиения шард списывается и заменяется новыми
+     */
+    private static final class Shard<K extends Comparable<? super K>, V> {
+        final K lower;
+        final K upper;
+        final BPlusTreeMap<K, V> map;
+        final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        /**
+         * Количество операций с момента последней перестройки
+         */
+        final LongAdder operations = new LongAdder();
+        /**
+         * Выборка ключей операций (запись без синхронизации: потерянный ключ выборке не вредит)
+         */
+        final Object[] sample = new Object[SAMPLE_SIZE];
+        /**
+         * Шард выведен из разбиения (меняется и читается под блокировкой)
+         */
+        boolean retired;
+
+        Shard(K lower, K upper, BPlusTreeMap<K, V> map) {
+            this.lower = lower;
+            this.upper = upper;
+            this.map = map;
+        }
+
+        boolean contains(K key) {
+            return (lower == null || key.compareTo(lower) >= 0) && (upper == null || key.compareTo(upper) < 0);
+        }
+    }
+
+    /**
+     * Разбиение: шарды по возрастанию диапазонов
+     */
+    private static final class Topology<K extends Comparable<? super K>, V> {
+        final Shard<K, V>[] shards;
+
+        Topology(Shard<K, V>[] shards) {
+            this.shards = shards;
+        }
+
+        /**
+         * Индекс шарда, содержащего ключ ({@code null} - наименьший ключ)
+         */
+        int indexOf(K key) {
+            if (key == null) {
+                return 0;
+            }
+            int low = 1;
+            int high = shards.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                if (shards[middle].lower.compareTo(key) <= 0) {
+                    low = middle + 1;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            return low - 1;
+        }
+
+        /**
+         * Новое разбиение, в котором шарды [from; to) заменены на {@code replacement}
+         */
+        @SuppressWarnings("unchecked")
+        Topology<K, V> replace(int from, int to, Shard<K, V>... replacement) {
+            Shard<K, V>[] result = new Shard[shards.length - (to - from) + replacement.length];
+            System.arraycopy(shards, 0, result, 0, from);
+            System.arraycopy(replacement, 0, result, from, replacement.length);
+            System.arraycopy(shards, to, result, from + replacement.length, shards.length - to);
+            return new Topology<>(result);
+        }
+    }
+
+    /**
+     * Степень деревьев шардов
+     */
+    private final int treeDegree;
+    /**
+     * Желаемое количество шардов
+     */
+    private final int shardCount;
+    /**
+     * Текущее разбиение
+     */
+    private volatile Topology<K, V> topology;
+
+    /**
+     * Создает карту из одного шарда; шарды появятся при {@link #rebalance()}
+     * @param treeDegree степень деревьев шардов
+     * @param shardCount желаемое количество шардов
+     */
+    public ShardedMap(int treeDegree, int shardCount) {
+        this(treeDegree, shardCount, Collections.<K>emptyList());
+    }
+
+    /**
+     * Создает карту с границами шардов в квантилях выборки ключей
+     * @param treeDegree степень деревьев шардов
+     * @param shardCount желаемое количество шардов
+     * @param sample выборка ожидаемых ключей (может быть пустой)
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedMap(int treeDegree, int shardCount, Collection<? extends K> sample) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНОЕ КОЛИЧЕСТВО ШАРДОВ: " + shardCount);
+        }
+        this.treeDegree = treeDegree;
+        this.shardCount = shardCount;
+        List<K> bounds = quantiles(new ArrayList<>(sample), shardCount);
+        Shard<K, V>[] shards = new Shard[bounds.size() + 1];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard<>(i == 0 ? null : bounds.get(i - 1), i == bounds.size() ? null : bounds.get(i),
+                    new BPlusTreeMap<>(treeDegree));
+        }
+        this.topology = new Topology<>(shards);
+    }
+
+    /**
+     * Различные границы, делящие отсортированную выборку на {@code parts} равных частей
+     */
+    private static <K extends Comparable<? super K>> List<K> quantiles(List<K> sample, int parts) {
+        Collections.sort(sample);
+        List<K> bounds = new ArrayList<>();
+        for (int i = 1; i < parts && !sample.isEmpty(); i++) {
+            K bound = sample.get((int) ((long) i * sample.size() / parts));
+            if (bounds.isEmpty() || bounds.get(bounds.size() - 1).compareTo(bound) < 0) {
+                bounds.add(bound);
+            }
+        }
+        if (!bounds.isEmpty() && bounds.get(0).compareTo(sample.get(0)) <= 0) {
+            bounds.remove(0);
+        }
+        return bounds;
+    }
+
+    @Override
+    public V get(Comparable key) {
+        Shard<K, V> shard = acquire((K) key, false);
+        try {
+            return shard.map.get(key);
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public V put(Comparable key, Object value) {
+        Shard<K, V> shard = acquire((K) key, true);
+        try {
+            return shard.map.put(key, value);
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public V remove(Comparable key) {
+        Shard<K, V> shard = acquire((K) key, true);
+        try {
+            return shard.map.remove(key);
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Захватывает блокировку шарда, содержащего ключ, и учитывает операцию в его нагрузке
+     * @param key ключ
+     * @param write захватить блокировку записи, иначе - чтения
+     * @return шард с захваченной блокировкой
+     */
+    private Shard<K, V> acquire(K key, boolean write) {
+        if (key == null) {
+            throw new NullPointerException("КЛЮЧ НЕ МОЖЕТ БЫТЬ NULL");
+        }
+        while (true) {
+            Topology<K, V> current = topology;
+            Shard<K, V> shard = current.shards[current.indexOf(key)];
+            Lock lock = write ? shard.lock.writeLock() : shard.lock.readLock();
+            lock.lock();
+            if (!shard.retired) {
+                shard.operations.increment();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                if (random.nextInt(SAMPLE_RATE) == 0) {
+                    shard.sample[random.nextInt(SAMPLE_SIZE)] = key;
+                }
+                return shard;
+            }
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Shard<K, V> shard : topology.shards) {
+            shard.lock.readLock().lock();
+            try {
+                // списанный шард пуст: его пары уже во вновь опубликованном разбиении
+                size += shard.retired ? 0 : shard.map.size();
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Shard<K, V> shard : topology.shards) {
+            shard.lock.readLock().lock();
+            try {
+                if (!shard.retired && !shard.map.isEmpty()) {
+                    return false;
+                }
+            } finally {
+                shard.lock.readLock().unlock();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Очищает все шарды, сохраняя их границы
+     */
+    @Override
+    public synchronized void clear() {
+        Shard<K, V>[] shards = topology.shards;
+        Shard<K, V>[] fresh = shards.clone();
+        for (int i = 0; i < shards.length; i++) {
+            fresh[i] = new Shard<>(shards[i].lower, shards[i].upper, new BPlusTreeMap<>(treeDegree));
+        }
+        for (Shard<K, V> shard : shards) {
+            shard.lock.writeLock().lock();
+        }
+        topology = new Topology<>(fresh);
+        for (Shard<K, V> shard : shards) {
+            shard.retired = true;
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Удаляет пары диапазона [from; to): шарды, пересекающиеся с диапазоном, обрабатываются
+     * по очереди под своей блокировкой записи ({@link BPlusTreeMap#removeRange}). Удаление атомарно
+     * в пределах шарда, но не диапазона целиком: параллельные операции могут увидеть
+     * уже очищенные шарды рядом с еще не тронутыми
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @return количество удаленных пар
+     */
+    @Override
+    public int removeRange(Comparable from, Comparable to) {
+        if (from != null && to != null && from.compareTo(to) >= 0) {
+            return 0;
+        }
+        int removed = 0;
+        K resume = (K) from;
+        while (true) {
+            Shard<K, V> shard = acquireForScan(resume, true);
+            try {
+                removed += shard.map.removeRange(resume, to);
+                if (shard.upper == null || (to != null && to.compareTo(shard.upper) <= 0)) {
+                    return removed;
+                }
+                resume = shard.upper;
+            } finally {
+                shard.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Итератор пар диапазона [from; to) по возрастанию ключей. Шарды читаются по очереди пачками,
+     * блокировка шарда удерживается только на время чтения пачки. Итератор видит изменения,
+     * сделанные после его создания, не более одного раза на пару и никогда не бросает
+     * {@link ConcurrentModificationException}
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> entries(Comparable from, Comparable to) {
+        return new Iterator<Map.Entry<K, V>>() {
+
+            private final List<Map.Entry<K, V>> batch = new ArrayList<>(SCAN_BATCH);
+            private int position;
+            /**
+             * Ключ, с которого читается следующая пачка
+             */
+            private K resume = (K) from;
+            /**
+             * Включать ли в следующую пачку сам ключ {@code resume}
+             */
+            private boolean inclusive = true;
+            private boolean exhausted = to != null && from != null && from.compareTo(to) >= 0;
+
+            @Override
+            public boolean hasNext() {
+                while (position == batch.size() && !exhausted) {
+                    fill();
+                }
+                return position < batch.size();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.get(position++);
+            }
+
+            private void fill() {
+                batch.clear();
+                position = 0;
+                Shard<K, V> shard = acquireForScan(resume, false);
+                try {
+                    Iterator<Map.Entry<K, V>> iterator = shard.map.entries(resume, to);
+                    while (batch.size() < SCAN_BATCH && iterator.hasNext()) {
+                        Map.Entry<K, V> entry = iterator.next();
+                        if (inclusive || entry.getKey().compareTo(resume) != 0) {
+                            batch.add(entry);
+                        }
+                    }
+                    if (batch.size() == SCAN_BATCH) {
+                        resume = batch.get(SCAN_BATCH - 1).getKey();
+                        inclusive = false;
+                    } else if (shard.upper == null || (to != null && to.compareTo(shard.upper) <= 0)) {
+                        exhausted = true;
+                    } else {
+                        resume = shard.upper;
+                        inclusive = true;
+                    }
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+        };
+    }
+
+    /**
+     * Захватывает блокировку шарда, содержащего ключ, без учета нагрузки
+     * @param key ключ, {@code null} - наименьший
+     * @param write захватить блокировку записи, иначе - чтения
+     */
+    private Shard<K, V> acquireForScan(K key, boolean write) {
+        while (true) {
+            Topology<K, V> current = topology;
+            Shard<K, V> shard = current.shards[current.indexOf(key)];
+            Lock lock = write ? shard.lock.writeLock() : shard.lock.readLock();
+            lock.lock();
+            if (!shard.retired) {
+                return shard;
+            }
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Параллельно обходит все пары в {@link ForkJoinPool#commonPool()}
+     * @param action действие; вызывается одновременно из разных потоков
+     */
+    public void forEachParallel(BiConsumer<? super K, ? super V> action) {
+        forEachParallel(null, null, action);
+    }
+
+    /**
+     * Параллельно обходит пары диапазона [from; to) в {@link ForkJoinPool#commonPool()}
+     * @see #forEachParallel(Comparable, Comparable, BiConsumer, Executor)
+     */
+    public void forEachParallel(K from, K to, BiConsumer<? super K, ? super V> action) {
+        forEachParallel(from, to, action, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Параллельно обходит пары диапазона [from; to): каждый шард, пересекающийся с диапазоном,
+     * обходится отдельной задачей под своей блокировкой чтения. Внутри шарда пары идут по возрастанию,
+     * порядок между шардами не определен. Метод возвращается, когда все задачи завершены
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param to верхняя граница (не включительно), {@code null} - до наибольшего ключа
+     * @param action действие; вызывается одновременно из разных потоков
+     * @param executor исполнитель задач
+     */
+    public void forEachParallel(K from, K to, BiConsumer<? super K, ? super V> action, Executor executor) {
+        Topology<K, V> current = topology;
+        int first = current.indexOf(from);
+        int last = to == null ? current.shards.length - 1 : current.indexOf(to);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>(last - first + 1);
+        for (int i = first; i <= last; i++) {
+            Shard<K, V> shard = current.shards[i];
+            tasks.add(CompletableFuture.runAsync(() -> scan(shard, from, to, action), executor));
+        }
+        try {
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Обходит пересечение шарда с диапазоном [from; to). Если шард успели списать,
+     * его диапазон обходится итератором по новому разбиению
+     */
+    private void scan(Shard<K, V> shard, K from, K to, BiConsumer<? super K, ? super V> action) {
+        K low = from == null || (shard.lower != null && shard.lower.compareTo(from) > 0) ? shard.lower : from;
+        K high = to == null || (shard.upper != null && shard.upper.compareTo(to) < 0) ? shard.upper : to;
+        shard.lock.readLock().lock();
+        try {
+            if (!shard.retired) {
+                Iterator<Map.Entry<K, V>> iterator = shard.map.entries(low, high);
+                while (iterator.hasNext()) {
+                    Map.Entry<K, V> entry = iterator.next();
+                    action.accept(entry.getKey(), entry.getValue());
+                }
+                return;
+            }
+        } finally {
+            shard.lock.readLock().unlock();
+        }
+        Iterator<Map.Entry<K, V>> iterator = entries(low, high);
+        while (iterator.hasNext()) {
+            Map.Entry<K, V> entry = iterator.next();
+            action.accept(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Количество шардов
+     * @return шардов в текущем разбиении
+     */
+    public int shardCount() {
+        return topology.shards.length;
+    }
+
+    /**
+     * Текущие границы шардов (нижние границы всех шардов, кроме первого)
+     * @return границы по возрастанию
+     */
+    public List<K> splitPoints() {
+        Shard<K, V>[] shards = topology.shards;
+        List<K> bounds = new ArrayList<>(shards.length - 1);
+        for (int i = 1; i < shards.length; i++) {
+            bounds.add(shards[i].lower);
+        }
+        return bounds;
+    }
+
+    /**
+     * Перестраивает разбиение по нагрузке с прошлой перестройки (количество операций,
+     * а без операций - количество пар): пока шардов меньше желаемого, делит самый нагруженный;
+     * затем делит горячий шард (нагрузка больше {@value #HOT_FACTOR} средних) и, если шардов
+     * стало больше желаемого, объединяет самую холодную пару соседей. Деревья затронутых шардов
+     * делятся и сливаются за O(log n) ({@link BPlusTreeMap#splitAt}, {@link BPlusTreeMap#join})
+     * под их блокировками записи, остальные шарды продолжают работать
+     * @return количество выполненных делений и объединений
+     */
+    public synchronized int rebalance() {
+        List<Long> load = new ArrayList<>();
+        long total = 0;
+        for (Shard<K, V> shard : topology.shards) {
+            long operations = shard.operations.sumThenReset();
+            load.add(operations);
+            total += operations;
+        }
+        if (total == 0) {
+            load.clear();
+            for (Shard<K, V> shard : topology.shards) {
+                shard.lock.readLock().lock();
+                try {
+                    load.add((long) shard.map.size());
+                } finally {
+                    shard.lock.readLock().unlock();
+                }
+            }
+        }
+
+        int changes = 0;
+        boolean split = true;
+        while (load.size() < shardCount && split) {
+            split = split(load, heaviest(load));
+            changes += split ? 1 : 0;
+        }
+        long sum = 0;
+        for (long value : load) {
+            sum += value;
+        }
+        int hot = heaviest(load);
+        if (load.size() > 1 && load.get(hot) > HOT_FACTOR * sum / load.size() && split(load, hot)) {
+            changes++;
+            // после деления горячий шард занимает позиции hot и hot + 1, их не объединяем
+            while (load.size() > shardCount) {
+                int coldest = -1;
+                for (int i = 0; i + 1 < load.size(); i++) {
+                    if (i + 1 >= hot && i <= hot + 1) {
+                        continue;
+                    }
+                    if (coldest < 0 || load.get(i) + load.get(i + 1) < load.get(coldest) + load.get(coldest + 1)) {
+                        coldest = i;
+                    }
+                }
+                if (coldest < 0) {
+                    break;
+                }
+                merge(load, coldest);
+                hot -= coldest < hot ? 1 : 0;
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Индекс шарда с наибольшей нагрузкой
+     */
+    private static int heaviest(List<Long> load) {
+        int result = 0;
+        for (int i = 1; i < load.size(); i++) {
+            if (load.get(i) > load.get(result)) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Делит шард по медиане выборки его ключей (или по медиане самих ключей, если выборка мала)
+     * @param load нагрузка шардов, обновляется вместе с разбиением
+     * @param index индекс шарда
+     * @return {@code false}, если шард слишком мал для деления
+     */
+    @SuppressWarnings("unchecked")
+    private boolean split(List<Long> load, int index) {
+        Topology<K, V> current = topology;
+        Shard<K, V> shard = current.shards[index];
+        shard.lock.writeLock().lock();
+        try {
+            BPlusTreeMap<K, V> map = shard.map;
+            if (map.size() < 2) {
+                return false;
+            }
+            K middle = sampledMedian(shard);
+            if (middle == null) {
+                Iterator<Map.Entry<K, V>> iterator = map.entries(null, null);
+                for (int i = 0; i < map.size() / 2; i++) {
+                    iterator.next();
+                }
+                middle = iterator.next().getKey();
+            }
+            // дерево делится за O(log n); его правая часть переходит в новый шард без копирования,
+            // а списанный шард к ней больше не обращается
+            BPlusTreeMap<K, V> left = map.splitAt(middle);
+            topology = current.replace(index, index + 1,
+                    new Shard<>(shard.lower, middle, left), new Shard<>(middle, shard.upper, map));
+            shard.retired = true;
+            long half = load.get(index) / 2;
+            load.set(index, load.get(index) - half);
+            load.add(index + 1, half);
+            return true;
+        } finally {
+            shard.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Медиана выборки ключей шарда, строго большая его наименьшего ключа
+     * @return ключ или {@code null}, если выборка слишком мала
+     */
+    @SuppressWarnings("unchecked")
+    private K sampledMedian(Shard<K, V> shard) {
+        List<K> keys = new ArrayList<>(SAMPLE_SIZE);
+        for (Object key : shard.sample) {
+            if (key != null && shard.contains((K) key)) {
+                keys.add((K) key);
+            }
+        }
+        if (keys.size() < SAMPLE_SIZE / 4) {
+            return null;
+        }
+        Collections.sort(keys);
+        K median = keys.get(keys.size() / 2);
+        Iterator<Map.Entry<K, V>> first = shard.map.entries(null, null);
+        return first.next().getKey().compareTo(median) < 0 ? median : null;
+    }
+
+    /**
+     * Объединяет соседние шарды
+     * @param load нагрузка шардов, обновляется вместе с разбиением
+     * @param index индекс левого шарда
+     */
+    private void merge(List<Long> load, int index) {
+        Topology<K, V> current = topology;
+        Shard<K, V> left = current.shards[index];
+        Shard<K, V> right = current.shards[index + 1];
+        left.lock.writeLock().lock();
+        right.lock.writeLock().lock();
+        try {
+            BPlusTreeMap<K, V> merged = left.map;
+            merged.join(right.map);
+            topology = current.replace(index, index + 2, new Shard<>(left.lower, right.upper, merged));
+            left.retired = true;
+            right.retired = true;
+            load.set(index, load.get(index) + load.remove(index + 1));
+        } finally {
+            right.lock.writeLock().unlock();
+            left.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Представление разбиения: корень без значений, ключи которого - границы шардов,
+     * а потомки - корни деревьев шардов. Действительно, пока карта не изменяется
+     */
+    @Override
+    public TreeNodeView<K, V> rootView() {
+        Shard<K, V>[] shards = topology.shards;
+        return new TreeNodeView<K, V>() {
+            @Override
+            public int keyCount() {
+                return shards.length - 1;
+            }
+
+            @Override
+            public K key(int index) {
+                return shards[index + 1].lower;
+            }
+
+            @Override
+            public boolean hasValues() {
+                return false;
+            }
+
+            @Override
+            public V value(int index) {
+                return null;
+            }
+
+            @Override
+            public int childCount() {
+                return shards.length;
+            }
+
+            @Override
+            public TreeNodeView<K, V> child(int index) {
+                return shards[index].map.rootView();
+            }
+        };
+    }
+}
@@ -0,0 +1,216 @@
+package map.spatial;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Кодирование точек с неотрицательными целыми координатами в Z-порядок (код Мортона):
+ * биты координат чередуются, бит {@code i} координаты {@code k} становится битом {@code i * d + k}
+ * кода. Близкие точки чаще всего получают близкие коды, а каждая координата монотонна
+ * в своих битах кода, поэтому попадание кода в прямоугольник проверяется масками без декодирования.
+ * <p>
+ * Код занимает не более 63 бит и сравнивается как обычный {@code long}: на координату
+ * приходится {@code 63 / d} бит (31 для двух измерений, 21 для трех).
+ * <p>
+ * Прямоугольник запроса {@code [min; max]} в Z-порядке - отрезок {@code [код(min); код(max)]},
+ * который содержит и точки вне прямоугольника. {@link #bigMin} и {@link #litMax} (Tropf, Herzog, 1981)
+ * находят ближайшие к заданному коду коды прямоугольника справа и слева: по ним обход
+ * перепрыгивает участки отрезка вне прямоугольника, а {@link #ranges} делит отрезок на части,
+ * между которыми нет ни одной точки прямоугольника
+ */
+public final class Morton {
+
+    private final int dimensions;
+    private final int bits;
+    /**
+     * Биты кода каждой координаты
+     */
+    private final long[] masks;
+
+    /**
+     * @param dimensions количество координат, от 1 до 63
+     */
+    public Morton(int dimensions) {
+        if (dimensions < 1 || dimensions > 63) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНОЕ КОЛИЧЕСТВО ИЗМЕРЕНИЙ: " + dimensions);
+        }
+        this.dimensions = dimensions;
+        this.bits = Math.min(31, 63 / dimensions);
+        this.masks = new long[dimensions];
+        for (int i = 0; i < bits; i++) {
+            for (int k = 0; k < dimensions; k++) {
+                masks[k] |= 1L << (i * dimensions + k);
+            }
+        }
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * Количество бит на координату
+     */
+    public int getBits() {
+        return bits;
+    }
+
+    /**
+     * Наибольшее допустимое значение координаты
+     */
+    public int maxCoordinate() {
+        return (int) ((1L << bits) - 1);
+    }
+
+    /**
+     * Код точки
+     * @param point координаты, от 0 до {@link #maxCoordinate()}
+     * @return код
+     */
+    public long encode(int... point) {
+        if (point.length != dimensions) {
+            throw new IllegalArgumentException("НЕВЕРНОЕ КОЛИЧЕСТВО КООРДИНАТ: " + point.length + " ВМЕСТО " + dimensions);
+        }
+        long code = 0;
+        for (int k = 0; k < dimensions; k++) {
+            int coordinate = point[k];
+            if (coordinate < 0 || coordinate > maxCoordinate()) {
+                throw new IllegalArgumentException("КООРДИНАТА ВНЕ ДИАПАЗОНА [0; " + maxCoordinate() + "]: " + coordinate);
+            }
+            for (int i = 0; coordinate != 0; i++, coordinate >>>= 1) {
+                code |= (long) (coordinate & 1) << (i * dimensions + k);
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Координаты точки по коду
+     * @param code код
+     * @return новый массив координат
+     */
+    public int[] decode(long code) {
+        int[] point = new int[dimensions];
+        for (int i = 0; i < bits; i++) {
+            for (int k = 0; k < dimensions; k++) {
+                point[k] |= (int) ((code >>> (i * dimensions + k)) & 1) << i;
+            }
+        }
+        return point;
+    }
+
+    /**
+     * Проверяет, лежит ли точка с кодом {@code code} в прямоугольнике с углами {@code min} и {@code max}
+     * @param code код точки
+     * @param min код нижнего угла
+     * @param max код верхнего угла
+     */
+    public boolean inBox(long code, long min, long max) {
+        for (long mask : masks) {
+            long value = code & mask;
+            if (value < (min & mask) || value > (max & mask)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * BIGMIN: наименьший код прямоугольника, больший {@code code}.
+     * Биты просматриваются от старшего; пока биты кода и углов совпадают, прямоугольник
+     * целиком по одну сторону от кода. Где верхний угол уходит правее кода, прямоугольник делится
+     * пополам по этой координате: левая половина продолжает поиск, а начало правой запоминается
+     * как кандидат
+     * @param code код, {@code min <= code < max}
+     * @param min код нижнего угла
+     * @param max код верхнего угла
+     * @return код или {@code -1}, если правее {@code code} в прямоугольнике точек нет
+     */
+    public long bigMin(long code, long min, long max) {
+        long bigMin = -1;
+        for (int position = bits * dimensions - 1; position >= 0; position--) {
+            long bit = 1L << position;
+            long lower = masks[position % dimensions] & (bit - 1);
+            boolean codeBit = (code & bit) != 0;
+            boolean minBit = (min & bit) != 0;
+            boolean maxBit = (max & bit) != 0;
+            if (!codeBit && !minBit && maxBit) {
+                bigMin = (min & ~lower) | bit;
+                max = (max | lower) & ~bit;
+            } else if (!codeBit && minBit && maxBit) {
+                return min;
+            } else if (codeBit && !minBit && !maxBit) {
+                return bigMin;
+            } else if (codeBit && !minBit && maxBit) {
+                min = (min & ~lower) | bit;
+            }
+        }
+        return bigMin;
+    }
+
+    /**
+     * LITMAX: наибольший код прямоугольника, меньший {@code code}. Симметричен {@link #bigMin}
+     * @param code код, {@code min < code <= max}
+     * @param min код нижнего угла
+     * @param max код верхнего угла
+     * @return код или {@code -1}, если левее {@code code} в прямоугольнике точек нет
+     */
+    public long litMax(long code, long min, long max) {
+        long litMax = -1;
+        for (int position = bits * dimensions - 1; position >= 0; position--) {
+            long bit = 1L << position;
+            long lower = masks[position % dimensions] & (bit - 1);
+            boolean codeBit = (code & bit) != 0;
+            boolean minBit = (min & bit) != 0;
+            boolean maxBit = (max & bit) != 0;
+            if (!codeBit && !minBit && maxBit) {
+                max = (max | lower) & ~bit;
+            } else if (!codeBit && minBit && maxBit) {
+                return litMax;
+            } else if (codeBit && !minBit && !maxBit) {
+                return max;
+            } else if (codeBit && !minBit && maxBit) {
+                litMax = (max | lower) & ~bit;
+                min = (min & ~lower) | bit;
+            }
+        }
+        return litMax;
+    }
+
+    /**
+     * Делит отрезок прямоугольника в Z-порядке на отрезки, между которыми нет точек прямоугольника.
+     * Отрезок делится по старшему различающемуся биту концов: левая часть заканчивается
+     * на {@link #litMax}, правая начинается с {@link #bigMin} точки деления. Каждая часть снова
+     * является отрезком прямоугольника, поэтому деление повторяется для самых длинных частей,
+     * пока отрезков меньше {@code maxRanges}
+     * @param min код нижнего угла
+     * @param max код верхнего угла
+     * @param maxRanges наибольшее количество отрезков
+     * @return отрезки {@code [начало, конец]} (включительно) по возрастанию
+     */
+    public List<long[]> ranges(long min, long max, int maxRanges) {
+        List<long[]> ranges = new ArrayList<>();
+        ranges.add(new long[]{min, max});
+        while (ranges.size() < maxRanges) {
+            int widest = -1;
+            for (int i = 0; i < ranges.size(); i++) {
+                long[] range = ranges.get(i);
+                if (range[0] != range[1] && (widest < 0 || range[1] - range[0] > ranges.get(widest)[1] - ranges.get(widest)[0])) {
+                    widest = i;
+                }
+            }
+            if (widest < 0) {
+                break;
+            }
+            long[] range = ranges.get(widest);
+            // точка деления - наименьший код с единицей в старшем различающемся бите концов
+            int position = 63 - Long.numberOfLeadingZeros(range[0] ^ range[1]);
+            long split = (range[1] & (-1L << position));
+            long left = litMax(split, range[0], range[1]);
+            long right = bigMin(split - 1, range[0], range[1]);
+            ranges.set(widest, new long[]{range[0], left});
+            ranges.add(widest + 1, new long[]{right, range[1]});
+        }
+        return ranges;
+    }
+}
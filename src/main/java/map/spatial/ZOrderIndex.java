@@ -0,0 +1,197 @@
+package map.spatial;
+
+import map.BPlusTreeMap;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Многомерный индекс точек (географические точки, {@code (x, y, время)} и т.п.) поверх {@link BPlusTreeMap}:
+ * ключ дерева - код Мортона точки ({@link Morton}), поэтому точки, близкие в пространстве,
+ * в основном лежат в соседних листьях. Каждой точке соответствует одно значение.
+ * <p>
+ * Запрос по прямоугольнику ({@link #query}) не просматривает весь отрезок его кодов. Отрезок
+ * можно разделить на несколько отрезков без промежутков вне прямоугольника ({@link #setMaxRanges},
+ * {@link Morton#ranges}); каждый отрезок обходится курсором дерева
+ * ({@link BPlusTreeMap.Cursor#ceilingEntry}): встретив код вне прямоугольника, обход перескакивает
+ * на {@link Morton#bigMin} - следующий код прямоугольника - вдоль цепочки листьев.
+ * Как и само дерево, индекс не потокобезопасен
+ *
+ * @param <V> Тип значения
+ */
+public class ZOrderIndex<V> {
+
+    /**
+     * Количество отрезков, на которые по умолчанию делится запрос: перескоки BIGMIN и так
+     * обходят промежутки вне прямоугольника, а каждый лишний отрезок - это поиск от пути курсора
+     */
+    public static final int DEFAULT_MAX_RANGES = 1;
+
+    private final Morton morton;
+    /**
+     * Значения по кодам точек
+     */
+    private final BPlusTreeMap<Long, V> points;
+    private int maxRanges = DEFAULT_MAX_RANGES;
+
+    /**
+     * @param dimensions количество координат
+     * @param treeDegree степень дерева
+     */
+    public ZOrderIndex(int dimensions, int treeDegree) {
+        this.morton = new Morton(dimensions);
+        this.points = new BPlusTreeMap<>(treeDegree);
+    }
+
+    public Morton getMorton() {
+        return morton;
+    }
+
+    /**
+     * @param maxRanges наибольшее количество отрезков, на которые делится запрос, не меньше 1
+     */
+    public void setMaxRanges(int maxRanges) {
+        if (maxRanges < 1) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНОЕ КОЛИЧЕСТВО ОТРЕЗКОВ: " + maxRanges);
+        }
+        this.maxRanges = maxRanges;
+    }
+
+    /**
+     * Помещает значение точки
+     * @param point координаты, от 0 до {@link Morton#maxCoordinate()}
+     * @param value значение
+     * @return прежнее значение точки или {@code null}
+     */
+    public V put(int[] point, V value) {
+        return points.put(morton.encode(point), value);
+    }
+
+    public V get(int[] point) {
+        return points.get(morton.encode(point));
+    }
+
+    public V remove(int[] point) {
+        return points.remove(morton.encode(point));
+    }
+
+    public int size() {
+        return points.size();
+    }
+
+    public boolean isEmpty() {
+        return points.isEmpty();
+    }
+
+    public void clear() {
+        points.clear();
+    }
+
+    /**
+     * Точки прямоугольника {@code [min; max]} (границы включительно) в Z-порядке.
+     * Итератор ленивый; индекс не должен изменяться, пока он используется
+     * @param min нижний угол
+     * @param max верхний угол
+     * @return итератор пар: координаты точки (новый массив) и значение
+     */
+    public Iterator<Map.Entry<int[], V>> query(int[] min, int[] max) {
+        return new BoxIterator(min, max);
+    }
+
+    /**
+     * Количество точек прямоугольника {@code [min; max]}
+     * @param min нижний угол
+     * @param max верхний угол
+     */
+    public int count(int[] min, int[] max) {
+        BoxIterator iterator = new BoxIterator(min, max);
+        int count = 0;
+        while (iterator.advance()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Обход прямоугольника по отрезкам Z-порядка с перескоками через коды вне прямоугольника
+     */
+    private final class BoxIterator implements Iterator<Map.Entry<int[], V>> {
+
+        private final long min;
+        private final long max;
+        private final List<long[]> ranges;
+        private final BPlusTreeMap<Long, V>.Cursor cursor = points.cursor();
+        /**
+         * Текущий отрезок
+         */
+        private int range;
+        /**
+         * Код, с которого продолжится поиск
+         */
+        private long from;
+        /**
+         * Найденная, но еще не выданная пара
+         */
+        private Map.Entry<Long, V> found;
+
+        BoxIterator(int[] lower, int[] upper) {
+            for (int k = 0; k < lower.length && k < upper.length; k++) {
+                if (lower[k] > upper[k]) {
+                    throw new IllegalArgumentException("НИЖНИЙ УГОЛ БОЛЬШЕ ВЕРХНЕГО ПО КООРДИНАТЕ " + k);
+                }
+            }
+            min = morton.encode(lower);
+            max = morton.encode(upper);
+            ranges = morton.ranges(min, max, maxRanges);
+            from = min;
+        }
+
+        /**
+         * Ищет следующую точку прямоугольника
+         * @return {@code true}, если точка найдена
+         */
+        boolean advance() {
+            found = null;
+            while (range < ranges.size()) {
+                long[] current = ranges.get(range);
+                Map.Entry<Long, V> entry = cursor.ceilingEntry(from);
+                if (entry == null) {
+                    range = ranges.size();
+                    return false;
+                }
+                long code = entry.getKey();
+                if (code > current[1]) {
+                    range++;
+                    if (range < ranges.size()) {
+                        from = Math.max(code, ranges.get(range)[0]);
+                    }
+                } else if (morton.inBox(code, min, max)) {
+                    found = entry;
+                    from = code + 1;
+                    return true;
+                } else {
+                    from = morton.bigMin(code, current[0], current[1]);
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return found != null || advance();
+        }
+
+        @Override
+        public Map.Entry<int[], V> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<Long, V> entry = found;
+            found = null;
+            return new AbstractMap.SimpleImmutableEntry<>(morton.decode(entry.getKey()), entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package map.stats;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Оценка размеров объектов в куче HotSpot JVM без обращения к агентам и дампам памяти.
+ * Учитывается размер заголовка объекта, размер ссылки (со сжатием указателей или без) и выравнивание
+ */
+public final class HeapLayout {
+
+    /**
+     * Включено ли сжатие указателей
+     */
+    private static final boolean COMPRESSED_OOPS = compressedOops();
+    /**
+     * Размер ссылки в байтах
+     */
+    public static final int REFERENCE_SIZE = COMPRESSED_OOPS ? 4 : 8;
+    /**
+     * Размер заголовка объекта в байтах
+     */
+    public static final int OBJECT_HEADER_SIZE = COMPRESSED_OOPS ? 12 : 16;
+    /**
+     * Размер заголовка массива в байтах (заголовок объекта + длина)
+     */
+    public static final int ARRAY_HEADER_SIZE = COMPRESSED_OOPS ? 16 : 24;
+    /**
+     * Выравнивание объектов
+     */
+    private static final int OBJECT_ALIGNMENT = 8;
+    /**
+     * Емкость {@link java.util.ArrayList} при первом добавлении элемента
+     */
+    private static final int ARRAY_LIST_DEFAULT_CAPACITY = 10;
+
+    private HeapLayout() {
+    }
+
+    /**
+     * Размер объекта с заданным количеством ссылочных полей и примитивных байт
+     * @param references количество ссылочных полей
+     * @param primitiveBytes суммарный размер примитивных полей
+     * @return размер объекта в байтах
+     */
+    public static long objectBytes(int references, int primitiveBytes) {
+        return align(OBJECT_HEADER_SIZE + (long) references * REFERENCE_SIZE + primitiveBytes);
+    }
+
+    /**
+     * Размер массива ссылок
+     * @param length длина массива
+     * @return размер массива в байтах
+     */
+    public static long referenceArrayBytes(long length) {
+        return align(ARRAY_HEADER_SIZE + length * REFERENCE_SIZE);
+    }
+
+    /**
+     * Размер массива примитивов
+     * @param length длина массива
+     * @param elementSize размер элемента в байтах
+     * @return размер массива в байтах
+     */
+    public static long primitiveArrayBytes(long length, int elementSize) {
+        return align(ARRAY_HEADER_SIZE + length * elementSize);
+    }
+
+    /**
+     * Емкость {@link java.util.ArrayList}, выросшего поэлементно до заданного размера
+     * @param elements максимальное количество элементов, когда-либо лежавших в списке
+     * @return емкость внутреннего массива
+     */
+    public static int arrayListCapacity(int elements) {
+        int capacity = ARRAY_LIST_DEFAULT_CAPACITY;
+        while (capacity < elements) {
+            capacity += capacity >> 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Размер объекта {@link java.util.ArrayList} без внутреннего массива
+     * @return размер в байтах
+     */
+    public static long arrayListObjectBytes() {
+        return objectBytes(1, 8);
+    }
+
+    /**
+     * Размер {@link java.util.HashMap} вместе с таблицей и объектами записей
+     * @param entries количество записей
+     * @return размер в байтах
+     */
+    public static long hashMapBytes(long entries) {
+        long table = 16;
+        while (table * 3 / 4 < entries) {
+            table <<= 1;
+        }
+        long mapObject = objectBytes(4, 16);
+        long entryObject = objectBytes(3, 4);
+        return mapObject + referenceArrayBytes(table) + entries * entryObject;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + OBJECT_ALIGNMENT - 1) / OBJECT_ALIGNMENT * OBJECT_ALIGNMENT;
+    }
+
+    private static boolean compressedOops() {
+        if (!"64".equals(System.getProperty("sun.arch.data.model"))) {
+            return false;
+        }
+        try {
+            HotSpotDiagnosticMXBean bean = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            return Boolean.parseBoolean(bean.getVMOption("UseCompressedOops").getValue());
+        } catch (RuntimeException e) {
+            return Runtime.getRuntime().maxMemory() < 32L * 1024 * 1024 * 1024;
+        }
+    }
+}
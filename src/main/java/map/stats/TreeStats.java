@@ -0,0 +1,302 @@
+package map.stats;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Снимок структурной статистики дерева: высота, количество узлов и гистограмма заполненности
+ * по уровням, количество пустых слотов и оценка занимаемой структурой памяти.
+ * Размеры самих объектов ключей и значений не учитываются - оценивается только память,
+ * которую добавляет дерево поверх пользовательских объектов
+ */
+public final class TreeStats {
+
+    /**
+     * Количество корзин гистограммы заполненности (по 10%)
+     */
+    public static final int FILL_BUCKETS = 10;
+
+    /**
+     * Статистика одного уровня дерева (уровень 0 - корень)
+     */
+    public static final class LevelStats {
+        private final int level;
+        private boolean leaf;
+        private long nodes;
+        private long usedSlots;
+        private long totalSlots;
+        private final long[] fillHistogram = new long[FILL_BUCKETS];
+
+        LevelStats(int level) {
+            this.level = level;
+        }
+
+        public int getLevel() {
+            return level;
+        }
+
+        public boolean isLeaf() {
+            return leaf;
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long getUsedSlots() {
+            return usedSlots;
+        }
+
+        public long getTotalSlots() {
+            return totalSlots;
+        }
+
+        public long getWastedSlots() {
+            return totalSlots - usedSlots;
+        }
+
+        /**
+         * Средняя заполненность узлов уровня
+         * @return доля в диапазоне [0; 1]
+         */
+        public double getAverageFill() {
+            return totalSlots == 0 ? 0 : (double) usedSlots / totalSlots;
+        }
+
+        /**
+         * Гистограмма заполненности: элемент {@code i} - количество узлов
+         * с заполненностью в диапазоне [i * 10%; (i + 1) * 10%)
+         * @return копия гистограммы
+         */
+        public long[] getFillHistogram() {
+            return fillHistogram.clone();
+        }
+    }
+
+    /**
+     * Накопитель статистики, заполняемый деревом за один обход
+     */
+    public static final class Collector {
+        private final String mapType;
+        private final int treeDegree;
+        private final long entries;
+        private final List<LevelStats> levels = new ArrayList<>();
+        private long nodeObjectBytes;
+        private long keyArrayBytes;
+        private long valueArrayBytes;
+        private long childArrayBytes;
+        private long sideMapBytes;
+
+        /**
+         * Конструктор накопителя
+         * @param mapType тип дерева
+         * @param treeDegree степень дерева
+         * @param entries количество пар ключ-значение
+         */
+        public Collector(String mapType, int treeDegree, long entries) {
+            this.mapType = mapType;
+            this.treeDegree = treeDegree;
+            this.entries = entries;
+        }
+
+        /**
+         * Учитывает узел
+         * @param level глубина узла (корень - 0)
+         * @param leaf является ли узел листом
+         * @param used количество занятых слотов
+         * @param slots максимальное количество слотов
+         */
+        public void node(int level, boolean leaf, int used, int slots) {
+            while (levels.size() <= level) {
+                levels.add(new LevelStats(levels.size()));
+            }
+            LevelStats stats = levels.get(level);
+            stats.leaf = leaf;
+            stats.nodes++;
+            stats.usedSlots += used;
+            stats.totalSlots += slots;
+            int bucket = slots == 0 ? 0 : (int) ((long) used * FILL_BUCKETS / slots);
+            stats.fillHistogram[Math.min(bucket, FILL_BUCKETS - 1)]++;
+        }
+
+        public void nodeObjectBytes(long bytes) {
+            nodeObjectBytes += bytes;
+        }
+
+        public void keyArrayBytes(long bytes) {
+            keyArrayBytes += bytes;
+        }
+
+        public void valueArrayBytes(long bytes) {
+            valueArrayBytes += bytes;
+        }
+
+        public void childArrayBytes(long bytes) {
+            childArrayBytes += bytes;
+        }
+
+        public void sideMapBytes(long bytes) {
+            sideMapBytes += bytes;
+        }
+
+        public TreeStats build() {
+            return new TreeStats(this);
+        }
+    }
+
+    private final String mapType;
+    private final int treeDegree;
+    private final long entries;
+    private final List<LevelStats> levels;
+    private final long nodeObjectBytes;
+    private final long keyArrayBytes;
+    private final long valueArrayBytes;
+    private final long childArrayBytes;
+    private final long sideMapBytes;
+
+    private TreeStats(Collector collector) {
+        this.mapType = collector.mapType;
+        this.treeDegree = collector.treeDegree;
+        this.entries = collector.entries;
+        this.levels = Collections.unmodifiableList(new ArrayList<>(collector.levels));
+        this.nodeObjectBytes = collector.nodeObjectBytes;
+        this.keyArrayBytes = collector.keyArrayBytes;
+        this.valueArrayBytes = collector.valueArrayBytes;
+        this.childArrayBytes = collector.childArrayBytes;
+        this.sideMapBytes = collector.sideMapBytes;
+    }
+
+    public String getMapType() {
+        return mapType;
+    }
+
+    public int getTreeDegree() {
+        return treeDegree;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public int getHeight() {
+        return levels.size();
+    }
+
+    public List<LevelStats> getLevels() {
+        return levels;
+    }
+
+    public long getNodes() {
+        long nodes = 0;
+        for (LevelStats level : levels) {
+            nodes += level.nodes;
+        }
+        return nodes;
+    }
+
+    public long getWastedSlots() {
+        long wasted = 0;
+        for (LevelStats level : levels) {
+            wasted += level.getWastedSlots();
+        }
+        return wasted;
+    }
+
+    public long getNodeObjectBytes() {
+        return nodeObjectBytes;
+    }
+
+    public long getKeyArrayBytes() {
+        return keyArrayBytes;
+    }
+
+    public long getValueArrayBytes() {
+        return valueArrayBytes;
+    }
+
+    public long getChildArrayBytes() {
+        return childArrayBytes;
+    }
+
+    /**
+     * Память вспомогательной хеш-таблицы значений ({@code BTreeMap})
+     * @return размер в байтах
+     */
+    public long getSideMapBytes() {
+        return sideMapBytes;
+    }
+
+    /**
+     * Оценка памяти, удерживаемой структурой дерева
+     * @return размер в байтах
+     */
+    public long getRetainedBytes() {
+        return nodeObjectBytes + keyArrayBytes + valueArrayBytes + childArrayBytes + sideMapBytes;
+    }
+
+    /**
+     * Средняя заполненность листьев
+     * @return доля в диапазоне [0; 1]
+     */
+    public double getLeafFill() {
+        return levels.isEmpty() ? 0 : levels.get(levels.size() - 1).getAverageFill();
+    }
+
+    /**
+     * Оценка памяти, которую освободит перестроение дерева до заданной заполненности:
+     * память узлов пропорциональна их количеству, а количество узлов обратно пропорционально заполненности
+     * @param targetFill целевая заполненность в диапазоне (0; 1]
+     * @return оценка освобождаемой памяти в байтах (отрицательна, если перестроение увеличит дерево)
+     */
+    public long estimateRebuildSavings(double targetFill) {
+        double fill = getLeafFill();
+        if (fill == 0) {
+            return 0;
+        }
+        long structureBytes = getRetainedBytes() - sideMapBytes;
+        return structureBytes - (long) (structureBytes * fill / targetFill);
+    }
+
+    /**
+     * Оценка высоты дерева с заданной степенью и заполненностью для текущего числа записей
+     * @param degree степень дерева (максимальное количество потомков узла)
+     * @param fill заполненность в диапазоне (0; 1]
+     * @return оценка высоты
+     */
+    public int estimateHeight(int degree, double fill) {
+        double fanout = Math.max(2, degree * fill);
+        double nodes = Math.max(1, Math.ceil(entries / Math.max(1, (degree - 1) * fill)));
+        int height = 1;
+        while (nodes > 1) {
+            nodes = Math.ceil(nodes / fanout);
+            height++;
+        }
+        return height;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(mapType).append(": записей = ").append(entries)
+                .append(", степень = ").append(treeDegree)
+                .append(", высота = ").append(getHeight())
+                .append(", узлов = ").append(getNodes())
+                .append(", пустых слотов = ").append(getWastedSlots()).append('\n');
+        for (LevelStats level : levels) {
+            sb.append(String.format("  уровень %d (%s): узлов = %d, заполненность = %.1f%%, гистограмма =",
+                    level.level, level.leaf ? "листья" : "внутренние", level.nodes, level.getAverageFill() * 100));
+            for (long count : level.fillHistogram) {
+                sb.append(' ').append(count);
+            }
+            sb.append('\n');
+        }
+        sb.append("  память: узлы = ").append(nodeObjectBytes)
+                .append(", ключи = ").append(keyArrayBytes)
+                .append(", значения = ").append(valueArrayBytes)
+                .append(", потомки = ").append(childArrayBytes)
+                .append(", хеш-таблица = ").append(sideMapBytes)
+                .append(", всего = ").append(getRetainedBytes()).append(" байт");
+        return sb.toString();
+    }
+}
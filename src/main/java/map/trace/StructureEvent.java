@@ -0,0 +1,110 @@
+package map.trace;
+
+/**
+ * Структурное событие дерева: разлом, слияние, заимствование у соседа или смена корня.
+ * Узлы идентифицируются номерами, которые дерево выдает при создании узла и при взятии его из пула,
+ * 0 означает отсутствие узла. Узлы, перенесенные из другой карты ({@code join}), сохраняют ее номера.
+ * Диапазон узла - первый и последний ключ узла после события
+ */
+public final class StructureEvent {
+
+    /**
+     * Тип события
+     */
+    public enum Type {
+        /**
+         * Разлом: {@code node} - разломанный узел, {@code sibling} - новый правый узел
+         */
+        SPLIT,
+        /**
+         * Слияние: {@code node} - оставшийся левый узел, {@code sibling} - поглощенный правый узел
+         */
+        MERGE,
+        /**
+         * Заимствование у левого соседа: {@code node} - получатель, {@code sibling} - левый сосед
+         */
+        BORROW_LEFT,
+        /**
+         * Заимствование у правого соседа: {@code node} - получатель, {@code sibling} - правый сосед
+         */
+        BORROW_RIGHT,
+        /**
+         * Смена корня: {@code node} - новый корень, {@code sibling} - старый корень
+         */
+        ROOT_CHANGE
+    }
+
+    private final long sequence;
+    private final long timeNanos;
+    private final Type type;
+    private final int parentId;
+    private final int nodeId;
+    private final Object nodeLow;
+    private final Object nodeHigh;
+    private final int siblingId;
+    private final Object siblingLow;
+    private final Object siblingHigh;
+
+    StructureEvent(long sequence, long timeNanos, Type type, int parentId,
+                   int nodeId, Object nodeLow, Object nodeHigh,
+                   int siblingId, Object siblingLow, Object siblingHigh) {
+        this.sequence = sequence;
+        this.timeNanos = timeNanos;
+        this.type = type;
+        this.parentId = parentId;
+        this.nodeId = nodeId;
+        this.nodeLow = nodeLow;
+        this.nodeHigh = nodeHigh;
+        this.siblingId = siblingId;
+        this.siblingLow = siblingLow;
+        this.siblingHigh = siblingHigh;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimeNanos() {
+        return timeNanos;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getParentId() {
+        return parentId;
+    }
+
+    public int getNodeId() {
+        return nodeId;
+    }
+
+    public Object getNodeLow() {
+        return nodeLow;
+    }
+
+    public Object getNodeHigh() {
+        return nodeHigh;
+    }
+
+    public int getSiblingId() {
+        return siblingId;
+    }
+
+    public Object getSiblingLow() {
+        return siblingLow;
+    }
+
+    public Object getSiblingHigh() {
+        return siblingHigh;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + sequence + " " + type
+                + " parent=" + Integer.toHexString(parentId)
+                + " node=" + Integer.toHexString(nodeId) + " [" + nodeLow + " .. " + nodeHigh + "]"
+                + " sibling=" + Integer.toHexString(siblingId) + " [" + siblingLow + " .. " + siblingHigh + "]";
+    }
+}
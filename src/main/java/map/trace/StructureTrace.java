@@ -0,0 +1,137 @@
+package map.trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Кольцевой буфер структурных событий дерева без блокировок.
+ * Память под события выделяется один раз при создании буфера, запись события не создает объектов.
+ * Когда буфер заполнен, новые события затирают самые старые.
+ * <p>
+ * Писатель занимает номер события атомарным инкрементом, помечает ячейку как записываемую,
+ * заполняет поля и публикует номер. Читатель принимает ячейку, только если опубликованный номер
+ * совпадает до и после чтения полей, поэтому {@link #snapshot()} можно вызывать во время записи.
+ * <p>
+ * Поля событий тоже хранятся в атомарных массивах: обычные записи полей могли бы стать видны раньше
+ * пометки ячейки, а обычные чтения - выполниться после повторной проверки номера, и читатель
+ * принял бы смесь двух событий. Пометка ячейки - volatile-запись, поля и номер публикуются
+ * {@code lazySet} (запись с release-семантикой, после пометки), читатель читает все через {@code get}.
+ * Увидев поле более нового события, читатель затем увидит и его пометку и отбросит ячейку
+ */
+public final class StructureTrace {
+
+    private static final StructureEvent.Type[] TYPES = StructureEvent.Type.values();
+
+    /**
+     * Маска индекса ячейки (емкость - степень двойки)
+     */
+    private final int mask;
+    /**
+     * Номер следующего события
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * Опубликованный номер события в ячейке + 1 (0 - пусто, отрицательный - идет запись)
+     */
+    private final AtomicLongArray published;
+
+    private final AtomicLongArray timeNanos;
+    private final AtomicIntegerArray types;
+    private final AtomicIntegerArray parentIds;
+    private final AtomicIntegerArray nodeIds;
+    private final AtomicIntegerArray siblingIds;
+    private final AtomicReferenceArray<Object> nodeLows;
+    private final AtomicReferenceArray<Object> nodeHighs;
+    private final AtomicReferenceArray<Object> siblingLows;
+    private final AtomicReferenceArray<Object> siblingHighs;
+
+    /**
+     * Конструктор буфера
+     * @param capacity емкость, степень двойки
+     */
+    public StructureTrace(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("ЕМКОСТЬ БУФЕРА ДОЛЖНА БЫТЬ СТЕПЕНЬЮ ДВОЙКИ: " + capacity);
+        }
+        mask = capacity - 1;
+        published = new AtomicLongArray(capacity);
+        timeNanos = new AtomicLongArray(capacity);
+        types = new AtomicIntegerArray(capacity);
+        parentIds = new AtomicIntegerArray(capacity);
+        nodeIds = new AtomicIntegerArray(capacity);
+        siblingIds = new AtomicIntegerArray(capacity);
+        nodeLows = new AtomicReferenceArray<>(capacity);
+        nodeHighs = new AtomicReferenceArray<>(capacity);
+        siblingLows = new AtomicReferenceArray<>(capacity);
+        siblingHighs = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Записывает событие. Вызывается деревьями
+     */
+    public void record(StructureEvent.Type type, int parentId,
+                       int nodeId, Object nodeLow, Object nodeHigh,
+                       int siblingId, Object siblingLow, Object siblingHigh) {
+        long sequence = head.getAndIncrement();
+        int slot = (int) (sequence & mask);
+        published.set(slot, -(sequence + 1));
+        timeNanos.lazySet(slot, System.nanoTime());
+        types.lazySet(slot, type.ordinal());
+        parentIds.lazySet(slot, parentId);
+        nodeIds.lazySet(slot, nodeId);
+        nodeLows.lazySet(slot, nodeLow);
+        nodeHighs.lazySet(slot, nodeHigh);
+        siblingIds.lazySet(slot, siblingId);
+        siblingLows.lazySet(slot, siblingLow);
+        siblingHighs.lazySet(slot, siblingHigh);
+        published.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * Количество событий, записанных за все время (включая затертые)
+     * @return количество событий
+     */
+    public long getRecorded() {
+        return head.get();
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Возвращает события, находящиеся в буфере, от старых к новым.
+     * События, которые затираются во время чтения, пропускаются
+     * @return список событий
+     */
+    public List<StructureEvent> snapshot() {
+        long end = head.get();
+        long start = Math.max(0, end - (mask + 1));
+        List<StructureEvent> events = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; sequence++) {
+            int slot = (int) (sequence & mask);
+            if (published.get(slot) != sequence + 1) {
+                continue;
+            }
+            long time = timeNanos.get(slot);
+            int type = types.get(slot);
+            int parentId = parentIds.get(slot);
+            int nodeId = nodeIds.get(slot);
+            Object nodeLow = nodeLows.get(slot);
+            Object nodeHigh = nodeHighs.get(slot);
+            int siblingId = siblingIds.get(slot);
+            Object siblingLow = siblingLows.get(slot);
+            Object siblingHigh = siblingHighs.get(slot);
+            if (published.get(slot) != sequence + 1) {
+                continue;
+            }
+            events.add(new StructureEvent(sequence, time, TYPES[type], parentId,
+                    nodeId, nodeLow, nodeHigh, siblingId, siblingLow, siblingHigh));
+        }
+        return events;
+    }
+}
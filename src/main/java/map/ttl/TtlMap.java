@@ -0,0 +1,375 @@
+package map.ttl;
+
+import map.BPlusTreeMap;
+import map.IMap;
+import map.TreeNodeView;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Карта с ограниченным временем жизни записей (таблицы сессий, аренд и т.п.).
+ * Записи хранятся в {@link BPlusTreeMap}, а записи со сроком жизни дополнительно - во вторичном
+ * B+ дереве, упорядоченном по паре (момент истечения, ключ). Самые старые записи всегда
+ * лежат в крайних левых листах индекса, поэтому {@link #expireUntil(long)} обходит только
+ * истекшие записи, и его стоимость пропорциональна их количеству, а не размеру карты.
+ * <p>
+ * {@code get} лениво игнорирует истекшие, но еще не удаленные записи; {@link #size()}
+ * учитывает их до очередного {@code expireUntil}. Время - в миллисекундах часов,
+ * переданных в конструктор. Записи, добавленные через {@link #put(Comparable, Object)}, не истекают
+ *
+ * @param <K> Тип ключа
+ * @param <V> Тип значения
+ */
+public class TtlMap<K extends Comparable<? super K>, V> implements IMap {
+
+    /**
+     * Момент истечения записей без срока жизни
+     */
+    private static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * Значение и момент его истечения
+     */
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Ключ индекса истечения: момент истечения, при равенстве - ключ записи
+     */
+    private static final class ExpiryKey<K extends Comparable<? super K>> implements Comparable<ExpiryKey<K>> {
+        final long expiresAt;
+        final K key;
+
+        ExpiryKey(long expiresAt, K key) {
+            this.expiresAt = expiresAt;
+            this.key = key;
+        }
+
+        @Override
+        public int compareTo(ExpiryKey<K> other) {
+            int compare = Long.compare(expiresAt, other.expiresAt);
+            return compare != 0 ? compare : key.compareTo(other.key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ExpiryKey)) {
+                return false;
+            }
+            ExpiryKey<?> other = (ExpiryKey<?>) o;
+            return expiresAt == other.expiresAt && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(expiresAt) * 31 + key.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return expiresAt + ":" + key;
+        }
+    }
+
+    /**
+     * Записи по ключу
+     */
+    private final BPlusTreeMap<K, Entry<V>> entries;
+    /**
+     * Индекс истечения (только записи со сроком жизни)
+     */
+    private final BPlusTreeMap<ExpiryKey<K>, Boolean> expiry;
+    /**
+     * Часы, миллисекунды
+     */
+    private final LongSupplier clock;
+
+    public TtlMap(int treeDegree) {
+        this(treeDegree, System::currentTimeMillis);
+    }
+
+    /**
+     * @param treeDegree степень деревьев
+     * @param clock часы (миллисекунды)
+     */
+    public TtlMap(int treeDegree, LongSupplier clock) {
+        this.entries = new BPlusTreeMap<>(treeDegree);
+        this.expiry = new BPlusTreeMap<>(treeDegree);
+        this.clock = clock;
+    }
+
+    /**
+     * Помещает запись с ограниченным сроком жизни
+     * @param key ключ
+     * @param value значение
+     * @param ttl срок жизни
+     * @param unit единица измерения срока
+     * @return предыдущее неистекшее значение или {@code null}
+     */
+    public V put(K key, V value, long ttl, TimeUnit unit) {
+        if (ttl < 0) {
+            throw new IllegalArgumentException("ОТРИЦАТЕЛЬНЫЙ СРОК ЖИЗНИ: " + ttl);
+        }
+        long now = clock.getAsLong();
+        long millis = unit.toMillis(ttl);
+        return putUntil(key, value, millis >= NEVER - now ? NEVER - 1 : now + millis, now);
+    }
+
+    /**
+     * Помещает запись, истекающую в заданный момент
+     * @param key ключ
+     * @param value значение
+     * @param expiresAt момент истечения (миллисекунды часов карты)
+     * @return предыдущее неистекшее значение или {@code null}
+     */
+    public V putUntil(K key, V value, long expiresAt) {
+        return putUntil(key, value, expiresAt, clock.getAsLong());
+    }
+
+    private V putUntil(K key, V value, long expiresAt, long now) {
+        Entry<V> old = entries.put(key, new Entry<>(value, expiresAt));
+        if (old != null && old.expiresAt != NEVER) {
+            expiry.remove(new ExpiryKey<>(old.expiresAt, key));
+        }
+        if (expiresAt != NEVER) {
+            expiry.put(new ExpiryKey<>(expiresAt, key), Boolean.TRUE);
+        }
+        return old == null || old.expiresAt <= now ? null : old.value;
+    }
+
+    /**
+     * Помещает запись без срока жизни
+     * @return предыдущее неистекшее значение или {@code null}
+     */
+    @Override
+    public V put(Comparable key, Object value) {
+        return putUntil((K) key, (V) value, NEVER, clock.getAsLong());
+    }
+
+    /**
+     * Возвращает значение, если запись есть и не истекла. Истекшая запись не удаляется
+     * @param key ключ
+     * @return значение или {@code null}
+     */
+    @Override
+    public V get(Comparable key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null || entry.expiresAt <= clock.getAsLong() ? null : entry.value;
+    }
+
+    /**
+     * Возвращает момент истечения записи
+     * @param key ключ
+     * @return момент истечения, {@link Long#MAX_VALUE} для записей без срока жизни или -1, если записи нет
+     */
+    public long getExpiresAt(K key) {
+        Entry<V> entry = entries.get(key);
+        return entry == null ? -1 : entry.expiresAt;
+    }
+
+    /**
+     * Удаляет запись
+     * @param key ключ
+     * @return удаленное неистекшее значение или {@code null}
+     */
+    @Override
+    public V remove(Comparable key) {
+        Entry<V> old = entries.remove(key);
+        if (old == null) {
+            return null;
+        }
+        if (old.expiresAt != NEVER) {
+            expiry.remove(new ExpiryKey<>(old.expiresAt, (K) key));
+        }
+        return old.expiresAt <= clock.getAsLong() ? null : old.value;
+    }
+
+    /**
+     * Удаляет все записи, истекшие к моменту {@code now}
+     * @param now момент времени (миллисекунды часов карты)
+     * @return количество удаленных записей
+     */
+    public int expireUntil(long now) {
+        return expireUntil(now, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Удаляет не больше {@code limit} самых старых записей, истекших к моменту {@code now}.
+     * Позволяет ограничить паузу при большом количестве истекших записей
+     * @param now момент времени (миллисекунды часов карты)
+     * @param limit максимальное количество удаляемых записей
+     * @return количество удаленных записей
+     */
+    public int expireUntil(long now, int limit) {
+        List<ExpiryKey<K>> expired = new ArrayList<>();
+        Iterator<Map.Entry<ExpiryKey<K>, Boolean>> iterator = expiry.entries(null, null);
+        while (expired.size() < limit && iterator.hasNext()) {
+            ExpiryKey<K> expiryKey = iterator.next().getKey();
+            if (expiryKey.expiresAt > now) {
+                break;
+            }
+            expired.add(expiryKey);
+        }
+        for (ExpiryKey<K> expiryKey : expired) {
+            expiry.remove(expiryKey);
+            entries.remove(expiryKey.key);
+        }
+        return expired.size();
+    }
+
+    /**
+     * Удаляет все записи, истекшие к текущему моменту
+     * @return количество удаленных записей
+     */
+    public int expire() {
+        return expireUntil(clock.getAsLong());
+    }
+
+    /**
+     * Ближайший момент истечения (например, для планирования следующего {@code expireUntil})
+     * @return момент истечения или {@link Long#MAX_VALUE}, если истекающих записей нет
+     */
+    public long nextExpiration() {
+        Iterator<Map.Entry<ExpiryKey<K>, Boolean>> iterator = expiry.entries(null, null);
+        return iterator.hasNext() ? iterator.next().getKey().expiresAt : NEVER;
+    }
+
+    /**
+     * Количество записей, включая истекшие, но еще не удаленные
+     * @return число записей
+     */
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        expiry.clear();
+    }
+
+    /**
+     * Удаляет все записи диапазона [from; to), включая истекшие. Записи удаляются из основного
+     * дерева целыми поддеревьями ({@link BPlusTreeMap#removeRange}), а записи со сроком жизни
+     * дополнительно убираются из индекса истечения по одной
+     * @return количество удаленных записей
+     */
+    @Override
+    public int removeRange(Comparable from, Comparable to) {
+        List<ExpiryKey<K>> expiring = new ArrayList<>();
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entries(from, to);
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = iterator.next();
+            if (entry.getValue().expiresAt != NEVER) {
+                expiring.add(new ExpiryKey<>(entry.getValue().expiresAt, entry.getKey()));
+            }
+        }
+        for (ExpiryKey<K> expiryKey : expiring) {
+            expiry.remove(expiryKey);
+        }
+        return entries.removeRange(from, to);
+    }
+
+    /**
+     * Итератор по неистекшим записям диапазона [from; to)
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> entries(Comparable from, Comparable to) {
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entries(from, to);
+        long now = clock.getAsLong();
+        return new Iterator<Map.Entry<K, V>>() {
+            private Map.Entry<K, V> next = advance();
+
+            private Map.Entry<K, V> advance() {
+                while (iterator.hasNext()) {
+                    Map.Entry<K, Entry<V>> entry = iterator.next();
+                    if (entry.getValue().expiresAt > now) {
+                        return new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue().value);
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<K, V> entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Представление дерева записей: значения показываются без сроков жизни
+     */
+    @Override
+    public TreeNodeView<K, V> rootView() {
+        return new NodeView(entries.rootView());
+    }
+
+    /**
+     * Представление узла дерева записей, раскрывающее значения записей
+     */
+    private final class NodeView implements TreeNodeView<K, V> {
+
+        private final TreeNodeView<K, Entry<V>> node;
+
+        NodeView(TreeNodeView<K, Entry<V>> node) {
+            this.node = node;
+        }
+
+        @Override
+        public int keyCount() {
+            return node.keyCount();
+        }
+
+        @Override
+        public K key(int index) {
+            return node.key(index);
+        }
+
+        @Override
+        public boolean hasValues() {
+            return node.hasValues();
+        }
+
+        @Override
+        public V value(int index) {
+            Entry<V> entry = node.value(index);
+            return entry == null ? null : entry.value;
+        }
+
+        @Override
+        public int childCount() {
+            return node.childCount();
+        }
+
+        @Override
+        public TreeNodeView<K, V> child(int index) {
+            return new NodeView(node.child(index));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Кодирование ключей в двоичном протоколе {@link KvProtocol}.
+ * Ключ читается и пишется прямо в буфер соединения, без промежуточных массивов
+ * (кроме байтов UTF-8 строковых ключей)
+ *
+ * @param <K> Тип ключа
+ */
+public interface KeyCodec<K extends Comparable<? super K>> {
+
+    /**
+     * Ключи {@link Long}: 8 байт
+     */
+    KeyCodec<Long> LONG = new KeyCodec<Long>() {
+        @Override
+        public int maxSize(Long key) {
+            return 8;
+        }
+
+        @Override
+        public void write(Long key, ByteBuffer buffer) {
+            buffer.putLong(key);
+        }
+
+        @Override
+        public Long read(ByteBuffer buffer) {
+            return buffer.getLong();
+        }
+    };
+
+    /**
+     * Ключи {@link String}: длина (4 байта) и байты UTF-8
+     */
+    KeyCodec<String> STRING = new KeyCodec<String>() {
+        @Override
+        public int maxSize(String key) {
+            return 4 + 3 * key.length();
+        }
+
+        @Override
+        public void write(String key, ByteBuffer buffer) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        @Override
+        public String read(ByteBuffer buffer) {
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("НЕКОРРЕКТНАЯ ДЛИНА КЛЮЧА: " + length);
+            }
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    };
+
+    /**
+     * Верхняя оценка размера закодированного ключа
+     * @param key ключ
+     * @return байт
+     */
+    int maxSize(K key);
+
+    /**
+     * Записывает ключ в буфер
+     * @param key ключ
+     * @param buffer буфер с достаточным свободным местом
+     */
+    void write(K key, ByteBuffer buffer);
+
+    /**
+     * Читает ключ из буфера
+     * @param buffer буфер
+     * @return ключ
+     */
+    K read(ByteBuffer buffer);
+}
@@ -0,0 +1,297 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Клиент {@link KvServer}. Простые методы ({@link #get(Comparable)}, {@link #put(Comparable, byte[])} ...)
+ * отправляют запрос и ждут ответа. Для конвейера запросы ставятся методами {@code send*},
+ * отправляются одной записью через {@link #flush()}, а ответы читаются по одному через
+ * {@link #receive()} в порядке отправки.
+ * <p>
+ * Клиент не потокобезопасен: каждому потоку - свое соединение. Глубина конвейера ограничена
+ * буферами сокетов: отправляя много запросов без чтения ответов, клиент может заблокироваться
+ *
+ * @param <K> Тип ключа
+ */
+public class KvClient<K extends Comparable<? super K>> implements Closeable {
+
+    /**
+     * Начальный размер буферов
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Ответ сервера
+     * @param <K> Тип ключа
+     */
+    public static final class Response<K> {
+        private final int id;
+        private final byte status;
+        private final byte[] value;
+        private final List<Map.Entry<K, byte[]>> entries;
+        private final String error;
+
+        private Response(int id, byte status, byte[] value, List<Map.Entry<K, byte[]>> entries, String error) {
+            this.id = id;
+            this.status = status;
+            this.value = value;
+            this.entries = entries;
+            this.error = error;
+        }
+
+        /**
+         * Идентификатор запроса, возвращенный методом {@code send*}
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * Статус: {@link KvProtocol#OK}, {@link KvProtocol#NOT_FOUND} или {@link KvProtocol#ERROR}
+         */
+        public byte getStatus() {
+            return status;
+        }
+
+        /**
+         * Значение (для PUT и REMOVE - прежнее) или {@code null}
+         */
+        public byte[] getValue() {
+            return value;
+        }
+
+        /**
+         * Пары ответа на SCAN
+         */
+        public List<Map.Entry<K, byte[]>> getEntries() {
+            return entries;
+        }
+
+        /**
+         * Сообщение об ошибке или {@code null}
+         */
+        public String getError() {
+            return error;
+        }
+    }
+
+    private final SocketChannel channel;
+    private final KeyCodec<K> codec;
+    /**
+     * Неотправленные запросы (режим записи)
+     */
+    private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    /**
+     * Непрочитанные ответы (режим чтения)
+     */
+    private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private int nextId;
+    /**
+     * Операции отправленных запросов, ожидающих ответа (ответы приходят в порядке запросов)
+     */
+    private final ArrayDeque<Byte> pending = new ArrayDeque<>();
+
+    private KvClient(SocketChannel channel, KeyCodec<K> codec) {
+        this.channel = channel;
+        this.codec = codec;
+        in.flip();
+    }
+
+    /**
+     * Подключается к серверу
+     * @param address адрес сервера
+     * @param codec кодирование ключей (то же, что у сервера)
+     * @return клиент
+     */
+    public static <K extends Comparable<? super K>> KvClient<K> connect(InetSocketAddress address, KeyCodec<K> codec)
+            throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        return new KvClient<>(channel, codec);
+    }
+
+    public byte[] get(K key) throws IOException {
+        sendGet(key);
+        flush();
+        return expect(receive()).value;
+    }
+
+    /**
+     * @return прежнее значение или {@code null}
+     */
+    public byte[] put(K key, byte[] value) throws IOException {
+        sendPut(key, value);
+        flush();
+        return expect(receive()).value;
+    }
+
+    /**
+     * @return удаленное значение или {@code null}
+     */
+    public byte[] remove(K key) throws IOException {
+        sendRemove(key);
+        flush();
+        return expect(receive()).value;
+    }
+
+    /**
+     * Пары с ключами не меньше {@code from} в порядке возрастания
+     * @param from нижняя граница (включительно), {@code null} - с наименьшего ключа
+     * @param limit максимальное количество пар (сервер может ограничить его сильнее)
+     * @return пары; их может быть меньше {@code limit} и при наличии следующих ключей, если ответ
+     * не поместился бы в один кадр, - тогда следующий запрос продолжает с ключа после последнего полученного
+     */
+    public List<Map.Entry<K, byte[]>> scan(K from, int limit) throws IOException {
+        sendScan(from, limit);
+        flush();
+        return expect(receive()).entries;
+    }
+
+    /**
+     * Ставит в очередь запрос GET
+     * @return идентификатор запроса
+     */
+    public int sendGet(K key) throws IOException {
+        int start = begin(KvProtocol.GET, codec.maxSize(key));
+        codec.write(key, out);
+        return end(start);
+    }
+
+    /**
+     * Ставит в очередь запрос PUT
+     * @return идентификатор запроса
+     */
+    public int sendPut(K key, byte[] value) throws IOException {
+        int start = begin(KvProtocol.PUT, codec.maxSize(key) + 4 + value.length);
+        codec.write(key, out);
+        KvProtocol.writeBytes(out, value);
+        return end(start);
+    }
+
+    /**
+     * Ставит в очередь запрос REMOVE
+     * @return идентификатор запроса
+     */
+    public int sendRemove(K key) throws IOException {
+        int start = begin(KvProtocol.REMOVE, codec.maxSize(key));
+        codec.write(key, out);
+        return end(start);
+    }
+
+    /**
+     * Ставит в очередь запрос SCAN
+     * @return идентификатор запроса
+     */
+    public int sendScan(K from, int limit) throws IOException {
+        int start = begin(KvProtocol.SCAN, 1 + (from == null ? 0 : codec.maxSize(from)) + 4);
+        out.put((byte) (from == null ? 0 : 1));
+        if (from != null) {
+            codec.write(from, out);
+        }
+        out.putInt(limit);
+        return end(start);
+    }
+
+    /**
+     * Отправляет все поставленные в очередь запросы
+     */
+    public void flush() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    /**
+     * Читает следующий ответ (блокируется до его прихода)
+     * @return ответ
+     */
+    public Response<K> receive() throws IOException {
+        Byte operation = pending.poll();
+        if (operation == null) {
+            throw new IllegalStateException("НЕТ ОТПРАВЛЕННЫХ ЗАПРОСОВ");
+        }
+        fill(4);
+        int length = in.getInt();
+        if (length < 5 || length > KvProtocol.MAX_FRAME_LENGTH) {
+            throw new IOException("НЕКОРРЕКТНАЯ ДЛИНА КАДРА: " + length);
+        }
+        fill(length);
+        int id = in.getInt();
+        byte status = in.get();
+        List<Map.Entry<K, byte[]>> entries = Collections.emptyList();
+        switch (status) {
+            case KvProtocol.OK:
+                if (operation != KvProtocol.SCAN) {
+                    return new Response<>(id, status, KvProtocol.readBytes(in), entries, null);
+                }
+                int count = in.getInt();
+                entries = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    K key = codec.read(in);
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(key, KvProtocol.readBytes(in)));
+                }
+                return new Response<>(id, status, null, entries, null);
+            case KvProtocol.NOT_FOUND:
+                return new Response<>(id, status, null, entries, null);
+            case KvProtocol.ERROR:
+                return new Response<>(id, status, null, entries, KvProtocol.readString(in));
+            default:
+                throw new IOException("НЕИЗВЕСТНЫЙ СТАТУС: " + status);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int begin(byte operation, int bodySize) {
+        out = KvProtocol.ensureRemaining(out, 9 + bodySize);
+        int start = KvProtocol.beginFrame(out);
+        out.put(operation).putInt(nextId);
+        return start;
+    }
+
+    private int end(int start) {
+        KvProtocol.endFrame(out, start);
+        pending.add(out.get(start + 4));
+        return nextId++;
+    }
+
+    /**
+     * Дочитывает из сокета, пока во входном буфере не окажется хотя бы {@code bytes} байт
+     */
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        in.compact();
+        in = KvProtocol.ensureRemaining(in, bytes - in.position());
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new IOException("СОЕДИНЕНИЕ ЗАКРЫТО СЕРВЕРОМ");
+            }
+        }
+        in.flip();
+    }
+
+    private static <K> Response<K> expect(Response<K> response) throws IOException {
+        if (response.status == KvProtocol.ERROR) {
+            throw new IOException("ОШИБКА СЕРВЕРА: " + response.error);
+        }
+        return response;
+    }
+}
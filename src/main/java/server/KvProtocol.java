@@ -0,0 +1,105 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Двоичный протокол сервера ключ-значение. Все числа - big-endian.
+ * <pre>
+ * запрос:  int длина | byte операция | int id | тело
+ *   GET     ключ
+ *   PUT     ключ | int длина значения | значение
+ *   REMOVE  ключ
+ *   SCAN    byte есть ли нижняя граница | [ключ] | int максимальное количество пар
+ * ответ:   int длина | int id | byte статус | тело
+ *   OK        GET, PUT, REMOVE: int длина значения | значение (прежнее значение для PUT и REMOVE)
+ *             SCAN: int количество пар | (ключ | int длина значения | значение)*
+ *             (пар может быть меньше запрошенного, если следующая не помещается в кадр;
+ *             следующий SCAN начинается с ключа после последнего полученного)
+ *   NOT_FOUND тело пустое
+ *   ERROR     int длина | сообщение UTF-8
+ * </pre>
+ * Длина кадра не включает само поле длины. Клиент может отправлять запросы, не дожидаясь
+ * ответов (конвейер); сервер отвечает на запросы одного соединения в порядке их поступления
+ */
+public final class KvProtocol {
+
+    public static final byte GET = 1;
+    public static final byte PUT = 2;
+    public static final byte REMOVE = 3;
+    public static final byte SCAN = 4;
+
+    public static final byte OK = 0;
+    public static final byte NOT_FOUND = 1;
+    public static final byte ERROR = 2;
+
+    /**
+     * Максимальная длина кадра
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private KvProtocol() {
+    }
+
+    /**
+     * Начинает кадр: резервирует место под длину
+     * @param buffer буфер в режиме записи
+     * @return позиция поля длины
+     */
+    static int beginFrame(ByteBuffer buffer) {
+        int start = buffer.position();
+        buffer.putInt(0);
+        return start;
+    }
+
+    /**
+     * Завершает кадр: записывает длину
+     * @param buffer буфер в режиме записи
+     * @param start позиция поля длины
+     */
+    static void endFrame(ByteBuffer buffer, int start) {
+        buffer.putInt(start, buffer.position() - start - 4);
+    }
+
+    static void writeBytes(ByteBuffer buffer, byte[] bytes) {
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("НЕКОРРЕКТНАЯ ДЛИНА ЗНАЧЕНИЯ: " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    static void writeString(ByteBuffer buffer, String value) {
+        writeBytes(buffer, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Гарантирует свободное место в буфере, при необходимости заменяя его большим
+     * @param buffer буфер в режиме записи
+     * @param bytes требуемое свободное место
+     * @return тот же или новый буфер с содержимым исходного
+     */
+    static ByteBuffer ensureRemaining(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        int capacity = buffer.capacity();
+        while (capacity - buffer.position() < bytes) {
+            capacity *= 2;
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
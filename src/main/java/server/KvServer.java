@@ -0,0 +1,352 @@
+package server;
+
+import map.BPlusTreeMap;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * TCP сервер ключ-значение поверх {@link BPlusTreeMap} с двоичным протоколом {@link KvProtocol}.
+ * Все соединения обслуживает один поток с неблокирующим {@link Selector}: запросы читаются
+ * в прямой {@link ByteBuffer} соединения и разбираются прямо в нем, ответы на все запросы,
+ * пришедшие одним чтением, копятся в выходном буфере и уходят одной записью в сокет.
+ * Поэтому клиент, отправляющий запросы конвейером, получает ответы пачками и
+ * платит за системные вызовы один раз на пачку, а не на запрос.
+ * <p>
+ * Пачка запросов выполняется под монитором объекта {@code lock}: код, изменяющий дерево
+ * в обход сервера, должен синхронизироваться на нем же. Если клиент не читает ответы и
+ * выходной буфер превышает {@value #HIGH_WATER_MARK} байт, сервер перестает читать его запросы
+ *
+ * @param <K> Тип ключа
+ */
+public class KvServer<K extends Comparable<? super K>> {
+
+    /**
+     * Начальный размер буферов соединения
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Размер неотправленных ответов, после которого запросы соединения не читаются
+     */
+    private static final int HIGH_WATER_MARK = 1024 * 1024;
+
+    /**
+     * Исходное дерево
+     */
+    private final BPlusTreeMap<K, byte[]> map;
+    /**
+     * Объект синхронизации доступа к дереву
+     */
+    private final Object lock;
+    /**
+     * Кодирование ключей
+     */
+    private final KeyCodec<K> codec;
+    /**
+     * Максимальное количество пар в ответе на SCAN
+     */
+    private int maxScanLength = 10_000;
+
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean running;
+
+    public KvServer(BPlusTreeMap<K, byte[]> map, KeyCodec<K> codec) {
+        this(map, map, codec);
+    }
+
+    public KvServer(BPlusTreeMap<K, byte[]> map, Object lock, KeyCodec<K> codec) {
+        this.map = map;
+        this.lock = lock;
+        this.codec = codec;
+    }
+
+    public void setMaxScanLength(int maxScanLength) {
+        this.maxScanLength = Math.max(1, maxScanLength);
+    }
+
+    /**
+     * Запускает сервер на петлевом интерфейсе
+     * @param port порт, 0 - выбрать свободный
+     * @return адрес сервера
+     */
+    public InetSocketAddress start(int port) throws IOException {
+        return start(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Запускает сервер
+     * @param address адрес для прослушивания
+     * @return адрес сервера
+     */
+    public synchronized InetSocketAddress start(InetSocketAddress address) throws IOException {
+        if (thread != null) {
+            throw new IllegalStateException("СЕРВЕР УЖЕ ЗАПУЩЕН");
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(address);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        thread = new Thread(this::run, "kv-server");
+        thread.setDaemon(true);
+        thread.start();
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Останавливает сервер и закрывает все соединения
+     */
+    public synchronized void stop() throws InterruptedException {
+        if (thread == null) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * Цикл обработки событий
+     */
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> selected = selector.selectedKeys().iterator();
+                while (selected.hasNext()) {
+                    SelectionKey key = selected.next();
+                    selected.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                            continue;
+                        }
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isWritable()) {
+                            connection.flush();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.read();
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        close(key);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("ОШИБКА СЕЛЕКТОРА", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                close(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+                // сервер уже остановлен
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // соединение уже разорвано
+        }
+    }
+
+    /**
+     * Состояние соединения: входной буфер (режим записи, в начале - недочитанный кадр)
+     * и выходной буфер (режим записи, в начале - неотправленные ответы)
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        private ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /**
+         * Читает данные, выполняет все полностью пришедшие запросы и отправляет ответы одной записью
+         */
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close(key);
+                return;
+            }
+            in.flip();
+            int needed = 0;
+            synchronized (lock) {
+                while (in.remaining() >= 4) {
+                    int length = in.getInt(in.position());
+                    if (length < 5 || length > KvProtocol.MAX_FRAME_LENGTH) {
+                        throw new IOException("НЕКОРРЕКТНАЯ ДЛИНА КАДРА: " + length);
+                    }
+                    if (in.remaining() < 4 + length) {
+                        needed = 4 + length;
+                        break;
+                    }
+                    int frameEnd = in.position() + 4 + length;
+                    int limit = in.limit();
+                    in.position(in.position() + 4).limit(frameEnd);
+                    handle();
+                    in.limit(limit).position(frameEnd);
+                }
+            }
+            in.compact();
+            if (needed > in.capacity()) {
+                in = KvProtocol.ensureRemaining(in, needed - in.position());
+            }
+            flush();
+        }
+
+        /**
+         * Отправляет накопленные ответы и выбирает интересующие события
+         */
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            int pending = out.position();
+            if (pending == 0) {
+                key.interestOps(SelectionKey.OP_READ);
+            } else if (pending < HIGH_WATER_MARK) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        }
+
+        /**
+         * Выполняет запрос, лежащий во входном буфере между позицией и границей
+         */
+        private void handle() {
+            byte operation = in.get();
+            int id = in.getInt();
+            int start = out.position();
+            try {
+                switch (operation) {
+                    case KvProtocol.GET:
+                        respond(id, map.get(codec.read(in)));
+                        break;
+                    case KvProtocol.PUT:
+                        K key = codec.read(in);
+                        respond(id, map.put(key, KvProtocol.readBytes(in)));
+                        break;
+                    case KvProtocol.REMOVE:
+                        respond(id, map.remove(codec.read(in)));
+                        break;
+                    case KvProtocol.SCAN:
+                        K from = in.get() != 0 ? codec.read(in) : null;
+                        scan(id, from, Math.min(in.getInt(), maxScanLength));
+                        break;
+                    default:
+                        error(id, "НЕИЗВЕСТНАЯ ОПЕРАЦИЯ: " + operation);
+                        break;
+                }
+            } catch (RuntimeException e) {
+                out.position(start);
+                error(id, e.toString());
+            }
+        }
+
+        private void respond(int id, byte[] value) {
+            out = KvProtocol.ensureRemaining(out, value == null ? 9 : 13 + value.length);
+            int start = KvProtocol.beginFrame(out);
+            out.putInt(id);
+            if (value == null) {
+                out.put(KvProtocol.NOT_FOUND);
+            } else {
+                out.put(KvProtocol.OK);
+                KvProtocol.writeBytes(out, value);
+            }
+            KvProtocol.endFrame(out, start);
+        }
+
+        /**
+         * Отвечает на SCAN. Ответ ограничен не только количеством пар, но и длиной кадра
+         * ({@link KvProtocol#MAX_FRAME_LENGTH}): пара, с которой кадр стал бы длиннее, не отправляется,
+         * и ответ содержит меньше пар, чем запрошено. Клиент продолжает со следующего ключа.
+         * Если не помещается даже первая пара, отправляется ошибка
+         */
+        private void scan(int id, K from, int limit) {
+            out = KvProtocol.ensureRemaining(out, 13);
+            int start = KvProtocol.beginFrame(out);
+            out.putInt(id).put(KvProtocol.OK);
+            int countPosition = out.position();
+            out.putInt(0);
+            int count = 0;
+            Iterator<Map.Entry<K, byte[]>> entries = map.entries(from, null);
+            while (count < limit && entries.hasNext()) {
+                Map.Entry<K, byte[]> entry = entries.next();
+                long frameLength = out.position() - start - 4L;
+                // длина ключа оценивается сверху; если по оценке пара не помещается,
+                // ключ записывается, чтобы узнать точную длину, и запись отменяется
+                if (frameLength + codec.maxSize(entry.getKey()) + 4 + entry.getValue().length > KvProtocol.MAX_FRAME_LENGTH) {
+                    int pairStart = out.position();
+                    out = KvProtocol.ensureRemaining(out, codec.maxSize(entry.getKey()));
+                    codec.write(entry.getKey(), out);
+                    long exact = frameLength + out.position() - pairStart + 4 + entry.getValue().length;
+                    out.position(pairStart);
+                    if (exact > KvProtocol.MAX_FRAME_LENGTH) {
+                        if (count == 0) {
+                            out.position(start);
+                            error(id, "ПАРА НЕ ПОМЕЩАЕТСЯ В КАДР: " + entry.getKey());
+                            return;
+                        }
+                        break;
+                    }
+                }
+                out = KvProtocol.ensureRemaining(out, codec.maxSize(entry.getKey()) + 4 + entry.getValue().length);
+                codec.write(entry.getKey(), out);
+                KvProtocol.writeBytes(out, entry.getValue());
+                count++;
+            }
+            out.putInt(countPosition, count);
+            KvProtocol.endFrame(out, start);
+        }
+
+        private void error(int id, String message) {
+            byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+            out = KvProtocol.ensureRemaining(out, 13 + bytes.length);
+            int start = KvProtocol.beginFrame(out);
+            out.putInt(id).put(KvProtocol.ERROR);
+            KvProtocol.writeBytes(out, bytes);
+            KvProtocol.endFrame(out, start);
+        }
+    }
+}